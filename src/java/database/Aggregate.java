@@ -6,17 +6,31 @@ import java.util.*;
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
+ * <p>
+ * Groups are kept in a {@link SpillableGroupTable}; when they no longer fit in
+ * the memory budget given to the constructor, partial aggregates are spilled
+ * to temporary files (see {@link Metrics#AGGREGATE_SPILLED_BYTES}).
+ * <p>
+ * A child that implements {@link BatchIterator} is read a batch at a time.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Default number of bytes the groups of an aggregate may use in memory
+     * before they are spilled to disk.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 16L * 1024 * 1024;
+
     DbIterator child;
     int afield;
     int gfield;
     Aggregator.Op aop;
+    long memoryBudget;
     Aggregator aggregator;
     DbIterator itr;
+    transient TupleBatch batch;
     
     /**
      * Constructor.
@@ -37,36 +51,52 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
+    	this(child, afield, gfield, aop, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param memoryBudget
+     *            The number of bytes the groups may take in memory. Once the
+     *            budget is exceeded, partial aggregates are hash-partitioned
+     *            into temporary files and merged again when the result is
+     *            read.
+     * @see #Aggregate(DbIterator, int, int, Aggregator.Op)
+     */
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop, long memoryBudget) {
     	this.afield = afield;
     	this.gfield = gfield;
     	this.child = child;
+    	this.aop = aop;
+    	this.memoryBudget = memoryBudget;
     	
+    	// fail early on unsupported string aggregates
+    	createAggregator().close();
+    }
+
+    /**
+     * Build an empty aggregator for the type of the aggregate field.
+     */
+    private Aggregator createAggregator() {
     	Type gfieldType = null;
     	if (gfield != Aggregator.NO_GROUPING) {
     		gfieldType = child.getTupleDesc().getFieldType(gfield);
     	}
     	
     	if (child.getTupleDesc().getFieldType(afield).equals(Type.INT_TYPE)) {
-			aggregator = new IntegerAggregator(gfield, gfieldType, afield, aop);
+			return new IntegerAggregator(gfield, gfieldType, afield, aop, memoryBudget);
 		} else {
-			aggregator = new StringAggregator(gfield, gfieldType, afield, aop);
-		}
-		
-		try {
-			child.open();
-			while(child.hasNext()) {
-				aggregator.mergeTupleIntoGroup(child.next());
-			}
-			child.close();
-		} catch (NoSuchElementException e) {
-			e.printStackTrace();
-		} catch (DbException e) {
-			e.printStackTrace();
-		} catch (TransactionAbortedException e) {
-			e.printStackTrace();
+			return new StringAggregator(gfield, gfieldType, afield, aop, memoryBudget);
 		}
-		
-		itr = aggregator.iterator();
+    }
+
+    /**
+     * @return the number of bytes the groups may take in memory before they
+     *         are spilled to disk
+     */
+    public long getMemoryBudget() {
+    	return memoryBudget;
     }
 
     /**
@@ -123,8 +153,29 @@ public class Aggregate extends Operator {
 
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
-		super.open();
+		if (aggregator != null) {
+			aggregator.close();
+		}
+		aggregator = createAggregator();
+		try {
+			child.open();
+			if (child instanceof BatchIterator) {
+				BatchIterator batches = (BatchIterator) child;
+				TupleBatch b;
+				while ((b = batches.nextBatch()) != null) {
+					aggregator.mergeBatchIntoGroup(b);
+				}
+			} else {
+				while (child.hasNext()) {
+					aggregator.mergeTupleIntoGroup(child.next());
+				}
+			}
+		} finally {
+			child.close();
+		}
+		itr = aggregator.iterator();
 		itr.open();
+		super.open();
     }
 
     /**
@@ -141,6 +192,14 @@ public class Aggregate extends Operator {
 		return null;
     }
 
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+		if (!isOpen())
+			throw new IllegalStateException("Operator not yet open");
+		if (batch == null)
+			batch = new TupleBatch(getTupleDesc());
+		return TupleBatch.next(itr, batch);
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
 		itr.rewind();
     }
@@ -160,15 +219,14 @@ public class Aggregate extends Operator {
     	TupleDesc tupleDesc;
     	if(gfield == Aggregator.NO_GROUPING){
     		Type[] typeArr = new Type[1];
-    		typeArr[0] = child.getTupleDesc().getFieldType(afield);
+    		typeArr[0] = Type.INT_TYPE; // all aggregates produce integers
     		String[] fieldArr = new String[1]; 
     		fieldArr[0] = child.getTupleDesc().getFieldName(afield);
     		tupleDesc = new TupleDesc(typeArr, fieldArr);
     	}else{
     		Type[] typeArr = new Type[2];
-    		System.out.println(child);
     		typeArr[0] = child.getTupleDesc().getFieldType(gfield);
-    		typeArr[1] = child.getTupleDesc().getFieldType(afield);
+    		typeArr[1] = Type.INT_TYPE;
     		String[] fieldArr = new String[2];
     		fieldArr[0] = child.getTupleDesc().getFieldName(gfield);
     		fieldArr[1] = child.getTupleDesc().getFieldName(afield);
@@ -179,7 +237,14 @@ public class Aggregate extends Operator {
 
     public void close() {
 		super.close();
-		itr.close();
+		if (itr != null) {
+			itr.close();
+			itr = null;
+		}
+		if (aggregator != null) {
+			aggregator.close();
+			aggregator = null;
+		}
     }
 
     @Override
@@ -73,13 +73,30 @@ public interface Aggregator extends Serializable {
      * been encountered.
      *
      * @param tup the Tuple containing an aggregate field and a group-by field
+     * @throws DbException if the groups had to be spilled to disk and that failed
      */
-    public void mergeTupleIntoGroup(Tuple tup);
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException;
+
+    /**
+     * Merge the selected rows of a batch into the aggregate, like
+     * {@link #mergeTupleIntoGroup} does for a single tuple. Rows whose
+     * aggregate value is null are ignored.
+     *
+     * @param batch rows with the aggregate field and the group-by field
+     * @throws DbException if the groups had to be spilled to disk and that failed
+     */
+    public void mergeBatchIntoGroup(TupleBatch batch) throws DbException;
 
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
      */
     public DbIterator iterator();
+
+    /**
+     * Release the memory and any spill files held by this aggregator. The
+     * aggregator and its iterators may not be used afterwards.
+     */
+    public void close();
     
 }
@@ -0,0 +1,367 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is an implementation of a DbFile that stores a collection of
+ * tuples in a B+ tree ordered on one field, the key field. The tuples are
+ * stored in the leaves; internal pages hold copies of keys that direct a
+ * search to the right leaf. Page 0 of the file is a BTreeRootPtrPage naming
+ * the root page; its last bytes keep the stamp of the table when the tree
+ * is a secondary index (see {@link IndexStamp}).
+ * <p>
+ * All pages are read and locked through the BufferPool and written back by
+ * it, so changes to the tree are logged like changes to a HeapFile. Searches
+ * lock internal pages with READ_ONLY and the leaves they modify with
+ * READ_WRITE; a split upgrades the lock of the parent. New pages are
+ * appended to the file. Deleting tuples does not merge underfull pages,
+ * and empty pages are not reused.
+ *
+ * @see BTreePage
+ * @see IndexScan
+ */
+public class BTreeFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int keyField;
+
+    /**
+     * Constructs a B+ tree file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            B+ tree; an empty file is an empty tree
+     * @param keyField
+     *            the field of the tuples the tree is ordered on
+     * @param td
+     *            the tuple descriptor of the tuples of the file
+     */
+    public BTreeFile(File f, int keyField, TupleDesc td) {
+        if (keyField < 0 || keyField >= td.numFields())
+            throw new IllegalArgumentException("invalid key field " + keyField);
+        this.f = f;
+        this.keyField = keyField;
+        this.td = td;
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile, computed like that
+     * of a HeapFile from the absolute file name.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    /** @return the index of the field the tree is ordered on */
+    public int keyField() {
+        return keyField;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, including the root
+     * pointer page.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != getId() || !(pid instanceof BTreePageId)) {
+            throw new IllegalArgumentException("page does not exist in this file");
+        }
+        BTreePageId id = (BTreePageId) pid;
+        byte[] data = BTreePage.createEmptyPageData();
+        // the root pointer page of an empty file reads as an empty tree
+        if (id.pageNumber() < numPages()) {
+            try {
+                RandomAccessFile raf = new RandomAccessFile(f, "r");
+                try {
+                    raf.seek((long) id.pageNumber() * BufferPool.getPageSize());
+                    raf.readFully(data);
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException("failed to read page " + pid + ": " + e.getMessage());
+            }
+        } else if (id.pgcateg() != BTreePageId.ROOT_PTR) {
+            throw new IllegalArgumentException("page does not exist in this file");
+        }
+        try {
+            return BTreePage.createPage(id, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("failed to parse page " + pid + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void writePage(Page page) throws IOException {
+        byte[] data = page.getPageData();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            if (page.getId().pageNumber() == 0) {
+                IndexStamp.writeFirstPage(raf, data);
+            } else {
+                raf.seek((long) page.getId().pageNumber() * BufferPool.getPageSize());
+                raf.write(data);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private BTreePageId rootPtrId() {
+        return new BTreePageId(getId(), 0, BTreePageId.ROOT_PTR);
+    }
+
+    private BTreePage getPage(TransactionId tid, BTreePageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+    /**
+     * Appends an empty page to the file and returns it, locked for writing.
+     */
+    private BTreePage allocatePage(TransactionId tid, int category)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePageId pid;
+        synchronized (this) {
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            try {
+                int pgNo = numPages();
+                if (pgNo == 0) {
+                    // page 0 is the root pointer, written when it changes
+                    raf.write(BTreePage.createEmptyPageData());
+                    pgNo = 1;
+                }
+                raf.seek((long) pgNo * BufferPool.getPageSize());
+                raf.write(BTreePage.createEmptyPageData());
+                pid = new BTreePageId(getId(), pgNo, category);
+            } finally {
+                raf.close();
+            }
+        }
+        return getPage(tid, pid, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Descend from the root to the leaf where the first tuple with the
+     * specified key is or would be.
+     *
+     * @param key
+     *            the key to look for, or null for the first leaf
+     * @param path
+     *            if not null, receives the internal pages on the way
+     * @return the leaf, or null if the tree is empty
+     */
+    private BTreeLeafPage findLeaf(TransactionId tid, Field key, Permissions leafPerm,
+            ArrayList<BTreeInternalPage> path) throws DbException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, rootPtrId(), Permissions.READ_ONLY);
+        BTreePageId pid = rootPtr.getRootId();
+        if (pid == null)
+            return null;
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage page = (BTreeInternalPage) getPage(tid, pid, Permissions.READ_ONLY);
+            if (path != null)
+                path.add(page);
+            pid = page.getChildId(key == null ? 0 : page.findChild(key));
+        }
+        return (BTreeLeafPage) getPage(tid, pid, leafPerm);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("tupleDesc does not match");
+        }
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        Field key = t.getField(keyField);
+        if (key == null) {
+            throw new DbException("the key field of the tuple is not set");
+        }
+        ArrayList<BTreeInternalPage> path = new ArrayList<BTreeInternalPage>();
+        BTreeLeafPage leaf = findLeaf(tid, key, Permissions.READ_WRITE, path);
+        if (leaf == null) {
+            // first tuple: create the root leaf
+            BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, rootPtrId(), Permissions.READ_WRITE);
+            leaf = (BTreeLeafPage) allocatePage(tid, BTreePageId.LEAF);
+            rootPtr.setRootId(leaf.getId());
+            markModified(tid, rootPtr, modifiedPages);
+        }
+        leaf.insertTuple(t);
+        markModified(tid, leaf, modifiedPages);
+        if (leaf.isOverfull()) {
+            splitLeaf(tid, leaf, path, modifiedPages);
+        }
+        return modifiedPages;
+    }
+
+    private void markModified(TransactionId tid, BTreePage page, ArrayList<Page> modifiedPages) {
+        page.markDirty(true, tid);
+        if (!modifiedPages.contains(page))
+            modifiedPages.add(page);
+    }
+
+    private void splitLeaf(TransactionId tid, BTreeLeafPage leaf, ArrayList<BTreeInternalPage> path,
+            ArrayList<Page> modifiedPages) throws DbException, IOException, TransactionAbortedException {
+        BTreeLeafPage right = (BTreeLeafPage) allocatePage(tid, BTreePageId.LEAF);
+        Field separator = leaf.splitInto(right);
+        BTreePageId next = leaf.getRightSiblingId();
+        if (next != null) {
+            BTreeLeafPage nextLeaf = (BTreeLeafPage) getPage(tid, next, Permissions.READ_WRITE);
+            nextLeaf.setLeftSiblingId(right.getId());
+            markModified(tid, nextLeaf, modifiedPages);
+        }
+        right.setRightSiblingId(next);
+        right.setLeftSiblingId(leaf.getId());
+        leaf.setRightSiblingId(right.getId());
+        markModified(tid, right, modifiedPages);
+        insertIntoParent(tid, leaf.getId(), separator, right.getId(), path, modifiedPages);
+    }
+
+    /**
+     * Add the separator of a split page to its parent, the last page of
+     * path, splitting it in turn if it is full.
+     */
+    private void insertIntoParent(TransactionId tid, BTreePageId left, Field separator,
+            BTreePageId right, ArrayList<BTreeInternalPage> path, ArrayList<Page> modifiedPages)
+            throws DbException, IOException, TransactionAbortedException {
+        if (path.isEmpty()) {
+            // the root was split: grow the tree by one level
+            BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, rootPtrId(), Permissions.READ_WRITE);
+            BTreeInternalPage root = (BTreeInternalPage) allocatePage(tid, BTreePageId.INTERNAL);
+            root.init(left, separator, right);
+            rootPtr.setRootId(root.getId());
+            markModified(tid, root, modifiedPages);
+            markModified(tid, rootPtr, modifiedPages);
+            return;
+        }
+        BTreeInternalPage parent = path.remove(path.size() - 1);
+        // upgrade the lock taken on the way down
+        parent = (BTreeInternalPage) getPage(tid, parent.getId(), Permissions.READ_WRITE);
+        int i = 0;
+        while (!parent.getChildId(i).equals(left))
+            i++;
+        parent.insertEntry(i, separator, right);
+        markModified(tid, parent, modifiedPages);
+        if (parent.isOverfull()) {
+            BTreeInternalPage sibling = (BTreeInternalPage) allocatePage(tid, BTreePageId.INTERNAL);
+            Field middle = parent.splitInto(sibling);
+            markModified(tid, sibling, modifiedPages);
+            insertIntoParent(tid, parent.getId(), middle, sibling.getId(), path, modifiedPages);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t.getRecordId() == null || t.getRecordId().getPageId().getTableId() != getId()) {
+            throw new DbException("this tuple is not in this table (BTreeFile)");
+        }
+        Field key = t.getField(keyField);
+        BTreeLeafPage leaf = findLeaf(tid, key, Permissions.READ_WRITE, null);
+        // tuples move within and between leaves, so look for an equal tuple
+        // among those with the same key
+        while (leaf != null) {
+            for (int i = leaf.lowerBound(key); i < leaf.getNumTuples(); i++) {
+                if (!leaf.getKey(i).equals(key))
+                    throw new DbException("tuple to delete is not in this table");
+                if (leaf.getTuple(i).equals(t)) {
+                    leaf.deleteTuple(i);
+                    ArrayList<Page> modifiedPages = new ArrayList<Page>();
+                    markModified(tid, leaf, modifiedPages);
+                    return modifiedPages;
+                }
+            }
+            BTreePageId next = leaf.getRightSiblingId();
+            leaf = next == null ? null : (BTreeLeafPage) getPage(tid, next, Permissions.READ_WRITE);
+        }
+        throw new DbException("tuple to delete is not in this table");
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(this, tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies
+     * <tt>key op operand</tt>, in key order. Only the leaves that can hold
+     * such tuples are read.
+     *
+     * @param op
+     *            one of EQUALS, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or
+     *            GREATER_THAN_OR_EQ
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field operand) {
+        if (!isIndexable(op))
+            throw new IllegalArgumentException("operator " + op + " cannot use the index");
+        if (operand.getType() != td.getFieldType(keyField))
+            throw new IllegalArgumentException("operand type does not match the key type");
+        return new BTreeFileIterator(this, tid, op, operand);
+    }
+
+    /** @return true if predicates with operator op can be answered by the index */
+    public static boolean isIndexable(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return the first leaf an iteration for <tt>key op operand</tt> reads,
+     *         or null if the tree is empty
+     */
+    BTreeLeafPage firstLeaf(TransactionId tid, Predicate.Op op, Field operand)
+            throws DbException, TransactionAbortedException {
+        boolean fromStart = op == null || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ;
+        return findLeaf(tid, fromStart ? null : operand, Permissions.READ_ONLY, null);
+    }
+
+    BTreeLeafPage nextLeaf(TransactionId tid, BTreeLeafPage leaf)
+            throws DbException, TransactionAbortedException {
+        BTreePageId next = leaf.getRightSiblingId();
+        return next == null ? null : (BTreeLeafPage) getPage(tid, next, Permissions.READ_ONLY);
+    }
+
+    /**
+     * Estimates the cost of reading the tuples selected by a predicate on
+     * the key through the index: a root-to-leaf descent plus the selected
+     * fraction of the leaves.
+     *
+     * @param selectivity
+     *            the fraction of the tuples the predicate selects
+     * @param ioCostPerPage
+     *            the cost of reading one page
+     */
+    public double estimateIndexScanCost(double selectivity, double ioCostPerPage) {
+        int pages = Math.max(numPages() - 1, 1);
+        int keyLen = td.getFieldType(keyField).getLen();
+        int fanout = Math.max((BufferPool.getPageSize() - 9) / (keyLen + 4), 2);
+        int height = Math.max(1, (int) Math.ceil(Math.log(pages) / Math.log(fanout)));
+        return (height + Math.ceil(selectivity * pages)) * ioCostPerPage;
+    }
+}
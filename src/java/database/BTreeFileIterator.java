@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the tuples of a BTreeFile in key order, following the leaf
+ * siblings. With a predicate on the key, the iteration starts at the first
+ * leaf that can hold a matching tuple and stops at the first tuple past the
+ * range; without one, it reads every leaf.
+ */
+public class BTreeFileIterator implements DbFileIterator {
+	TransactionId tid;
+	BTreeFile f;
+	Predicate.Op op; //null for a full scan
+	Field operand;
+	BTreeLeafPage curPage;
+	int curTuple;
+	Tuple nextTuple;
+	boolean open; //used to keep track of whether this iterator is open or not
+	boolean done;
+
+	/**
+	 * construct the BTreeFileIterator
+	 * @param f the BTreeFile to scan
+	 * @param tid TransactionId
+	 * @param op the operator of the predicate on the key, or null to return all tuples
+	 * @param operand the constant the key is compared to
+	 */
+	public BTreeFileIterator(BTreeFile f, TransactionId tid, Predicate.Op op, Field operand) {
+		this.f = f;
+		this.tid = tid;
+		this.op = op;
+		this.operand = operand;
+		open = false;
+	}
+
+	@Override
+	public void open() throws DbException, TransactionAbortedException {
+		open = true;
+		done = false;
+		curPage = f.firstLeaf(tid, op, operand);
+		curTuple = curPage == null || op == null || op == Predicate.Op.LESS_THAN
+				|| op == Predicate.Op.LESS_THAN_OR_EQ ? 0 : curPage.lowerBound(operand);
+		nextTuple = null;
+	}
+
+	@Override
+	public boolean hasNext() throws DbException, TransactionAbortedException {
+		if (open == false) {
+			return false;
+		}
+		while (nextTuple == null && !done && curPage != null) {
+			if (curTuple >= curPage.getNumTuples()) {
+				curPage = f.nextLeaf(tid, curPage);
+				curTuple = 0;
+				continue;
+			}
+			Tuple t = curPage.getTuple(curTuple++);
+			if (op == null) {
+				nextTuple = t;
+				continue;
+			}
+			Field key = t.getField(f.keyField());
+			switch (op) {
+			case EQUALS:
+			case LESS_THAN:
+			case LESS_THAN_OR_EQ:
+				// the tuples are sorted, so the first one out of range ends the scan
+				if (key.compare(op, operand))
+					nextTuple = t;
+				else
+					done = true;
+				break;
+			default:
+				if (key.compare(op, operand))
+					nextTuple = t;
+			}
+		}
+		return nextTuple != null;
+	}
+
+	@Override
+	public Tuple next() throws DbException, TransactionAbortedException,
+			NoSuchElementException {
+		if (open == false) {
+			throw new NoSuchElementException("iterator is not open yet");
+		}
+		if (!hasNext()) {
+			throw new NoSuchElementException("no more elements");
+		}
+		Tuple t = nextTuple;
+		nextTuple = null;
+		return t;
+	}
+
+	@Override
+	public void rewind() throws DbException, TransactionAbortedException {
+		if (open == false) {
+			throw new IllegalStateException("iterator is not open yet");
+		}
+		open();
+	}
+
+	@Override
+	public void close() {
+		open = false;
+		curPage = null;
+		nextTuple = null;
+	}
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.ArrayList;
+
+/**
+ * An internal page of a BTreeFile, holding n keys and n + 1 child pointers.
+ * All keys of child i are between key i - 1 and key i (inclusive, since keys
+ * may repeat), and all children have the same category.
+ * <p>
+ * The page starts with the category of the children (one byte) and the
+ * number of keys, followed by the keys in the format of Field.serialize and
+ * by the child page numbers.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 5;
+
+    private int childCategory;
+    private final ArrayList<Field> keys = new ArrayList<Field>();
+    private final ArrayList<Integer> children = new ArrayList<Integer>();
+
+    /**
+     * Create an internal page from a set of bytes of data read from disk.
+     * An all-zero page is an empty internal page.
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        childCategory = dis.readByte();
+        int numKeys = dis.readInt();
+        if (numKeys < 0 || numKeys > getMaxKeys())
+            throw new IOException("invalid number of keys " + numKeys + " on page " + id.pageNumber());
+        try {
+            for (int i = 0; i < numKeys; i++)
+                keys.add(keyType().parse(dis));
+        } catch (ParseException e) {
+            throw new IOException("failed to parse key on page " + id.pageNumber());
+        }
+        if (numKeys > 0) {
+            for (int i = 0; i <= numKeys; i++)
+                children.add(dis.readInt());
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of keys that fit on a page */
+    public int getMaxKeys() {
+        int keyLen = keyType().getLen();
+        return (BufferPool.getPageSize() - HEADER_SIZE - 4) / (keyLen + 4);
+    }
+
+    public int getNumKeys() {
+        return keys.size();
+    }
+
+    public Field getKey(int i) {
+        return keys.get(i);
+    }
+
+    /** @return the id of child i, between 0 and getNumKeys() */
+    public BTreePageId getChildId(int i) {
+        return new BTreePageId(pid.getTableId(), children.get(i), childCategory);
+    }
+
+    /**
+     * @return the child whose subtree holds the first occurrence of key: the
+     *         first child whose upper key is not smaller than key
+     */
+    public int findChild(Field key) {
+        for (int i = 0; i < keys.size(); i++) {
+            if (key.compare(Predicate.Op.LESS_THAN_OR_EQ, keys.get(i)))
+                return i;
+        }
+        return keys.size();
+    }
+
+    /**
+     * Make this page a root with two children.
+     */
+    public void init(BTreePageId left, Field key, BTreePageId right) {
+        keys.clear();
+        children.clear();
+        childCategory = left.pgcateg();
+        children.add(left.pageNumber());
+        keys.add(key);
+        children.add(right.pageNumber());
+    }
+
+    /**
+     * Insert key right after child i, followed by a new child whose keys are
+     * not smaller than key. The page may hold one key too many afterwards;
+     * the caller must then split it.
+     */
+    public void insertEntry(int i, Field key, BTreePageId right) {
+        keys.add(i, key);
+        children.add(i + 1, right.pageNumber());
+    }
+
+    /** @return true if this page holds more keys than fit on disk */
+    public boolean isOverfull() {
+        return keys.size() > getMaxKeys();
+    }
+
+    /**
+     * Move the upper half of the entries of this page to an empty page.
+     *
+     * @return the middle key, which separates this page from right and is
+     *         kept by neither
+     */
+    public Field splitInto(BTreeInternalPage right) {
+        int mid = keys.size() / 2;
+        Field middle = keys.get(mid);
+        right.childCategory = childCategory;
+        right.keys.addAll(keys.subList(mid + 1, keys.size()));
+        right.children.addAll(children.subList(mid + 1, children.size()));
+        keys.subList(mid, keys.size()).clear();
+        children.subList(mid + 1, children.size()).clear();
+        return middle;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(childCategory);
+            dos.writeInt(keys.size());
+            for (Field k : keys)
+                k.serialize(dos);
+            for (int c : children)
+                dos.writeInt(c);
+            dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+}
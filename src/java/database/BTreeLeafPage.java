@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * A leaf page of a BTreeFile, holding tuples sorted on the key field. Leaves
+ * are linked to their left and right siblings, so that a scan can follow
+ * them in key order.
+ * <p>
+ * The page starts with the page numbers of the left and right siblings (0
+ * if there is none) and the number of tuples, followed by the tuples in the
+ * fixed-length format of HeapPage.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 12;
+
+    private int leftSibling;
+    private int rightSibling;
+    private final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+
+    /**
+     * Create a leaf page from a set of bytes of data read from disk. An
+     * all-zero page is an empty leaf without siblings.
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        leftSibling = dis.readInt();
+        rightSibling = dis.readInt();
+        int n = dis.readInt();
+        if (n < 0 || n > getMaxTuples())
+            throw new IOException("invalid number of tuples " + n + " on page " + id.pageNumber());
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            t.readFields(dis);
+            t.setRecordId(new RecordId(pid, i));
+            tuples.add(t);
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of tuples that fit on a page */
+    public int getMaxTuples() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / td.getFixedSize();
+    }
+
+    public int getNumTuples() {
+        return tuples.size();
+    }
+
+    public Tuple getTuple(int i) {
+        return tuples.get(i);
+    }
+
+    public Field getKey(int i) {
+        return tuples.get(i).getField(keyField);
+    }
+
+    /** @return the id of the right sibling, or null if this is the last leaf */
+    public BTreePageId getRightSiblingId() {
+        return rightSibling == 0 ? null : new BTreePageId(pid.getTableId(), rightSibling, BTreePageId.LEAF);
+    }
+
+    /** @return the id of the left sibling, or null if this is the first leaf */
+    public BTreePageId getLeftSiblingId() {
+        return leftSibling == 0 ? null : new BTreePageId(pid.getTableId(), leftSibling, BTreePageId.LEAF);
+    }
+
+    public void setRightSiblingId(BTreePageId id) {
+        rightSibling = id == null ? 0 : id.pageNumber();
+    }
+
+    public void setLeftSiblingId(BTreePageId id) {
+        leftSibling = id == null ? 0 : id.pageNumber();
+    }
+
+    /**
+     * @return the position of the first tuple whose key is not smaller than
+     *         key, or getNumTuples() if there is none
+     */
+    public int lowerBound(Field key) {
+        int lo = 0, hi = tuples.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getKey(mid).compare(Predicate.Op.LESS_THAN, key))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Insert t after the tuples with the same key. The page may hold one
+     * tuple too many afterwards; the caller must then split it.
+     */
+    public void insertTuple(Tuple t) {
+        Field key = t.getField(keyField);
+        int i = lowerBound(key);
+        while (i < tuples.size() && getKey(i).equals(key))
+            i++;
+        tuples.add(i, t);
+        renumber(i);
+    }
+
+    /** Remove the tuple at position i */
+    public void deleteTuple(int i) {
+        tuples.remove(i);
+        renumber(i);
+    }
+
+    /** @return true if this page holds more tuples than fit on disk */
+    public boolean isOverfull() {
+        return tuples.size() > getMaxTuples();
+    }
+
+    /**
+     * Move the upper half of the tuples of this page to an empty page.
+     *
+     * @return the key of the first tuple of right
+     */
+    public Field splitInto(BTreeLeafPage right) {
+        int mid = tuples.size() / 2;
+        right.tuples.addAll(tuples.subList(mid, tuples.size()));
+        tuples.subList(mid, tuples.size()).clear();
+        right.renumber(0);
+        return right.getKey(0);
+    }
+
+    /** Update the RecordIds of the tuples from position i on */
+    private void renumber(int i) {
+        for (; i < tuples.size(); i++)
+            tuples.get(i).setRecordId(new RecordId(pid, i));
+    }
+
+    /** @return an iterator over the tuples of this page in key order */
+    public Iterator<Tuple> iterator() {
+        return new ArrayList<Tuple>(tuples).iterator();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(leftSibling);
+            dos.writeInt(rightSibling);
+            dos.writeInt(tuples.size());
+            for (Tuple t : tuples)
+                t.writeFields(dos);
+            dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Base class of the pages of a BTreeFile: the root pointer page, internal
+ * pages and leaf pages. Like HeapPage, every subclass has a constructor
+ * taking the page id and the bytes read from disk, used by BTreeFile and by
+ * LogFile to rebuild logged images.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+
+    final BTreePageId pid;
+    final TupleDesc td;
+    final int keyField;
+
+    TransactionId dirtyTid;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    BTreePage(BTreePageId id) {
+        this.pid = id;
+        BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.td = f.getTupleDesc();
+        this.keyField = f.keyField();
+    }
+
+    /**
+     * Create the page of the category given by its id from a set of bytes of
+     * data read from disk.
+     */
+    static BTreePage createPage(BTreePageId id, byte[] data) throws IOException {
+        switch (id.pgcateg()) {
+        case BTreePageId.ROOT_PTR:
+            return new BTreeRootPtrPage(id, data);
+        case BTreePageId.INTERNAL:
+            return new BTreeInternalPage(id, data);
+        case BTreePageId.LEAF:
+            return new BTreeLeafPage(id, data);
+        }
+        throw new IllegalArgumentException("invalid page category " + id.pgcateg());
+    }
+
+    /**
+     * @return the bytes of an empty page, which is a valid page of every
+     *         category
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** @return the type of the key of the tree */
+    Type keyType() {
+        return td.getFieldType(keyField);
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtyTid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtyTid;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public BTreePage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return createPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb;
+
+/** Unique identifier for the pages of a BTreeFile. */
+public class BTreePageId implements PageId {
+
+    /** The page holding the number of the root page; always page 0 */
+    public static final int ROOT_PTR = 0;
+    public static final int INTERNAL = 1;
+    public static final int LEAF = 2;
+
+    private final int tableId;
+    private final int pageNumber;
+    private final int category;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+ tree.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     * @param category The kind of page: ROOT_PTR, INTERNAL or LEAF
+     */
+    public BTreePageId(int tableId, int pgNo, int category) {
+        this.tableId = tableId;
+        this.pageNumber = pgNo;
+        this.category = category;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return pageNumber;
+    }
+
+    /** @return the kind of page: ROOT_PTR, INTERNAL or LEAF */
+    public int pgcateg() {
+        return category;
+    }
+
+    public int hashCode() {
+        return tableId * 101 + pageNumber * 7;
+    }
+
+    /**
+     * Compares one PageId to another. The category is not compared, since
+     * a page number identifies a single page of the file.
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof BTreePageId)) {
+            return false;
+        }
+        BTreePageId p = (BTreePageId) o;
+        return p.pageNumber == pageNumber && p.tableId == tableId;
+    }
+
+    public String toString() {
+        return "BTreePageId(" + tableId + ", " + pageNumber + ", " + category + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk: the table id, the page number and the
+     *  category.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pageNumber, category };
+    }
+}
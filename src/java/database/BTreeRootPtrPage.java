@@ -0,0 +1,49 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * The first page of a BTreeFile, which holds the number and category of the
+ * root page. A root page number of 0 means that the tree is empty.
+ */
+public class BTreeRootPtrPage extends BTreePage {
+
+    private int root;
+    private int rootCategory;
+
+    /**
+     * Create the root pointer page from a set of bytes of data read from
+     * disk: the root page number and its category.
+     */
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        root = dis.readInt();
+        rootCategory = dis.readByte();
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the id of the root page, or null if the tree is empty */
+    public BTreePageId getRootId() {
+        if (root == 0)
+            return null;
+        return new BTreePageId(pid.getTableId(), root, rootCategory);
+    }
+
+    /** Make the specified page the root of the tree */
+    public void setRootId(BTreePageId id) {
+        root = id.pageNumber();
+        rootCategory = id.pgcateg();
+    }
+
+    public byte[] getPageData() {
+        byte[] data = createEmptyPageData();
+        data[0] = (byte) (root >>> 24);
+        data[1] = (byte) (root >>> 16);
+        data[2] = (byte) (root >>> 8);
+        data[3] = (byte) root;
+        data[4] = (byte) rootCategory;
+        return data;
+    }
+}
@@ -0,0 +1,26 @@
+package simpledb;
+
+/**
+ * BatchIterator is implemented by the operators that can also return their
+ * tuples a batch at a time, as columns (see {@link TupleBatch}). This saves a
+ * virtual call and a Tuple per row, and lets predicates and aggregates loop
+ * over plain int arrays.
+ * <p>
+ * After open() or rewind(), an iterator is read either with next() or with
+ * nextBatch(), never both. Operators read their children with
+ * {@link TupleBatch#next}, which falls back to reading rows from children
+ * that have no batch version.
+ */
+public interface BatchIterator extends DbIterator {
+
+    /**
+     * Returns the next batch of tuples. The batch belongs to the iterator and
+     * is only valid until the next call to nextBatch(), rewind() or close().
+     *
+     * @return a batch with at least one selected row, or null if there are
+     *         no more tuples
+     * @throws IllegalStateException
+     *             If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
@@ -0,0 +1,41 @@
+package simpledb;
+
+/**
+ * One output of a broadcasting exchange. Every output receives every tuple of
+ * every input; used to give each partition of a join that cannot be
+ * partitioned by hashing (e.g. an inequality join) its own copy of the inner
+ * relation.
+ */
+public class Broadcast extends Redistribute {
+
+    private static final long serialVersionUID = 1L;
+
+    private Broadcast(Group group, int output) {
+        super("broadcast", group, output);
+    }
+
+    /**
+     * Creates a broadcasting exchange.
+     *
+     * @param inputs
+     *            the streams to broadcast; all of them must have the same
+     *            TupleDesc
+     * @param numOutputs
+     *            the number of copies
+     * @return the outputs of the exchange
+     */
+    public static Broadcast[] create(DbIterator[] inputs, final int numOutputs) {
+        Group group = new Group(inputs, numOutputs, DEFAULT_QUEUE_SIZE) {
+            void route(Tuple t) throws InterruptedException {
+                for (int i = 0; i < numOutputs; i++) {
+                    put(i, t);
+                }
+            }
+        };
+        Broadcast[] outputs = new Broadcast[numOutputs];
+        for (int i = 0; i < numOutputs; i++) {
+            outputs[i] = new Broadcast(group, i);
+        }
+        return outputs;
+    }
+}
@@ -3,6 +3,7 @@ package simpledb;
 import java.io.*;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.Random;
 
 /**
@@ -97,10 +98,11 @@ public class BufferPool {
         	}
         }
         
+		Page page;
 		synchronized(this) {
 			int pageIndex = findPageIndex(pid);
 	        if (pageIndex != -1) {//if the page is already in the BufferPool
-	        	return pageArrayList.get(pageIndex);
+	        	page = pageArrayList.get(pageIndex);
 	        } else {//if the the page is not in the BufferPool
 	        	if (pageArrayList.size() >= maxPages) {
 	        		evictPage();
@@ -110,15 +112,16 @@ public class BufferPool {
 	        	int tableid = pid.getTableId();
 	        	Catalog catalog = Database.getCatalog();
 	        	
-	        	Page newPage = catalog.getDatabaseFile(tableid).readPage(pid);
-	        	pageArrayList.add(newPage);
-	        	
-	        	return newPage;
+	        	page = catalog.getDatabaseFile(tableid).readPage(pid);
+	        	pageArrayList.add(page);
 	        }
 		}
-        
-        
-    	
+		// the long strings of the page are read from their overflow pages
+		// on behalf of tid, outside the lock of the buffer pool
+		if (page instanceof HeapPage) {
+			((HeapPage) page).readOverflow(tid);
+		}
+		return page;
     }
     
 //    private synchronized void removeAllDirtyPageForTransaction(TransactionId tid) {
@@ -150,6 +153,36 @@ public class BufferPool {
     	}
     }
 
+    /** @return the number of pages the buffer pool holds at most */
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    /**
+     * @return the number of pages of the file with id tableid in the buffer
+     *         pool, for the optimizer to cost reading them
+     */
+    public int numCachedPages(int tableid) {
+    	synchronized(pageArrayList) {
+    		int n = 0;
+    		for (Page p : pageArrayList) {
+    			if (p.getId().getTableId() == tableid) n++;
+    		}
+    		return n;
+    	}
+    }
+
+    /**
+     * @return true if the page is in the buffer pool and has been modified
+     *         by a transaction that has not completed
+     */
+    public boolean isDirty(PageId pid) {
+    	synchronized(pageArrayList) {
+    		int i = findPageIndex(pid);
+    		return i != -1 && pageArrayList.get(i).isDirty() != null;
+    	}
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -245,6 +278,11 @@ public class BufferPool {
         	modifiedPages.get(i).markDirty(true, tid);
         }
         
+        // keep the secondary indexes of the table in sync
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+        	index.insertEntry(tid, t);
+        }
+        TableStats.tupleInserted(tableId, t);
     }
 
     /**
@@ -261,7 +299,9 @@ public class BufferPool {
      */
     public void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-    	DbFile hp = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+    	RecordId rid = t.getRecordId();
+    	int tableId = rid.getPageId().getTableId();
+    	DbFile hp = Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> modifiedPages = hp.deleteTuple(tid, t);
         
         
@@ -269,6 +309,11 @@ public class BufferPool {
         	modifiedPages.get(i).markDirty(true, tid);
         }
   
+        // keep the secondary indexes of the table in sync
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+        	index.deleteEntry(tid, t, rid);
+        }
+        TableStats.tupleDeleted(tableId, t);
     }
 
     /**
@@ -300,6 +345,18 @@ public class BufferPool {
         }
     }
 
+    /**
+     * Remove all pages of the file with id tableid from the buffer pool
+     * without writing them, e.g. when the file is deleted to be rebuilt.
+     */
+    public synchronized void discardPages(int tableid) {
+    	synchronized(pageArrayList) {
+    		for (Iterator<Page> it = pageArrayList.iterator(); it.hasNext(); ) {
+    			if (it.next().getId().getTableId() == tableid) it.remove();
+    		}
+    	}
+    }
+
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
@@ -325,6 +382,8 @@ public class BufferPool {
     	          
     	        	Catalog catalog = Database.getCatalog();
     	        	catalog.getDatabaseFile(pid.getTableId()).writePage(p);
+    	        	TableStats.tableWritten(pid.getTableId());
+    	        	catalog.tableWritten(pid.getTableId());
   				
     	        	p.markDirty(false, null);// mark it as undirty
     	        	p.setBeforeImage();
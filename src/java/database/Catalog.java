@@ -3,7 +3,9 @@ package simpledb;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.*;
 
 /**
@@ -19,6 +21,12 @@ public class Catalog {
 	ArrayList<String> tableNames;
 	ArrayList<DbFile> tableContents;
 	ArrayList<String> primaryKeyFields;
+	ArrayList<HashIndexFile> primaryKeyIndexes;
+	ArrayList<SecondaryIndex> indexes;
+	/** the file the statistics of the tables are persisted to, if any */
+	File statsFile;
+	/** the schema file loaded, which records the indexes created, if any */
+	File schemaFile;
 	
 	
     /**
@@ -29,6 +37,8 @@ public class Catalog {
         tableNames = new ArrayList<String>();
         tableContents = new ArrayList<DbFile>();
         primaryKeyFields = new ArrayList<String>();
+        primaryKeyIndexes = new ArrayList<HashIndexFile>();
+        indexes = new ArrayList<SecondaryIndex>();
     }
 
     /**
@@ -38,7 +48,10 @@ public class Catalog {
      *    this file/tupledesc param for the calls getTupleDesc and getFile
      * @param name the name of the table -- may be an empty string.  May not be null.  If a name
      *    conflict exists, use the last table to be added as the table for a given name.
-     * @param pkeyField the name of the primary key field
+     * @param pkeyField the name of the primary key field; the primary key of
+     *    a table stored in a HeapFile is indexed by a {@link HashIndexFile},
+     *    which is rebuilt unless its file matches the table (see
+     *    {@link IndexStamp})
      */
     public void addTable(DbFile file, String name, String pkeyField) {
     	int tableIndex = findTableIndex(file.getId());
@@ -46,11 +59,19 @@ public class Catalog {
     		tableNames.add(name);
         	tableContents.add(file);
         	primaryKeyFields.add(pkeyField);
+        	primaryKeyIndexes.add(null);
+        	tableIndex = tableNames.size() - 1;
     	} else {
     		tableNames.set(tableIndex, name);
         	tableContents.set(tableIndex, file);
         	primaryKeyFields.set(tableIndex, pkeyField);
+        	primaryKeyIndexes.set(tableIndex, null);
     	}
+    	if (file instanceof HeapFile && pkeyField != null && pkeyField.length() > 0) {
+    		primaryKeyIndexes.set(tableIndex, openPrimaryKeyIndex((HeapFile) file, name, pkeyField));
+    	}
+    	// cached plans may refer to the table replaced
+    	QueryPlanCache.invalidate();
     	
 //        int tableIndex = tableNames.indexOf(name); 
 //        if (tableIndex == -1) {
@@ -122,10 +143,124 @@ public class Catalog {
     	if (tableIndex != -1) {
     		return tableContents.get(tableIndex);
     	}
+    	// the pages of indexes are read through the catalog too
+    	for (HashIndexFile index : primaryKeyIndexes) {
+    		if (index != null && index.getId() == tableid) {
+    			return index;
+    		}
+    	}
+    	for (SecondaryIndex index : indexes) {
+    		if (index.getFile().getId() == tableid) {
+    			return index.getFile();
+    		}
+    	}
         //if we can't find the table
         throw new NoSuchElementException("table does not exist");
     }
 
+    /**
+     * Returns the format version of the pages of the specified table:
+     * {@link HeapFile#FORMAT_SLOTTED} for heap files in the slotted format,
+     * {@link HeapFile#FORMAT_FIXED} otherwise.
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public int getFormatVersion(int tableid) throws NoSuchElementException {
+        DbFile file = getDatabaseFile(tableid);
+        if (file instanceof HeapFile) {
+            return ((HeapFile) file).getFormatVersion();
+        }
+        return HeapFile.FORMAT_FIXED;
+    }
+
+    /**
+     * Opens the hash index on the primary key of a heap table, stored next
+     * to the table (see {@link HashIndexFile#indexFileFor}). The index is
+     * built again from the tuples of the table unless it was stamped with
+     * the current file of the table.
+     * @return the index, or null if the primary key does not exist or is not
+     *    unique
+     */
+    private HashIndexFile openPrimaryKeyIndex(HeapFile file, String name, String pkeyField) {
+    	int keyField;
+    	try {
+    		keyField = file.getTupleDesc().fieldNameToIndex(pkeyField);
+    	} catch (NoSuchElementException e) {
+    		return null;
+    	}
+    	File f = HashIndexFile.indexFileFor(file.getFile());
+    	HashIndexFile index = new HashIndexFile(f, file.getId(), keyField,
+    			file.getTupleDesc().getFieldType(keyField));
+    	if (IndexStamp.matches(f, file.getFile())) {
+    		return index;
+    	}
+    	// the pages of the index are read through the catalog while it is built
+    	primaryKeyIndexes.set(findTableIndex(file.getId()), index);
+    	try {
+    		deleteIndexFile(index, f);
+    		index.build();
+    		IndexStamp.write(f, file.getFile());
+    		return index;
+    	} catch (Exception e) {
+    		Database.getBufferPool().discardPages(index.getId());
+    		f.delete();
+    		System.out.println("Primary key " + pkeyField + " of table " + name
+    				+ " is not indexed: " + e.getMessage());
+    		return null;
+    	}
+    }
+
+    /**
+     * Delete the file f of an index to build it again, dropping the pages
+     * of the old index from the buffer pool.
+     */
+    private static void deleteIndexFile(DbFile index, File f) throws IOException {
+    	Database.getBufferPool().discardPages(index.getId());
+    	if (f.exists() && !f.delete()) {
+    		throw new IOException("cannot replace " + f);
+    	}
+    }
+
+    /**
+     * Called by the BufferPool after it wrote a page of the specified table
+     * to disk: the indexes of the table, updated by the same transaction,
+     * are stamped with the file of the table again (see {@link IndexStamp}).
+     */
+    void tableWritten(int tableid) {
+    	int tableIndex = findTableIndex(tableid);
+    	if (tableIndex == -1 || !(tableContents.get(tableIndex) instanceof HeapFile)) {
+    		return;
+    	}
+    	File table = ((HeapFile) tableContents.get(tableIndex)).getFile();
+    	List<File> files = new ArrayList<File>();
+    	if (primaryKeyIndexes.get(tableIndex) != null) {
+    		files.add(primaryKeyIndexes.get(tableIndex).getFile());
+    	}
+    	for (SecondaryIndex index : getIndexes(tableid)) {
+    		files.add(index.getFile().getFile());
+    	}
+    	for (File index : files) {
+    		try {
+    			IndexStamp.write(index, table);
+    		} catch (IOException e) {
+    			// the index is found stale and rebuilt when the table is opened next
+    			System.out.println("Failed to stamp " + index + ": " + e.getMessage());
+    		}
+    	}
+    }
+
+    /**
+     * Returns the hash index on the primary key of the specified table.
+     * @return the index, or null if the table has no indexed primary key
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public HashIndexFile getPrimaryKeyIndex(int tableid) throws NoSuchElementException {
+    	int tableIndex = findTableIndex(tableid);
+    	if (tableIndex == -1) {
+    		throw new NoSuchElementException("table does not exist");
+    	}
+    	return primaryKeyIndexes.get(tableIndex);
+    }
+
     public String getPrimaryKey(int tableid) {
         int tableIndex = findTableIndex(tableid);
         
@@ -170,20 +305,196 @@ public class Catalog {
         throw new NoSuchElementException("table does not exist");
     }
     
+    /**
+     * Register a secondary index; its file is then known to the catalog and
+     * the BufferPool maintains it on every insert and delete into its table.
+     * An index with the same name on the same table is replaced.
+     */
+    public void addIndex(SecondaryIndex index) {
+    	for (int i = 0; i < indexes.size(); i++) {
+    		SecondaryIndex other = indexes.get(i);
+    		if (other.getTableId() == index.getTableId() && other.getName().equals(index.getName())) {
+    			indexes.set(i, index);
+    			QueryPlanCache.invalidate(index.getTableId());
+    			return;
+    		}
+    	}
+    	indexes.add(index);
+    	// cached plans scan the table without the new index
+    	QueryPlanCache.invalidate(index.getTableId());
+    }
+
+    /**
+     * Create a secondary index on a field of a table stored in a HeapFile,
+     * the equivalent of <code>CREATE INDEX name ON table (field)</code>. The
+     * index is stored next to the table (see {@link SecondaryIndex#fileFor})
+     * and filled with the entries of the tuples already in the table. If a
+     * schema was loaded, the index is added to the line of the table in the
+     * schema file, so that it is opened again with the schema.
+     * @throws NoSuchElementException if the table or field doesn't exist
+     * @throws IllegalArgumentException if the table is not stored in a HeapFile
+     */
+    public SecondaryIndex createIndex(String name, String tableName, String fieldName)
+    		throws DbException, IOException, TransactionAbortedException {
+    	int tableid = getTableId(tableName);
+    	DbFile table = getDatabaseFile(tableid);
+    	int field = table.getTupleDesc().fieldNameToIndex(fieldName);
+    	if (!(table instanceof HeapFile))
+    		throw new IllegalArgumentException("secondary indexes need a table stored in a heap file");
+    	File f = SecondaryIndex.fileFor(((HeapFile) table).getFile(), name);
+    	if (f.exists() && !f.delete())
+    		throw new IOException("cannot replace " + f);
+    	SecondaryIndex index = openIndex(name, tableid, field, f);
+    	if (schemaFile != null)
+    		saveIndex(tableName, name, fieldName);
+    	return index;
+    }
+
+    /**
+     * Register the secondary index stored in f, building it again from the
+     * tuples of its table unless f was stamped with the current file of the
+     * table (see {@link IndexStamp}).
+     */
+    private SecondaryIndex openIndex(String name, int tableid, int field, File f)
+    		throws DbException, IOException, TransactionAbortedException {
+    	SecondaryIndex index = new SecondaryIndex(name, tableid, field, f);
+    	File table = ((HeapFile) getDatabaseFile(tableid)).getFile();
+    	// the pages of the index are read through the catalog while it is built
+    	addIndex(index);
+    	if (!IndexStamp.matches(f, table)) {
+    		deleteIndexFile(index.getFile(), f);
+    		index.build();
+    		IndexStamp.write(f, table);
+    	}
+    	return index;
+    }
+
+    /**
+     * Add <code>index name:field</code>, or <code>index field</code> if the
+     * index is named after its field, to the line of table tableName in the
+     * schema file, in place of any index of the same name.
+     */
+    private void saveIndex(String tableName, String name, String fieldName) throws IOException {
+    	ArrayList<String> lines = new ArrayList<String>();
+    	BufferedReader br = new BufferedReader(new FileReader(schemaFile));
+    	try {
+    		String line;
+    		while ((line = br.readLine()) != null) {
+    			lines.add(line);
+    		}
+    	} finally {
+    		br.close();
+    	}
+    	for (int i = 0; i < lines.size(); i++) {
+    		String line = lines.get(i);
+    		if (line.indexOf('(') < 0 || !line.substring(0, line.indexOf('(')).trim().equals(tableName)) {
+    			continue;
+    		}
+    		StringBuilder sb = new StringBuilder(line.substring(0, line.indexOf(')') + 1));
+    		String[] options = line.substring(line.indexOf(')') + 1).trim().split("\\s+");
+    		for (int j = 0; j + 1 < options.length; j += 2) {
+    			if (!options[j].toLowerCase().equals("index") || !indexName(options[j + 1]).equals(name)) {
+    				sb.append(' ').append(options[j]).append(' ').append(options[j + 1]);
+    			}
+    		}
+    		sb.append(" index ").append(name.equals(fieldName) ? fieldName : name + ":" + fieldName);
+    		lines.set(i, sb.toString());
+    	}
+    	File tmp = new File(schemaFile.getPath() + ".tmp");
+    	Writer w = new FileWriter(tmp);
+    	try {
+    		for (String line : lines) {
+    			w.write(line + "\n");
+    		}
+    	} finally {
+    		w.close();
+    	}
+    	if (!schemaFile.delete() || !tmp.renameTo(schemaFile)) {
+    		throw new IOException("cannot replace " + schemaFile);
+    	}
+    }
+
+    /** @return the name of the index given by spec, <code>name:field</code> or <code>field</code> */
+    private static String indexName(String spec) {
+    	return spec.indexOf(':') < 0 ? spec : spec.substring(0, spec.indexOf(':'));
+    }
+
+    /** @return the field of the index given by spec, <code>name:field</code> or <code>field</code> */
+    private static String indexField(String spec) {
+    	return spec.substring(spec.indexOf(':') + 1);
+    }
+
+    /** @return the secondary indexes of the specified table */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+    	List<SecondaryIndex> result = new ArrayList<SecondaryIndex>();
+    	for (SecondaryIndex index : indexes) {
+    		if (index.getTableId() == tableid) {
+    			result.add(index);
+    		}
+    	}
+    	return result;
+    }
+
+    /** @return a secondary index on the specified field of a table, or null if there is none */
+    public SecondaryIndex getIndex(int tableid, int field) {
+    	for (SecondaryIndex index : indexes) {
+    		if (index.getTableId() == tableid && index.getField() == field) {
+    			return index;
+    		}
+    	}
+    	return null;
+    }
+
     /** Delete all tables from the catalog */
     public void clear() {
         tableNames.clear();
         tableContents.clear();
         primaryKeyFields.clear();
+        primaryKeyIndexes.clear();
+        indexes.clear();
+        statsFile = null;
+        schemaFile = null;
+        QueryPlanCache.invalidate();
+    }
+
+    /**
+     * @return the file the statistics of the tables are persisted to: the
+     *         name of the schema file loaded with the extension
+     *         <tt>.stats</tt>, or null if no schema was loaded
+     * @see TableStats#computeStatistics
+     */
+    public File getStatsFile() {
+        return statsFile;
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes a table as <code>name (field type [pk], ...)</code>,
+     * optionally followed by <code>format 2</code> for a table stored in the
+     * slotted format (see {@link HeapFile#FORMAT_SLOTTED}) or by
+     * <code>btree field</code> for a table stored in a {@link BTreeFile}
+     * sorted on that field, and by any number of <code>index field</code>
+     * or <code>index name:field</code> for secondary indexes on field (see
+     * {@link SecondaryIndex}), named after the field by default, which are
+     * built again unless their file matches the table. Indexes created with
+     * {@link #createIndex} are added to the schema file.
+     * A table followed by <code>storage column</code> is read from the
+     * {@link ColumnFile} <code>name.col</code> instead of <code>name.dat</code>,
+     * and a heap file followed by <code>compression lz4</code> keeps its pages
+     * compressed on disk (see {@link CompressedPageStore}).
+     * The statistics of the tables are persisted next to the schema file
+     * (see {@link #getStatsFile}).
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
         String line = "";
         String baseFolder=new File(new File(catalogFile).getAbsolutePath()).getParent();
+        String schemaName = new File(catalogFile).getName();
+        if (schemaName.lastIndexOf('.') > 0) {
+            schemaName = schemaName.substring(0, schemaName.lastIndexOf('.'));
+        }
+        statsFile = new File(baseFolder, schemaName + ".stats");
+        schemaFile = new File(catalogFile).getAbsoluteFile();
         try {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
@@ -216,11 +527,64 @@ public class Catalog {
                         }
                     }
                 }
+                int format = HeapFile.FORMAT_FIXED;
+                String btreeKey = null;
+                boolean columnar = false;
+                boolean compressed = false;
+                ArrayList<String> indexSpecs = new ArrayList<String>();
+                String[] options = line.substring(line.indexOf(")") + 1).trim().split("\\s+");
+                if (options.length % 2 != 0 && options[0].length() > 0) {
+                    System.out.println("Unknown table option " + options[options.length - 1]);
+                    System.exit(0);
+                }
+                for (int i = 0; i + 1 < options.length; i += 2) {
+                    String option = options[i].toLowerCase();
+                    if (option.equals("format")) {
+                        format = Integer.parseInt(options[i + 1]);
+                    } else if (option.equals("btree")) {
+                        btreeKey = options[i + 1];
+                    } else if (option.equals("index")) {
+                        indexSpecs.add(options[i + 1]);
+                    } else if (option.equals("compression")) {
+                        if (options[i + 1].toLowerCase().equals("lz4"))
+                            compressed = true;
+                        else if (!options[i + 1].toLowerCase().equals("none"))
+                            throw new IllegalArgumentException("unknown compression " + options[i + 1]);
+                    } else if (option.equals("storage")) {
+                        if (options[i + 1].toLowerCase().equals("column"))
+                            columnar = true;
+                        else if (!options[i + 1].toLowerCase().equals("row"))
+                            throw new IllegalArgumentException("unknown storage " + options[i + 1]);
+                    } else {
+                        System.out.println("Unknown table option " + options[i]);
+                        System.exit(0);
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                DbFile tabHf;
+                if (compressed && (columnar || btreeKey != null))
+                    throw new IllegalArgumentException("only heap files can be compressed");
+                if (columnar) {
+                    if (btreeKey != null || !indexSpecs.isEmpty())
+                        throw new IllegalArgumentException("column files cannot be indexed");
+                    tabHf = new ColumnFile(new File(baseFolder+"/"+name + ".col"), t);
+                } else if (btreeKey != null) {
+                    int keyField = names.indexOf(btreeKey);
+                    if (keyField < 0)
+                        throw new IllegalArgumentException("unknown btree key " + btreeKey);
+                    tabHf = new BTreeFile(new File(baseFolder+"/"+name + ".dat"), keyField, t);
+                } else {
+                    tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, format, compressed);
+                }
                 addTable(tabHf,name,primaryKey);
+                for (String spec : indexSpecs) {
+                    if (!(tabHf instanceof HeapFile))
+                        throw new IllegalArgumentException("only heap files can have secondary indexes");
+                    openIndex(indexName(spec), tabHf.getId(), t.fieldNameToIndex(indexField(spec)),
+                            SecondaryIndex.fileFor(((HeapFile) tabHf).getFile(), indexName(spec)));
+                }
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -229,6 +593,18 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (IllegalArgumentException e) {
+            System.out.println ("Invalid catalog entry : " + line + " (" + e.getMessage() + ")");
+            System.exit(0);
+        } catch (NoSuchElementException e) {
+            System.out.println ("Invalid catalog entry : " + line + " (" + e.getMessage() + ")");
+            System.exit(0);
+        } catch (DbException e) {
+            e.printStackTrace();
+            System.exit(0);
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
+            System.exit(0);
         }
     }
 }
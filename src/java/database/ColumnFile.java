@@ -0,0 +1,341 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * ColumnFile stores a table column by column, for analytical queries that
+ * read a few columns of many rows. Each column is a segment of consecutive
+ * ColumnPages holding the values of consecutive rows, so a scan that needs
+ * some of the columns reads only the pages of those columns; every page is
+ * encoded on its own with the smallest of the encodings of ColumnPage.
+ * <p>
+ * The directory of the file keeps, for every page of every column, the
+ * first row and the number of rows of the page and the smallest and
+ * largest value on it. A scan given predicates on the columns skips the
+ * rows of every page whose range of values cannot satisfy one of them
+ * without reading it (see {@link #iterator(TransactionId, boolean[], Predicate[])}).
+ * <p>
+ * Page 0 of the file is a header with the page size, the number of
+ * columns and rows, the location of the directory and the type, first page
+ * and number of pages of every column. The segments follow, then the
+ * directory, which is read once when the file is first used.
+ * <p>
+ * Column files are built from an existing table by ColumnFileEncoder and
+ * cannot be modified: inserts and deletes fail. Pages are read through the
+ * BufferPool like the pages of any other file.
+ *
+ * @see ColumnFileEncoder
+ */
+public class ColumnFile implements DbFile {
+
+    /** Marks the first bytes of a column file */
+    static final int MAGIC = 0x434f4c31;
+
+    private final File f;
+    private final TupleDesc td;
+
+    /** The directory, loaded on first use */
+    private int numRows = -1;
+    private int[] firstPage;
+    private int[][] firstRow;
+    private int[][] pageRows;
+    private Field[][] minValue;
+    private Field[][] maxValue;
+
+    /**
+     * Constructs a column file backed by the specified file.
+     *
+     * @param f
+     *            the file built by ColumnFileEncoder
+     * @param td
+     *            the schema of the table stored in the file
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+    }
+
+    /**
+     * Returns the File backing this ColumnFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnFile, computed like the
+     * id of a HeapFile.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of pages of the file, header and directory included */
+    public int numPages() {
+        return (int) ((f.length() + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
+    }
+
+    /**
+     * @return the number of pages of the segments of the columns for which
+     *         columns is true, or of all columns if columns is null
+     */
+    public int numPages(boolean[] columns) throws DbException {
+        loadDirectory();
+        int n = 0;
+        for (int c = 0; c < firstRow.length; c++) {
+            if (columns == null || columns[c])
+                n += firstRow[c].length;
+        }
+        return n;
+    }
+
+    /** @return the number of rows of the table */
+    public int numRows() throws DbException {
+        loadDirectory();
+        return numRows;
+    }
+
+    /** Read the header and the directory of the file if not done yet */
+    private synchronized void loadDirectory() throws DbException {
+        if (numRows >= 0)
+            return;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            try {
+                if (raf.readInt() != MAGIC)
+                    throw new DbException(f + " is not a column file");
+                int pageSize = raf.readInt();
+                if (pageSize != BufferPool.getPageSize())
+                    throw new DbException(f + " was built with pages of " + pageSize + " bytes");
+                int numFields = raf.readInt();
+                if (numFields != td.numFields())
+                    throw new DbException(f + " has " + numFields + " columns, the table " + td.numFields());
+                int rows = raf.readInt();
+                int dirPage = raf.readInt();
+                int dirLength = raf.readInt();
+                int[] pages = new int[numFields];
+                firstPage = new int[numFields];
+                for (int c = 0; c < numFields; c++) {
+                    if (raf.readByte() != td.getFieldType(c).ordinal())
+                        throw new DbException("column " + c + " of " + f + " does not have the type of the table");
+                    firstPage[c] = raf.readInt();
+                    pages[c] = raf.readInt();
+                }
+                byte[] dir = new byte[dirLength];
+                raf.seek((long) dirPage * pageSize);
+                raf.readFully(dir);
+                DataInputStream dis = new DataInputStream(new ByteArrayInputStream(dir));
+                firstRow = new int[numFields][];
+                pageRows = new int[numFields][];
+                minValue = new Field[numFields][];
+                maxValue = new Field[numFields][];
+                for (int c = 0; c < numFields; c++) {
+                    Type type = td.getFieldType(c);
+                    firstRow[c] = new int[pages[c]];
+                    pageRows[c] = new int[pages[c]];
+                    minValue[c] = new Field[pages[c]];
+                    maxValue[c] = new Field[pages[c]];
+                    for (int p = 0; p < pages[c]; p++) {
+                        firstRow[c][p] = dis.readInt();
+                        pageRows[c][p] = dis.readInt();
+                        minValue[c][p] = type.parse(dis);
+                        maxValue[c][p] = type.parse(dis);
+                    }
+                }
+                numRows = rows;
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            throw new DbException("failed to read the directory of " + f + ": " + e.getMessage());
+        } catch (ParseException e) {
+            throw new DbException("failed to read the directory of " + f + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != getId() || !(pid instanceof HeapPageId)) {
+            throw new IllegalArgumentException("page does not exist in this file");
+        }
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            try {
+                raf.seek((long) pid.pageNumber() * BufferPool.getPageSize());
+                raf.readFully(data);
+            } finally {
+                raf.close();
+            }
+            return new ColumnPage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("failed to read page " + pid + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        throw new IOException("column file " + f + " is read-only");
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        throw new DbException("column file " + f + " is read-only; rebuild it with ColumnFileEncoder");
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        throw new DbException("column file " + f + " is read-only; rebuild it with ColumnFileEncoder");
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null, new Predicate[0]);
+    }
+
+    /**
+     * Returns an iterator over the rows of the table that reads only some
+     * of the columns. The tuples have the schema of the table; the fields
+     * of the columns that are not read are not set (see
+     * {@link Tuple#isNull}).
+     * <p>
+     * Rows on a page of the column of one of the predicates whose smallest
+     * and largest values show that no row of the page satisfies it are
+     * skipped. Other rows are returned whether or not they satisfy the
+     * predicates, which callers still have to apply.
+     *
+     * @param columns
+     *            true for the columns to read, or null to read all of them
+     * @param zonePredicates
+     *            predicates on the fields of the table used to skip pages
+     */
+    public DbFileIterator iterator(TransactionId tid, boolean[] columns,
+            Predicate[] zonePredicates) {
+        return new ColumnFileIterator(tid, columns, zonePredicates);
+    }
+
+    /**
+     * Reads the rows of the file in order, row by row. For every column it
+     * reads it keeps the page holding the current row.
+     */
+    private class ColumnFileIterator implements DbFileIterator {
+
+        private final TransactionId tid;
+        private final boolean[] columns;
+        private final Predicate[] zonePredicates;
+        /** the page of each column holding the last row looked at */
+        private int[] cursor;
+        /** the page of each column read last, or -1 */
+        private int[] page;
+        private ColumnPage[] pages;
+        private int row = -1;
+        private Tuple next;
+
+        ColumnFileIterator(TransactionId tid, boolean[] columns, Predicate[] zonePredicates) {
+            this.tid = tid;
+            this.columns = columns;
+            this.zonePredicates = zonePredicates;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            loadDirectory();
+            cursor = new int[td.numFields()];
+            page = new int[td.numFields()];
+            pages = new ColumnPage[td.numFields()];
+            Arrays.fill(page, -1);
+            row = 0;
+            next = null;
+        }
+
+        /** @return the page of column c holding row r, searching forward */
+        private int pageOf(int c, int r) {
+            int p = cursor[c];
+            while (firstRow[c][p] + pageRows[c][p] <= r)
+                p++;
+            cursor[c] = p;
+            return p;
+        }
+
+        /**
+         * @return the first row from r on that is not on a page the zone
+         *         maps exclude
+         */
+        private int skip(int r) {
+            boolean moved = true;
+            while (moved && r < numRows) {
+                moved = false;
+                for (Predicate pred : zonePredicates) {
+                    int c = pred.getField();
+                    int p = pageOf(c, r);
+                    if (!ZoneMap.mayMatch(minValue[c][p], maxValue[c][p], pred.getOp(), pred.getOperand())) {
+                        r = firstRow[c][p] + pageRows[c][p];
+                        moved = true;
+                        if (r >= numRows)
+                            break;
+                    }
+                }
+            }
+            return r;
+        }
+
+        private Tuple readNext() throws DbException, TransactionAbortedException {
+            if (row < 0)
+                return null;
+            row = skip(row);
+            if (row >= numRows)
+                return null;
+            Tuple t = new Tuple(td);
+            for (int c = 0; c < td.numFields(); c++) {
+                if (columns != null && !columns[c])
+                    continue;
+                int p = pageOf(c, row);
+                if (p != page[c]) {
+                    pages[c] = (ColumnPage) Database.getBufferPool().getPage(tid,
+                            new HeapPageId(getId(), firstPage[c] + p), Permissions.READ_ONLY);
+                    page[c] = p;
+                }
+                int i = row - firstRow[c][p];
+                if (td.getFieldType(c) == Type.INT_TYPE)
+                    t.setInt(c, pages[c].getInt(i));
+                else
+                    t.setString(c, pages[c].getString(i));
+            }
+            row++;
+            return t;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (next == null)
+                next = readNext();
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            row = -1;
+            next = null;
+            pages = null;
+        }
+    }
+}
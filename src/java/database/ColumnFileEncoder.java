@@ -0,0 +1,275 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ColumnFileEncoder converts a table into a ColumnFile. The tuples of the
+ * table are read once; the values of every column are cut into pages of at
+ * most ColumnPage.MAX_ROWS rows as they arrive, each page in a temporary
+ * file of its column and in the encoding that takes the least space for
+ * its values, and the column files are then concatenated behind the
+ * header and followed by the directory.
+ *
+ * @see ColumnFile
+ * @see ColumnPage
+ */
+public class ColumnFileEncoder {
+
+    /**
+     * Write the tuples of source, in the order its iterator returns them,
+     * to a column file.
+     *
+     * @param source
+     *            the table to convert, usually a HeapFile read from a
+     *            <tt>.dat</tt> file; it must be in the catalog, since its
+     *            pages are read through the BufferPool
+     * @param outFile
+     *            the column file to write
+     * @throws IOException
+     *             if a temporary file or the output file cannot be written
+     */
+    public static void convert(DbFile source, File outFile)
+            throws IOException, DbException, TransactionAbortedException {
+        TupleDesc td = source.getTupleDesc();
+        int numFields = td.numFields();
+        int pageSize = BufferPool.getPageSize();
+        SegmentWriter[] writers = new SegmentWriter[numFields];
+        TransactionId tid = new TransactionId();
+        int numRows = 0;
+        try {
+            for (int c = 0; c < numFields; c++)
+                writers[c] = new SegmentWriter(td.getFieldType(c), pageSize);
+            DbFileIterator it = source.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int c = 0; c < numFields; c++) {
+                    if (td.getFieldType(c) == Type.INT_TYPE) {
+                        writers[c].add(t.getInt(c));
+                    } else {
+                        String s = t.getString(c);
+                        if (s == null)
+                            s = "";
+                        else if (s.length() > Type.STRING_LEN)
+                            s = s.substring(0, Type.STRING_LEN);
+                        writers[c].add(s);
+                    }
+                }
+                numRows++;
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+
+            ByteArrayOutputStream dir = new ByteArrayOutputStream();
+            for (int c = 0; c < numFields; c++) {
+                writers[c].finish();
+                writers[c].directory.writeTo(dir);
+            }
+            ByteArrayOutputStream header = new ByteArrayOutputStream(pageSize);
+            DataOutputStream dos = new DataOutputStream(header);
+            dos.writeInt(ColumnFile.MAGIC);
+            dos.writeInt(pageSize);
+            dos.writeInt(numFields);
+            dos.writeInt(numRows);
+            int page = 1;
+            for (int c = 0; c < numFields; c++)
+                page += writers[c].numPages;
+            dos.writeInt(page);
+            dos.writeInt(dir.size());
+            page = 1;
+            for (int c = 0; c < numFields; c++) {
+                dos.writeByte(td.getFieldType(c).ordinal());
+                dos.writeInt(page);
+                dos.writeInt(writers[c].numPages);
+                page += writers[c].numPages;
+            }
+            if (dos.size() > pageSize)
+                throw new IOException("too many columns for the header page");
+            dos.write(new byte[pageSize - dos.size()]);
+            dos.flush();
+
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile));
+            try {
+                header.writeTo(out);
+                byte[] buf = new byte[pageSize];
+                for (int c = 0; c < numFields; c++) {
+                    InputStream in = new BufferedInputStream(new FileInputStream(writers[c].file));
+                    try {
+                        int n;
+                        while ((n = in.read(buf)) > 0)
+                            out.write(buf, 0, n);
+                    } finally {
+                        in.close();
+                    }
+                }
+                dir.writeTo(out);
+                out.write(new byte[(pageSize - dir.size() % pageSize) % pageSize]);
+            } finally {
+                out.close();
+            }
+        } finally {
+            for (SegmentWriter w : writers) {
+                if (w != null)
+                    w.discard();
+            }
+        }
+    }
+
+    /**
+     * Cuts the values of one column into pages, written to a temporary
+     * file, and records the directory entries of the pages.
+     */
+    private static class SegmentWriter {
+
+        final Type type;
+        final int pageSize;
+        final File file;
+        final DataOutputStream out;
+        final ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        final DataOutputStream dirOut = new DataOutputStream(directory);
+        int numPages = 0;
+        int rows = 0;
+
+        /** the values of the page being filled and their sizes in each encoding */
+        final ArrayList<Object> values = new ArrayList<Object>();
+        final LinkedHashMap<Object, Integer> dict = new LinkedHashMap<Object, Integer>();
+        int plainSize, rleSize, dictValuesSize;
+        Comparable<Object> min, max;
+
+        SegmentWriter(Type type, int pageSize) throws IOException {
+            this.type = type;
+            this.pageSize = pageSize;
+            file = File.createTempFile("column", ".seg");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            reset();
+        }
+
+        private void reset() {
+            values.clear();
+            dict.clear();
+            plainSize = 0;
+            rleSize = 4;
+            dictValuesSize = 0;
+            min = max = null;
+        }
+
+        private int dictSize(int distinct, int n) {
+            if (distinct > 65536)
+                return Integer.MAX_VALUE;
+            return 4 + dictValuesSize + n * (distinct <= 256 ? 1 : 2);
+        }
+
+        @SuppressWarnings("unchecked")
+        void add(Object v) throws IOException {
+            int size = ColumnPage.valueSize(type, v);
+            boolean newRun = values.isEmpty() || !v.equals(values.get(values.size() - 1));
+            boolean newValue = !dict.containsKey(v);
+            int n = values.size() + 1;
+            int distinct = dict.size() + (newValue ? 1 : 0);
+            int plain = plainSize + size;
+            int rle = rleSize + (newRun ? size + 4 : 0);
+            int dictionary = newValue ? dictSize(distinct, n) + size : dictSize(distinct, n);
+            if (values.size() == ColumnPage.MAX_ROWS || (!values.isEmpty()
+                    && ColumnPage.HEADER_SIZE + Math.min(plain, Math.min(rle, dictionary)) > pageSize)) {
+                flush();
+                add(v);
+                return;
+            }
+            values.add(v);
+            plainSize = plain;
+            rleSize = rle;
+            if (newValue) {
+                dict.put(v, dict.size());
+                dictValuesSize += size;
+            }
+            Comparable<Object> c = (Comparable<Object>) v;
+            if (min == null || c.compareTo(min) < 0)
+                min = c;
+            if (max == null || c.compareTo(max) > 0)
+                max = c;
+        }
+
+        /** Write the page being filled, in its smallest encoding */
+        void flush() throws IOException {
+            if (values.isEmpty())
+                return;
+            int n = values.size();
+            int dictionary = dictSize(dict.size(), n);
+            int encoding = ColumnPage.PLAIN;
+            if (rleSize < plainSize && rleSize <= dictionary)
+                encoding = ColumnPage.RLE;
+            else if (dictionary < plainSize)
+                encoding = ColumnPage.DICTIONARY;
+
+            ByteArrayOutputStream page = new ByteArrayOutputStream(pageSize);
+            DataOutputStream dos = new DataOutputStream(page);
+            dos.writeByte(type.ordinal());
+            dos.writeByte(encoding);
+            dos.writeInt(n);
+            if (encoding == ColumnPage.PLAIN) {
+                for (Object v : values)
+                    ColumnPage.writeValue(dos, type, v);
+            } else if (encoding == ColumnPage.RLE) {
+                int runs = 0;
+                for (int i = 0; i < n; i++) {
+                    if (i == 0 || !values.get(i).equals(values.get(i - 1)))
+                        runs++;
+                }
+                dos.writeInt(runs);
+                int start = 0;
+                for (int i = 1; i <= n; i++) {
+                    if (i == n || !values.get(i).equals(values.get(start))) {
+                        ColumnPage.writeValue(dos, type, values.get(start));
+                        dos.writeInt(i - start);
+                        start = i;
+                    }
+                }
+            } else {
+                dos.writeInt(dict.size());
+                for (Object v : dict.keySet())
+                    ColumnPage.writeValue(dos, type, v);
+                for (Object v : values) {
+                    int code = dict.get(v);
+                    if (dict.size() <= 256)
+                        dos.writeByte(code);
+                    else
+                        dos.writeShort(code);
+                }
+            }
+            dos.write(new byte[pageSize - dos.size()]);
+            dos.flush();
+            page.writeTo(out);
+
+            dirOut.writeInt(rows);
+            dirOut.writeInt(n);
+            toField(min).serialize(dirOut);
+            toField(max).serialize(dirOut);
+            rows += n;
+            numPages++;
+            reset();
+        }
+
+        private Field toField(Object v) {
+            if (type == Type.INT_TYPE)
+                return new IntField((Integer) v);
+            return new StringField((String) v, Type.STRING_LEN);
+        }
+
+        void finish() throws IOException {
+            flush();
+            out.close();
+            dirOut.flush();
+        }
+
+        void discard() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * A page of one column of a ColumnFile. It holds the values of a run of
+ * consecutive rows of the column, in one of three encodings chosen by
+ * ColumnFileEncoder for each page:
+ * <ul>
+ * <li>{@link #PLAIN}: the values one after the other;</li>
+ * <li>{@link #RLE}: runs of equal values, each as the value and the length
+ * of the run;</li>
+ * <li>{@link #DICTIONARY}: the distinct values of the page, followed by the
+ * position of the value of each row in that list, in one byte if the page
+ * has at most 256 distinct values and in two bytes otherwise.</li>
+ * </ul>
+ * The page starts with the type of the column, the encoding and the number
+ * of rows, at most {@link #MAX_ROWS}, so it can be decoded without the directory of the file. Ints are
+ * stored in four bytes and strings as their length in two bytes followed by
+ * their UTF-8 bytes.
+ * <p>
+ * Column pages are decoded when they are read and are never modified, so
+ * they are never dirty and their before image is the page itself. The
+ * pages of a column file are numbered like those of a heap file, so they
+ * are named by HeapPageIds.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    /** Encoding of a page storing every value */
+    public static final int PLAIN = 0;
+    /** Encoding of a page storing runs of equal values */
+    public static final int RLE = 1;
+    /** Encoding of a page storing the distinct values and a code per row */
+    public static final int DICTIONARY = 2;
+
+    /** Size of the type, the encoding and the number of rows */
+    static final int HEADER_SIZE = 6;
+
+    /**
+     * The most rows a page holds. RLE and dictionary pages can hold many
+     * rows in few bytes; the cap keeps their ranges of values, and hence
+     * the rows a scan skips by them, narrow, and bounds the memory of a
+     * decoded page.
+     */
+    static final int MAX_ROWS = 4096;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final HeapPageId pid;
+    private final byte[] data;
+    private final Type type;
+    private final int encoding;
+    private final int numRows;
+    private int[] ints;
+    private String[] strings;
+
+    /**
+     * Create a column page from a set of bytes of data read from disk.
+     */
+    public ColumnPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.data = data;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        int t = dis.readByte();
+        if (t != Type.INT_TYPE.ordinal() && t != Type.STRING_TYPE.ordinal())
+            throw new IOException("invalid column type " + t + " on page " + id.pageNumber());
+        type = Type.values()[t];
+        encoding = dis.readByte();
+        numRows = dis.readInt();
+        if (numRows < 0 || numRows > MAX_ROWS)
+            throw new IOException("invalid number of rows " + numRows + " on page " + id.pageNumber());
+        if (type == Type.INT_TYPE)
+            ints = new int[numRows];
+        else
+            strings = new String[numRows];
+        switch (encoding) {
+        case PLAIN:
+            for (int i = 0; i < numRows; i++)
+                readValue(dis, i);
+            break;
+        case RLE:
+            int runs = dis.readInt();
+            int row = 0;
+            for (int r = 0; r < runs; r++) {
+                readValue(dis, row);
+                int len = dis.readInt();
+                if (len <= 0 || row + len > numRows)
+                    throw new IOException("invalid run on page " + id.pageNumber());
+                for (int i = 1; i < len; i++)
+                    copyValue(row, row + i);
+                row += len;
+            }
+            if (row != numRows)
+                throw new IOException("runs do not cover page " + id.pageNumber());
+            break;
+        case DICTIONARY:
+            int size = dis.readInt();
+            if (size <= 0 || size > 65536)
+                throw new IOException("invalid dictionary size " + size + " on page " + id.pageNumber());
+            int[] dictInts = type == Type.INT_TYPE ? new int[size] : null;
+            String[] dictStrings = type == Type.STRING_TYPE ? new String[size] : null;
+            for (int i = 0; i < size; i++) {
+                if (dictInts != null)
+                    dictInts[i] = dis.readInt();
+                else
+                    dictStrings[i] = readString(dis);
+            }
+            for (int i = 0; i < numRows; i++) {
+                int code = size <= 256 ? dis.readUnsignedByte() : dis.readUnsignedShort();
+                if (code >= size)
+                    throw new IOException("invalid dictionary code on page " + id.pageNumber());
+                if (dictInts != null)
+                    ints[i] = dictInts[code];
+                else
+                    strings[i] = dictStrings[code];
+            }
+            break;
+        default:
+            throw new IOException("unknown encoding " + encoding + " on page " + id.pageNumber());
+        }
+        dis.close();
+    }
+
+    private void readValue(DataInputStream dis, int i) throws IOException {
+        if (ints != null)
+            ints[i] = dis.readInt();
+        else
+            strings[i] = readString(dis);
+    }
+
+    private void copyValue(int from, int to) {
+        if (ints != null)
+            ints[to] = ints[from];
+        else
+            strings[to] = strings[from];
+    }
+
+    private static String readString(DataInputStream dis) throws IOException {
+        byte[] b = new byte[dis.readUnsignedShort()];
+        dis.readFully(b);
+        return new String(b, UTF8);
+    }
+
+    /** @return the number of bytes a value takes in any encoding */
+    static int valueSize(Type type, Object value) {
+        if (type == Type.INT_TYPE)
+            return 4;
+        return 2 + ((String) value).getBytes(UTF8).length;
+    }
+
+    /** Write a value in the format of the pages, used by ColumnFileEncoder */
+    static void writeValue(DataOutputStream dos, Type type, Object value) throws IOException {
+        if (type == Type.INT_TYPE) {
+            dos.writeInt((Integer) value);
+        } else {
+            byte[] b = ((String) value).getBytes(UTF8);
+            dos.writeShort(b.length);
+            dos.write(b);
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /** @return one of {@link #PLAIN}, {@link #RLE} and {@link #DICTIONARY} */
+    public int getEncoding() {
+        return encoding;
+    }
+
+    /** @return the number of rows stored on this page */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /** @return the value of row i of the page, which must be an int column */
+    public int getInt(int i) {
+        return ints[i];
+    }
+
+    /** @return the value of row i of the page, which must be a string column */
+    public String getString(int i) {
+        return strings[i];
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** Column pages are never modified */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty)
+            throw new UnsupportedOperationException("column pages are read-only");
+    }
+
+    public TransactionId isDirty() {
+        return null;
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /** @return this page, which is never modified */
+    public ColumnPage getBeforeImage() {
+        return this;
+    }
+
+    public void setBeforeImage() {
+    }
+}
@@ -0,0 +1,123 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ColumnScan reads the tuples of a table stored in a ColumnFile, reading
+ * only the pages of the columns the query uses. The tuples have all the
+ * fields of the table, named tableAlias.fieldName as in SeqScan, but only
+ * the fields of the columns read are set.
+ * <p>
+ * The scan may be given the predicates of a Filter over it, so that pages
+ * the zone maps of the file rule out are skipped; the Filter still has to
+ * be applied to the tuples returned.
+ *
+ * @see ColumnFile#iterator(TransactionId, boolean[], Predicate[])
+ */
+public class ColumnScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final boolean[] columns;
+    private final Predicate[] zonePredicates;
+    private final TupleDesc td;
+    private transient DbFileIterator it;
+
+    /**
+     * Creates a scan over the specified columns of a table.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be stored in a ColumnFile
+     * @param tableAlias
+     *            the alias of this table
+     * @param columns
+     *            true for the fields of the table to read, or null to read
+     *            all of them
+     * @param zonePredicates
+     *            predicates on the fields of the table used to skip pages
+     */
+    public ColumnScan(TransactionId tid, int tableid, String tableAlias,
+            boolean[] columns, Predicate[] zonePredicates) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof ColumnFile))
+            throw new IllegalArgumentException("table " + tableid + " is not stored in a column file");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.columns = columns;
+        this.zonePredicates = zonePredicates;
+        TupleDesc base = f.getTupleDesc();
+        Type[] types = new Type[base.numFields()];
+        String[] names = new String[base.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = base.getFieldType(i);
+            names[i] = tableAlias + "." + base.getFieldName(i);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    /** @return the name of the table the operator scans */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return true for the fields that are read, or null if all are */
+    public boolean[] getColumns() {
+        return columns;
+    }
+
+    public Predicate[] getZonePredicates() {
+        return zonePredicates;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (it == null) {
+            ColumnFile f = (ColumnFile) Database.getCatalog().getDatabaseFile(tableid);
+            it = f.iterator(tid, columns, zonePredicates);
+        }
+        it.open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return it != null && it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        if (it == null) {
+            throw new NoSuchElementException("scan is not open yet");
+        }
+        return it.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (it == null) {
+            throw new IllegalStateException("scan is not open yet");
+        }
+        it.rewind();
+    }
+
+    public void close() {
+        if (it != null) {
+            it.close();
+        }
+    }
+}
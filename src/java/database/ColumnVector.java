@@ -0,0 +1,217 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * ColumnVector holds the values of one field for all rows of a
+ * {@link TupleBatch}. Integers are stored in a plain int array; strings are
+ * stored as codes into a {@link Dictionary} of the distinct strings of the
+ * vector, so that a predicate on a string column only has to be evaluated
+ * once per distinct value. Null values are marked in a bitmap.
+ */
+public class ColumnVector implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Type type;
+    private final int[] values;
+    private final long[] nulls;
+    private final Dictionary dictionary;
+    private boolean hasNulls;
+
+    /**
+     * Constructor.
+     *
+     * @param type
+     *            the type of the values of this vector
+     * @param capacity
+     *            the number of rows this vector can hold
+     */
+    public ColumnVector(Type type, int capacity) {
+        this.type = type;
+        this.values = new int[capacity];
+        this.nulls = new long[(capacity + 63) >>> 6];
+        this.dictionary = type == Type.STRING_TYPE ? new Dictionary() : null;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the raw values of this vector: the integers of an INT_TYPE
+     *         vector, or the dictionary codes of a STRING_TYPE vector
+     */
+    public int[] values() {
+        return values;
+    }
+
+    /** @return the strings of a STRING_TYPE vector, or null */
+    public Dictionary getDictionary() {
+        return dictionary;
+    }
+
+    /** @return true if at least one row of this vector is null */
+    public boolean hasNulls() {
+        return hasNulls;
+    }
+
+    public boolean isNull(int row) {
+        return hasNulls && (nulls[row >>> 6] & (1L << row)) != 0;
+    }
+
+    public int getInt(int row) {
+        return values[row];
+    }
+
+    public String getString(int row) {
+        return dictionary.get(values[row]);
+    }
+
+    /**
+     * @return the value of the specified row as a Field, or null if it is
+     *         null
+     */
+    public Field getField(int row) {
+        if (isNull(row))
+            return null;
+        if (type == Type.INT_TYPE)
+            return new IntField(values[row]);
+        return dictionary.getField(values[row]);
+    }
+
+    public void setInt(int row, int v) {
+        values[row] = v;
+        clearNull(row);
+    }
+
+    public void setString(int row, String s) {
+        values[row] = dictionary.encode(s);
+        clearNull(row);
+    }
+
+    public void setNull(int row) {
+        nulls[row >>> 6] |= 1L << row;
+        hasNulls = true;
+    }
+
+    private void clearNull(int row) {
+        if (hasNulls)
+            nulls[row >>> 6] &= ~(1L << row);
+    }
+
+    /**
+     * Set the value of the specified row from a Field of this vector's type.
+     *
+     * @param f
+     *            the value, or null
+     */
+    public void setField(int row, Field f) {
+        if (f == null)
+            setNull(row);
+        else if (type == Type.INT_TYPE)
+            setInt(row, ((IntField) f).getValue());
+        else
+            setString(row, ((StringField) f).getValue());
+    }
+
+    /**
+     * Set the value of the specified row from field i of a tuple, which must
+     * have the type of this vector.
+     */
+    public void set(int row, Tuple t, int i) {
+        if (t.isNull(i))
+            setNull(row);
+        else if (type == Type.INT_TYPE)
+            setInt(row, t.getInt(i));
+        else
+            setString(row, t.getString(i));
+    }
+
+    /**
+     * Copy a value from another vector of the same type.
+     */
+    public void copy(int row, ColumnVector src, int srcRow) {
+        if (src.isNull(srcRow))
+            setNull(row);
+        else if (type == Type.INT_TYPE)
+            setInt(row, src.values[srcRow]);
+        else
+            setString(row, src.getString(srcRow));
+    }
+
+    /**
+     * Compare the value of the specified row to the value of a row of
+     * another vector of the same type, with the semantics of
+     * {@link Field#compare}. A null value never matches.
+     */
+    public boolean compare(int row, Predicate.Op op, ColumnVector other, int otherRow) {
+        if (isNull(row) || other.isNull(otherRow))
+            return false;
+        if (type == Type.INT_TYPE)
+            return Predicate.compare(op, values[row], other.values[otherRow]);
+        return getField(row).compare(op, other.getField(otherRow));
+    }
+
+    /** Forget all values, including the strings of the dictionary. */
+    public void clear() {
+        if (hasNulls) {
+            Arrays.fill(nulls, 0L);
+            hasNulls = false;
+        }
+        if (dictionary != null)
+            dictionary.clear();
+    }
+
+    /**
+     * The distinct strings of a string vector, numbered in order of their
+     * first appearance.
+     */
+    public static class Dictionary implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<String> strings = new ArrayList<String>();
+        private final ArrayList<StringField> fields = new ArrayList<StringField>();
+        private final HashMap<String, Integer> codes = new HashMap<String, Integer>();
+
+        /** @return the code of s, adding it to the dictionary if it is new */
+        public int encode(String s) {
+            Integer code = codes.get(s);
+            if (code == null) {
+                code = strings.size();
+                strings.add(s);
+                fields.add(new StringField(s, Type.STRING_LEN));
+                codes.put(s, code);
+            }
+            return code;
+        }
+
+        /** @return the string with the specified code */
+        public String get(int code) {
+            return strings.get(code);
+        }
+
+        /**
+         * @return the string with the specified code as a Field; the same
+         *         Field is returned for every row with that string
+         */
+        public StringField getField(int code) {
+            return fields.get(code);
+        }
+
+        /** @return the number of distinct strings */
+        public int size() {
+            return strings.size();
+        }
+
+        public void clear() {
+            strings.clear();
+            fields.clear();
+            codes.clear();
+        }
+    }
+}
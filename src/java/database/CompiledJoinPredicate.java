@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * CompiledJoinPredicate is an evaluator for a {@link JoinPredicate}, with one
+ * final class per operator on int fields so that the comparison needs no
+ * switch on {@link Predicate.Op}. String fields are compared through
+ * {@link Field#compare}.
+ *
+ * @see CompiledPredicate
+ */
+public abstract class CompiledJoinPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    final int field1, field2;
+
+    CompiledJoinPredicate(int field1, int field2) {
+        this.field1 = field1;
+        this.field2 = field2;
+    }
+
+    /**
+     * @param a
+     *            the join field of the outer tuple
+     * @param b
+     *            the join field of the inner tuple
+     * @return true if the pair satisfies the join predicate
+     */
+    public abstract boolean matches(Field a, Field b);
+
+    /** @return true if t1 and t2 satisfy the join predicate */
+    public boolean matches(Tuple t1, Tuple t2) {
+        return matches(t1.getField(field1), t2.getField(field2));
+    }
+
+    /**
+     * Compile a join predicate, whose fields must have the specified type.
+     */
+    public static CompiledJoinPredicate compile(JoinPredicate p, Type type) {
+        int f1 = p.getField1(), f2 = p.getField2();
+        if (type != Type.INT_TYPE)
+            return new FieldCompare(f1, f2, p.getOperator());
+        switch (p.getOperator()) {
+        case EQUALS:
+        case LIKE:
+            return new IntEquals(f1, f2);
+        case NOT_EQUALS:
+            return new IntNotEquals(f1, f2);
+        case GREATER_THAN:
+            return new IntGreater(f1, f2);
+        case GREATER_THAN_OR_EQ:
+            return new IntGreaterOrEq(f1, f2);
+        case LESS_THAN:
+            return new IntLess(f1, f2);
+        case LESS_THAN_OR_EQ:
+            return new IntLessOrEq(f1, f2);
+        }
+        throw new IllegalArgumentException("unsupported operator " + p.getOperator());
+    }
+
+    static int value(Field f) {
+        return ((IntField) f).getValue();
+    }
+
+    static final class IntEquals extends CompiledJoinPredicate {
+        private static final long serialVersionUID = 1L;
+
+        IntEquals(int field1, int field2) {
+            super(field1, field2);
+        }
+
+        public boolean matches(Field a, Field b) {
+            return value(a) == value(b);
+        }
+    }
+
+    static final class IntNotEquals extends CompiledJoinPredicate {
+        private static final long serialVersionUID = 1L;
+
+        IntNotEquals(int field1, int field2) {
+            super(field1, field2);
+        }
+
+        public boolean matches(Field a, Field b) {
+            return value(a) != value(b);
+        }
+    }
+
+    static final class IntGreater extends CompiledJoinPredicate {
+        private static final long serialVersionUID = 1L;
+
+        IntGreater(int field1, int field2) {
+            super(field1, field2);
+        }
+
+        public boolean matches(Field a, Field b) {
+            return value(a) > value(b);
+        }
+    }
+
+    static final class IntGreaterOrEq extends CompiledJoinPredicate {
+        private static final long serialVersionUID = 1L;
+
+        IntGreaterOrEq(int field1, int field2) {
+            super(field1, field2);
+        }
+
+        public boolean matches(Field a, Field b) {
+            return value(a) >= value(b);
+        }
+    }
+
+    static final class IntLess extends CompiledJoinPredicate {
+        private static final long serialVersionUID = 1L;
+
+        IntLess(int field1, int field2) {
+            super(field1, field2);
+        }
+
+        public boolean matches(Field a, Field b) {
+            return value(a) < value(b);
+        }
+    }
+
+    static final class IntLessOrEq extends CompiledJoinPredicate {
+        private static final long serialVersionUID = 1L;
+
+        IntLessOrEq(int field1, int field2) {
+            super(field1, field2);
+        }
+
+        public boolean matches(Field a, Field b) {
+            return value(a) <= value(b);
+        }
+    }
+
+    static final class FieldCompare extends CompiledJoinPredicate {
+        private static final long serialVersionUID = 1L;
+        final Predicate.Op op;
+
+        FieldCompare(int field1, int field2, Predicate.Op op) {
+            super(field1, field2);
+            this.op = op;
+        }
+
+        public boolean matches(Field a, Field b) {
+            return a.compare(op, b);
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * CompiledPredicate is an evaluator for a {@link Predicate} or a conjunction
+ * of them. There is one small final class per field type and operator, so
+ * that the comparison is a single primitive test without a switch on
+ * {@link Predicate.Op}, and every call site stays monomorphic for the
+ * predicate it evaluates. Conjunctions are fused into one evaluator; range
+ * predicates on the same int field are merged into a single bounds check.
+ * <p>
+ * Use {@link #compile(Predicate)} or {@link #compile(Predicate[])} to build
+ * one.
+ */
+public abstract class CompiledPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** @return true if t satisfies the predicate */
+    public abstract boolean matches(Tuple t);
+
+    /**
+     * Deselect the rows of a batch that do not satisfy the predicate.
+     */
+    public abstract void filter(TupleBatch b);
+
+    /**
+     * Compile a single predicate.
+     */
+    public static CompiledPredicate compile(Predicate p) {
+        return compile(new Predicate[] { p });
+    }
+
+    /**
+     * Compile the conjunction of the specified predicates into one evaluator.
+     * Int predicates are evaluated first; for every int field, =, <, <=, >
+     * and >= are merged into one range check.
+     */
+    public static CompiledPredicate compile(Predicate[] conjunction) {
+        ArrayList<CompiledPredicate> parts = new ArrayList<CompiledPredicate>();
+        ArrayList<Predicate> strings = new ArrayList<Predicate>();
+        ArrayList<Integer> rangeFields = new ArrayList<Integer>();
+        ArrayList<long[]> ranges = new ArrayList<long[]>();
+        for (Predicate p : conjunction) {
+            if (p.getOperand().getType() != Type.INT_TYPE) {
+                strings.add(p);
+                continue;
+            }
+            int v = ((IntField) p.getOperand()).getValue();
+            long lo = Integer.MIN_VALUE, hi = Integer.MAX_VALUE;
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                lo = hi = v;
+                break;
+            case GREATER_THAN:
+                lo = (long) v + 1;
+                break;
+            case GREATER_THAN_OR_EQ:
+                lo = v;
+                break;
+            case LESS_THAN:
+                hi = (long) v - 1;
+                break;
+            case LESS_THAN_OR_EQ:
+                hi = v;
+                break;
+            case NOT_EQUALS:
+                parts.add(new IntNotEquals(p.getField(), v));
+                continue;
+            }
+            int i = rangeFields.indexOf(p.getField());
+            if (i < 0) {
+                rangeFields.add(p.getField());
+                ranges.add(new long[] { lo, hi });
+            } else {
+                long[] r = ranges.get(i);
+                r[0] = Math.max(r[0], lo);
+                r[1] = Math.min(r[1], hi);
+            }
+        }
+        for (int i = 0; i < rangeFields.size(); i++) {
+            long[] r = ranges.get(i);
+            if (r[0] > r[1])
+                return new False();
+            parts.add(i, intRange(rangeFields.get(i), r[0], r[1]));
+        }
+        for (Predicate p : strings) {
+            parts.add(string(p));
+        }
+        if (parts.size() == 1)
+            return parts.get(0);
+        return new And(parts.toArray(new CompiledPredicate[parts.size()]));
+    }
+
+    private static CompiledPredicate intRange(int field, long lo, long hi) {
+        if (lo == hi)
+            return new IntEquals(field, (int) lo);
+        if (lo == Integer.MIN_VALUE)
+            return new IntLessOrEq(field, (int) hi);
+        if (hi == Integer.MAX_VALUE)
+            return new IntGreaterOrEq(field, (int) lo);
+        return new IntBetween(field, (int) lo, (int) hi);
+    }
+
+    private static CompiledPredicate string(Predicate p) {
+        int field = p.getField();
+        String v = ((StringField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+        case EQUALS:
+            return new StringEquals(field, v);
+        case NOT_EQUALS:
+            return new StringNotEquals(field, v);
+        case LIKE:
+            return new StringLike(field, v);
+        case GREATER_THAN:
+            return new StringGreater(field, v);
+        case GREATER_THAN_OR_EQ:
+            return new StringGreaterOrEq(field, v);
+        case LESS_THAN:
+            return new StringLess(field, v);
+        case LESS_THAN_OR_EQ:
+            return new StringLessOrEq(field, v);
+        }
+        throw new IllegalArgumentException("unsupported operator " + p.getOp());
+    }
+
+    static int intValue(Tuple t, int field) {
+        return t.getInt(field);
+    }
+
+    static String stringValue(Tuple t, int field) {
+        return ((StringField) t.getField(field)).getValue();
+    }
+
+    // Each int evaluator has its own batch loop, so that the comparison in
+    // the loop is inlined rather than dispatched per row.
+
+    static final class IntEquals extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        final int field, v;
+
+        IntEquals(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean matches(Tuple t) {
+            return intValue(t, field) == v;
+        }
+
+        public void filter(TupleBatch b) {
+            ColumnVector c = b.getColumn(field);
+            int[] values = c.values();
+            for (int row = b.nextSelected(0); row >= 0; row = b.nextSelected(row + 1)) {
+                if (values[row] != v || c.isNull(row))
+                    b.deselect(row);
+            }
+        }
+    }
+
+    static final class IntNotEquals extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        final int field, v;
+
+        IntNotEquals(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean matches(Tuple t) {
+            return intValue(t, field) != v;
+        }
+
+        public void filter(TupleBatch b) {
+            ColumnVector c = b.getColumn(field);
+            int[] values = c.values();
+            for (int row = b.nextSelected(0); row >= 0; row = b.nextSelected(row + 1)) {
+                if (values[row] == v || c.isNull(row))
+                    b.deselect(row);
+            }
+        }
+    }
+
+    static final class IntLessOrEq extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        final int field, hi;
+
+        IntLessOrEq(int field, int hi) {
+            this.field = field;
+            this.hi = hi;
+        }
+
+        public boolean matches(Tuple t) {
+            return intValue(t, field) <= hi;
+        }
+
+        public void filter(TupleBatch b) {
+            ColumnVector c = b.getColumn(field);
+            int[] values = c.values();
+            for (int row = b.nextSelected(0); row >= 0; row = b.nextSelected(row + 1)) {
+                if (values[row] > hi || c.isNull(row))
+                    b.deselect(row);
+            }
+        }
+    }
+
+    static final class IntGreaterOrEq extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        final int field, lo;
+
+        IntGreaterOrEq(int field, int lo) {
+            this.field = field;
+            this.lo = lo;
+        }
+
+        public boolean matches(Tuple t) {
+            return intValue(t, field) >= lo;
+        }
+
+        public void filter(TupleBatch b) {
+            ColumnVector c = b.getColumn(field);
+            int[] values = c.values();
+            for (int row = b.nextSelected(0); row >= 0; row = b.nextSelected(row + 1)) {
+                if (values[row] < lo || c.isNull(row))
+                    b.deselect(row);
+            }
+        }
+    }
+
+    static final class IntBetween extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        final int field, lo, hi;
+
+        IntBetween(int field, int lo, int hi) {
+            this.field = field;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        public boolean matches(Tuple t) {
+            int x = intValue(t, field);
+            return x >= lo && x <= hi;
+        }
+
+        public void filter(TupleBatch b) {
+            ColumnVector c = b.getColumn(field);
+            int[] values = c.values();
+            for (int row = b.nextSelected(0); row >= 0; row = b.nextSelected(row + 1)) {
+                int x = values[row];
+                if (x < lo || x > hi || c.isNull(row))
+                    b.deselect(row);
+            }
+        }
+    }
+
+    /**
+     * Base class of the string evaluators. In a batch the test is made once
+     * per distinct string of the column's dictionary.
+     */
+    static abstract class StringPredicate extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        final int field;
+        final String v;
+
+        StringPredicate(int field, String v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        abstract boolean test(String s);
+
+        public final boolean matches(Tuple t) {
+            return test(stringValue(t, field));
+        }
+
+        public final void filter(TupleBatch b) {
+            ColumnVector c = b.getColumn(field);
+            ColumnVector.Dictionary dict = c.getDictionary();
+            int[] codes = c.values();
+            // 0 = not evaluated yet, 1 = passes, 2 = fails
+            byte[] passes = new byte[dict.size()];
+            for (int row = b.nextSelected(0); row >= 0; row = b.nextSelected(row + 1)) {
+                if (c.isNull(row)) {
+                    b.deselect(row);
+                    continue;
+                }
+                int code = codes[row];
+                if (passes[code] == 0)
+                    passes[code] = test(dict.get(code)) ? (byte) 1 : (byte) 2;
+                if (passes[code] == 2)
+                    b.deselect(row);
+            }
+        }
+    }
+
+    static final class StringEquals extends StringPredicate {
+        private static final long serialVersionUID = 1L;
+
+        StringEquals(int field, String v) {
+            super(field, v);
+        }
+
+        boolean test(String s) {
+            return s.equals(v);
+        }
+    }
+
+    static final class StringNotEquals extends StringPredicate {
+        private static final long serialVersionUID = 1L;
+
+        StringNotEquals(int field, String v) {
+            super(field, v);
+        }
+
+        boolean test(String s) {
+            return !s.equals(v);
+        }
+    }
+
+    static final class StringLike extends StringPredicate {
+        private static final long serialVersionUID = 1L;
+
+        StringLike(int field, String v) {
+            super(field, v);
+        }
+
+        boolean test(String s) {
+            return s.indexOf(v) >= 0;
+        }
+    }
+
+    static final class StringGreater extends StringPredicate {
+        private static final long serialVersionUID = 1L;
+
+        StringGreater(int field, String v) {
+            super(field, v);
+        }
+
+        boolean test(String s) {
+            return s.compareTo(v) > 0;
+        }
+    }
+
+    static final class StringGreaterOrEq extends StringPredicate {
+        private static final long serialVersionUID = 1L;
+
+        StringGreaterOrEq(int field, String v) {
+            super(field, v);
+        }
+
+        boolean test(String s) {
+            return s.compareTo(v) >= 0;
+        }
+    }
+
+    static final class StringLess extends StringPredicate {
+        private static final long serialVersionUID = 1L;
+
+        StringLess(int field, String v) {
+            super(field, v);
+        }
+
+        boolean test(String s) {
+            return s.compareTo(v) < 0;
+        }
+    }
+
+    static final class StringLessOrEq extends StringPredicate {
+        private static final long serialVersionUID = 1L;
+
+        StringLessOrEq(int field, String v) {
+            super(field, v);
+        }
+
+        boolean test(String s) {
+            return s.compareTo(v) <= 0;
+        }
+    }
+
+    /** A conjunction; parts are evaluated in order, cheapest first. */
+    static final class And extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        final CompiledPredicate[] parts;
+
+        And(CompiledPredicate[] parts) {
+            this.parts = parts;
+        }
+
+        public boolean matches(Tuple t) {
+            for (CompiledPredicate p : parts) {
+                if (!p.matches(t))
+                    return false;
+            }
+            return true;
+        }
+
+        public void filter(TupleBatch b) {
+            for (int i = 0; i < parts.length && b.numSelected() > 0; i++) {
+                parts[i].filter(b);
+            }
+        }
+    }
+
+    /** A conjunction of contradicting ranges, e.g. x < 1 AND x > 5. */
+    static final class False extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+
+        public boolean matches(Tuple t) {
+            return false;
+        }
+
+        public void filter(TupleBatch b) {
+            for (int row = b.nextSelected(0); row >= 0; row = b.nextSelected(row + 1)) {
+                b.deselect(row);
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * CompressedPageStore keeps every page of a HeapFile compressed with
+ * PageCodec. Compressed pages have different sizes, so their place in the
+ * data file is kept in a translation table: for every page, the offset of
+ * its extent in the data file, the length of its compressed bytes and the
+ * capacity of the extent, a multiple of {@link #EXTENT_UNIT} bytes. A page
+ * that does not compress is stored as is, with the length of a page.
+ * <p>
+ * A page is rewritten in place when it still fits in its extent and is
+ * moved to a new extent at the end of the data file otherwise; the extent
+ * it leaves is not reused until the table is rewritten, and its size is
+ * counted in the {@link Metrics} counter {@link #ABANDONED_BYTES}.
+ * <p>
+ * The translation table is kept in memory and stored in a sidecar file
+ * next to the data file (see {@link #tableFileFor}): a header with a magic
+ * number, the page size and the number of pages, followed by the entry of
+ * every page. The entry of a page is written after its bytes, so a moved
+ * page is only used once it is completely written. A data file without a
+ * translation table is a file of uncompressed pages, as written by
+ * HeapFileEncoder, and is compressed when the store is first used.
+ */
+public class CompressedPageStore implements PageStore {
+
+    /** Extents are allocated in multiples of this many bytes */
+    static final int EXTENT_UNIT = 256;
+
+    /** Bytes of the extents of pages that moved to a larger extent */
+    public static final String ABANDONED_BYTES = "compression.abandonedBytes";
+
+    private static final int MAGIC = 0x50545431;
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE = 16;
+
+    private final File f;
+    private final File tableFile;
+
+    /** the translation table, loaded on first use */
+    private boolean loaded = false;
+    private int numPages;
+    private long[] offsets = new long[0];
+    private int[] lengths = new int[0];
+    private int[] capacities = new int[0];
+    private long dataEnd;
+
+    /**
+     * Creates the store of the pages kept in data file f.
+     */
+    public CompressedPageStore(File f) {
+        this.f = f;
+        this.tableFile = tableFileFor(f);
+    }
+
+    /**
+     * @return the file storing the translation table of data file f: the
+     *         same name with the extension <tt>.ptt</tt>
+     */
+    public static File tableFileFor(File f) {
+        String name = f.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0)
+            name = name.substring(0, dot);
+        return new File(f.getAbsoluteFile().getParentFile(), name + ".ptt");
+    }
+
+    /** Read the translation table, compressing the data file if it has none */
+    private void load() throws IOException {
+        if (loaded)
+            return;
+        if (!tableFile.exists()) {
+            if (f.exists() && f.length() > 0)
+                compressRawFile();
+            loaded = true;
+            return;
+        }
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(tableFile)));
+        try {
+            if (dis.readInt() != MAGIC)
+                throw new IOException(tableFile + " is not a page translation table");
+            if (dis.readInt() != BufferPool.getPageSize())
+                throw new IOException(f + " was written with another page size");
+            int n = dis.readInt();
+            ensureCapacity(n);
+            for (int i = 0; i < n; i++) {
+                offsets[i] = dis.readLong();
+                lengths[i] = dis.readInt();
+                capacities[i] = dis.readInt();
+                dataEnd = Math.max(dataEnd, offsets[i] + capacities[i]);
+            }
+            numPages = n;
+        } finally {
+            dis.close();
+        }
+        loaded = true;
+    }
+
+    /**
+     * Replace a data file of uncompressed pages with a file of compressed
+     * pages and its translation table
+     */
+    private void compressRawFile() throws IOException {
+        RawPageStore raw = new RawPageStore(f);
+        File tmp = new File(f.getPath() + ".tmp");
+        File tmpTable = tableFileFor(tmp);
+        CompressedPageStore out = new CompressedPageStore(tmp);
+        tmp.delete();
+        tmpTable.delete();
+        out.loaded = true;
+        int n = raw.numPages();
+        for (int i = 0; i < n; i++)
+            out.writePage(i, raw.readPage(i));
+        if (!f.delete() || !tmp.renameTo(f) || !tmpTable.renameTo(tableFile))
+            throw new IOException("failed to replace " + f + " with its compressed pages");
+        numPages = out.numPages;
+        offsets = out.offsets;
+        lengths = out.lengths;
+        capacities = out.capacities;
+        dataEnd = out.dataEnd;
+    }
+
+    private void ensureCapacity(int pages) {
+        if (pages <= offsets.length)
+            return;
+        int n = Math.max(pages, offsets.length * 2);
+        offsets = Arrays.copyOf(offsets, n);
+        lengths = Arrays.copyOf(lengths, n);
+        capacities = Arrays.copyOf(capacities, n);
+    }
+
+    public synchronized byte[] readPage(int pgNo) throws IOException {
+        load();
+        int pageSize = BufferPool.getPageSize();
+        if (pgNo >= numPages)
+            return new byte[pageSize];
+        byte[] b = new byte[lengths[pgNo]];
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            raf.seek(offsets[pgNo]);
+            raf.readFully(b);
+        } finally {
+            raf.close();
+        }
+        if (b.length == pageSize)
+            return b;
+        return PageCodec.decompress(b, 0, b.length, pageSize);
+    }
+
+    public synchronized void writePage(int pgNo, byte[] data) throws IOException {
+        load();
+        // pages skipped over are empty
+        while (numPages < pgNo)
+            writePage(numPages, new byte[BufferPool.getPageSize()]);
+        byte[] buf = new byte[PageCodec.maxCompressedLength(data.length)];
+        int len = PageCodec.compress(data, 0, data.length, buf);
+        if (len >= data.length) {
+            buf = data;
+            len = data.length;
+        }
+        ensureCapacity(pgNo + 1);
+        if (pgNo == numPages || capacities[pgNo] < len) {
+            if (pgNo < numPages)
+                Metrics.add(ABANDONED_BYTES, capacities[pgNo]);
+            int capacity = (len + EXTENT_UNIT - 1) / EXTENT_UNIT * EXTENT_UNIT;
+            offsets[pgNo] = dataEnd;
+            capacities[pgNo] = capacity;
+            dataEnd += capacity;
+        }
+        lengths[pgNo] = len;
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.seek(offsets[pgNo]);
+            raf.write(buf, 0, len);
+        } finally {
+            raf.close();
+        }
+        if (pgNo == numPages)
+            numPages++;
+        writeEntry(pgNo);
+    }
+
+    /** Write the entry of page pgNo and the header of the translation table */
+    private void writeEntry(int pgNo) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(tableFile, "rw");
+        try {
+            raf.seek(HEADER_SIZE + (long) pgNo * ENTRY_SIZE);
+            raf.writeLong(offsets[pgNo]);
+            raf.writeInt(lengths[pgNo]);
+            raf.writeInt(capacities[pgNo]);
+            raf.seek(0);
+            raf.writeInt(MAGIC);
+            raf.writeInt(BufferPool.getPageSize());
+            raf.writeInt(numPages);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public synchronized int numPages() {
+        try {
+            load();
+        } catch (IOException e) {
+            throw new RuntimeException("failed to read the page translation table of " + f, e);
+        }
+        return numPages;
+    }
+}
@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Consumer is an exchange whose tuples are produced by a fixed number of
+ * worker tasks running on the exchange thread pool. Workers hand their tuples
+ * to {@link #emit}, which blocks once the bounded queue between the workers
+ * and the consumer is full; {@link #fetchNext} takes them off the queue in
+ * whatever order they arrive.
+ * <p>
+ * If a worker fails, the other workers are stopped and the failure is
+ * rethrown from fetchNext on the consuming thread.
+ */
+public abstract class Consumer extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /** How often a blocked worker checks whether the consumer was closed */
+    private static final long POLL_MILLIS = 10;
+
+    private final int dop;
+    private final int queueSize;
+
+    private transient ArrayBlockingQueue<Tuple> queue;
+    private transient Workers workers;
+    private transient Tuple endOfStream;
+    private int finishedWorkers;
+
+    /**
+     * Constructor.
+     *
+     * @param kind
+     *            the kind of exchange, used in its name
+     * @param dop
+     *            the number of worker tasks
+     * @param queueSize
+     *            the number of tuples buffered between the workers and the
+     *            consumer
+     */
+    protected Consumer(String kind, int dop, int queueSize) {
+        super(kind);
+        if (dop < 1)
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        this.dop = dop;
+        this.queueSize = queueSize;
+    }
+
+    public int getDegreeOfParallelism() {
+        return dop;
+    }
+
+    /**
+     * Called on the consuming thread before the workers are started, on open()
+     * and on every rewind().
+     */
+    protected void prepare() throws DbException, TransactionAbortedException {
+    }
+
+    /**
+     * Produce the tuples of one worker, passing each of them to
+     * {@link #emit}. Runs on a thread of the exchange thread pool.
+     *
+     * @param worker
+     *            the number of this worker, between 0 and dop - 1
+     * @throws InterruptedException
+     *             if the consumer was closed while the worker was running
+     */
+    protected abstract void runWorker(int worker) throws DbException,
+            TransactionAbortedException, InterruptedException;
+
+    /**
+     * Hand a tuple to the consumer, waiting while the queue is full.
+     *
+     * @throws InterruptedException
+     *             if the consumer has been closed; the worker should stop
+     */
+    protected void emit(Tuple t) throws InterruptedException {
+        while (!queue.offer(t, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (workers.isCancelled())
+                throw new InterruptedException("exchange closed");
+        }
+    }
+
+    /** @return true if the consumer was closed and workers should stop */
+    protected boolean isCancelled() {
+        return workers.isCancelled();
+    }
+
+    private void startWorkers() throws DbException, TransactionAbortedException {
+        prepare();
+        queue = new ArrayBlockingQueue<Tuple>(queueSize);
+        endOfStream = new Tuple(getTupleDesc());
+        finishedWorkers = 0;
+        workers = new Workers(dop, new Task() {
+            public void run(int worker) throws Exception {
+                try {
+                    runWorker(worker);
+                } catch (Throwable e) {
+                    workers.fail(e);
+                } finally {
+                    emit(endOfStream);
+                }
+            }
+        });
+        workers.start();
+    }
+
+    /** Stop all workers and wait until they have finished. */
+    private void stopWorkers() {
+        if (workers == null)
+            return;
+        workers.cancel();
+        queue.clear();
+        workers = null;
+        queue = null;
+    }
+
+    private void checkFailure() throws DbException, TransactionAbortedException {
+        Throwable e = workers.getFailure();
+        if (e == null)
+            return;
+        stopWorkers();
+        rethrow(e);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        startWorkers();
+        super.open();
+    }
+
+    public void close() {
+        stopWorkers();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stopWorkers();
+        startWorkers();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (queue == null)
+            return null;
+        while (finishedWorkers < dop) {
+            Tuple t;
+            try {
+                t = queue.take();
+            } catch (InterruptedException e) {
+                stopWorkers();
+                throw new DbException(getName() + " interrupted");
+            }
+            if (t == endOfStream) {
+                finishedWorkers++;
+                checkFailure();
+                continue;
+            }
+            return t;
+        }
+        return null;
+    }
+}
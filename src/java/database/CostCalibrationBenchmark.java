@@ -0,0 +1,236 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Measures the constants of {@link CostModel} on the running machine: the
+ * time of evaluating a predicate on a tuple, which is the unit of cost, and
+ * of reading a page from a file and from the BufferPool, adding tuples to
+ * and probing the hash table of a {@link Join}, and passing tuples through
+ * a {@link HashRepartition}. Each constant is fitted as the slope of the
+ * times measured at several input sizes, so that fixed overheads do not
+ * count, and printed as the system properties that set it.
+ * <p>
+ * Page reads go through the file system, so a table the operating system
+ * has cached reads faster than one on disk; pass a number of pages larger
+ * than its cache to measure the disk.
+ * <p>
+ * Usage: <code>java simpledb.CostCalibrationBenchmark [pages] [rows] [iterations]</code>
+ */
+public class CostCalibrationBenchmark {
+
+    private static final int[] SCALES = { 1, 2, 3, 4 };
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE }, new String[] { "a", "b" });
+
+        // the unit: a compiled predicate on an int field
+        final Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(rows / 2));
+        final CompiledPredicate compiled = p.compile();
+        double unit = fit(rows, iterations, td, new Measure() {
+            public long run(ArrayList<Tuple> tuples) {
+                long start = System.nanoTime();
+                int matched = 0;
+                for (Tuple t : tuples) {
+                    if (compiled.matches(t))
+                        matched++;
+                }
+                sink += matched;
+                return System.nanoTime() - start;
+            }
+        });
+
+        // a table of the number of pages to read
+        int perPage = (BufferPool.getPageSize() * 8) / (td.getFixedSize() * 8 + 1);
+        ArrayList<ArrayList<Integer>> table = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < pages * perPage; i++)
+            table.add(new ArrayList<Integer>(Arrays.asList(i, i % 1000)));
+        File f = File.createTempFile("calibration", ".dat");
+        f.deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        HeapFileEncoder.convert(table, f, BufferPool.getPageSize(), 2);
+        final HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, "calibration", "");
+        pages = hf.numPages();
+
+        double[] io = new double[SCALES.length];
+        double[] cached = new double[SCALES.length];
+        double[] x = new double[SCALES.length];
+        final int poolPages = Database.getBufferPool().getMaxPages();
+        for (int s = 0; s < SCALES.length; s++) {
+            final int n = pages * SCALES[s] / SCALES[SCALES.length - 1];
+            x[s] = n;
+            io[s] = cached[s] = Double.MAX_VALUE;
+            for (int it = 0; it < iterations; it++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < n; i++)
+                    sink += count(hf.readPage(new HeapPageId(hf.getId(), i)));
+                io[s] = Math.min(io[s], System.nanoTime() - start);
+
+                // the same number of reads of pages held by the buffer pool
+                TransactionId tid = new TransactionId();
+                int resident = Math.min(poolPages, pages);
+                for (int i = 0; i < resident; i++)
+                    Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+                start = System.nanoTime();
+                for (int i = 0; i < n; i++) {
+                    Page page = Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), i % resident),
+                            Permissions.READ_ONLY);
+                    sink += count(page);
+                }
+                cached[s] = Math.min(cached[s], System.nanoTime() - start);
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        }
+        double ioPage = slope(x, io);
+        double cachedPage = slope(x, cached);
+
+        // Join: open() hashes the inner relation, and an outer relation whose
+        // keys match nothing is only probed
+        final ArrayList<Tuple> empty = new ArrayList<Tuple>();
+        double build = fit(rows, iterations, td, new Measure() {
+            public long run(ArrayList<Tuple> tuples) throws Exception {
+                Join j = join(tuples.get(0).getTupleDesc(), empty, tuples);
+                long start = System.nanoTime();
+                j.open();
+                long time = System.nanoTime() - start;
+                j.close();
+                return time;
+            }
+        });
+        final ArrayList<Tuple> inner = tuples(td, 1000, rows * 10);
+        double probe = fit(rows, iterations, td, new Measure() {
+            public long run(ArrayList<Tuple> tuples) throws Exception {
+                Join j = join(tuples.get(0).getTupleDesc(), tuples, inner);
+                j.open();
+                long start = System.nanoTime();
+                while (j.hasNext())
+                    j.next();
+                long time = System.nanoTime() - start;
+                j.close();
+                return time;
+            }
+        });
+
+        // two pipelines exchanging tuples, less reading them on one thread
+        double exchange = fit(rows, iterations, td, new Measure() {
+            public long run(ArrayList<Tuple> tuples) throws Exception {
+                TupleDesc td = tuples.get(0).getTupleDesc();
+                Gather g = new Gather(HashRepartition.create(new DbIterator[] {
+                        new TupleIterator(td, tuples.subList(0, tuples.size() / 2)),
+                        new TupleIterator(td, tuples.subList(tuples.size() / 2, tuples.size())) }, 0, 2));
+                long start = System.nanoTime();
+                g.open();
+                while (g.hasNext())
+                    g.next();
+                long time = System.nanoTime() - start;
+                g.close();
+                TupleIterator direct = new TupleIterator(td, tuples);
+                start = System.nanoTime();
+                direct.open();
+                while (direct.hasNext())
+                    direct.next();
+                time -= System.nanoTime() - start;
+                direct.close();
+                return time;
+            }
+        });
+
+        System.out.printf("predicate    %10.1f ns = 1 unit%n", unit);
+        print("ioPage", ioPage, unit, CostModel.IO_PAGE);
+        print("cachedPage", cachedPage, unit, CostModel.CACHED_PAGE);
+        print("hashBuild", build, unit, CostModel.HASH_BUILD);
+        print("hashProbe", probe, unit, CostModel.HASH_PROBE);
+        print("exchange", exchange, unit, CostModel.EXCHANGE);
+        System.out.printf("%njava -Dsimpledb.cost.ioPage=%.0f -Dsimpledb.cost.cachedPage=%.1f"
+                + " -Dsimpledb.cost.hashBuild=%.1f -Dsimpledb.cost.hashProbe=%.1f"
+                + " -Dsimpledb.cost.exchange=%.1f ...%n",
+                ioPage / unit, cachedPage / unit, build / unit, probe / unit, exchange / unit);
+        if (sink == 42)
+            System.out.println();
+    }
+
+    /** keeps the measured loops from being optimized away */
+    private static long sink;
+
+    private interface Measure {
+        /** @return the time in ns of the measured work on tuples */
+        long run(ArrayList<Tuple> tuples) throws Exception;
+    }
+
+    /**
+     * @return the time per tuple of m, fitted over inputs of up to rows
+     *         tuples, the fastest of iterations runs at each size after as
+     *         many runs to warm up the JIT compiler
+     */
+    private static double fit(int rows, int iterations, TupleDesc td, Measure m) throws Exception {
+        double[] x = new double[SCALES.length];
+        double[] y = new double[SCALES.length];
+        ArrayList<ArrayList<Tuple>> inputs = new ArrayList<ArrayList<Tuple>>();
+        for (int s = 0; s < SCALES.length; s++) {
+            int n = rows * SCALES[s] / SCALES[SCALES.length - 1];
+            inputs.add(tuples(td, n, n));
+            x[s] = n;
+            y[s] = Double.MAX_VALUE;
+        }
+        for (int i = 0; i < iterations; i++) {
+            for (ArrayList<Tuple> tuples : inputs)
+                m.run(tuples);
+        }
+        for (int i = 0; i < iterations; i++) {
+            for (int s = 0; s < SCALES.length; s++)
+                y[s] = Math.min(y[s], m.run(inputs.get(s)));
+        }
+        return slope(x, y);
+    }
+
+    /** @return the least squares slope of y over x */
+    private static double slope(double[] x, double[] y) {
+        double mx = 0, my = 0;
+        for (int i = 0; i < x.length; i++) {
+            mx += x[i] / x.length;
+            my += y[i] / x.length;
+        }
+        double sxy = 0, sxx = 0;
+        for (int i = 0; i < x.length; i++) {
+            sxy += (x[i] - mx) * (y[i] - my);
+            sxx += (x[i] - mx) * (x[i] - mx);
+        }
+        return Math.max(0, sxy / sxx);
+    }
+
+    /** @return n tuples with distinct values from first in field a */
+    private static ArrayList<Tuple> tuples(TupleDesc td, int n, int first) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(n);
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(first + i));
+            t.setField(1, new IntField(i % 1000));
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    private static Join join(TupleDesc td, Iterable<Tuple> outer, Iterable<Tuple> inner) {
+        return new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), new TupleIterator(td, outer),
+                new TupleIterator(td, inner));
+    }
+
+    private static int count(Page page) {
+        int n = 0;
+        for (Iterator<Tuple> it = ((HeapPage) page).iterator(); it.hasNext(); it.next())
+            n++;
+        return n;
+    }
+
+    private static void print(String name, double ns, double unit, double current) {
+        System.out.printf("%-12s %10.1f ns = %8.1f units (now %.1f)%n", name, ns, ns / unit, current);
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+/**
+ * CostModel holds the cost formulas of the algorithms the operators of a
+ * plan use, for the optimizer to compare plans with. Costs are in units of
+ * the CPU time of evaluating a predicate on a tuple; the other constants
+ * are multiples of it:
+ * <ul>
+ * <li>{@link #IO_PAGE}: reading a page that is not in the BufferPool,</li>
+ * <li>{@link #CACHED_PAGE}: reading a page that is,</li>
+ * <li>{@link #HASH_BUILD} and {@link #HASH_PROBE}: adding a tuple to the
+ * hash table of a {@link Join} and looking up a tuple in it,</li>
+ * <li>{@link #EXCHANGE}: passing a tuple from one thread to another in a
+ * parallel plan (see {@link ParallelPlanner}).</li>
+ * </ul>
+ * IO_PAGE defaults to the 1000 the optimizer has always charged per page,
+ * and CACHED_PAGE to a quarter of it, the ratio of reading a page through
+ * the file system cache to getting it from the BufferPool; the CPU
+ * constants default to values measured by {@link CostCalibrationBenchmark},
+ * which measures all of them on the running machine and prints the system
+ * properties that set them, e.g. <tt>-Dsimpledb.cost.ioPage=1000</tt>.
+ */
+public class CostModel {
+
+    public static final double IO_PAGE = property("ioPage", 1000);
+    public static final double CACHED_PAGE = property("cachedPage", 250);
+    public static final double HASH_BUILD = property("hashBuild", 8);
+    public static final double HASH_PROBE = property("hashProbe", 4);
+    public static final double EXCHANGE = property("exchange", 20);
+
+    private static double property(String name, double defaultValue) {
+        String value = System.getProperty("simpledb.cost." + name);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid simpledb.cost." + name + "=" + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return the cost of a hash join reading card2 inner tuples into a hash
+     *         table and probing it with card1 outer ones, given the costs of
+     *         producing the inputs. With dop pipelines both inputs are
+     *         repartitioned, and the hashing is split among the pipelines.
+     */
+    public static double hashJoinCost(double card1, double card2, double cost1, double cost2, int dop) {
+        double cpu = card2 * HASH_BUILD + card1 * HASH_PROBE;
+        if (dop <= 1)
+            return cost1 + cost2 + cpu;
+        return cost1 + cost2 + cpu / dop + (card1 + card2) * EXCHANGE;
+    }
+
+    /**
+     * @return the cost of a nested-loops join comparing each of card1 outer
+     *         tuples with the card2 inner ones, held in memory. With dop
+     *         pipelines the inner tuples are copied to each pipeline of the
+     *         outer ones, and the comparisons are split among them.
+     */
+    public static double nestedLoopsJoinCost(double card1, double card2, double cost1, double cost2, int dop) {
+        double cpu = card1 * card2;
+        if (dop <= 1)
+            return cost1 + cost2 + cpu;
+        return cost1 + cost2 + cpu / dop + card2 * dop * EXCHANGE;
+    }
+
+    /**
+     * @return the cost of an index nested-loops join probing the primary key
+     *         index of the inner table once per outer tuple, reading a
+     *         bucket page of the index and a page of the table per probe.
+     *         Probes run on one thread whatever the parallelism.
+     * @param card1 the number of outer tuples
+     * @param cost1 the cost of producing them
+     * @param tablePages the pages of the inner table, of which tableCached are in the BufferPool
+     * @param indexPages the pages of the index, of which indexCached are in the BufferPool
+     * @param bufferPages the capacity of the BufferPool
+     */
+    public static double indexJoinCost(double card1, double cost1, int tablePages, int tableCached,
+            int indexPages, int indexCached, int bufferPages) {
+        return cost1 + card1 * HASH_PROBE
+                + probeCost(card1, indexPages, indexCached, bufferPages / 2)
+                + probeCost(card1, tablePages, tableCached, bufferPages / 2);
+    }
+
+    /**
+     * @return the cost of reading a random page of a file of pages pages,
+     *         cached of which are in the BufferPool, probes times. A page
+     *         is read from disk the first time; once more pages are read
+     *         than buffer pages fit, a page may have been evicted before it
+     *         is read again.
+     */
+    static double probeCost(double probes, int pages, int cached, int bufferPages) {
+        if (probes <= 0 || pages <= 0)
+            return 0;
+        double uncached = 1 - (double) Math.min(cached, pages) / pages;
+        // the expected number of different pages read (Cardenas)
+        double distinct = pages * (1 - Math.pow(1 - 1.0 / pages, probes));
+        double misses = distinct;
+        if (pages > bufferPages)
+            misses = Math.max(misses, probes * (1 - (double) bufferPages / pages));
+        misses *= uncached;
+        return misses * IO_PAGE + (probes - misses) * CACHED_PAGE;
+    }
+}
@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Exchange is the base class of the operators that move tuples between
+ * threads. Everything below an exchange runs on worker threads; the operator
+ * above it pulls tuples on the calling thread as usual.
+ * <p>
+ * All exchanges share one pool of daemon worker threads. Workers block on
+ * bounded queues when their consumer falls behind, so the pool grows with the
+ * number of running pipelines rather than being sized to the number of cores.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of tuples buffered between a worker and its consumer */
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    private static final ExecutorService workers = Executors
+            .newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-exchange-"
+                            + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final String name;
+
+    protected Exchange(String kind) {
+        this.name = kind + "#" + nextId.incrementAndGet();
+    }
+
+    /** @return the thread pool the workers of all exchanges run on */
+    static ExecutorService getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return a name identifying this exchange, used when printing query
+     *         plans
+     */
+    public String getName() {
+        return name;
+    }
+
+    /** @return the number of threads feeding this exchange */
+    public abstract int getDegreeOfParallelism();
+
+    /**
+     * Spreads the hash code of a field so that low-entropy hashes (e.g.
+     * IntField) still use all partitions, and maps it to one of n partitions.
+     */
+    static int partitionOf(Field f, int n) {
+        int h = f.hashCode() * 0x9E3779B9;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % n;
+    }
+
+    /** The work done by one worker of a {@link Workers} set */
+    interface Task {
+        void run(int worker) throws Exception;
+    }
+
+    /**
+     * A set of tasks running on the exchange thread pool. The first failure of
+     * any task is kept so that it can be rethrown on the consuming thread.
+     * Cancelling interrupts the tasks that are still running (a task blocked
+     * on a queue of another exchange is woken up this way) and waits until
+     * all of them have returned.
+     */
+    static class Workers {
+        private final ArrayList<Future<?>> futures;
+        private final Thread[] running;
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        private volatile boolean cancelled = false;
+
+        private final Task task;
+
+        Workers(int n, Task task) {
+            this.task = task;
+            futures = new ArrayList<Future<?>>(n);
+            running = new Thread[n];
+        }
+
+        /** Submit the tasks to the exchange thread pool */
+        void start() {
+            for (int i = 0; i < running.length; i++) {
+                final int worker = i;
+                futures.add(workers.submit(new Runnable() {
+                    public void run() {
+                        synchronized (running) {
+                            running[worker] = Thread.currentThread();
+                        }
+                        try {
+                            if (!cancelled)
+                                task.run(worker);
+                        } catch (Throwable e) {
+                            fail(e);
+                        } finally {
+                            synchronized (running) {
+                                running[worker] = null;
+                                // do not leak a late interrupt into the pool
+                                Thread.interrupted();
+                            }
+                        }
+                    }
+                }));
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Record the failure of a task. Tasks that signal the end of their
+         * output themselves must call this before doing so, so that the
+         * consumer sees the failure together with the end of the stream.
+         */
+        void fail(Throwable e) {
+            if (!cancelled)
+                failure.compareAndSet(null, e);
+        }
+
+        /** @return the first failure of any task, or null */
+        Throwable getFailure() {
+            return failure.get();
+        }
+
+        /** Interrupt the running tasks and wait until all of them returned */
+        void cancel() {
+            cancelled = true;
+            synchronized (running) {
+                for (Thread t : running) {
+                    if (t != null)
+                        t.interrupt();
+                }
+            }
+            await();
+        }
+
+        /**
+         * Wait until all tasks have returned. An interrupt does not cut the
+         * wait short (the tasks might otherwise still be using state that the
+         * caller is about to reset); it is restored once the wait is over.
+         */
+        void await() {
+            boolean interrupted = false;
+            for (Future<?> f : futures) {
+                while (true) {
+                    try {
+                        f.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        e.printStackTrace();
+                        break;
+                    }
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Rethrow a failure of a worker on the consuming thread.
+     */
+    void rethrow(Throwable e) throws DbException, TransactionAbortedException {
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e instanceof DbException)
+            throw (DbException) e;
+        throw new DbException(getName() + " worker failed: " + e);
+    }
+}
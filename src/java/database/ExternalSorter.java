@@ -0,0 +1,328 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ExternalSorter sorts a stream of tuples that may not fit in memory. Tuples
+ * are buffered until the memory budget is reached; the buffer is then sorted
+ * and written to a temporary file as a sorted run. Reading the result merges
+ * all runs with a heap (k-way merge). If there are more runs than
+ * {@link #MAX_FAN_IN}, runs are first merged into longer runs so that the
+ * final merge never keeps too many files open. These merges go in passes
+ * over the runs, each merging a run at most once, so a tuple is written
+ * once per pass and the passes grow logarithmically with the runs.
+ * <p>
+ * If everything fits in the budget, no file is written and the result is
+ * simply the sorted buffer.
+ */
+public class ExternalSorter {
+
+    /** Maximum number of runs merged at once */
+    static final int MAX_FAN_IN = 64;
+
+    /** Rough heap cost of a Tuple and its field list, per tuple and per field */
+    static final int TUPLE_OVERHEAD = 48;
+    static final int FIELD_OVERHEAD = 24;
+
+    final TupleDesc td;
+    final Comparator<Tuple> comparator;
+    final long memoryBudget;
+    final long bytesPerTuple;
+
+    ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+    ArrayList<Run> runs = new ArrayList<Run>();
+    boolean finished = false;
+    long spilledBytes = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param td
+     *            the schema of the tuples being sorted
+     * @param comparator
+     *            the sort order
+     * @param memoryBudget
+     *            the number of bytes of tuples to buffer before writing a
+     *            sorted run to disk
+     */
+    public ExternalSorter(TupleDesc td, Comparator<Tuple> comparator, long memoryBudget) {
+        this.td = td;
+        this.comparator = comparator;
+        this.memoryBudget = memoryBudget;
+        this.bytesPerTuple = estimateTupleSize(td);
+    }
+
+    /**
+     * @return an estimate of the number of heap bytes a tuple of the
+     *         specified schema takes
+     */
+    static long estimateTupleSize(TupleDesc td) {
+        return TUPLE_OVERHEAD + td.getSize() + (long) FIELD_OVERHEAD * td.numFields();
+    }
+
+    /** Add a tuple to the set being sorted */
+    public void add(Tuple t) throws DbException {
+        if (finished)
+            throw new IllegalStateException("sorter has already been read");
+        if (!buffer.isEmpty() && (buffer.size() + 1L) * bytesPerTuple > memoryBudget) {
+            writeRun(buffer);
+            buffer = new ArrayList<Tuple>();
+        }
+        buffer.add(t);
+    }
+
+    /** @return true if at least one sorted run was written to disk */
+    public boolean hasSpilled() {
+        return !runs.isEmpty();
+    }
+
+    /** @return the number of bytes written to run files so far */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    private void writeRun(ArrayList<Tuple> tuples) throws DbException {
+        Collections.sort(tuples, comparator);
+        Run run = new Run();
+        DataOutputStream dos = run.create();
+        long bytes = 0;
+        try {
+            for (Tuple t : tuples) {
+                bytes += writeTuple(dos, t);
+            }
+            dos.close();
+        } catch (IOException e) {
+            run.delete();
+            throw new DbException("failed to write sorted run: " + e.getMessage());
+        }
+        run.count = tuples.size();
+        runs.add(run);
+        spilledBytes += bytes;
+        Metrics.add(Metrics.SORT_SPILLED_BYTES, bytes);
+        Debug.log(1, "ExternalSorter: wrote run %d with %d tuples", runs.size(), tuples.size());
+    }
+
+    /**
+     * Merge runs [from, to) into a single new run, replacing them in the run
+     * list.
+     */
+    private void mergeRuns(int from, int to) throws DbException {
+        List<Run> toMerge = new ArrayList<Run>(runs.subList(from, to));
+        Run merged = new Run();
+        DataOutputStream dos = merged.create();
+        MergeIterator it = new MergeIterator(toMerge);
+        long bytes = 0;
+        try {
+            while (it.hasNext()) {
+                bytes += writeTuple(dos, it.next());
+                merged.count++;
+            }
+            dos.close();
+        } catch (IOException e) {
+            merged.delete();
+            throw new DbException("failed to merge sorted runs: " + e.getMessage());
+        } finally {
+            it.close();
+        }
+        for (Run r : toMerge) {
+            r.delete();
+        }
+        runs.subList(from, to).clear();
+        runs.add(from, merged);
+        spilledBytes += bytes;
+        Metrics.add(Metrics.SORT_SPILLED_BYTES, bytes);
+    }
+
+    private void finish() throws DbException {
+        if (finished)
+            return;
+        finished = true;
+        if (runs.isEmpty()) {
+            Collections.sort(buffer, comparator);
+            return;
+        }
+        if (!buffer.isEmpty()) {
+            writeRun(buffer);
+        }
+        buffer = new ArrayList<Tuple>();
+        while (runs.size() > MAX_FAN_IN) {
+            // one pass: merge groups of runs left to right, stepping over
+            // each merged run, until few enough are left for the last merge;
+            // runs stay in input order, which keeps the merge stable
+            for (int i = 0; i < runs.size() - 1 && runs.size() > MAX_FAN_IN; i++) {
+                int n = Math.min(MAX_FAN_IN, runs.size() - MAX_FAN_IN + 1);
+                mergeRuns(i, i + Math.min(n, runs.size() - i));
+            }
+        }
+    }
+
+    /**
+     * Returns an iterator over the sorted tuples. After this call no more
+     * tuples may be added; the result may be iterated any number of times
+     * until the sorter is closed.
+     */
+    public SortedIterator iterator() throws DbException {
+        finish();
+        if (runs.isEmpty())
+            return new BufferIterator(buffer);
+        return new MergeIterator(runs);
+    }
+
+    /** Delete all run files and drop the buffered tuples. */
+    public void close() {
+        for (Run r : runs) {
+            r.delete();
+        }
+        runs.clear();
+        buffer = new ArrayList<Tuple>();
+    }
+
+    /** @return the number of bytes written */
+    static int writeTuple(DataOutputStream dos, Tuple t) throws IOException {
+        return t.writeSetFields(dos);
+    }
+
+    static Tuple readTuple(DataInputStream dis, TupleDesc td) throws IOException {
+        Tuple t = new Tuple(td);
+        t.readSetFields(dis);
+        return t;
+    }
+
+    /** A sorted run stored in a temporary file */
+    class Run {
+        File file;
+        int count;
+
+        DataOutputStream create() throws DbException {
+            try {
+                file = File.createTempFile("simpledb-sort", ".run");
+                file.deleteOnExit();
+                return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            } catch (IOException e) {
+                throw new DbException("failed to create sorted run: " + e.getMessage());
+            }
+        }
+
+        DataInputStream open() throws DbException {
+            try {
+                return new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            } catch (IOException e) {
+                throw new DbException("failed to open sorted run: " + e.getMessage());
+            }
+        }
+
+        void delete() {
+            if (file != null)
+                file.delete();
+        }
+    }
+
+    /** Iterates over the output of an ExternalSorter */
+    public interface SortedIterator {
+        public boolean hasNext() throws DbException;
+
+        public Tuple next() throws DbException;
+
+        /** Release any files held open by this iterator */
+        public void close();
+    }
+
+    static class BufferIterator implements SortedIterator {
+        final Iterator<Tuple> it;
+
+        BufferIterator(List<Tuple> tuples) {
+            it = tuples.iterator();
+        }
+
+        public boolean hasNext() {
+            return it.hasNext();
+        }
+
+        public Tuple next() {
+            return it.next();
+        }
+
+        public void close() {
+        }
+    }
+
+    /** Reads the next tuple of one run during a merge */
+    class RunCursor {
+        final int index;
+        final DataInputStream dis;
+        int remaining;
+        Tuple current;
+
+        RunCursor(int index, Run run) throws DbException {
+            this.index = index;
+            this.dis = run.open();
+            this.remaining = run.count;
+        }
+
+        boolean advance() throws DbException {
+            if (remaining == 0) {
+                current = null;
+                close();
+                return false;
+            }
+            try {
+                current = readTuple(dis, td);
+            } catch (IOException e) {
+                close();
+                throw new DbException("failed to read sorted run: " + e.getMessage());
+            }
+            remaining--;
+            return true;
+        }
+
+        void close() {
+            try {
+                dis.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** k-way merge of sorted runs using a heap of run cursors */
+    class MergeIterator implements SortedIterator {
+        final PriorityQueue<RunCursor> heap;
+
+        MergeIterator(List<Run> toMerge) throws DbException {
+            heap = new PriorityQueue<RunCursor>(Math.max(1, toMerge.size()), new Comparator<RunCursor>() {
+                public int compare(RunCursor c1, RunCursor c2) {
+                    int c = comparator.compare(c1.current, c2.current);
+                    // keep the merge stable: ties go to the earlier run
+                    return c != 0 ? c : Integer.compare(c1.index, c2.index);
+                }
+            });
+            for (int i = 0; i < toMerge.size(); i++) {
+                RunCursor cursor = new RunCursor(i, toMerge.get(i));
+                if (cursor.advance())
+                    heap.add(cursor);
+            }
+        }
+
+        public boolean hasNext() {
+            return !heap.isEmpty();
+        }
+
+        public Tuple next() throws DbException {
+            RunCursor cursor = heap.poll();
+            if (cursor == null)
+                throw new NoSuchElementException("no more tuples");
+            Tuple result = cursor.current;
+            if (cursor.advance())
+                heap.add(cursor);
+            return result;
+        }
+
+        public void close() {
+            for (RunCursor cursor : heap) {
+                cursor.close();
+            }
+            heap.clear();
+        }
+    }
+}
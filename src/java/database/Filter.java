@@ -3,14 +3,21 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. Its predicate
+ * may be a conjunction of several Predicates, which are compiled into a
+ * single evaluator (see {@link CompiledPredicate}).
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     
     Predicate p;
+    Predicate[] predicates;
+    CompiledPredicate compiled;
+    /** the operands of the predicates when they were compiled */
+    Field[] operands;
     DbIterator child;
+    transient TupleBatch buffer;
     
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -22,20 +29,61 @@ public class Filter extends Operator {
      *            The child operator
      */
     public Filter(Predicate p, DbIterator child) {
-    	this.p = p;
+    	this(new Predicate[] {p}, child);
+    }
+
+    /**
+     * Constructor accepts a conjunction of predicates to apply and a child
+     * operator to read tuples to filter from.
+     * 
+     * @param predicates
+     *            The predicates every returned tuple satisfies; at least one
+     * @param child
+     *            The child operator
+     */
+    public Filter(Predicate[] predicates, DbIterator child) {
+    	if (predicates.length == 0)
+    		throw new IllegalArgumentException("a filter needs a predicate");
+    	this.p = predicates[0];
+    	this.predicates = predicates;
+    	compile();
     	this.child = child;
     }
 
+    private void compile() {
+    	compiled = CompiledPredicate.compile(predicates);
+    	operands = new Field[predicates.length];
+    	for (int i = 0; i < predicates.length; i++)
+    		operands[i] = predicates[i].getOperand();
+    }
+
+    /**
+     * @return the predicate of this filter, or the first one of a conjunction
+     */
     public Predicate getPredicate() {
         return p;
     }
 
+    /**
+     * @return all predicates of this filter
+     */
+    public Predicate[] getPredicates() {
+        return predicates;
+    }
+
     public TupleDesc getTupleDesc() {
         return child.getTupleDesc();
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+    		// the operands may have been rebound since they were compiled
+    		for (int i = 0; i < predicates.length; i++) {
+    			if (predicates[i].getOperand() != operands[i]) {
+    				compile();
+    				break;
+    			}
+    		}
     		super.open();
     		child.open();
     }
@@ -52,17 +100,36 @@ public class Filter extends Operator {
     /**
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
      * child operator, applying the predicate to them and returning those that
-     * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * pass all predicates.
      * 
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
-     * @see Predicate#filter
+     * @see CompiledPredicate#matches
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
     	while (child.hasNext()) {
     		Tuple nextTuple = child.next();
-    		if (p.filter(nextTuple)) return nextTuple;
+    		if (compiled.matches(nextTuple)) return nextTuple;
+    	}
+    	return null;
+    }
+
+    /**
+     * Reads batches of the child and clears the selection of the rows that
+     * do not pass the predicate, skipping batches where no row is left.
+     * 
+     * @see CompiledPredicate#filter(TupleBatch)
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+    	if (!isOpen())
+    		throw new IllegalStateException("Operator not yet open");
+    	if (buffer == null)
+    		buffer = new TupleBatch(child.getTupleDesc());
+    	TupleBatch b;
+    	while ((b = TupleBatch.next(child, buffer)) != null) {
+    		compiled.filter(b);
+    		if (b.numSelected() > 0) return b;
     	}
     	return null;
     }
@@ -75,6 +142,7 @@ public class Filter extends Operator {
     @Override
     public void setChildren(DbIterator[] children) {
         child = children[0];
+        buffer = null;
     }
 
 }
@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures the throughput of evaluating a conjunction of predicates over
+ * in-memory tuples: interpreted through Field.compare, compiled into a
+ * {@link CompiledPredicate} and applied per tuple, and compiled and applied
+ * to {@link TupleBatch}es.
+ * <p>
+ * Usage: <code>java simpledb.FilterBenchmark [rows] [iterations]</code>
+ */
+public class FilterBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "a", "b", "s" });
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(rows);
+        Random r = new Random(42);
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(r.nextInt(1000)));
+            t.setField(1, new IntField(r.nextInt(10)));
+            t.setField(2, new StringField("s" + r.nextInt(50), Type.STRING_LEN));
+            tuples.add(t);
+        }
+        // a >= 100 AND a < 600 AND b <> 3 AND s > 's2'
+        Predicate[] conjunction = new Predicate[] {
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(100)),
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(600)),
+                new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(3)),
+                new Predicate(2, Predicate.Op.GREATER_THAN, new StringField("s2", Type.STRING_LEN)) };
+
+        CompiledPredicate compiled = CompiledPredicate.compile(conjunction);
+
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            int interpreted = 0;
+            for (Tuple t : tuples) {
+                boolean pass = true;
+                for (Predicate p : conjunction) {
+                    if (!t.getField(p.getField()).compare(p.getOp(), p.getOperand())) {
+                        pass = false;
+                        break;
+                    }
+                }
+                if (pass)
+                    interpreted++;
+            }
+            long t1 = System.nanoTime();
+
+            int matched = 0;
+            for (Tuple t : tuples) {
+                if (compiled.matches(t))
+                    matched++;
+            }
+            long t2 = System.nanoTime();
+
+            // batches are built outside of the measurement, as a columnar
+            // scan would deliver them
+            ArrayList<TupleBatch> batches = new ArrayList<TupleBatch>();
+            TupleBatch batch = null;
+            for (Tuple t : tuples) {
+                if (batch == null || batch.isFull()) {
+                    batch = new TupleBatch(td);
+                    batches.add(batch);
+                }
+                batch.addTuple(t);
+            }
+            long t3 = System.nanoTime();
+            int batched = 0;
+            for (TupleBatch b : batches) {
+                compiled.filter(b);
+                batched += b.numSelected();
+            }
+            long t4 = System.nanoTime();
+
+            if (interpreted != matched || interpreted != batched)
+                throw new IllegalStateException("results differ: " + interpreted + " "
+                        + matched + " " + batched);
+            System.out.println(String.format(
+                    "iteration %d: interpreted %.1f, compiled %.1f, batched %.1f Mrows/s",
+                    i, rate(rows, t1 - start), rate(rows, t2 - t1), rate(rows, t4 - t3)));
+        }
+    }
+
+    private static double rate(int rows, long nanos) {
+        return rows * 1000.0 / nanos;
+    }
+}
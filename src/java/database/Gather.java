@@ -0,0 +1,64 @@
+package simpledb;
+
+/**
+ * Gather runs each of its children on its own worker thread and merges their
+ * tuples into a single stream. The children are independent pipelines, e.g.
+ * the partitions of a parallel join, and are opened, read and closed
+ * entirely on their worker threads. Tuples are returned in no particular
+ * order.
+ */
+public class Gather extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator[] children;
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            the pipelines to run in parallel; all of them must have the
+     *            same TupleDesc
+     */
+    public Gather(DbIterator[] children) {
+        super("gather(" + children.length + ")", children.length, DEFAULT_QUEUE_SIZE);
+        this.children = children;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    /**
+     * Start every redistributing exchange in the pipelines over, so that a
+     * round that was cancelled half-way does not leak into this one.
+     */
+    protected void prepare() {
+        Redistribute.resetAll(children);
+    }
+
+    protected void runWorker(int worker) throws DbException,
+            TransactionAbortedException, InterruptedException {
+        DbIterator child = children[worker];
+        try {
+            child.open();
+            while (child.hasNext()) {
+                emit(child.next());
+            }
+        } finally {
+            child.close();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return children;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (children.length != this.children.length)
+            throw new IllegalArgumentException("expected " + this.children.length + " children");
+        this.children = children;
+    }
+}
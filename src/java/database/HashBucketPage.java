@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.ArrayList;
+
+/**
+ * A bucket page of a HashIndexFile, either the primary page of a bucket or
+ * one of its overflow pages. It holds entries <tt>(key, page, slot)</tt>
+ * naming the heap page and slot of the tuple with that key.
+ * <p>
+ * The page starts with the number of the next overflow page of the bucket
+ * (0 if there is none) and the number of entries, followed by the entries:
+ * the key in the format of Field.serialize and the page and slot as ints.
+ */
+public class HashBucketPage extends HashPage {
+
+    private static final int HEADER_SIZE = 8;
+
+    private final Type keyType;
+    private int nextPage;
+    private final ArrayList<Field> keys = new ArrayList<Field>();
+    private final ArrayList<Integer> pages = new ArrayList<Integer>();
+    private final ArrayList<Integer> slots = new ArrayList<Integer>();
+
+    /**
+     * Create a bucket page from a set of bytes of data read from disk. An
+     * all-zero page is an empty bucket without overflow pages.
+     */
+    public HashBucketPage(HeapPageId id, byte[] data) throws IOException {
+        super(id);
+        HashIndexFile f = (HashIndexFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+        keyType = f.getKeyType();
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        nextPage = dis.readInt();
+        int n = dis.readInt();
+        if (n < 0 || n > getMaxEntries())
+            throw new IOException("invalid number of entries " + n + " on page " + id.pageNumber());
+        try {
+            for (int i = 0; i < n; i++) {
+                keys.add(keyType.parse(dis));
+                pages.add(dis.readInt());
+                slots.add(dis.readInt());
+            }
+        } catch (ParseException e) {
+            throw new IOException("failed to parse key on page " + id.pageNumber());
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of entries that fit on a page */
+    public int getMaxEntries() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (keyType.getLen() + 8);
+    }
+
+    public int getNumEntries() {
+        return keys.size();
+    }
+
+    public boolean isFull() {
+        return keys.size() >= getMaxEntries();
+    }
+
+    public Field getKey(int i) {
+        return keys.get(i);
+    }
+
+    /** @return the number of the heap page of entry i */
+    public int getPage(int i) {
+        return pages.get(i);
+    }
+
+    /** @return the slot on its heap page of entry i */
+    public int getSlot(int i) {
+        return slots.get(i);
+    }
+
+    /** @return the position of the first entry with this key, or -1 */
+    public int indexOf(Field key) {
+        return keys.indexOf(key);
+    }
+
+    /** @return the next overflow page of the bucket, or 0 if there is none */
+    public int getNextPage() {
+        return nextPage;
+    }
+
+    public void setNextPage(int page) {
+        nextPage = page;
+    }
+
+    public void addEntry(Field key, int page, int slot) {
+        keys.add(key);
+        pages.add(page);
+        slots.add(slot);
+    }
+
+    public void removeEntry(int i) {
+        keys.remove(i);
+        pages.remove(i);
+        slots.remove(i);
+    }
+
+    /** Remove all entries and the link to the next overflow page */
+    public void clear() {
+        keys.clear();
+        pages.clear();
+        slots.clear();
+        nextPage = 0;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(nextPage);
+            dos.writeInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                keys.get(i).serialize(dos);
+                dos.writeInt(pages.get(i));
+                dos.writeInt(slots.get(i));
+            }
+            dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+}
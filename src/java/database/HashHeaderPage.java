@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * The header page of a HashIndexFile, page 0 of the file. It holds the state
+ * of the linear hashing scheme: the level and the next bucket to split,
+ * which together give the number of buckets, the head of the list of free
+ * overflow pages, and the number of overflow pages allocated in each split
+ * group (see {@link HashIndexFile#bucketPage}).
+ * <p>
+ * An all-zero page is the header of an index with a single empty bucket.
+ */
+public class HashHeaderPage extends HashPage {
+
+    /** Number of split groups, enough for 2^31 buckets */
+    static final int NUM_GROUPS = 32;
+
+    private int level;
+    private int next;
+    private int freeList;
+    private final int[] spares = new int[NUM_GROUPS];
+
+    /**
+     * Create a header page from a set of bytes of data read from disk.
+     */
+    public HashHeaderPage(HeapPageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        level = dis.readInt();
+        next = dis.readInt();
+        freeList = dis.readInt();
+        for (int i = 0; i < NUM_GROUPS; i++)
+            spares[i] = dis.readInt();
+        dis.close();
+        if (level < 0 || level >= NUM_GROUPS - 1 || next < 0 || next >= (1 << level))
+            throw new IOException("invalid hash index header");
+        setBeforeImage();
+    }
+
+    /** @return the number of times every bucket has been split */
+    public int getLevel() {
+        return level;
+    }
+
+    /** @return the next bucket to split */
+    public int getNext() {
+        return next;
+    }
+
+    /** @return the number of buckets of the index */
+    public int numBuckets() {
+        return (1 << level) + next;
+    }
+
+    /**
+     * Record that the next bucket was split: move to the following bucket,
+     * or to the next level once every bucket of this level was split.
+     */
+    void advanceSplit() {
+        next++;
+        if (next == (1 << level)) {
+            level++;
+            next = 0;
+        }
+    }
+
+    /** @return the first free overflow page, or 0 if there is none */
+    public int getFreeList() {
+        return freeList;
+    }
+
+    void setFreeList(int page) {
+        freeList = page;
+    }
+
+    /** @return the number of overflow pages allocated up to split group g */
+    public int getSpares(int g) {
+        return g < 0 ? 0 : spares[g];
+    }
+
+    void setSpares(int g, int n) {
+        spares[g] = n;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(level);
+            dos.writeInt(next);
+            dos.writeInt(freeList);
+            for (int i = 0; i < NUM_GROUPS; i++)
+                dos.writeInt(spares[i]);
+            dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,468 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is a persistent linear hash index on the primary key of a
+ * table stored in a HeapFile. Its entries <tt>(key, page, slot)</tt> name
+ * the heap page and slot of the tuple with each key, so an equality lookup
+ * reads the header page and the page of one bucket, plus the overflow pages
+ * of the bucket if it has any.
+ * <p>
+ * The index starts with a single bucket. Whenever an insert has to add an
+ * overflow page to a bucket, the next bucket in linear order is split in
+ * two, so the number of buckets grows with the number of keys and chains
+ * stay short. Overflow pages emptied by a split are kept in a free list.
+ * <p>
+ * Page 0 is a HashHeaderPage, whose last bytes keep the stamp of the table
+ * the index matches (see {@link IndexStamp}). The primary pages of the
+ * buckets of split group g, which holds bucket 0 for g = 0 and buckets
+ * 2^(g-1) to 2^g - 1 otherwise, follow the overflow pages allocated while
+ * group g - 1 was the last group; the header counts these pages per group,
+ * so the page of a bucket is computed without a directory (see
+ * {@link #bucketPage}).
+ * <p>
+ * All pages are read and locked through the BufferPool. Lookups and inserts
+ * that fit in their bucket only lock the header with READ_ONLY; adding an
+ * overflow page and splitting upgrade it to READ_WRITE. HeapFile keeps the
+ * index of a table in sync with it and rejects duplicate keys.
+ *
+ * @see Catalog#getPrimaryKeyIndex
+ */
+public class HashIndexFile implements DbFile {
+
+    /** The page number of the header page */
+    static final int HEADER_PAGE = 0;
+
+    /** Number of entries inserted per transaction while building an index */
+    private static final int BUILD_BATCH = 1000;
+
+    private final File f;
+    private final int tableid;
+    private final int keyField;
+    private final Type keyType;
+    private final TupleDesc td;
+
+    /**
+     * Constructs a hash index backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            index; an empty file is an empty index
+     * @param tableid
+     *            the id of the indexed table, whose pages the entries name
+     * @param keyField
+     *            the index of the primary key in the tuples of the table
+     * @param keyType
+     *            the type of the primary key
+     */
+    public HashIndexFile(File f, int tableid, int keyField, Type keyType) {
+        this.f = f;
+        this.tableid = tableid;
+        this.keyField = keyField;
+        this.keyType = keyType;
+        this.td = new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "page", "slot" });
+    }
+
+    /**
+     * @return the file storing the primary key index of the table stored in
+     *         heapFile: the same name with the extension <tt>.pkey</tt>
+     */
+    public static File indexFileFor(File heapFile) {
+        String name = heapFile.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0)
+            name = name.substring(0, dot);
+        return new File(heapFile.getAbsoluteFile().getParentFile(), name + ".pkey");
+    }
+
+    /**
+     * Returns the File backing this HashIndexFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this HashIndexFile, computed like
+     * that of a HeapFile from the absolute file name.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    /** @return the id of the indexed table */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the index of the primary key in the tuples of the table */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /** @return the TupleDesc of the entries of the index: key, page and slot */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the number of pages in this HashIndexFile, including the
+     * header page and the primary pages of buckets that were not written yet.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != getId() || !(pid instanceof HeapPageId)) {
+            throw new IllegalArgumentException("page does not exist in this file");
+        }
+        HeapPageId id = (HeapPageId) pid;
+        byte[] data = HashPage.createEmptyPageData();
+        // pages past the end of the file are buckets that are still empty
+        if (id.pageNumber() < numPages()) {
+            try {
+                RandomAccessFile raf = new RandomAccessFile(f, "r");
+                try {
+                    raf.seek((long) id.pageNumber() * BufferPool.getPageSize());
+                    raf.readFully(data);
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException("failed to read page " + pid + ": " + e.getMessage());
+            }
+        }
+        try {
+            return HashPage.createPage(id, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("failed to parse page " + pid + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void writePage(Page page) throws IOException {
+        byte[] data = page.getPageData();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            if (page.getId().pageNumber() == HEADER_PAGE) {
+                IndexStamp.writeFirstPage(raf, data);
+            } else {
+                raf.seek((long) page.getId().pageNumber() * BufferPool.getPageSize());
+                raf.write(data);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** @return the split group of bucket b */
+    private static int group(int b) {
+        return 32 - Integer.numberOfLeadingZeros(b);
+    }
+
+    /**
+     * @return the page number of the primary page of bucket b: the header
+     *         page, the buckets of the earlier groups and the overflow pages
+     *         allocated before the group of b come first
+     */
+    static int bucketPage(HashHeaderPage header, int b) {
+        return 1 + b + header.getSpares(group(b) - 1);
+    }
+
+    /** @return the bucket key belongs to */
+    static int bucketOf(HashHeaderPage header, Field key) {
+        int h = key.hashCode();
+        // spread the bits, since the hash code of an IntField is its value
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h &= 0x7fffffff;
+        int b = h & ((1 << header.getLevel()) - 1);
+        if (b < header.getNext())
+            b = h & ((1 << (header.getLevel() + 1)) - 1);
+        return b;
+    }
+
+    private HashHeaderPage header(TransactionId tid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashHeaderPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(getId(), HEADER_PAGE), perm);
+    }
+
+    private HashBucketPage bucket(TransactionId tid, int page, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashBucketPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(getId(), page), perm);
+    }
+
+    private static void dirty(Page p, TransactionId tid, ArrayList<Page> modifiedPages) {
+        p.markDirty(true, tid);
+        if (!modifiedPages.contains(p))
+            modifiedPages.add(p);
+    }
+
+    /**
+     * Look up the tuple with the specified key.
+     *
+     * @return the RecordId of the tuple, or null if there is none
+     */
+    public RecordId lookup(TransactionId tid, Field key)
+            throws DbException, TransactionAbortedException {
+        HashHeaderPage header = header(tid, Permissions.READ_ONLY);
+        int page = bucketPage(header, bucketOf(header, key));
+        while (page != 0) {
+            HashBucketPage p = bucket(tid, page, Permissions.READ_ONLY);
+            int i = p.indexOf(key);
+            if (i >= 0)
+                return new RecordId(new HeapPageId(tableid, p.getPage(i)), p.getSlot(i));
+            page = p.getNextPage();
+        }
+        return null;
+    }
+
+    /**
+     * Add the entry of the tuple with the specified key, stored at rid.
+     *
+     * @return the pages that were modified
+     * @throws DbException if the index already has an entry with this key
+     */
+    public ArrayList<Page> insertEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        HashHeaderPage header = header(tid, Permissions.READ_ONLY);
+        HashBucketPage target = null, last = null;
+        for (int page = bucketPage(header, bucketOf(header, key)); page != 0; page = last.getNextPage()) {
+            last = bucket(tid, page, Permissions.READ_WRITE);
+            if (last.indexOf(key) >= 0)
+                throw new DbException("duplicate primary key " + key);
+            if (target == null && !last.isFull())
+                target = last;
+        }
+        if (target != null) {
+            target.addEntry(key, rid.getPageId().pageNumber(), rid.tupleno());
+            dirty(target, tid, modifiedPages);
+            return modifiedPages;
+        }
+        // the bucket is full: chain an overflow page, then split a bucket
+        header = header(tid, Permissions.READ_WRITE);
+        HashBucketPage overflow = allocateOverflow(tid, header, modifiedPages);
+        overflow.addEntry(key, rid.getPageId().pageNumber(), rid.tupleno());
+        last.setNextPage(overflow.getId().pageNumber());
+        dirty(last, tid, modifiedPages);
+        split(tid, header, modifiedPages);
+        return modifiedPages;
+    }
+
+    /**
+     * Remove the entry of the tuple with the specified key, stored at rid.
+     * Emptied overflow pages stay in their bucket until it is split.
+     *
+     * @return the pages that were modified
+     * @throws DbException if the index has no such entry
+     */
+    public ArrayList<Page> deleteEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        HashHeaderPage header = header(tid, Permissions.READ_ONLY);
+        int page = bucketPage(header, bucketOf(header, key));
+        while (page != 0) {
+            HashBucketPage p = bucket(tid, page, Permissions.READ_WRITE);
+            int i = p.indexOf(key);
+            if (i >= 0 && p.getPage(i) == rid.getPageId().pageNumber() && p.getSlot(i) == rid.tupleno()) {
+                p.removeEntry(i);
+                dirty(p, tid, modifiedPages);
+                return modifiedPages;
+            }
+            page = p.getNextPage();
+        }
+        throw new DbException("primary key index has no entry for " + key);
+    }
+
+    /**
+     * Take an empty overflow page from the free list, or else append one
+     * after the buckets of the last split group.
+     */
+    private HashBucketPage allocateOverflow(TransactionId tid, HashHeaderPage header,
+            ArrayList<Page> modifiedPages) throws DbException, TransactionAbortedException {
+        int page = header.getFreeList();
+        HashBucketPage p;
+        if (page != 0) {
+            p = bucket(tid, page, Permissions.READ_WRITE);
+            header.setFreeList(p.getNextPage());
+            p.clear();
+        } else {
+            int g = group(header.numBuckets() - 1);
+            page = 1 + (1 << g) + header.getSpares(g);
+            header.setSpares(g, header.getSpares(g) + 1);
+            p = bucket(tid, page, Permissions.READ_WRITE);
+        }
+        dirty(header, tid, modifiedPages);
+        dirty(p, tid, modifiedPages);
+        return p;
+    }
+
+    /**
+     * Split the next bucket: its entries are spread over it and a new bucket
+     * at the end, and its overflow pages go to the free list.
+     */
+    private void split(TransactionId tid, HashHeaderPage header, ArrayList<Page> modifiedPages)
+            throws DbException, TransactionAbortedException {
+        int old = header.getNext();
+        int added = header.numBuckets();
+        int g = group(added);
+        if (g > group(added - 1))
+            header.setSpares(g, header.getSpares(g - 1));
+
+        ArrayList<Field> keys = new ArrayList<Field>();
+        ArrayList<Integer> pages = new ArrayList<Integer>();
+        ArrayList<Integer> slots = new ArrayList<Integer>();
+        HashBucketPage primary = bucket(tid, bucketPage(header, old), Permissions.READ_WRITE);
+        for (HashBucketPage p = primary; p != null; ) {
+            for (int i = 0; i < p.getNumEntries(); i++) {
+                keys.add(p.getKey(i));
+                pages.add(p.getPage(i));
+                slots.add(p.getSlot(i));
+            }
+            int nextPage = p.getNextPage();
+            p.clear();
+            if (p != primary) {
+                p.setNextPage(header.getFreeList());
+                header.setFreeList(p.getId().pageNumber());
+            }
+            dirty(p, tid, modifiedPages);
+            p = nextPage == 0 ? null : bucket(tid, nextPage, Permissions.READ_WRITE);
+        }
+        header.advanceSplit();
+        dirty(header, tid, modifiedPages);
+
+        for (int i = 0; i < keys.size(); i++) {
+            HashBucketPage p = bucket(tid, bucketPage(header, bucketOf(header, keys.get(i))),
+                    Permissions.READ_WRITE);
+            while (p.isFull()) {
+                if (p.getNextPage() == 0) {
+                    HashBucketPage overflow = allocateOverflow(tid, header, modifiedPages);
+                    p.setNextPage(overflow.getId().pageNumber());
+                    dirty(p, tid, modifiedPages);
+                    p = overflow;
+                } else {
+                    p = bucket(tid, p.getNextPage(), Permissions.READ_WRITE);
+                }
+            }
+            p.addEntry(keys.get(i), pages.get(i), slots.get(i));
+            dirty(p, tid, modifiedPages);
+        }
+    }
+
+    /**
+     * Fill an empty index with the keys of the tuples of the table, inserted
+     * while the table is scanned, a batch per transaction, so that the dirty
+     * pages of a batch fit in the buffer pool. Duplicate keys are found by
+     * the inserts; the batches committed before are then left in the index,
+     * which the caller has to discard.
+     *
+     * @throws DbException if two tuples have the same key
+     */
+    public void build() throws DbException, IOException, TransactionAbortedException {
+        TransactionId scan = new TransactionId();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid).iterator(scan);
+        boolean built = false;
+        it.open();
+        try {
+            int n = 0;
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                insertEntry(tid, t.getField(keyField), t.getRecordId());
+                if (++n % BUILD_BATCH == 0) {
+                    Database.getBufferPool().transactionComplete(tid);
+                    tid = new TransactionId();
+                }
+            }
+            built = true;
+        } finally {
+            it.close();
+            Database.getBufferPool().transactionComplete(tid, built);
+            Database.getBufferPool().transactionComplete(scan);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return insertEntry(tid, t.getField(0),
+                new RecordId(new HeapPageId(tableid, t.getInt(1)), t.getInt(2)));
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        return deleteEntry(tid, t.getField(0),
+                new RecordId(new HeapPageId(tableid, t.getInt(1)), t.getInt(2)));
+    }
+
+    /**
+     * @return an iterator over the entries of the index as tuples of
+     *         getTupleDesc(), bucket by bucket
+     */
+    public DbFileIterator iterator(final TransactionId tid) {
+        return new DbFileIterator() {
+            private int bucket, page, entry;
+            private HashBucketPage cur;
+            private boolean open;
+
+            public void open() throws DbException, TransactionAbortedException {
+                open = true;
+                bucket = -1;
+                page = 0;
+                cur = null;
+            }
+
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (!open)
+                    return false;
+                while (cur == null || entry >= cur.getNumEntries()) {
+                    if (cur != null && cur.getNextPage() != 0) {
+                        page = cur.getNextPage();
+                    } else {
+                        HashHeaderPage header = header(tid, Permissions.READ_ONLY);
+                        if (++bucket >= header.numBuckets())
+                            return false;
+                        page = bucketPage(header, bucket);
+                    }
+                    cur = bucket(tid, page, Permissions.READ_ONLY);
+                    entry = 0;
+                }
+                return true;
+            }
+
+            public Tuple next() throws DbException, TransactionAbortedException {
+                if (!hasNext())
+                    throw new NoSuchElementException("no more elements");
+                Tuple t = new Tuple(td);
+                t.setField(0, cur.getKey(entry));
+                t.setInt(1, cur.getPage(entry));
+                t.setInt(2, cur.getSlot(entry));
+                entry++;
+                return t;
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                open();
+            }
+
+            public void close() {
+                open = false;
+                cur = null;
+            }
+        };
+    }
+}
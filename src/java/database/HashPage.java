@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Base class of the pages of a HashIndexFile: the header page and the
+ * bucket pages. Like HeapPage, every subclass has a constructor taking the
+ * page id and the bytes read from disk, used by HashIndexFile and by
+ * LogFile to rebuild logged images. The pages of a hash index are numbered
+ * like those of a heap file, so they are named by HeapPageIds.
+ *
+ * @see HashIndexFile
+ */
+public abstract class HashPage implements Page {
+
+    final HeapPageId pid;
+
+    TransactionId dirtyTid;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    HashPage(HeapPageId id) {
+        this.pid = id;
+    }
+
+    /**
+     * Create the header page or a bucket page, depending on the page
+     * number, from a set of bytes of data read from disk.
+     */
+    static HashPage createPage(HeapPageId id, byte[] data) throws IOException {
+        if (id.pageNumber() == HashIndexFile.HEADER_PAGE)
+            return new HashHeaderPage(id, data);
+        return new HashBucketPage(id, data);
+    }
+
+    /**
+     * @return the bytes of an empty page, which is a valid header page of an
+     *         empty index and a valid empty bucket page
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtyTid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtyTid;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public HashPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return createPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package simpledb;
+
+/**
+ * One output of a hash repartitioning exchange. The tuples of all inputs are
+ * redistributed so that tuples with equal values of the partitioning field
+ * end up in the same output, which lets each output be joined or aggregated
+ * on that field independently of the others.
+ */
+public class HashRepartition extends Redistribute {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int field;
+
+    private HashRepartition(Group group, int output, int field) {
+        super("hash(" + group.inputs[0].getTupleDesc().getFieldName(field) + ")",
+                group, output);
+        this.field = field;
+    }
+
+    /** @return the index of the field tuples are partitioned on */
+    public int getPartitionField() {
+        return field;
+    }
+
+    /**
+     * Creates a hash repartitioning exchange.
+     *
+     * @param inputs
+     *            the streams to repartition; all of them must have the same
+     *            TupleDesc
+     * @param field
+     *            the index of the field to partition on
+     * @param numOutputs
+     *            the number of partitions
+     * @return the outputs of the exchange, one per partition
+     */
+    public static HashRepartition[] create(DbIterator[] inputs, final int field,
+            final int numOutputs) {
+        Group group = new Group(inputs, numOutputs, DEFAULT_QUEUE_SIZE) {
+            void route(Tuple t) throws InterruptedException {
+                put(partitionOf(t.getField(field), numOutputs), t);
+            }
+        };
+        HashRepartition[] outputs = new HashRepartition[numOutputs];
+        for (int i = 0; i < numOutputs; i++) {
+            outputs[i] = new HashRepartition(group, i, field);
+        }
+        return outputs;
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -8,7 +9,7 @@ import java.util.*;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor, or in {@link #FORMAT_SLOTTED} for tables in that format.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -16,6 +17,53 @@ import java.util.*;
 public class HeapFile implements DbFile {
 	File backFile;
 	TupleDesc tupleDesc;
+	int formatVersion;
+	PageStore store;
+	ZoneMap zoneMap;
+	/** the number of pages including the ones allocated but not written yet */
+	private volatile int allocatedPages;
+	/** the overflow page the last long string went to, or -1 */
+	private volatile int lastOverflowPage = -1;
+
+	/**
+	 * Format version of files whose pages hold fixed-length tuples, where
+	 * every string takes Type.STRING_LEN bytes.
+	 */
+	public static final int FORMAT_FIXED = 1;
+
+	/**
+	 * Format version of files whose pages hold variable-length records.
+	 * <p>
+	 * A page starts with a header of five bytes: the page type (data or
+	 * overflow), the number of slots as an unsigned short, and the offset
+	 * where the records start. The slot directory follows, with the offset
+	 * and length of the record of each slot, both unsigned shorts; a length
+	 * of 0 marks an empty slot. Records are packed at the end of the page
+	 * and grow towards the slot directory; a tuple keeps its slot number,
+	 * and hence its RecordId, when the records of its page are compacted.
+	 * <p>
+	 * In a record, an int takes 4 bytes and a string takes an unsigned
+	 * short length followed by its UTF-8 bytes. When a record would be
+	 * larger than a quarter of a page, its longest strings are moved to
+	 * overflow pages of the same file, and stored in the record as the
+	 * length 0xFFFF followed by their length and the page number (int) and
+	 * slot (unsigned short) of their first chunk. The records of an overflow
+	 * page are chunks: the page and slot of the next chunk of the string, or
+	 * -1 and 0 for the last one, followed by bytes of the string. The
+	 * strings of consecutive inserts share overflow pages, so a page holds
+	 * the chunks of several strings.
+	 * <p>
+	 * New pages, both data and overflow pages, are written only when the
+	 * BufferPool flushes them, so they are logged and rolled back with the
+	 * transaction that allocated them: the pages of an aborted insert stay
+	 * empty pages, which later inserts fill with tuples. Chunks are never
+	 * changed or removed once written; the space of deleted strings is not
+	 * reclaimed. Scans skip overflow pages, which hold no tuples. Decoding a
+	 * page leaves its strings on overflow pages unset; they are read through
+	 * the BufferPool, on behalf of the transaction the page is handed out to
+	 * (see HeapPage#readOverflow).
+	 */
+	public static final int FORMAT_SLOTTED = 2;
 	
     /**
      * Constructs a heap file backed by the specified file.
@@ -26,8 +74,39 @@ public class HeapFile implements DbFile {
      * @throws FileNotFoundException 
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, FORMAT_FIXED);
+    } 
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * in the specified format.
+     * 
+     * @param formatVersion
+     *            {@link #FORMAT_FIXED} or {@link #FORMAT_SLOTTED}
+     */
+    public HeapFile(File f, TupleDesc td, int formatVersion) {
+        this(f, td, formatVersion, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * in the specified format and are compressed on disk if compressed is
+     * true (see {@link CompressedPageStore}). Pages are compressed when they
+     * are written and decompressed when they are read, so the pages in the
+     * BufferPool are the same either way. An existing file of uncompressed
+     * pages is compressed when it is first read.
+     *
+     * @param formatVersion
+     *            {@link #FORMAT_FIXED} or {@link #FORMAT_SLOTTED}
+     */
+    public HeapFile(File f, TupleDesc td, int formatVersion, boolean compressed) {
+        if (formatVersion != FORMAT_FIXED && formatVersion != FORMAT_SLOTTED)
+            throw new IllegalArgumentException("unknown format version " + formatVersion);
         backFile = f;
         tupleDesc = td;
+        this.formatVersion = formatVersion;
+        store = compressed ? new CompressedPageStore(f) : new RawPageStore(f);
+        zoneMap = new ZoneMap(f, td);
 //        Database.getCatalog().addTable(this);
     } 
 
@@ -61,6 +140,19 @@ public class HeapFile implements DbFile {
     public TupleDesc getTupleDesc() {
         return tupleDesc;
     }
+
+    /**
+     * @return the format of the pages of this file, {@link #FORMAT_FIXED} or
+     *         {@link #FORMAT_SLOTTED}
+     */
+    public int getFormatVersion() {
+        return formatVersion;
+    }
+
+    /** @return true if the pages of this file are compressed on disk */
+    public boolean isCompressed() {
+        return store instanceof CompressedPageStore;
+    }
     
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
@@ -68,20 +160,13 @@ public class HeapFile implements DbFile {
     		throw new IllegalArgumentException("page does not exist in this file");
     	}
     	
-    	int offset = pid.pageNumber();
-    	byte[] constructorArray = new byte[BufferPool.PAGE_SIZE];
-    	
-    	
+    	byte[] constructorArray;
     	try {
-    		@SuppressWarnings("resource")
-			FileInputStream fileInputStream = new FileInputStream(backFile);
-			fileInputStream.skip(offset * BufferPool.PAGE_SIZE);
-			fileInputStream.read(constructorArray, 0, BufferPool.PAGE_SIZE);
+    		constructorArray = store.readPage(pid.pageNumber());
 		} catch (IOException e1) {
-			e1.printStackTrace();
+			throw new IllegalArgumentException("failed to read page " + pid + ": " + e1.getMessage());
 		}
     	
-    	
     	HeapPageId newPid = (HeapPageId) pid;
 
         try {
@@ -96,27 +181,75 @@ public class HeapFile implements DbFile {
     public synchronized void writePage(Page page) throws IOException {
         HeapPage hp = (HeapPage) page;
         byte[] pageData = hp.getPageData();
-        RandomAccessFile raf = new RandomAccessFile(backFile,"rw");
-        long offset = hp.getId().pageNumber * BufferPool.PAGE_SIZE;
-        raf.seek(offset);
-        raf.write(pageData);
-        raf.close();
+        zoneMap.invalidate(hp.getId().pageNumber());
+        store.writePage(hp.getId().pageNumber(), pageData);
+        zoneMap.update(hp);
+    }
+
+    /**
+     * Returns the zone map of this file, which summarizes the int fields of
+     * every page and is updated whenever a page is written.
+     */
+    public ZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
+    /**
+     * @return true if the page is not modified in the BufferPool and its
+     *         zone map shows that none of its tuples satisfies all
+     *         predicates, so that a scan with these predicates can skip it
+     */
+    boolean canSkipPage(HeapPageId pid, Predicate[] predicates) {
+        return predicates.length > 0 && !zoneMap.mayMatch(pid.pageNumber(), predicates)
+                && !Database.getBufferPool().isDirty(pid);
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Returns the number of pages in this HeapFile, including the pages
+     * handed out by {@link #allocatePage} that were not written yet.
      */
     public int numPages() {
-        return (int)backFile.length() / BufferPool.PAGE_SIZE;
+        return Math.max(store.numPages(), allocatedPages);
     }
 
-    // see DbFile.java for javadocs
+    /**
+     * Hands out the number of a new page at the end of this file. The page
+     * is not written: reading it before it is yields an empty page, and if
+     * the transaction that allocated it aborts it stays an empty page.
+     */
+    private synchronized int allocatePage() {
+        allocatedPages = numPages() + 1;
+        return allocatedPages - 1;
+    }
+
+    /**
+     * Adds the specified tuple to the file on behalf of transaction tid. If
+     * the primary key of the table is indexed (see
+     * {@link Catalog#getPrimaryKeyIndex}), the index is updated too.
+     *
+     * @throws DbException if the primary key of t is already in the table
+     * @see DbFile#insertTuple
+     */
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
     	if (!t.getTupleDesc().equals(tupleDesc)) {
     		throw new DbException("tupleDesc does not match");
     	}
-    	
+    	HashIndexFile pkIndex = Database.getCatalog().getPrimaryKeyIndex(getId());
+    	if (pkIndex == null) {
+    		return insertIntoPage(tid, t);
+    	}
+    	Field key = t.getField(pkIndex.getKeyField());
+    	if (pkIndex.lookup(tid, key) != null) {
+    		throw new DbException("duplicate primary key " + key);
+    	}
+    	ArrayList<Page> modifiedPages = insertIntoPage(tid, t);
+    	modifiedPages.addAll(pkIndex.insertEntry(tid, key, t.getRecordId()));
+    	return modifiedPages;
+    }
+
+    private ArrayList<Page> insertIntoPage(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
     	ArrayList<Page> modifiedPages = new ArrayList<Page>();
     	BufferPool bf = Database.getBufferPool();
     	LockManager lockManager = bf.getLockManager();
@@ -127,9 +260,9 @@ public class HeapFile implements DbFile {
     			alreadyHoldsLock = true;
     		}
     		HeapPage page = (HeapPage) bf.getPage(tid, pageId, Permissions.READ_WRITE);
-    		if (page.getNumEmptySlots() > 0) {
+    		if (page.hasRoomFor(t)) {
     			//if find empty slot in this page
-    			page.insertTuple(t);
+    			page.insertTuple(t, writeOverflow(tid, t, modifiedPages));
     			page.markDirty(true, tid);
     			modifiedPages.add(page);
     			//we do not write the page into the file until this page is evicted from the Buffer Pool
@@ -143,22 +276,20 @@ public class HeapFile implements DbFile {
     	
     	
     	//if we do not find any page containing empty slots, we have to create new pages in the heap file
-    	byte[] newHeapPageData = HeapPage.createEmptyPageData();
-    	
-    	synchronized(this) {//prevent the situation that two transactions want to add new page at the same time
-    		HeapPageId heapPageId = new HeapPageId(getId(), numPages());
-        	HeapPage newHeapPage = new HeapPage(heapPageId, newHeapPageData);
-        	writePage(newHeapPage);
-        	
-        	HeapPage hp = (HeapPage) bf.getPage(tid, heapPageId, Permissions.READ_WRITE);// not write the modified page into file until it is evicted from the Buffer Pool 
-        	t.getRecordId().pageId = heapPageId; //update the pageid
-        	hp.insertTuple(t);
-        	hp.markDirty(true, tid);
-        	modifiedPages.add(hp);
-        	
-            return modifiedPages;
+    	while (true) {
+    		// the new page is only written when it is flushed, with the log
+    		HeapPage hp = (HeapPage) bf.getPage(tid, new HeapPageId(getId(), allocatePage()), Permissions.READ_WRITE);
+    		if (hp.hasRoomFor(t)) {
+    			hp.insertTuple(t, writeOverflow(tid, t, modifiedPages));
+    			hp.markDirty(true, tid);
+    			modifiedPages.add(hp);
+    			return modifiedPages;
+    		}
+    		if (!hp.isOverflowPage() && !hp.iterator().hasNext()) {
+    			throw new DbException("tuple is too large for a page");
+    		}
+    		// another transaction filled the new page first
     	}
-    	
     }
 
     // see DbFile.java for javadocs
@@ -184,12 +315,140 @@ public class HeapFile implements DbFile {
     	hp.deleteTuple(t);
     	modifiedPages.add(hp);
     	
+    	HashIndexFile pkIndex = Database.getCatalog().getPrimaryKeyIndex(getId());
+    	if (pkIndex != null) {
+    		modifiedPages.addAll(pkIndex.deleteEntry(tid, t.getField(pkIndex.getKeyField()), rid));
+    	}
         return modifiedPages;
     }
 
+    /**
+     * Writes the strings of t that do not fit in its record to overflow
+     * pages on behalf of tid. Each string is split into chunks that fill
+     * the room left on the overflow page the last string went to, and new
+     * overflow pages allocated like data pages, through the BufferPool, so
+     * that they are logged and flushed when tid commits and stay empty if
+     * it aborts. The modified pages are added to modifiedPages.
+     *
+     * @return the first chunk of each string, in field order, for
+     *         {@link HeapPage#insertTuple(Tuple, HeapPage.OverflowWriter)};
+     *         null if t needs no overflow pages
+     * @see #FORMAT_SLOTTED
+     */
+    private HeapPage.OverflowWriter writeOverflow(TransactionId tid, Tuple t, ArrayList<Page> modifiedPages)
+            throws DbException, IOException, TransactionAbortedException {
+        boolean[] overflow = formatVersion == FORMAT_SLOTTED ? HeapPage.overflowFields(t) : null;
+        if (overflow == null)
+            return null;
+        final ArrayList<RecordId> firstChunks = new ArrayList<RecordId>();
+        for (int i = 0; i < overflow.length; i++) {
+            if (!overflow[i])
+                continue;
+            byte[] b = new byte[t.utf8Length(i)];
+            t.getUtf8(i, b, 0);
+            // the last chunk is written first, so that each chunk knows the next
+            RecordId next = null;
+            for (int end = b.length; end > 0; ) {
+                HeapPage page = overflowPage(tid, Math.min(end, HeapPage.MIN_CHUNK));
+                int len = Math.min(end, page.chunkRoom());
+                next = new RecordId(page.getId(), page.addChunk(next, b, end - len, len));
+                end -= len;
+                if (!modifiedPages.contains(page)) {
+                    page.markDirty(true, tid);
+                    modifiedPages.add(page);
+                }
+            }
+            firstChunks.add(next);
+        }
+        return new HeapPage.OverflowWriter() {
+            int next = 0;
+
+            public RecordId writeOverflow(byte[] b) {
+                return firstChunks.get(next++);
+            }
+        };
+    }
+
+    /**
+     * @return an overflow page locked for tid with room for a chunk of at
+     *         least min bytes: the one the last string went to, unless
+     *         another transaction holds a lock on it, or a new page
+     */
+    private HeapPage overflowPage(TransactionId tid, int min)
+            throws DbException, TransactionAbortedException {
+        BufferPool bf = Database.getBufferPool();
+        LockManager lockManager = bf.getLockManager();
+        int last = lastOverflowPage;
+        if (last >= 0) {
+            HeapPageId pid = new HeapPageId(getId(), last);
+            boolean alreadyHoldsLock = lockManager.holdsLock(pid, tid);
+            if (alreadyHoldsLock || !lockManager.hasLock(pid)) {
+                HeapPage page = (HeapPage) bf.getPage(tid, pid, Permissions.READ_WRITE);
+                if (page.isOverflowPage() && page.chunkRoom() >= min)
+                    return page;
+                if (!alreadyHoldsLock)
+                    lockManager.releasePage(pid, tid);
+            }
+        }
+        while (true) {
+            HeapPage page = (HeapPage) bf.getPage(tid, new HeapPageId(getId(), allocatePage()),
+                    Permissions.READ_WRITE);
+            if (page.setOverflowPage()) {
+                lastOverflowPage = page.getId().pageNumber();
+                return page;
+            }
+            // an insert filled the new page first
+        }
+    }
+
+    /**
+     * Reads len bytes stored in the chain of chunks starting at the
+     * specified slot of an overflow page, through the BufferPool on behalf
+     * of tid.
+     */
+    byte[] readOverflow(TransactionId tid, HeapPageId pid, int slot, int len)
+            throws DbException, TransactionAbortedException {
+        byte[] b = new byte[len];
+        for (int off = 0; off < len; ) {
+            if (pid.pageNumber() < 0)
+                throw new DbException("string of " + len + " bytes ends after " + off);
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            byte[] chunk = p.getChunk(slot);
+            int n = Math.min(chunk.length - HeapPage.CHUNK_HEADER_SIZE, len - off);
+            System.arraycopy(chunk, HeapPage.CHUNK_HEADER_SIZE, b, off, n);
+            off += n;
+            ByteBuffer buf = ByteBuffer.wrap(chunk);
+            pid = new HeapPageId(getId(), buf.getInt());
+            slot = buf.getShort() & 0xffff;
+        }
+        return b;
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         return new HeapFileIterator(this, tid);
     }
+
+    /**
+     * Returns an iterator over the tuples of pages [startPage, endPage) of
+     * this file. Pages are read through the BufferPool as the iterator
+     * reaches them; used by ParallelSeqScan to split a scan across threads.
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage) {
+        return new HeapFileRangeIterator(this, tid, startPage, endPage);
+    }
+
+    /**
+     * Returns an iterator over the tuples of pages [startPage, endPage) of
+     * this file that skips the pages whose zone map shows that none of
+     * their tuples satisfies all predicates. The tuples of the other pages
+     * are returned whether or not they satisfy the predicates.
+     *
+     * @see ZoneMap
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage,
+            Predicate[] predicates) {
+        return new HeapFileRangeIterator(this, tid, startPage, endPage, predicates);
+    }
 }
 
@@ -223,4 +223,122 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file into a binary page file in the
+   * slotted format (see {@link HeapFile#FORMAT_SLOTTED}), with pages of
+   * BufferPool.getPageSize() bytes. Strings are stored with their actual
+   * length; long ones are moved to overflow pages that follow the page of
+   * their tuple.
+   * <p>
+   * The input file has one tuple per line, with fields separated by
+   * fieldSeparator.
+   *
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param typeAr the types of the fields of each input line/output tuple
+   * @throws IOException if the input/output file can't be opened or a
+   *   tuple does not fit in a page
+   */
+  public static void convertSlotted(File inFile, File outFile, Type[] typeAr,
+                 char fieldSeparator) throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      SlottedPageWriter writer = new SlottedPageWriter(os);
+      String separator = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().length() == 0)
+              continue;
+          String[] values = line.split(separator, -1);
+          if (values.length != typeAr.length) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+          Tuple t = new Tuple(td);
+          try {
+              for (int i = 0; i < typeAr.length; i++) {
+                  if (typeAr[i] == Type.INT_TYPE)
+                      t.setInt(i, Integer.parseInt(values[i].trim()));
+                  else
+                      t.setString(i, values[i].trim());
+              }
+          } catch (NumberFormatException e) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+          writer.add(t);
+      }
+      writer.finish();
+      br.close();
+      os.close();
+  }
+
+  /**
+   * Fills pages of the slotted format and writes each one, followed by its
+   * overflow pages, when the next tuple does not fit. The long strings of a
+   * page share its overflow pages.
+   */
+  private static class SlottedPageWriter implements HeapPage.OverflowWriter {
+      final OutputStream os;
+      int npages = 0;
+      final ArrayList<byte[]> records = new ArrayList<byte[]>();
+      final ArrayList<ArrayList<byte[]>> overflowPages = new ArrayList<ArrayList<byte[]>>();
+      int freeSpace = BufferPool.getPageSize() - HeapPage.SLOTTED_HEADER_SIZE;
+      int overflowFreeSpace = 0;
+
+      SlottedPageWriter(OutputStream os) {
+          this.os = os;
+      }
+
+      void add(Tuple t) throws IOException {
+          int size = HeapPage.recordSize(t) + HeapPage.SLOT_SIZE;
+          if (size > freeSpace) {
+              if (records.isEmpty())
+                  throw new IOException("tuple is too large for a page: " + t);
+              writePage();
+          }
+          records.add(HeapPage.encodeRecord(t, this));
+          freeSpace -= size;
+      }
+
+      public RecordId writeOverflow(byte[] b) {
+          // the overflow pages follow the page being filled; the last chunk
+          // is written first, so that each chunk knows the next
+          RecordId next = null;
+          for (int end = b.length; end > 0; ) {
+              int room = overflowFreeSpace - HeapPage.SLOT_SIZE - HeapPage.CHUNK_HEADER_SIZE;
+              if (overflowPages.isEmpty() || room < Math.min(end, HeapPage.MIN_CHUNK)) {
+                  overflowPages.add(new ArrayList<byte[]>());
+                  overflowFreeSpace = BufferPool.getPageSize() - HeapPage.SLOTTED_HEADER_SIZE;
+                  continue;
+              }
+              int len = Math.min(end, room);
+              ArrayList<byte[]> chunks = overflowPages.get(overflowPages.size() - 1);
+              chunks.add(HeapPage.createChunk(next, b, end - len, len));
+              overflowFreeSpace -= HeapPage.SLOT_SIZE + HeapPage.CHUNK_HEADER_SIZE + len;
+              next = new RecordId(new HeapPageId(0, npages + overflowPages.size()), chunks.size() - 1);
+              end -= len;
+          }
+          return next;
+      }
+
+      void writePage() throws IOException {
+          os.write(HeapPage.createSlottedPageData(HeapPage.DATA_PAGE,
+                  records.toArray(new byte[records.size()][]), records.size()));
+          for (ArrayList<byte[]> chunks : overflowPages)
+              os.write(HeapPage.createSlottedPageData(HeapPage.OVERFLOW_PAGE,
+                      chunks.toArray(new byte[chunks.size()][]), chunks.size()));
+          npages += 1 + overflowPages.size();
+          records.clear();
+          overflowPages.clear();
+          freeSpace = BufferPool.getPageSize() - HeapPage.SLOTTED_HEADER_SIZE;
+      }
+
+      /** Write the last page; an empty file still gets one empty page. */
+      void finish() throws IOException {
+          if (!records.isEmpty() || npages == 0)
+              writePage();
+      }
+  }
 }
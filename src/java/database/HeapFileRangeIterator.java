@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the tuples of a contiguous range of pages of a HeapFile.
+ * Unlike HeapFileIterator, pages are fetched from the BufferPool one at a time
+ * as the iteration reaches them, so a range can be scanned without holding all
+ * of its tuples in memory.
+ */
+public class HeapFileRangeIterator implements DbFileIterator {
+	TransactionId tid;
+	HeapFile hf;
+	int startPage;
+	int endPage;
+	Predicate[] predicates; //pages the zone map rules out for these are skipped
+	int curPage; //the page curTuples iterates over
+	Iterator<Tuple> curTuples;
+	HeapPage batchPage; //the page fillBatch reads, or null
+	int batchSlot; //the next slot of batchPage fillBatch reads
+	boolean open; //used to keep track of whether this iterator is open or not
+
+	/**
+	 * construct the HeapFileRangeIterator
+	 * @param f HeapFile to scan
+	 * @param tid TransactionId
+	 * @param startPage the first page to scan
+	 * @param endPage one past the last page to scan
+	 */
+	public HeapFileRangeIterator(HeapFile f, TransactionId tid, int startPage, int endPage) {
+		this(f, tid, startPage, endPage, new Predicate[0]);
+	}
+
+	/**
+	 * construct a HeapFileRangeIterator that skips the pages whose zone map
+	 * shows that none of their tuples satisfies all predicates
+	 * @see HeapFile#canSkipPage
+	 */
+	public HeapFileRangeIterator(HeapFile f, TransactionId tid, int startPage, int endPage,
+			Predicate[] predicates) {
+		if (startPage < 0 || endPage < startPage) {
+			throw new IllegalArgumentException("invalid page range [" + startPage + ", " + endPage + ")");
+		}
+		hf = f;
+		this.tid = tid;
+		this.startPage = startPage;
+		this.endPage = endPage;
+		this.predicates = predicates;
+		open = false;
+	}
+
+	@Override
+	public void open() throws DbException, TransactionAbortedException {
+		open = true;
+		curPage = startPage - 1;
+		curTuples = null;
+		batchPage = null;
+	}
+
+	@Override
+	public boolean hasNext() throws DbException, TransactionAbortedException {
+		if (open == false) {
+			return false;
+		}
+
+		while (curTuples == null || !curTuples.hasNext()) {
+			HeapPage page = nextPage();
+			if (page == null) {
+				return false;
+			}
+			curTuples = page.iterator();
+		}
+		return true;
+	}
+
+	/**
+	 * Append the tuples of the following pages to batch until it is full or
+	 * the range is done. The slots of the pages are read straight into the
+	 * column vectors of the batch; an iterator read this way must not be
+	 * read with next().
+	 *
+	 * @return false if no tuple was left to append
+	 */
+	public boolean fillBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+		if (open == false) {
+			return false;
+		}
+		int size = batch.size();
+		while (!batch.isFull()) {
+			if (batchPage == null || batchSlot >= batchPage.tuples.length) {
+				batchPage = nextPage();
+				batchSlot = 0;
+				if (batchPage == null) {
+					break;
+				}
+			}
+			batchSlot = batchPage.fillBatch(batchSlot, batch);
+		}
+		return batch.size() > size;
+	}
+
+	/**
+	 * Move to the next page of the range that the zone map does not rule
+	 * out, filling in its summary if unknown
+	 * @return the page, or null at the end of the range
+	 */
+	private HeapPage nextPage() throws DbException, TransactionAbortedException {
+		while (curPage + 1 < endPage) {
+			curPage++;
+			HeapPageId pid = new HeapPageId(hf.getId(), curPage);
+			if (hf.canSkipPage(pid, predicates)) {
+				continue;
+			}
+			HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+					pid, Permissions.READ_ONLY);
+			if (predicates.length > 0 && page.isDirty() == null) {
+				// fill in the zone map of pages written before it existed
+				try {
+					hf.getZoneMap().record(page);
+				} catch (IOException e) {
+					throw new DbException("failed to update the zone map: " + e.getMessage());
+				}
+			}
+			return page;
+		}
+		return null;
+	}
+
+	@Override
+	public Tuple next() throws DbException, TransactionAbortedException,
+			NoSuchElementException {
+		if (open == false) {
+			throw new NoSuchElementException("iterator is not open yet");
+		}
+
+		if (!hasNext()) {
+			throw new NoSuchElementException("no more elements");
+		}
+
+		return curTuples.next();
+	}
+
+	@Override
+	public void rewind() throws DbException, TransactionAbortedException {
+		if (open == false) {
+			throw new IllegalStateException("iterator is not open yet");
+		}
+
+		open();
+	}
+
+	@Override
+	public void close() {
+		open = false;
+		curTuples = null;
+	}
+
+}
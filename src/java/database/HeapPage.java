@@ -2,10 +2,16 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Pages are in one of two formats, selected by the format version of their
+ * HeapFile: the fixed-length format described in {@link #HeapPage}, or the
+ * slotted format for variable-length records described in
+ * {@link HeapFile#FORMAT_SLOTTED}.
  *
  * @see HeapFile
  * @see BufferPool
@@ -15,9 +21,25 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
-    final int numSlots;
+    final int format;
+    byte header[];
+    Tuple tuples[];
+    int numSlots;
+
+    /** slotted format: the encoded record of each slot, null if empty */
+    byte records[][];
+    /** slotted format: the number of unused bytes on this page */
+    int freeSpace;
+    /**
+     * slotted format: true if this is an overflow page, whose records are
+     * chunks of long strings rather than tuples
+     */
+    boolean overflow;
+    /**
+     * slotted format: true if strings of the tuples on this page are stored
+     * on overflow pages and were not read yet, see {@link #readOverflow}
+     */
+    boolean overflowUnread;
     
     TransactionId dirtyTid;
 
@@ -37,14 +59,32 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Pages of tables in the slotted format are read as described in
+     * {@link HeapFile#FORMAT_SLOTTED}.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()),
+                Database.getCatalog().getFormatVersion(id.getTableId()), data);
+    }
+
+    /**
+     * Create a HeapPage of a table with the specified schema and format
+     * version, without looking them up in the catalog.
+     */
+    HeapPage(HeapPageId id, TupleDesc td, int format, byte[] data) throws IOException {
     	dirtyTid = null;
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
+        this.format = format;
+        if (format == HeapFile.FORMAT_SLOTTED) {
+            readSlottedPage(data);
+            setBeforeImage();
+            return;
+        }
         this.numSlots = getNumTuples();
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -71,7 +111,7 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
     	int pageSize = BufferPool.getPageSize();
-    	int tupleSize = td.getSize();
+    	int tupleSize = td.getFixedSize();
         return (int) Math.floor(pageSize * 8.0 / (tupleSize * 8 + 1));
 
     }
@@ -94,13 +134,11 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid,td,format,oldDataRef);
         } catch (IOException e) {
-            e.printStackTrace();
-            //should never happen -- we parsed it OK before!
-            System.exit(1);
+            // should never happen -- we parsed it OK before!
+            throw new IllegalStateException("failed to parse the before-image of page " + pid, e);
         }
-        return null;
     }
     
     public void setBeforeImage() {
@@ -124,7 +162,7 @@ public class HeapPage implements Page {
         // if associated bit is not set, read forward to the next tuple, and
         // return null.
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
+            for (int i=0; i<td.getFixedSize(); i++) {
                 try {
                     dis.readByte();
                 } catch (IOException e) {
@@ -139,11 +177,8 @@ public class HeapPage implements Page {
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
+            t.readFields(dis);
+        } catch (IOException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
@@ -163,6 +198,8 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
+        if (format == HeapFile.FORMAT_SLOTTED)
+            return createSlottedPageData(overflow ? OVERFLOW_PAGE : DATA_PAGE, records, numSlots);
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -182,7 +219,7 @@ public class HeapPage implements Page {
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
+                for (int j=0; j<td.getFixedSize(); j++) {
                     try {
                         dos.writeByte(0);
                     } catch (IOException e) {
@@ -194,19 +231,15 @@ public class HeapPage implements Page {
             }
 
             // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            try {
+                tuples[i].writeFields(dos);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.getPageSize() - (header.length + td.getFixedSize() * tuples.length); //- numSlots * td.getSize();
         
         byte[] zeroes = new byte[zerolen];
         try {
@@ -252,6 +285,10 @@ public class HeapPage implements Page {
     	if (!pid.equals(newPid) || !isSlotUsed(slotId)) {
     		throw new DbException("passed-in tuple is not in this page");
     	}
+    	if (format == HeapFile.FORMAT_SLOTTED) {
+    		deleteRecord(slotId);
+    		return;
+    	}
     	markSlotUsed(slotId, false);
     }
     
@@ -280,6 +317,24 @@ public class HeapPage implements Page {
      * @param t The tuple to add.
      */
     public void insertTuple(Tuple t) throws DbException {
+    	insertTuple(t, null);
+    }
+
+    /**
+     * Adds the specified tuple to the page, taking the first pages of the
+     * strings it stores on overflow pages from overflowWriter.
+     *
+     * @param overflowWriter the overflow pages of the tuple, written by
+     *         HeapFile on behalf of the inserting transaction; null if the
+     *         tuple needs none
+     */
+    void insertTuple(Tuple t, OverflowWriter overflowWriter) throws DbException {
+    	if (format == HeapFile.FORMAT_SLOTTED) {
+    		if (!t.getTupleDesc().equals(td))
+    			throw new DbException("the passed-in tuple has different tupleDesc");
+    		insertRecord(t, overflowWriter);
+    		return;
+    	}
     	if (getNumEmptySlots() == 0 || !t.getTupleDesc().equals(td)) {
     		throw new DbException("no more space to insert this tuple or the passed-in tuple has different tupleDesc");
     	} 
@@ -315,9 +370,27 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * Returns true if the specified tuple can be inserted into this page.
+     */
+    public boolean hasRoomFor(Tuple t) {
+    	if (format != HeapFile.FORMAT_SLOTTED)
+    		return getNumEmptySlots() > 0;
+    	if (overflow)
+    		return false;
+    	int needed = recordSize(t);
+    	if (firstEmptySlot() == numSlots)
+    		needed += SLOT_SIZE;
+    	return needed <= freeSpace;
+    }
+
+    /**
+     * Returns the number of empty slots on this page. In the slotted format,
+     * this is an estimate of the number of tuples of average size (see
+     * {@link TupleDesc#getSize}) that still fit on this page.
      */
     public int getNumEmptySlots() {
+    	if (format == HeapFile.FORMAT_SLOTTED)
+    		return overflow ? 0 : freeSpace / (td.getSize() + SLOT_SIZE);
         int numValidSlots = 0;
         for (int i = 0; i < header.length; i++) {
         	String bits = transferToBitString(header[i]);
@@ -374,6 +447,8 @@ public class HeapPage implements Page {
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
+    	if (format == HeapFile.FORMAT_SLOTTED)
+    		return i < numSlots && tuples[i] != null;
     	int byteIndex = i / 8;
     	String bitsArrayString = transferToBitString(header[byteIndex]);
     	
@@ -401,6 +476,393 @@ public class HeapPage implements Page {
     	header[byteIndex] = convertBitArrayStringToByte(newbitsArrayString);
     }
 
+    // ------------------------------------------------------------------
+    // slotted format, see HeapFile#FORMAT_SLOTTED
+
+    /** Size of the header of a slotted page: page type, number of slots, start of the records */
+    static final int SLOTTED_HEADER_SIZE = 5;
+    /** Size of a slot directory entry: offset and length of the record */
+    static final int SLOT_SIZE = 4;
+    static final byte DATA_PAGE = 0;
+    static final byte OVERFLOW_PAGE = 1;
+    /** String length marking a string stored on overflow pages */
+    static final int OVERFLOW_POINTER = 0xFFFF;
+    /**
+     * Size of a string stored on overflow pages: marker, length, and page
+     * and slot of the first chunk
+     */
+    static final int OVERFLOW_POINTER_SIZE = 12;
+    /** Size of the header of a chunk: page and slot of the next chunk */
+    static final int CHUNK_HEADER_SIZE = 6;
+    /** The fewest bytes of a string worth a chunk of their own */
+    static final int MIN_CHUNK = 64;
+
+    /**
+     * Writes strings that are too long to be stored in a record to overflow
+     * pages, or hands out the chunks they were written to already.
+     */
+    interface OverflowWriter {
+        /**
+         * Write b to chunks on overflow pages.
+         * @return the place of the first chunk
+         */
+        RecordId writeOverflow(byte[] b) throws IOException;
+    }
+
+    private void readSlottedPage(byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        overflow = buf.get(0) == OVERFLOW_PAGE;
+        numSlots = buf.getShort(1) & 0xffff;
+        tuples = new Tuple[Math.max(numSlots, 8)];
+        records = new byte[tuples.length][];
+        int used = SLOTTED_HEADER_SIZE + numSlots * SLOT_SIZE;
+        for (int i = 0; i < numSlots; i++) {
+            int pos = SLOTTED_HEADER_SIZE + i * SLOT_SIZE;
+            int off = buf.getShort(pos) & 0xffff;
+            int len = buf.getShort(pos + 2) & 0xffff;
+            if (len == 0)
+                continue;
+            if (off < SLOTTED_HEADER_SIZE + numSlots * SLOT_SIZE || off + len > data.length)
+                throw new IOException("invalid slot " + i + " on page " + pid.pageNumber());
+            records[i] = Arrays.copyOfRange(data, off, off + len);
+            if (!overflow)
+                tuples[i] = decodeRecord(records[i], i);
+            used += len;
+        }
+        freeSpace = BufferPool.getPageSize() - used;
+    }
+
+    private Tuple decodeRecord(byte[] rec, int slotId) throws IOException {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        Type[] types = td.getTypes();
+        ByteBuffer buf = ByteBuffer.wrap(rec);
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Type.INT_TYPE) {
+                t.setInt(i, buf.getInt());
+                continue;
+            }
+            int len = buf.getShort() & 0xffff;
+            if (len == OVERFLOW_POINTER) {
+                // left unset until the overflow pages are read
+                buf.position(buf.position() + OVERFLOW_POINTER_SIZE - 2);
+                overflowUnread = true;
+            } else {
+                t.setUtf8(i, rec, buf.position(), len);
+                buf.position(buf.position() + len);
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Read the strings of the tuples on this page that are stored on
+     * overflow pages, through the BufferPool on behalf of tid. Until then
+     * these strings are unset, so that decoding a page never reads other
+     * pages: the BufferPool calls this whenever it hands out the page, and
+     * the pages decoded outside of it, e.g. by the log or the statistics
+     * sampler, keep them unset.
+     */
+    synchronized void readOverflow(TransactionId tid) throws DbException, TransactionAbortedException {
+        if (!overflowUnread)
+            return;
+        Type[] types = td.getTypes();
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (tuples[slot] == null)
+                continue;
+            ByteBuffer buf = ByteBuffer.wrap(records[slot]);
+            for (int i = 0; i < types.length; i++) {
+                if (types[i] == Type.INT_TYPE) {
+                    buf.getInt();
+                    continue;
+                }
+                int len = buf.getShort() & 0xffff;
+                if (len == OVERFLOW_POINTER) {
+                    len = buf.getInt();
+                    int page = buf.getInt();
+                    int chunk = buf.getShort() & 0xffff;
+                    byte[] b = heapFile().readOverflow(tid, new HeapPageId(pid.getTableId(), page), chunk, len);
+                    tuples[slot].setUtf8(i, b, 0, len);
+                } else {
+                    buf.position(buf.position() + len);
+                }
+            }
+        }
+        overflowUnread = false;
+    }
+
+    private HeapFile heapFile() {
+        return (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+    }
+
+    private int firstEmptySlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (tuples[i] == null)
+                return i;
+        }
+        return numSlots;
+    }
+
+    private void insertRecord(Tuple t, OverflowWriter overflowWriter) throws DbException {
+        if (!hasRoomFor(t))
+            throw new DbException("no more space to insert this tuple");
+        byte[] rec;
+        try {
+            rec = encodeRecord(t, overflowWriter);
+        } catch (IOException e) {
+            throw new DbException("failed to write overflow pages: " + e.getMessage());
+        }
+        int slotId = firstEmptySlot();
+        if (slotId == numSlots) {
+            if (numSlots == tuples.length) {
+                tuples = Arrays.copyOf(tuples, Math.max(8, numSlots * 2));
+                records = Arrays.copyOf(records, tuples.length);
+            }
+            numSlots++;
+            freeSpace -= SLOT_SIZE;
+        }
+        tuples[slotId] = t;
+        records[slotId] = rec;
+        freeSpace -= rec.length;
+        t.recordId = new RecordId(pid, slotId);
+    }
+
+    private void deleteRecord(int slotId) {
+        freeSpace += records[slotId].length;
+        tuples[slotId] = null;
+        records[slotId] = null;
+        // drop the empty slots at the end of the directory
+        while (numSlots > 0 && tuples[numSlots - 1] == null) {
+            numSlots--;
+            freeSpace += SLOT_SIZE;
+        }
+    }
+
+    /** @return the largest record size that does not need overflow pages */
+    static int maxRecordSize() {
+        return BufferPool.getPageSize() / 4;
+    }
+
+    private static int recordSize(Tuple t, boolean[] overflow) {
+        Type[] types = t.getTupleDesc().getTypes();
+        int size = 0;
+        for (int i = 0; i < types.length; i++) {
+            if (t.isNull(i))
+                throw new IllegalStateException("field " + i + " is not set");
+            if (types[i] == Type.INT_TYPE)
+                size += Type.INT_TYPE.getLen();
+            else if (overflow != null && overflow[i])
+                size += OVERFLOW_POINTER_SIZE;
+            else
+                size += 2 + t.utf8Length(i);
+        }
+        return size;
+    }
+
+    /**
+     * Chooses the strings of t that are stored on overflow pages: the
+     * longest ones, until the record is no larger than
+     * {@link #maxRecordSize}.
+     *
+     * @return for each field, whether it goes to overflow pages, or null if
+     *         the whole tuple is stored in the record
+     */
+    static boolean[] overflowFields(Tuple t) {
+        Type[] types = t.getTupleDesc().getTypes();
+        boolean[] overflow = null;
+        int size = recordSize(t, null);
+        while (size > maxRecordSize()) {
+            int longest = -1;
+            for (int i = 0; i < types.length; i++) {
+                if (types[i] == Type.STRING_TYPE && (overflow == null || !overflow[i])
+                        && (longest < 0 || t.utf8Length(i) > t.utf8Length(longest)))
+                    longest = i;
+            }
+            if (longest < 0 || 2 + t.utf8Length(longest) <= OVERFLOW_POINTER_SIZE)
+                break;
+            if (overflow == null)
+                overflow = new boolean[types.length];
+            overflow[longest] = true;
+            size -= 2 + t.utf8Length(longest) - OVERFLOW_POINTER_SIZE;
+        }
+        return overflow;
+    }
+
+    /**
+     * @return the number of bytes t takes in a page of the slotted format,
+     *         not counting its slot
+     */
+    static int recordSize(Tuple t) {
+        return recordSize(t, overflowFields(t));
+    }
+
+    /**
+     * Encodes t as a record of the slotted format, writing its long strings
+     * to overflow pages in field order.
+     *
+     * @throws IOException if t has long strings and overflowWriter is null
+     */
+    static byte[] encodeRecord(Tuple t, OverflowWriter overflowWriter) throws IOException {
+        boolean[] overflow = overflowFields(t);
+        byte[] rec = new byte[recordSize(t, overflow)];
+        ByteBuffer buf = ByteBuffer.wrap(rec);
+        Type[] types = t.getTupleDesc().getTypes();
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Type.INT_TYPE) {
+                buf.putInt(t.getInt(i));
+                continue;
+            }
+            int len = t.utf8Length(i);
+            if (overflow != null && overflow[i]) {
+                byte[] s = new byte[len];
+                t.getUtf8(i, s, 0);
+                if (overflowWriter == null)
+                    throw new IOException("field " + i + " needs overflow pages");
+                RecordId first = overflowWriter.writeOverflow(s);
+                buf.putShort((short) OVERFLOW_POINTER);
+                buf.putInt(len);
+                buf.putInt(first.getPageId().pageNumber());
+                buf.putShort((short) first.tupleno());
+            } else {
+                buf.putShort((short) len);
+                t.getUtf8(i, rec, buf.position());
+                buf.position(buf.position() + len);
+            }
+        }
+        return rec;
+    }
+
+    /**
+     * Lays out the records of a page of the slotted format. The records are
+     * packed at the end of the page in slot order, so the free space left by
+     * deleted records is reclaimed every time the page is written.
+     *
+     * @param type DATA_PAGE, or OVERFLOW_PAGE for a page of chunks
+     * @param records the record of each slot, null for empty slots
+     * @param numSlots the number of slots of the page
+     */
+    static byte[] createSlottedPageData(byte type, byte[][] records, int numSlots) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.put(0, type);
+        buf.putShort(1, (short) numSlots);
+        int end = data.length;
+        for (int i = 0; i < numSlots; i++) {
+            byte[] rec = records[i];
+            if (rec == null)
+                continue;
+            end -= rec.length;
+            System.arraycopy(rec, 0, data, end, rec.length);
+            buf.putShort(SLOTTED_HEADER_SIZE + i * SLOT_SIZE, (short) end);
+            buf.putShort(SLOTTED_HEADER_SIZE + i * SLOT_SIZE + 2, (short) rec.length);
+        }
+        buf.putShort(3, (short) end);
+        return data;
+    }
+
+    /** @return true if this is an overflow page of the slotted format */
+    boolean isOverflowPage() {
+        return overflow;
+    }
+
+    /**
+     * Turn this page into an overflow page if it is an empty page of the
+     * slotted format, or an overflow page already.
+     *
+     * @return true if this is an overflow page now
+     */
+    boolean setOverflowPage() {
+    	if (format == HeapFile.FORMAT_SLOTTED && numSlots == 0)
+    		overflow = true;
+    	return overflow;
+    }
+
+    /**
+     * @return the number of bytes of a string that a new chunk on this
+     *         overflow page can hold
+     */
+    int chunkRoom() {
+        return Math.max(0, freeSpace - SLOT_SIZE - CHUNK_HEADER_SIZE);
+    }
+
+    /**
+     * Add a chunk holding len bytes of b from off to this overflow page.
+     * Chunks are never removed, so the space of the chunks of an aborted
+     * transaction is reclaimed by rolling back the page.
+     *
+     * @param next the place of the next chunk of the string, or null if
+     *         this is the last one
+     * @return the slot of the chunk
+     */
+    int addChunk(RecordId next, byte[] b, int off, int len) throws DbException {
+        if (!overflow || len > chunkRoom())
+            throw new DbException("no room for a chunk of " + len + " bytes on page " + pid.pageNumber());
+        byte[] chunk = createChunk(next, b, off, len);
+        if (numSlots == records.length) {
+            tuples = Arrays.copyOf(tuples, Math.max(8, numSlots * 2));
+            records = Arrays.copyOf(records, tuples.length);
+        }
+        records[numSlots] = chunk;
+        freeSpace -= SLOT_SIZE + chunk.length;
+        return numSlots++;
+    }
+
+    /**
+     * @return a chunk of an overflow page holding len bytes of b from off
+     * @param next the place of the next chunk of the string, or null if
+     *         this is the last one
+     */
+    static byte[] createChunk(RecordId next, byte[] b, int off, int len) {
+        byte[] chunk = new byte[CHUNK_HEADER_SIZE + len];
+        ByteBuffer buf = ByteBuffer.wrap(chunk);
+        buf.putInt(next == null ? -1 : next.getPageId().pageNumber());
+        buf.putShort((short) (next == null ? 0 : next.tupleno()));
+        buf.put(b, off, len);
+        return chunk;
+    }
+
+    /**
+     * @return the chunk in slot i of this overflow page: the page and slot
+     *         of the next chunk, or -1 and 0, followed by the bytes of the
+     *         string it holds
+     */
+    byte[] getChunk(int i) throws DbException {
+        if (!overflow || i < 0 || i >= numSlots || records[i] == null)
+            throw new DbException("no chunk " + i + " on page " + pid.pageNumber());
+        return records[i];
+    }
+
+    /**
+     * @return the tuple in slot i, or null if the slot is empty
+     */
+    public Tuple getTuple(int i) {
+    	if (i < 0 || i >= numSlots || !isSlotUsed(i))
+    		return null;
+    	return tuples[i];
+    }
+
+    /**
+     * Append the tuples of the used slots from slot on to batch, setting
+     * its column vectors straight from the slots, until the batch is full.
+     *
+     * @return the slot to continue from, past the last slot once the page
+     *         is done
+     */
+    int fillBatch(int slot, TupleBatch batch) {
+        int columns = td.numFields();
+        for (; slot < tuples.length && !batch.isFull(); slot++) {
+            Tuple t = tuples[slot];
+            // the bit of slot i in the header is bit i % 8 of byte i / 8
+            if (t == null || format != HeapFile.FORMAT_SLOTTED
+                    && (header[slot >>> 3] & (1 << (slot & 7))) == 0)
+                continue;
+            int row = batch.addRow();
+            for (int c = 0; c < columns; c++)
+                batch.getColumn(c).set(row, t, c);
+        }
+        return slot;
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
@@ -0,0 +1,75 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * HyperLogLog estimates the number of distinct values added to it in a
+ * fixed amount of memory: 2^{@link #PRECISION} one-byte registers, for a
+ * standard error of about 1.6%. Each value is hashed to 64 bits; the first
+ * PRECISION bits pick a register, which keeps the largest number of leading
+ * zeros plus one seen in the remaining bits. Small counts are estimated by
+ * linear counting of the empty registers.
+ *
+ * @see TableStats
+ */
+public class HyperLogLog implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of hash bits used to pick a register */
+    static final int PRECISION = 12;
+
+    private final byte[] registers = new byte[1 << PRECISION];
+
+    /** Add an int value */
+    public void addInt(int v) {
+        add(mix(v * 0x9e3779b97f4a7c15L));
+    }
+
+    /** Add a string value */
+    public void addString(String s) {
+        long h = 1125899906842597L;
+        for (int i = 0; i < s.length(); i++)
+            h = 31 * h + s.charAt(i);
+        add(mix(h));
+    }
+
+    private void add(long hash) {
+        int index = (int) (hash >>> (64 - PRECISION));
+        int rank = Math.min(Long.numberOfLeadingZeros(hash << PRECISION), 64 - PRECISION) + 1;
+        if (rank > registers[index])
+            registers[index] = (byte) rank;
+    }
+
+    /** The finalizer of MurmurHash3, spreading every input bit over the hash */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Add the values added to other to this sketch */
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < registers.length; i++)
+            registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+    }
+
+    /** @return the estimated number of distinct values added */
+    public double estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                zeros++;
+        }
+        double e = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+        if (e <= 2.5 * m && zeros > 0)
+            e = m * Math.log((double) m / zeros);
+        return e;
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexJoin is an index nested-loops equi-join: for every tuple of the outer
+ * child it looks up the inner tuple with the same key in the hash index on
+ * the primary key of the inner table, instead of reading the inner table.
+ * Since the key is unique, every outer tuple joins with at most one inner
+ * tuple. Filters on the inner table are applied to the tuples looked up.
+ * <p>
+ * The output is the concatenation of the outer and the inner tuple, as for
+ * {@link Join}, with the fields of the inner table named alias.fieldName.
+ *
+ * @see HashIndexFile#lookup
+ */
+public class IndexJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final JoinPredicate p;
+    private final TransactionId tid;
+    private final int tableid;
+    private final String alias;
+    private final Predicate[] innerPredicates;
+    private final TupleDesc innerTd;
+    private transient TupleDesc td;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            the predicate joining the outer tuples to the inner table;
+     *            its operator must be EQUALS and its second field the primary
+     *            key of the inner table
+     * @param child
+     *            the outer relation
+     * @param tid
+     *            the transaction the lookups are part of
+     * @param tableid
+     *            the inner table, which must have a primary key index
+     * @param alias
+     *            the alias of the inner table
+     * @param innerPredicates
+     *            the predicates the inner tuples must satisfy
+     */
+    public IndexJoin(JoinPredicate p, DbIterator child, TransactionId tid,
+            int tableid, String alias, Predicate[] innerPredicates) {
+        HashIndexFile index = Database.getCatalog().getPrimaryKeyIndex(tableid);
+        if (p.getOperator() != Predicate.Op.EQUALS || index == null
+                || index.getKeyField() != p.getField2())
+            throw new IllegalArgumentException("the join is not on the indexed primary key of table " + tableid);
+        this.p = p;
+        this.child = child;
+        this.tid = tid;
+        this.tableid = tableid;
+        this.alias = alias;
+        this.innerPredicates = innerPredicates;
+        TupleDesc base = Database.getCatalog().getTupleDesc(tableid);
+        Type[] types = new Type[base.numFields()];
+        String[] names = new String[base.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = base.getFieldType(i);
+            names[i] = alias + "." + base.getFieldName(i);
+        }
+        this.innerTd = new TupleDesc(types, names);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /** @return the id of the inner table */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the alias of the inner table */
+    public String getAlias() {
+        return alias;
+    }
+
+    public Predicate[] getInnerPredicates() {
+        return innerPredicates;
+    }
+
+    /** @return the quantified name of the join field of the outer child */
+    public String getJoinField1Name() {
+        return child.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /** @return the quantified name of the primary key of the inner table */
+    public String getJoinField2Name() {
+        return innerTd.getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child.getTupleDesc(), innerTd);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child.open();
+    }
+
+    public void close() {
+        child.close();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        HashIndexFile index = Database.getCatalog().getPrimaryKeyIndex(tableid);
+        while (child.hasNext()) {
+            Tuple outer = child.next();
+            RecordId rid = index.lookup(tid, outer.getField(p.getField1()));
+            if (rid == null)
+                continue;
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    rid.getPageId(), Permissions.READ_ONLY);
+            Tuple inner = page.getTuple(rid.tupleno());
+            if (inner == null || !matches(inner))
+                continue;
+            if (td == null)
+                td = getTupleDesc();
+            return Tuple.merge(td, outer, inner);
+        }
+        return null;
+    }
+
+    private boolean matches(Tuple inner) {
+        for (Predicate pred : innerPredicates) {
+            if (!pred.filter(inner))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child = children[0];
+        td = null;
+    }
+}
@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan reads the tuples of a table whose key satisfies a predicate
+ * <tt>key op operand</tt>, in key order. The key is either the field a
+ * BTreeFile is ordered on, in which case only the leaves of the tree that
+ * can hold the tuples are read, or a field with a secondary index, in which
+ * case only the heap pages of the tuples the index names are read.
+ *
+ * @see BTreeFile#indexIterator
+ * @see SecondaryIndex#iterator
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final int keyField;
+    private final Predicate.Op op;
+    private Field operand;
+    private final TupleDesc td;
+    private transient DbFileIterator it;
+
+    /**
+     * Creates an index scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be stored in a BTreeFile
+     * @param tableAlias
+     *            the alias of this table; the returned tupleDesc has fields
+     *            named tableAlias.fieldName, as in SeqScan
+     * @param op
+     *            the operator comparing the key of the tree to operand; one
+     *            of =, <, <=, > and >=
+     * @param operand
+     *            the constant the key is compared to
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias,
+            Predicate.Op op, Field operand) {
+        this(tid, tableid, tableAlias, keyOf(tableid), op, operand);
+    }
+
+    /**
+     * Creates an index scan over the specified table using the index on the
+     * specified field: the key of the table if it is stored in a BTreeFile,
+     * or a field with a secondary index.
+     *
+     * @param keyField
+     *            the index of the field in the tuples of the table
+     * @see #IndexScan(TransactionId, int, String, Predicate.Op, Field)
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias,
+            int keyField, Predicate.Op op, Field operand) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof BTreeFile && ((BTreeFile) f).keyField() == keyField)
+                && Database.getCatalog().getIndex(tableid, keyField) == null)
+            throw new IllegalArgumentException("field " + keyField + " of table " + tableid + " has no index");
+        if (!BTreeFile.isIndexable(op))
+            throw new IllegalArgumentException("operator " + op + " cannot use the index");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.keyField = keyField;
+        this.op = op;
+        this.operand = operand;
+        TupleDesc base = f.getTupleDesc();
+        Type[] types = new Type[base.numFields()];
+        String[] names = new String[base.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = base.getFieldType(i);
+            names[i] = tableAlias + "." + base.getFieldName(i);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    private static int keyOf(int tableid) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof BTreeFile))
+            throw new IllegalArgumentException("table " + tableid + " is not stored in a B+ tree");
+        return ((BTreeFile) f).keyField();
+    }
+
+    /** @return the name of the table the operator scans */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the index of the key field in the tuples of the table */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    public Field getOperand() {
+        return operand;
+    }
+
+    /**
+     * Replace the operand the key is compared to, e.g. to bind a parameter
+     * of a PreparedQuery. The scan reads the new range once reopened.
+     */
+    void setOperand(Field operand) {
+        this.operand = operand;
+        if (it != null) {
+            it.close();
+            it = null;
+        }
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (it == null) {
+            DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+            if (f instanceof BTreeFile && ((BTreeFile) f).keyField() == keyField)
+                it = ((BTreeFile) f).indexIterator(tid, op, operand);
+            else
+                it = Database.getCatalog().getIndex(tableid, keyField).iterator(tid, op, operand);
+        }
+        it.open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return it != null && it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        if (it == null) {
+            throw new NoSuchElementException("scan is not open yet");
+        }
+        return it.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (it == null) {
+            throw new IllegalStateException("scan is not open yet");
+        }
+        it.rewind();
+    }
+
+    public void close() {
+        if (it != null) {
+            it.close();
+        }
+    }
+}
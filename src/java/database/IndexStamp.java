@@ -0,0 +1,79 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * The stamp an index file keeps of the table it indexes: the length and
+ * modification time of the file of the table when the index was last known
+ * to match it. The stamp takes the last {@link #SIZE} bytes of page 0 of the
+ * index, which the pages of the index leave unused and which
+ * {@link #writeFirstPage} never overwrites.
+ * <p>
+ * The Catalog stamps an index after building it and again each time the
+ * BufferPool wrote a page of the table, since the same transaction updated
+ * the index too. A table changed any other way, e.g. regenerated by
+ * HeapFileEncoder or copied over, no longer matches the stamp of its
+ * indexes, which are then rebuilt when the table is opened.
+ *
+ * @see Catalog#tableWritten
+ */
+class IndexStamp {
+
+    /** The number of bytes of the stamp */
+    static final int SIZE = 16;
+
+    private IndexStamp() {
+    }
+
+    /** @return the offset of the stamp in an index file */
+    private static long offset() {
+        return BufferPool.getPageSize() - SIZE;
+    }
+
+    /**
+     * Stamp the index stored in index with the current length and
+     * modification time of table. An empty index file grows to one page.
+     */
+    static void write(File index, File table) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(index, "rw");
+        try {
+            raf.seek(offset());
+            raf.writeLong(table.length());
+            raf.writeLong(table.lastModified());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return true if the index stored in index was stamped with the current
+     *         length and modification time of table
+     */
+    static boolean matches(File index, File table) {
+        if (!table.exists() || index.length() < BufferPool.getPageSize())
+            return false;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(index, "r");
+            try {
+                raf.seek(offset());
+                return raf.readLong() == table.length() && raf.readLong() == table.lastModified();
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Write data, the page 0 of an index file, to raf without its last
+     * SIZE bytes, so that the stamp of the index is kept. The file keeps at
+     * least one page.
+     */
+    static void writeFirstPage(RandomAccessFile raf, byte[] data) throws IOException {
+        raf.seek(0);
+        raf.write(data, 0, data.length - SIZE);
+        if (raf.length() < data.length)
+            raf.setLength(data.length);
+    }
+}
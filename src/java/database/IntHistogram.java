@@ -1,187 +1,347 @@
 package simpledb;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.io.Serializable;
+import java.util.Arrays;
 
-/** A class to represent a fixed-width histogram over a single integer-based field.
+/** A class to represent a histogram over a single integer-based field.
+ * <p>
+ * The histogram keeps, for each bucket, the range of values it covers, the
+ * number of values that fell into it and an estimate of how many of them
+ * are distinct, so its size does not depend on the number of values.
+ * Buckets are either equi-width, each covering a range of the same length,
+ * or equi-depth, cut from the sorted values so that each holds about the
+ * same number of them, which keeps estimates accurate on skewed columns
+ * (see {@link #fromSorted}). Values are assumed to be spread uniformly over
+ * the range of their bucket.
  */
-public class IntHistogram {
-	ArrayList<Integer>[] histogramArray;
-	int min;
-	int max;
-	int totalNum; //used to keep track of the total number of elements in the IntHistorgram
-	
+public class IntHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * A histogram is skewed if its largest bucket holds this many times
+     * more values than the average bucket
+     */
+    static final int SKEW_FACTOR = 4;
+
     /**
-     * Create a new IntHistogram.
-     * 
-     * This IntHistogram should maintain a histogram of integer values that it receives.
-     * It should split the histogram into "buckets" buckets.
-     * 
+     * the smallest and largest value of each bucket; buckets are contiguous,
+     * except that an equi-depth bucket of a single value ends at that value
+     */
+	private final int[] lows;
+	private final int[] highs;
+	/** the number of values in each bucket */
+	private final int[] counts;
+	/** the number of distinct values in each bucket, 0 if not known */
+	private final int[] distincts;
+	private int totalNum; //used to keep track of the total number of elements in the IntHistorgram
+
+    /**
+     * Create a new equi-width IntHistogram.
+     *
      * The values that are being histogrammed will be provided one-at-a-time through the "addValue()" function.
-     * 
-     * Your implementation should use space and have execution time that are both
-     * constant with respect to the number of values being histogrammed.  For example, you shouldn't 
-     * simply store every value that you see in a sorted list.
-     * 
-     * @param buckets The number of buckets to split the input value into.
+     * The histogram uses space and has execution time that are both
+     * constant with respect to the number of values being histogrammed.
+     *
+     * @param buckets The number of buckets to split the input value into; fewer are used if the range
+     *        between min and max has fewer values
      * @param min The minimum integer value that will ever be passed to this class for histogramming
      * @param max The maximum integer value that will ever be passed to this class for histogramming
      */
-    @SuppressWarnings("unchecked")
 	public IntHistogram(int buckets, int min, int max) {
-    	this.min = min;
-    	this.max = max;
+    	if (max < min) {
+    		max = min;
+    	}
+    	long range = (long) max - min + 1;
+    	long width = Math.max(1, (range + buckets - 1) / buckets);
+    	int n = (int) ((range + width - 1) / width);
+    	lows = new int[n];
+    	highs = new int[n];
+    	for (int i = 0; i < n; i++) {
+    		lows[i] = (int) (min + i * width);
+    		highs[i] = (int) Math.min(max, min + (i + 1) * width - 1);
+    	}
+    	counts = new int[n];
+    	distincts = new int[n];
     	totalNum = 0;
-    	histogramArray = new ArrayList[buckets];
-    	
-    	//initialize the array
-    	for (int i = 0; i < buckets; i++) {
-    		histogramArray[i] = new ArrayList<Integer>();
+    }
+
+    private IntHistogram(int[] lows, int[] highs, int[] counts, int[] distincts, int totalNum) {
+    	this.lows = lows;
+    	this.highs = highs;
+    	this.counts = counts;
+    	this.distincts = distincts;
+    	this.totalNum = totalNum;
+    }
+
+    /**
+     * Create a histogram of the first n values of sorted, with exact counts
+     * of the distinct values of each bucket.
+     *
+     * @param buckets The number of buckets
+     * @param sorted The values, in ascending order
+     * @param n The number of values of sorted to use
+     * @param equiDepth true to cut the buckets so that each holds about n / buckets values, false for
+     *        equi-width buckets between the smallest and largest value. Equi-depth buckets never
+     *        split the copies of a value, so a value more frequent than a bucket gets a bucket of its own.
+     */
+    public static IntHistogram fromSorted(int buckets, int[] sorted, int n, boolean equiDepth) {
+    	if (!equiDepth || n == 0) {
+    		IntHistogram h = new IntHistogram(buckets, n == 0 ? 0 : sorted[0], n == 0 ? 0 : sorted[n - 1]);
+    		for (int i = 0; i < n; i++) {
+    			int b = h.findIndex(sorted[i]);
+    			h.counts[b]++;
+    			if (i == 0 || sorted[i] != sorted[i - 1]) {
+    				h.distincts[b]++;
+    			}
+    		}
+    		h.totalNum = n;
+    		return h;
+    	}
+
+    	int[] lows = new int[buckets];
+    	int[] counts = new int[buckets];
+    	int[] distincts = new int[buckets];
+    	int b = 0;
+    	int i = 0;
+    	while (i < n) {
+    		// share the values left among the buckets left, so that a frequent
+    		// value does not leave the buckets after it with a value each
+    		long goal = b == buckets - 1 ? n : i + Math.round((double) (n - i) / (buckets - b));
+    		int end = i;
+    		int d = 0;
+    		while (end < n) {
+    			int run = end;
+    			while (run < n && sorted[run] == sorted[end]) {
+    				run++;
+    			}
+    			// leave a run that would overshoot the share more than stopping before it falls short
+    			if (end > i && run - goal > goal - end) {
+    				break;
+    			}
+    			end = run;
+    			d++;
+    			if (end >= goal) {
+    				break;
+    			}
+    		}
+    		lows[b] = sorted[i];
+    		counts[b] = end - i;
+    		distincts[b] = d;
+    		b++;
+    		i = end;
+    	}
+    	int[] highs = new int[b];
+    	for (int j = 0; j < b - 1; j++) {
+    		// the values between a frequent value and the next bucket are not in the column
+    		highs[j] = distincts[j] == 1 ? lows[j] : lows[j + 1] - 1;
+    	}
+    	highs[b - 1] = sorted[n - 1];
+    	return new IntHistogram(Arrays.copyOf(lows, b), highs, Arrays.copyOf(counts, b),
+    			Arrays.copyOf(distincts, b), n);
+    }
+
+    /**
+     * Add the values of another histogram with the same buckets, e.g. built
+     * over another part of the same column, to this one.
+     * @throws IllegalArgumentException if the buckets of other are not the same
+     */
+    public void merge(IntHistogram other) {
+    	if (!Arrays.equals(lows, other.lows) || !Arrays.equals(highs, other.highs)) {
+    		throw new IllegalArgumentException("histograms have different buckets");
+    	}
+    	for (int i = 0; i < counts.length; i++) {
+    		counts[i] += other.counts[i];
+    		// the values of both may be the same or not
+    		distincts[i] = distincts[i] == 0 || other.distincts[i] == 0 ? 0
+    				: Math.max(distincts[i], other.distincts[i]);
+    	}
+    	totalNum += other.totalNum;
+    }
+
+    /**
+     * Scale a histogram built from a sample of a column to the whole column.
+     *
+     * @param countFactor The number of values of the column per value of the sample
+     * @param distinctFactor The number of distinct values of the column per distinct value of the sample
+     */
+    public void scale(double countFactor, double distinctFactor) {
+    	totalNum = 0;
+    	for (int i = 0; i < counts.length; i++) {
+    		counts[i] = (int) Math.round(counts[i] * countFactor);
+    		totalNum += counts[i];
+    		if (distincts[i] > 0) {
+    			long range = (long) highs[i] - lows[i] + 1;
+    			long d = Math.round(distincts[i] * distinctFactor);
+    			distincts[i] = (int) Math.max(1, Math.min(Math.min(d, range), counts[i]));
+    		}
+    	}
+    }
+
+    /**
+     * @return true if the largest bucket holds more than SKEW_FACTOR times the values of the average
+     *         bucket, in which case an equi-depth histogram gives better estimates
+     */
+    public boolean isSkewed() {
+    	int largest = 0;
+    	for (int c : counts) {
+    		largest = Math.max(largest, c);
     	}
+    	return counts.length > 1 && (double) largest * counts.length > (double) SKEW_FACTOR * totalNum;
     }
 
     /**
      * Add a value to the set of values that you are keeping a histogram of.
+     * A value outside the range of the histogram widens its first or last bucket.
      * @param v Value to add to the histogram
      */
     public void addValue(int v) {
+    	int i = findIndex(v);
+    	if (v < lows[i]) {
+    		lows[i] = v;
+    	}
+    	if (v > highs[i]) {
+    		highs[i] = v;
+    	}
+    	counts[i]++;
     	totalNum++;
-    	histogramArray[findIndex(v)].add(v);
     }
-    
+
+    /**
+     * Remove a value added to the histogram, e.g. when its tuple is deleted.
+     * @param v Value to remove from the histogram
+     */
+    public void removeValue(int v) {
+    	int i = findIndex(v);
+    	if (counts[i] > 0) {
+    		counts[i]--;
+    		totalNum--;
+    		distincts[i] = Math.min(distincts[i], counts[i]);
+    	}
+    }
+
     /**
      * find the bucket index where the value v should be put into
      * @param v the value to be put into the bucket
      * @return the bucket index where the value v should be put into
      */
     private int findIndex(int v) {
-    	if (v < min) {
+    	int i = Arrays.binarySearch(lows, v);
+    	if (i < 0) {
+    		i = -i - 2;
+    	}
+    	return Math.max(0, i);
+    }
+
+    /** @return the estimated number of distinct values in bucket i, at least 1 */
+    private double distinct(int i) {
+    	long range = (long) highs[i] - lows[i] + 1;
+    	long d = distincts[i] > 0 ? distincts[i] : Math.min(counts[i], range);
+    	return Math.max(1, d);
+    }
+
+    /** @return the estimated number of values of bucket i below v */
+    private double below(int i, int v) {
+    	if (v <= lows[i]) {
     		return 0;
     	}
-    	if (v >= max) {
-    		return histogramArray.length - 1;
+    	if (v > highs[i]) {
+    		return counts[i];
+    	}
+    	return counts[i] * ((double) v - lows[i]) / ((double) highs[i] - lows[i] + 1);
+    }
+
+    /** @return the estimated number of values below v */
+    private double less(int v) {
+    	double num = 0;
+    	for (int i = 0; i < counts.length; i++) {
+    		if (highs[i] < v) {
+    			num += counts[i];
+    		} else {
+    			num += below(i, v);
+    			break;
+    		}
+    	}
+    	return num;
+    }
+
+    /** @return the estimated number of values equal to v */
+    private double equal(int v) {
+    	int i = findIndex(v);
+    	if (v < lows[i] || v > highs[i] || counts[i] == 0) {
+    		return 0;
     	}
-    	
-    	double width = (max - min) * 1.0 / histogramArray.length;
-    	int index = (int) ((v - min) / width);
-    	
-    	return index;
+    	return Math.min(counts[i] / distinct(i), counts[i] - below(i, v));
     }
 
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
-     * 
-     * For example, if "op" is "GREATER_THAN" and "v" is 5, 
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5,
      * return your estimate of the fraction of elements that are greater than 5.
-     * 
+     *
      * @param op Operator
      * @param v Value
      * @return Predicted selectivity of this particular operator and value
      */
     public double estimateSelectivity(Predicate.Op op, int v) {
-    	int bucketIndex = findIndex(v);
-    	ArrayList<Integer> array = histogramArray[bucketIndex];
-		Iterator<Integer> itr = array.iterator();
-		
-    	if (op.toString().equals("=")) {
-    	    int num = 0;
-    		while (itr.hasNext()) {
-    			if (itr.next() == v) {
-    				num++;
-    			}
-    		}
-    		return num * 1.0 / totalNum;
-    	} else if (op.toString().equals(">")) {
-    		int num = 0;
-    		while (itr.hasNext()) {
-    			if (itr.next() > v) {
-    				num++;
-    			}
-    		}
-    		for (int i = bucketIndex + 1; i < histogramArray.length; i++) {
-    			num += histogramArray[i].size();
-    		}
-    		
-    		return num * 1.0 / totalNum;
-    	} else if (op.toString().equals(">=")) {
-    		int num = 0;
-    		while (itr.hasNext()) {
-    			if (itr.next() >= v) {
-    				num++;
-    			}
-    		}
-    		
-    		for (int i = bucketIndex + 1; i < histogramArray.length; i++) {
-    			num += histogramArray[i].size();
-    		}
-    		
-    		return num * 1.0 / totalNum;
-    	} else if (op.toString().equals("<")) {
-    		int num = 0;
-    		while (itr.hasNext()) {
-    			if (itr.next() < v) {
-    				num++;
-    			}
-    		}
-    		for (int i = 0; i < bucketIndex; i++) {
-    			num += histogramArray[i].size();
-    		}
-    		return num * 1.0 / totalNum;
-    		
-    	} else if (op.toString().equals("<=")) {
-    		int num = 0;
-    		while (itr.hasNext()) {
-    			if (itr.next() <= v) {
-    				num++;
-    			}
-    		}
-    		for (int i = 0; i < bucketIndex; i++) {
-    			num += histogramArray[i].size();
-    		}
-    		return num * 1.0 / totalNum;
-    	} else if (op.toString().equals("<>")) {
-    		int num = 0;
-    		for (int i = 0; i < histogramArray.length; i++) {
-    			ArrayList<Integer> al = histogramArray[i];
-    			Iterator<Integer> itr2 = al.iterator();
-    			while (itr2.hasNext()) {
-    				if (itr2.next() != v) {
-    					num++;
-    				}
-    			}
-    		}
-    		return num * 1.0 / totalNum;
+    	if (totalNum == 0) {
+    		return 0.0;
     	}
-    	
-    	return -1.0;
+    	double num;
+    	switch (op) {
+    	case EQUALS:
+    	case LIKE:
+    		num = equal(v);
+    		break;
+    	case NOT_EQUALS:
+    		num = totalNum - equal(v);
+    		break;
+    	case LESS_THAN:
+    		num = less(v);
+    		break;
+    	case LESS_THAN_OR_EQ:
+    		num = less(v) + equal(v);
+    		break;
+    	case GREATER_THAN:
+    		num = totalNum - less(v) - equal(v);
+    		break;
+    	case GREATER_THAN_OR_EQ:
+    		num = totalNum - less(v);
+    		break;
+    	default:
+    		return -1.0;
+    	}
+    	return Math.max(0.0, Math.min(1.0, num / totalNum));
     }
-    
+
     /**
      * @return
-     *     the average selectivity of this histogram.
-     *     
-     *     This is not an indispensable method to implement the basic
-     *     join optimization. It may be needed if you want to
-     *     implement a more efficient optimization
+     *     the average selectivity of an equality predicate on a value of the
+     *     column, weighting each bucket by the number of values it holds.
      * */
     public double avgSelectivity()
     {
-        // some code goes here
-        return 1.0;
+    	if (totalNum == 0) {
+    		return 1.0;
+    	}
+    	double sum = 0;
+    	for (int i = 0; i < counts.length; i++) {
+    		sum += (double) counts[i] / totalNum * (counts[i] / distinct(i)) / totalNum;
+    	}
+    	return sum;
     }
-    
+
     /**
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
-    	String result = "";
-        for (int i = 0; i < histogramArray.length; i++) {
-        	result += "bucket " + i + ": ";
-        	for (int j = 0; j < histogramArray[i].size(); j++) {
-        		result += histogramArray[i].get(j) + " ";
-        	}
-        	result += "\n";
+    	StringBuilder result = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+        	result.append("bucket ").append(i).append(" [").append(lows[i]).append(", ").append(highs[i])
+        			.append("]: ").append(counts[i]).append(" values, ").append((long) distinct(i))
+        			.append(" distinct\n");
         }
-        return result;
+        return result.toString();
     }
 }
@@ -1,25 +1,23 @@
 package simpledb;
 
-import java.util.ArrayList;
-
 /**
  * Knows how to compute some aggregate over a set of IntFields.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
-    
+
     int gbfield;
     Type gbfieldtype;
     int afield;
     Op what;
-    ArrayList<GbfieldAndAfield> groupMap;
-    
-    
-    
+    SpillableGroupTable groupMap;
+
+
+
     /**
      * Aggregate constructor
-     * 
+     *
      * @param gbfield
      *            the 0-based index of the group-by field in the tuple, or
      *            NO_GROUPING if there is no grouping
@@ -33,48 +31,61 @@ public class IntegerAggregator implements Aggregator {
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-    	
+    	this(gbfield, gbfieldtype, afield, what, Aggregate.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Aggregate constructor
+     *
+     * @param memoryBudget
+     *            the number of bytes the groups may take in memory before
+     *            they are spilled to disk
+     * @see #IntegerAggregator(int, Type, int, Op)
+     */
+    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what, long memoryBudget) {
+
        this.gbfield = gbfield;
        this.gbfieldtype = gbfieldtype;
        this.afield = afield;
        this.what = what;
-       groupMap = new ArrayList<GbfieldAndAfield>();
+       groupMap = new SpillableGroupTable(gbfieldtype, memoryBudget);
     }
 
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
      * constructor
-     * 
+     *
      * @param tup
      *            the Tuple containing an aggregate field and a group-by field
      */
-    public void mergeTupleIntoGroup(Tuple tup) {
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException {
+    	if (tup.isNull(afield))
+    		return;
+    	Field group = (gbfield == Aggregator.NO_GROUPING) ? null : tup.getField(gbfield);
+    	groupMap.get(group).add(tup.getInt(afield));
+    }
+
+    public void mergeBatchIntoGroup(TupleBatch batch) throws DbException {
+    	ColumnVector a = batch.getColumn(afield);
+    	int[] values = a.values();
     	if (gbfield == Aggregator.NO_GROUPING) {
-    		//if there is no grouping, add the aggregateValue in to the groupMap directly
-    		ArrayList<Field> afieldlist = new ArrayList<Field>();
-    		afieldlist.add(tup.getField(afield));
-    		groupMap.add(new GbfieldAndAfield(null, afieldlist));
+    		PartialAggregate pa = groupMap.get(null);
+    		for (int row = batch.nextSelected(0); row >= 0; row = batch.nextSelected(row + 1)) {
+    			if (!a.isNull(row))
+    				pa.add(values[row]);
+    		}
     	} else {
-    		// if there does exist grouping
-	        Field comparedField = tup.getField(gbfield);
-	        for (int i = 0; i < groupMap.size(); i++) {
-	        	GbfieldAndAfield gbfa = groupMap.get(i);
-	        	if (gbfa.getGbField().equals(comparedField)) {
-	        		gbfa.getAggregateList().add(tup.getField(afield));
-	        		return;
-	        	}
-	        }
-	        
-	        //if the group map do not contains the comparedField
-	        ArrayList<Field> afieldlist = new ArrayList<Field>();
-	        afieldlist.add(tup.getField(afield));
-	        groupMap.add(new GbfieldAndAfield(comparedField, afieldlist));
+    		ColumnVector g = batch.getColumn(gbfield);
+    		for (int row = batch.nextSelected(0); row >= 0; row = batch.nextSelected(row + 1)) {
+    			if (!a.isNull(row))
+    				groupMap.get(g.getField(row)).add(values[row]);
+    		}
     	}
     }
 
     /**
      * Create a DbIterator over group aggregate results.
-     * 
+     *
      * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no grouping. The
      *         aggregateVal is determined by the type of aggregate specified in
@@ -84,4 +95,8 @@ public class IntegerAggregator implements Aggregator {
     	return new IntegerAggregatorIterator(what, groupMap, gbfieldtype);
     }
 
+    public void close() {
+    	groupMap.close();
+    }
+
 }
@@ -4,8 +4,11 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * In batch mode (see {@link BatchIterator}) the outer relation is read a
+ * batch at a time and the output is built column by column.
  */
-public class Join extends Operator {
+public class Join extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     
@@ -14,6 +17,16 @@ public class Join extends Operator {
     Queue<Tuple> tmpTuplesList;
     ArrayList<Tuple> list = new ArrayList<Tuple>();
     Map<Field, ArrayList<Tuple>> hashMap; //used for hash equal join
+    transient CompiledJoinPredicate compiled; //used for the other operators
+    transient TupleDesc td;
+
+    // state of batch mode: the current outer batch and row, and the inner
+    // tuples it may still join with
+    transient TupleBatch outBatch, probeBuffer, probe;
+    transient int probeRow;
+    transient Field probeField;
+    transient List<Tuple> candidates;
+    transient int candidate;
     
     
     /**
@@ -33,26 +46,6 @@ public class Join extends Operator {
         this.child2 = child2;
         tmpTuplesList = new LinkedList<Tuple>();
         hashMap = new HashMap<Field, ArrayList<Tuple>>();
-        
-        try {
-			child2.open();
-			while (child2.hasNext()) {
-				Tuple newTuple = child2.next();
-				Field field2 = newTuple.getField(p.getField2());
-				if (hashMap.containsKey(field2)) {
-					hashMap.get(field2).add(newTuple);
-				} else {
-					ArrayList<Tuple> list = new ArrayList<Tuple>();
-					list.add(newTuple);
-					hashMap.put(field2, list);
-				}
-	        }
-		} catch (DbException e) {
-			e.printStackTrace();
-		} catch (TransactionAbortedException e) {
-			e.printStackTrace();
-		}
-        
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -90,18 +83,113 @@ public class Join extends Operator {
         super.open();
         child1.open();
         child2.open();
+        compiled = p.compile(child1.getTupleDesc().getFieldType(p.getField1()));
+        buildHashMap();
+    }
+
+    /**
+     * Read all of child2 into the hash table probed by fetchNext. This is done
+     * on open() rather than in the constructor, so that building a plan does
+     * not read any data and the join can run on the thread that executes it.
+     */
+    private void buildHashMap() throws DbException, TransactionAbortedException {
+        hashMap.clear();
+        list.clear();
+        while (child2.hasNext()) {
+            Tuple newTuple = child2.next();
+            Field field2 = newTuple.getField(p.getField2());
+            ArrayList<Tuple> group = hashMap.get(field2);
+            if (group == null) {
+                group = new ArrayList<Tuple>();
+                hashMap.put(field2, group);
+            }
+            group.add(newTuple);
+            if (p.getOperator() != Predicate.Op.EQUALS) {
+                // batch mode compares every outer row with all of them
+                list.add(newTuple);
+            }
+        }
     }
 
     public void close() {
         child1.close();
         child2.close();
+        hashMap.clear();
+        list.clear();
+        tmpTuplesList.clear();
+        resetBatches();
         super.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        // the hash table of child2 is kept, only the outer relation is reread
         child1.rewind();
-        child2.rewind();
         tmpTuplesList.clear();
+        resetBatches();
+    }
+
+    private void resetBatches() {
+        probe = null;
+        candidates = null;
+    }
+
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (!isOpen())
+            throw new IllegalStateException("Operator not yet open");
+        if (outBatch == null) {
+            outBatch = new TupleBatch(getTupleDesc());
+            probeBuffer = new TupleBatch(child1.getTupleDesc());
+        }
+        boolean equi = p.getOperator() == Predicate.Op.EQUALS;
+        int outer = child1.getTupleDesc().numFields();
+        int inner = outBatch.getTupleDesc().numFields() - outer;
+        outBatch.clear();
+        while (!outBatch.isFull()) {
+            if (candidates == null || candidate == candidates.size()) {
+                if (!nextProbeRow())
+                    break;
+                continue;
+            }
+            Tuple t2 = candidates.get(candidate++);
+            if (!equi && !compiled.matches(probeField, t2.getField(p.getField2())))
+                continue;
+            int row = outBatch.addRow();
+            for (int i = 0; i < outer; i++) {
+                outBatch.getColumn(i).copy(row, probe.getColumn(i), probeRow);
+            }
+            for (int i = 0; i < inner; i++) {
+                outBatch.getColumn(outer + i).setField(row, t2.getField(i));
+            }
+        }
+        return outBatch.size() == 0 ? null : outBatch;
+    }
+
+    /**
+     * Move on to the next selected row of the outer relation and look up the
+     * inner tuples it can join with.
+     * 
+     * @return false if the outer relation is exhausted
+     */
+    private boolean nextProbeRow() throws TransactionAbortedException, DbException {
+        probeRow = probe == null ? -1 : probe.nextSelected(probeRow + 1);
+        while (probeRow < 0) {
+            probe = TupleBatch.next(child1, probeBuffer);
+            if (probe == null) {
+                candidates = null;
+                return false;
+            }
+            probeRow = probe.nextSelected(0);
+        }
+        probeField = probe.getColumn(p.getField1()).getField(probeRow);
+        candidate = 0;
+        if (probeField == null) {
+            candidates = null;
+        } else if (p.getOperator() == Predicate.Op.EQUALS) {
+            candidates = hashMap.get(probeField);
+        } else {
+            candidates = list;
+        }
+        return true;
     }
 
     /**
@@ -143,7 +231,7 @@ public class Join extends Operator {
     				ArrayList<Tuple> list2 = hashMap.get(f2);
     				//boolean found = false;
     				for(Tuple t2: list2) {
-    					if (p.filter(newTuple, t2)) {
+    					if (compiled.matches(newTuple, t2)) {
     						tmpTuplesList.add(joinTwoTuple(newTuple, t2));
     					//	found = true;
     					}
@@ -168,20 +256,9 @@ public class Join extends Operator {
      * @return merged tuple
      */
     private Tuple joinTwoTuple(Tuple t1, Tuple t2) {
-    	Tuple result = new Tuple(getTupleDesc());
-    	
-    	int index = 0;
-    	for (int i = 0; i < t1.fieldsList.size(); i++) {
-    		result.setField(index, t1.getField(i));
-    		index++;
-    	}
-    	
-    	for (int i = 0; i < t2.fieldsList.size(); i++) {
-    		result.setField(index, t2.getField(i));
-    		index++;
-    	}
-    	
-    	return result;
+    	if (td == null)
+    		td = getTupleDesc();
+    	return Tuple.merge(td, t1, t2);
     }
 
     @Override
@@ -198,6 +275,8 @@ public class Join extends Operator {
     public void setChildren(DbIterator[] children) {
         child1 = children[0];
         child2 = children[1];
+        outBatch = probeBuffer = null;
+        td = null;
     }
 
 }
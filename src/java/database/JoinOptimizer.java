@@ -69,12 +69,83 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        j = instantiateIndexJoin(lj, p, plan1, plan2);
+        if (j == null)
+            j = new Join(p,plan1,plan2);
 
         return j;
 
     }
 
+    /**
+     * Return an IndexJoin probing the primary key index of the inner table
+     * if plan2 is a scan of that table, possibly under a Filter and a
+     * Project, and the join is an equality on its primary key; null
+     * otherwise. The inner fields the Project drops are dropped from the
+     * joined tuples.
+     */
+    private static DbIterator instantiateIndexJoin(LogicalJoinNode lj, JoinPredicate p,
+            DbIterator plan1, DbIterator plan2) {
+        if (lj instanceof LogicalSubplanJoinNode || lj.p != Predicate.Op.EQUALS)
+            return null;
+        Project project = null;
+        if (plan2 instanceof Project) {
+            project = (Project) plan2;
+            plan2 = project.getChildren()[0];
+            p = new JoinPredicate(p.getField1(), p.getOperator(), project.getFieldList().get(p.getField2()));
+        }
+        Predicate[] innerPredicates = new Predicate[0];
+        if (plan2 instanceof Filter) {
+            innerPredicates = ((Filter) plan2).getPredicates();
+            plan2 = ((Filter) plan2).getChildren()[0];
+        }
+        if (!(plan2 instanceof SeqScan))
+            return null;
+        SeqScan scan = (SeqScan) plan2;
+        HashIndexFile index = Database.getCatalog().getPrimaryKeyIndex(scan.getTableId());
+        if (index == null || index.getKeyField() != p.getField2()
+                || plan1.getTupleDesc().getFieldType(p.getField1()) != index.getKeyType())
+            return null;
+        DbIterator j = new IndexJoin(p, plan1, scan.getTransactionId(), scan.getTableId(),
+                scan.getAlias(), innerPredicates);
+        if (project == null)
+            return j;
+        int outer = plan1.getTupleDesc().numFields();
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        ArrayList<Type> types = new ArrayList<Type>();
+        for (int i = 0; i < outer; i++)
+            fields.add(i);
+        for (int f : project.getFieldList())
+            fields.add(outer + f);
+        for (int f : fields)
+            types.add(j.getTupleDesc().getFieldType(f));
+        return new Project(fields, types, j);
+    }
+
+    /**
+     * Estimate the cost of an index nested-loops join of j, probing the
+     * primary key index of the inner table j.t2 once per outer tuple: a
+     * bucket page and a heap page per probe, read from disk unless they are
+     * in the buffer pool (see {@link CostModel#indexJoinCost}).
+     *
+     * @return the estimated cost, or Double.POSITIVE_INFINITY if the join is
+     *         not an equality on the indexed primary key of j.t2
+     * @see IndexJoin
+     */
+    public double estimateIndexJoinCost(LogicalJoinNode j, int card1, double cost1) {
+        if (j instanceof LogicalSubplanJoinNode || j.p != Predicate.Op.EQUALS
+                || !isPkey(j.t2Alias, j.f2PureName))
+            return Double.POSITIVE_INFINITY;
+        int tableid = p.getTableId(j.t2Alias);
+        HashIndexFile index = Database.getCatalog().getPrimaryKeyIndex(tableid);
+        if (index == null)
+            return Double.POSITIVE_INFINITY;
+        BufferPool bp = Database.getBufferPool();
+        return CostModel.indexJoinCost(card1, cost1,
+                TableStats.numPages(Database.getCatalog().getDatabaseFile(tableid)), bp.numCachedPages(tableid),
+                index.numPages(), bp.numCachedPages(index.getId()), bp.getMaxPages());
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -100,6 +171,7 @@ public class JoinOptimizer {
      *            side of the query
      * @return An estimate of the cost of this query, in terms of cost1 and
      *         cost2
+     * @see Join
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
@@ -107,12 +179,12 @@ public class JoinOptimizer {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 4.
             return card1 + cost1 + cost2;
+        } else if (j.p == Predicate.Op.EQUALS) {
+            // Join hashes the inner relation once and probes it per outer tuple
+            return CostModel.hashJoinCost(card1, card2, cost1, cost2, p.getParallelism());
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-        	return cost1 + card1 * cost2 + card1 * card2;
+            // other predicates compare every outer tuple with every inner one
+            return CostModel.nestedLoopsJoinCost(card1, card2, cost1, cost2, p.getParallelism());
         }
     }
 
@@ -149,7 +221,11 @@ public class JoinOptimizer {
     }
 
     /**
-     * Estimate the join cardinality of two tables.
+     * Estimate the join cardinality of two tables. An equality join on
+     * fields that are not primary keys is estimated from the number of
+     * distinct values of the fields in stats, as card1 * card2 / the larger
+     * number of distinct values, each capped by the cardinality of its side;
+     * without stats, as the larger cardinality.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
             String table1Alias, String table2Alias, String field1PureName,
@@ -161,7 +237,13 @@ public class JoinOptimizer {
         
         if (joinOp.equals(Predicate.Op.EQUALS)) {
         	if (t1pkey == false && t2pkey == false) {
-            	card = Math.max(card1, card2);
+        		int ndv1 = distinctValues(table1Alias, field1PureName, card1, stats, tableAliasToId);
+        		int ndv2 = distinctValues(table2Alias, field2PureName, card2, stats, tableAliasToId);
+        		if (ndv1 > 0 && ndv2 > 0) {
+        			card = (int) Math.min(Integer.MAX_VALUE, (double) card1 * card2 / Math.max(ndv1, ndv2));
+        		} else {
+        			card = Math.max(card1, card2);
+        		}
             } else if (t1pkey == true) {
             	card = card2;
             } else if (t2pkey == true) {
@@ -174,6 +256,29 @@ public class JoinOptimizer {
         return card <= 0 ? 1 : card;
     }
     
+    /**
+     * @return the number of distinct values of field in the table with the
+     *         alias, at most card, or -1 if stats do not know it
+     */
+    private static int distinctValues(String alias, String field, int card,
+            Map<String, TableStats> stats, Map<String, Integer> tableAliasToId) {
+        Integer tableid = tableAliasToId == null ? null : tableAliasToId.get(alias);
+        if (stats == null || tableid == null)
+            return -1;
+        try {
+            String name = Database.getCatalog().getTableName(tableid);
+            TableStats s = stats.get(name);
+            if (s == null)
+                s = TableStats.getTableStats(name);
+            if (s == null)
+                return -1;
+            int index = Database.getCatalog().getTupleDesc(tableid).fieldNameToIndex(field);
+            return Math.max(1, Math.min(card, s.numDistinct(index)));
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
+    }
+
     /**
      * This method is only used for test
      * @param useEfficient
@@ -181,8 +286,25 @@ public class JoinOptimizer {
     public static void setUseEfficientEnumerate(boolean useEfficient) {
     	useEfficientEnumerate = useEfficient;
     }
-    
-    
+
+    /**
+     * The number of joins up to which {@link #orderJoins} considers every
+     * subset of the joins; the joins of larger queries are ordered greedily
+     */
+    static final int DEFAULT_DP_JOIN_LIMIT = 15;
+    /** The largest number of joins whose subsets fit in the arrays of the DP table */
+    static final int MAX_DP_JOINS = 20;
+    static int dpJoinLimit = DEFAULT_DP_JOIN_LIMIT;
+
+    /**
+     * Set the number of joins up to which joins are ordered by dynamic
+     * programming over all the subsets of the joins, at most MAX_DP_JOINS;
+     * 0 orders all joins greedily.
+     */
+    public static void setDpJoinLimit(int joins) {
+        dpJoinLimit = Math.max(0, Math.min(joins, MAX_DP_JOINS));
+    }
+
     /**
      * Helper method to enumerate all of the subsets of a given size of a
      * specified vector.
@@ -214,50 +336,42 @@ public class JoinOptimizer {
           }
   
           return els;
-    	} else {
-    		// improved efficient enumerate
-        	ArrayList<String> soFar = new ArrayList<String>();
-        	String curStr = "";
-        	
-        	enumerateHelper(soFar, curStr, size, v.size());
-        	
-        	Set<Set<T>> els = new HashSet<Set<T>>();
-        	for (String s: soFar) {
-        		Set<T> curEls = new HashSet<T>();
-        		for (int i = 0; i < s.length(); i++) {
-        			if (s.charAt(i) == '1') {
-        				curEls.add(v.get(i)); 
-        			}
-        		}
-        		els.add(curEls);
-        	}
-        	return els;
-    	} 	
-    }
-    
-    /**
-     * recursive method used to generate all possible outcomes 
-     */
-    private void enumerateHelper(ArrayList<String> soFar, String curStr, int leftNum, int size) {
-    	if (leftNum == 0) {
-    		if (curStr.length() < size) {
-    			for (int j = 1; j <= size - curStr.length(); j++) {
-    				curStr += "0";
-    			}
+    	}
+    	// every subset is a bitmask over the elements of v; the masks with
+    	// size bits set are visited in increasing order
+    	Set<Set<T>> els = new HashSet<Set<T>>();
+    	int n = v.size();
+    	if (size > n)
+    		return els;
+    	for (long s = (1L << size) - 1; s < 1L << n; ) {
+    		Set<T> curEls = new HashSet<T>();
+    		for (long bits = s; bits != 0; bits &= bits - 1) {
+    			curEls.add(v.get(Long.numberOfTrailingZeros(bits)));
+    		}
+    		els.add(curEls);
+    		if (s == 0) {
+    			break;
     		}
-    		
-    		soFar.add(curStr);
-    	} else if (leftNum + curStr.length() > size) {
-    		return; //in this case impossible to get the string that meets the requirement
-    	} else {
-    		enumerateHelper(soFar, curStr + "1", leftNum - 1, size);
-    		enumerateHelper(soFar, curStr + "0", leftNum, size);
+    		// the next larger mask with as many bits set
+    		long c = s & -s;
+    		long r = s + c;
+    		s = (((r ^ s) >>> 2) / c) | r;
     	}
+    	return els;
     }
 
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * PS4 for hints on how this should be implemented.
+     * <p>
+     * Plans are left-deep: the best plan of a set of joins is the best plan
+     * of the set without one of its joins, followed by that join with the
+     * base table it adds. Up to {@link #setDpJoinLimit} joins, the best plan
+     * of every subset of the joins is found by dynamic programming, each
+     * subset being a bitmask over the indexes of the joins and the DP table
+     * arrays indexed by mask. Larger queries, or queries whose joins do not
+     * connect all their tables, are ordered greedily, adding at each step the
+     * join that makes the cheapest plan.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -279,212 +393,299 @@ public class JoinOptimizer {
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
-    	
-    	
-    	PlanCache planCache = new PlanCache();
-    	
-    	for (int i = 1; i <= joins.size(); i++) {
-    		for (Set<LogicalJoinNode> s: enumerateSubsets(joins, i)) {
-    			
-    			CostCard bestPlan = new CostCard();
-    			for (LogicalJoinNode ssub: s) {
-    				double bestCostSoFar = bestPlan.cost;
-    				
-    				if ((bestCostSoFar - 0) <= 0.001) {
-    					bestCostSoFar = Double.MAX_VALUE;
-    				}
-    				
-    				CostCard subPlan = computeCostAndCardOfSubplan(stats, filterSelectivities, ssub, s, bestCostSoFar, planCache);
-    				
-    				
-    				double bestCost = planCache.getCost(s);
-    				if (subPlan != null) {
-    					if (bestCost > subPlan.cost) {
-        					planCache.addPlan(s, subPlan.cost, subPlan.card, subPlan.plan);
-        				}
-    				}
-    				
-    			}
-    		}
+    	if (joins.isEmpty()) {
+    		planCost = 0;
+    		return joins;
     	}
-    	
-    	Set<Set<LogicalJoinNode>> result = enumerateSubsets(joins, joins.size());
-    	Iterator<Set<LogicalJoinNode>> resultItr = result.iterator();
-    	
-    	Vector<LogicalJoinNode> bestOrder = planCache.getOrder(resultItr.next());
+    	JoinSets sets = new JoinSets(stats, filterSelectivities);
+    	CostCard best = null;
+    	if (joins.size() <= dpJoinLimit) {
+    		best = sets.dynamicProgramming();
+    	}
+    	if (best == null) {
+    		best = sets.greedy();
+    	}
+    	planCost = best.cost;
     	
     	if (explain) {
-    		printJoins(bestOrder, planCache, stats, filterSelectivities);
+    		printJoins(best.plan, sets.planCache(best.plan), stats, filterSelectivities);
     	}
-    	
-    	
-    	return bestOrder;
+    	return best.plan;
+    }
+
+    /** the estimated cost of the order last returned by orderJoins */
+    private double planCost;
+
+    /** @return the estimated cost of the join order last returned by {@link #orderJoins} */
+    double getPlanCost() {
+        return planCost;
     }
 
     // ===================== Private Methods =================================
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
-     * 
-     * @param stats
-     *            table stats for all of the tables, referenced by table names
-     *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
-     * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
-     * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     * The joins of the query with what orderJoins needs to know about them,
+     * looked up once: for each join, the tables it joins as bits over the
+     * aliases of the query, and the scan cost, cardinality after filters
+     * and primary key flag of each side.
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            HashMap<String, TableStats> stats,
-            HashMap<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-    	
-        LogicalJoinNode j = joinToRemove;
-
-        Vector<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) joinSet)
-                .clone();
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias == null ? false : isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
+    private class JoinSets {
+        final int n;
+        final HashMap<String, TableStats> stats;
+        final LogicalJoinNode[] swapped;
+        final long[] t1Bit;
+        /** 0 for the subplan of a LogicalSubplanJoinNode */
+        final long[] t2Bit;
+        final double[] t1Cost;
+        final double[] t2Cost;
+        final int[] t1Card;
+        final int[] t2Card;
+        final boolean[] t1Pkey;
+        final boolean[] t2Pkey;
+
+        /** the plan made by the last successful call of step */
+        double stepCost;
+        int stepCard;
+        boolean stepSwap;
+
+        JoinSets(HashMap<String, TableStats> stats, HashMap<String, Double> filterSelectivities)
+                throws ParsingException {
+            this.stats = stats;
+            n = joins.size();
+            swapped = new LogicalJoinNode[n];
+            t1Bit = new long[n];
+            t2Bit = new long[n];
+            t1Cost = new double[n];
+            t2Cost = new double[n];
+            t1Card = new int[n];
+            t2Card = new int[n];
+            t1Pkey = new boolean[n];
+            t2Pkey = new boolean[n];
+            HashMap<String, Long> bits = new HashMap<String, Long>();
+            for (int i = 0; i < n; i++) {
+                LogicalJoinNode j = joins.get(i);
+                swapped[i] = j.swapInnerOuter();
+                t1Bit[i] = bit(bits, j.t1Alias);
+                TableStats s1 = statsOf(j.t1Alias);
+                t1Cost[i] = s1.estimateScanCost();
+                t1Card[i] = s1.estimateTableCardinality(selectivityOf(filterSelectivities, j.t1Alias));
+                t1Pkey[i] = isPkey(j.t1Alias, j.f1PureName);
+                if (j.t2Alias != null) {
+                    t2Bit[i] = bit(bits, j.t2Alias);
+                    TableStats s2 = statsOf(j.t2Alias);
+                    t2Cost[i] = s2.estimateScanCost();
+                    t2Card[i] = s2.estimateTableCardinality(selectivityOf(filterSelectivities, j.t2Alias));
+                    t2Pkey[i] = isPkey(j.t2Alias, j.f2PureName);
+                }
+            }
+        }
 
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
+        private long bit(HashMap<String, Long> bits, String alias) throws ParsingException {
+            Long b = bits.get(alias);
+            if (b == null) {
+                if (bits.size() == 64)
+                    throw new ParsingException("Too many tables in join");
+                b = 1L << bits.size();
+                bits.put(alias, b);
             }
+            return b;
+        }
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
+        private TableStats statsOf(String alias) throws ParsingException {
+            Integer tableid = p.getTableId(alias);
+            if (tableid == null)
+                throw new ParsingException("Unknown table " + alias);
+            TableStats s = stats.get(Database.getCatalog().getTableName(tableid));
+            if (s == null)
+                throw new ParsingException("No statistics for table " + alias);
+            return s;
+        }
 
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
+        private double selectivityOf(HashMap<String, Double> filterSelectivities, String alias)
+                throws ParsingException {
+            Double selectivity = filterSelectivities.get(alias);
+            if (selectivity == null)
+                throw new ParsingException("No filter selectivity for table " + alias);
+            return selectivity;
+        }
+
+        /**
+         * Cost the plan of join i after a plan of the tables prevTables, or
+         * of join i alone if hasPrev is false, keeping it in stepCost,
+         * stepCard and stepSwap if it costs less than bound. Join i must
+         * join a base table to the previous plan, with either side as the
+         * outer one; a base table on the inner side may be probed through
+         * its primary key index instead (see instantiateJoin).
+         *
+         * @return true if the plan is possible and costs less than bound
+         */
+        boolean step(int i, boolean hasPrev, double prevCost, int prevCard, long prevTables,
+                boolean prevPkey, double bound) {
+            double cost1 = t1Cost[i], cost2 = t2Cost[i];
+            int card1 = t1Card[i], card2 = t2Card[i];
+            boolean pkey1 = t1Pkey[i], pkey2 = t2Pkey[i];
+            boolean t1InPrev = false;
+            if (hasPrev) {
+                if ((prevTables & t1Bit[i]) != 0) {
+                    t1InPrev = true;
+                    cost1 = prevCost;
+                    card1 = prevCard;
+                    pkey1 = prevPkey;
+                } else if ((prevTables & t2Bit[i]) != 0) {
+                    cost2 = prevCost;
+                    card2 = prevCard;
+                    pkey2 = prevPkey;
+                } else {
+                    // a cross product
+                    return false;
+                }
             }
+            LogicalJoinNode j = joins.get(i);
+            double outer1 = estimateJoinCost(j, card1, card2, cost1, cost2);
+            double outer2 = estimateJoinCost(swapped[i], card2, card1, cost2, cost1);
+            if (!hasPrev || t1InPrev)
+                outer1 = Math.min(outer1, estimateIndexJoinCost(j, card1, cost1));
+            if (!hasPrev || !t1InPrev)
+                outer2 = Math.min(outer2, estimateIndexJoinCost(swapped[i], card2, cost2));
+            boolean swap = outer2 < outer1;
+            double cost = swap ? outer2 : outer1;
+            if (cost >= bound)
+                return false;
+            stepCost = cost;
+            stepSwap = swap;
+            stepCard = swap ? estimateJoinCardinality(swapped[i], card2, card1, pkey2, pkey1, stats)
+                    : estimateJoinCardinality(j, card1, card2, pkey1, pkey2, stats);
+            return true;
         }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
-
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
+        /**
+         * Find the best left-deep plan of the joins by dynamic programming
+         * over the subsets of the joins, in increasing order of their masks
+         * so that the subsets of a set come before it.
+         *
+         * @return the best plan, or null if every order has a cross product
+         */
+        CostCard dynamicProgramming() {
+            int size = 1 << n;
+            double[] cost = new double[size];
+            int[] card = new int[size];
+            long[] tables = new long[size];
+            boolean[] pkey = new boolean[size];
+            byte[] last = new byte[size];
+            boolean[] swap = new boolean[size];
+            Arrays.fill(cost, 1, size, Double.POSITIVE_INFINITY);
+            for (int s = 1; s < size; s++) {
+                int low = Integer.numberOfTrailingZeros(s);
+                int rest = s & (s - 1);
+                tables[s] = tables[rest] | t1Bit[low] | t2Bit[low];
+                pkey[s] = pkey[rest] || t1Pkey[low] || t2Pkey[low];
+                for (int bits = s; bits != 0; bits &= bits - 1) {
+                    int i = Integer.numberOfTrailingZeros(bits);
+                    int prev = s ^ (1 << i);
+                    if (cost[prev] == Double.POSITIVE_INFINITY)
+                        continue;
+                    if (step(i, prev != 0, cost[prev], card[prev], tables[prev], pkey[prev], cost[s])) {
+                        cost[s] = stepCost;
+                        card[s] = stepCard;
+                        last[s] = (byte) i;
+                        swap[s] = stepSwap;
+                    }
+                }
+            }
+            if (cost[size - 1] == Double.POSITIVE_INFINITY)
+                return null;
+            CostCard cc = new CostCard();
+            cc.cost = cost[size - 1];
+            cc.card = card[size - 1];
+            cc.plan = new Vector<LogicalJoinNode>();
+            for (int s = size - 1; s != 0; s ^= 1 << last[s]) {
+                cc.plan.add(0, swap[s] ? swapped[last[s]] : joins.get(last[s]));
+            }
+            return cc;
         }
-        if (cost1 >= bestCostSoFar)
-            return null;
 
-        CostCard cc = new CostCard();
+        /**
+         * Order the joins greedily, adding at each step the join that makes
+         * the cheapest plan. If no join connects to the plan so far, the
+         * cheapest join starts another one, which a later join combines
+         * with it.
+         */
+        CostCard greedy() {
+            CostCard cc = new CostCard();
+            cc.plan = new Vector<LogicalJoinNode>();
+            boolean[] done = new boolean[n];
+            long tables = 0;
+            boolean pkey = false;
+            for (int k = 0; k < n; k++) {
+                int best = -1;
+                double bestCost = Double.POSITIVE_INFINITY;
+                int bestCard = 0;
+                boolean bestSwap = false;
+                for (int pass = 0; pass < 2 && best < 0; pass++) {
+                    boolean hasPrev = k > 0 && pass == 0;
+                    for (int i = 0; i < n; i++) {
+                        if (!done[i] && step(i, hasPrev, cc.cost, cc.card, tables, pkey, bestCost)) {
+                            best = i;
+                            bestCost = stepCost;
+                            bestCard = stepCard;
+                            bestSwap = stepSwap;
+                        }
+                    }
+                    if (best >= 0 && !hasPrev)
+                        bestCost += cc.cost;
+                }
+                if (best < 0)
+                    best = firstNotDone(done);
+                done[best] = true;
+                tables |= t1Bit[best] | t2Bit[best];
+                pkey |= t1Pkey[best] || t2Pkey[best];
+                cc.cost = bestCost;
+                cc.card = bestCard;
+                cc.plan.add(bestSwap ? swapped[best] : joins.get(best));
+            }
+            return cc;
+        }
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
-        return cc;
-    }
+        private int firstNotDone(boolean[] done) {
+            int i = 0;
+            while (done[i])
+                i++;
+            return i;
+        }
 
-    /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
-     */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+        /**
+         * @return a PlanCache with the cost and cardinality of each prefix of
+         *         order, for printJoins
+         */
+        PlanCache planCache(Vector<LogicalJoinNode> order) {
+            PlanCache pc = new PlanCache();
+            HashSet<LogicalJoinNode> prefix = new HashSet<LogicalJoinNode>();
+            Vector<LogicalJoinNode> prefixOrder = new Vector<LogicalJoinNode>();
+            double cost = 0;
+            int card = 0;
+            long tables = 0;
+            boolean pkey = false;
+            for (LogicalJoinNode j : order) {
+                int i = joins.indexOf(j);
+                if (i < 0)
+                    i = Arrays.asList(swapped).indexOf(j);
+                if (step(i, !prefix.isEmpty(), cost, card, tables, pkey, Double.POSITIVE_INFINITY)) {
+                    cost = stepCost;
+                    card = stepCard;
+                } else if (step(i, false, 0, 0, 0, false, Double.POSITIVE_INFINITY)) {
+                    // another plan, started by greedy
+                    cost += stepCost;
+                    card = stepCard;
+                }
+                tables |= t1Bit[i] | t2Bit[i];
+                pkey |= t1Pkey[i] || t2Pkey[i];
+                prefix.add(j);
+                prefixOrder.add(j);
+                pc.addPlan(new HashSet<LogicalJoinNode>(prefix), cost, card,
+                        new Vector<LogicalJoinNode>(prefixOrder));
+            }
+            return pc;
         }
-        return false;
     }
 
     /**
@@ -503,20 +704,6 @@ public class JoinOptimizer {
         return pkey1.equals(field);
     }
 
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
-    }
-
     /**
      * Helper function to display a Swing window with a tree representation of
      * the specified list of joins. See {@link #orderJoins}, which may want to
@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Vector;
+
+/**
+ * Measures the time {@link JoinOptimizer#orderJoins} takes to order the
+ * joins of queries over 4 to 16 tables, joined in a chain, a star or a
+ * cycle, both by dynamic programming over all the subsets of the joins and
+ * greedily, and how much more the greedy order is estimated to cost.
+ * <p>
+ * Usage: <code>java simpledb.JoinOrderBenchmark [maxTables] [iterations]</code>
+ */
+public class JoinOrderBenchmark {
+
+    private static final String[] SHAPES = { "chain", "star", "cycle" };
+
+    public static void main(String[] args) throws Exception {
+        int maxTables = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // tables of different sizes with a primary key id and a field k
+        // referencing the next table
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        int[] tableids = new int[maxTables];
+        for (int i = 0; i < maxTables; i++) {
+            int rows = 200 + 300 * (i * 7 % 11);
+            ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+            for (int r = 0; r < rows; r++)
+                tuples.add(new ArrayList<Integer>(Arrays.asList(r, r % (100 + 50 * i))));
+            File f = File.createTempFile("joinorder" + i + "-", ".dat");
+            // the primary key index and the zone map of the table go with it
+            f.deleteOnExit();
+            HashIndexFile.indexFileFor(f).deleteOnExit();
+            ZoneMap.fileFor(f).deleteOnExit();
+            HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+            HeapFile hf = new HeapFile(f, new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                    new String[] { "id", "k" }));
+            Database.getCatalog().addTable(hf, "t" + i, "id");
+            tableids[i] = hf.getId();
+            stats.put("t" + i, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        }
+
+        System.out.println("shape  tables joins      dp ms  greedy ms  greedy/dp cost");
+        for (String shape : SHAPES) {
+            for (int n = 4; n <= maxTables; n++) {
+                LogicalPlan lp = new LogicalPlan();
+                HashMap<String, Double> selectivities = new HashMap<String, Double>();
+                for (int i = 0; i < n; i++) {
+                    lp.addScan(tableids[i], "a" + i);
+                    selectivities.put("a" + i, 1.0);
+                }
+                Vector<LogicalJoinNode> joins = joins(shape, n);
+                if (joins.size() > JoinOptimizer.MAX_DP_JOINS)
+                    continue;
+
+                JoinOptimizer.setDpJoinLimit(JoinOptimizer.MAX_DP_JOINS);
+                double dpCost = 0;
+                long dp = Long.MAX_VALUE;
+                for (int i = 0; i < iterations; i++) {
+                    JoinOptimizer jo = new JoinOptimizer(lp, joins);
+                    long start = System.nanoTime();
+                    jo.orderJoins(stats, selectivities, false);
+                    dp = Math.min(dp, System.nanoTime() - start);
+                    dpCost = jo.getPlanCost();
+                }
+
+                JoinOptimizer.setDpJoinLimit(0);
+                double greedyCost = 0;
+                long greedy = Long.MAX_VALUE;
+                for (int i = 0; i < iterations; i++) {
+                    JoinOptimizer jo = new JoinOptimizer(lp, joins);
+                    long start = System.nanoTime();
+                    jo.orderJoins(stats, selectivities, false);
+                    greedy = Math.min(greedy, System.nanoTime() - start);
+                    greedyCost = jo.getPlanCost();
+                }
+
+                System.out.printf("%-6s %6d %5d %10.3f %10.3f %15.3f%n", shape, n, joins.size(),
+                        dp / 1e6, greedy / 1e6, greedyCost / dpCost);
+            }
+        }
+        JoinOptimizer.setDpJoinLimit(JoinOptimizer.DEFAULT_DP_JOIN_LIMIT);
+    }
+
+    /** @return the joins of n tables a0 ... a(n-1) joined in the shape */
+    private static Vector<LogicalJoinNode> joins(String shape, int n) {
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        for (int i = 1; i < n; i++) {
+            if (shape.equals("star"))
+                joins.add(new LogicalJoinNode("a0", "a" + i, "k", "id", Predicate.Op.EQUALS));
+            else
+                joins.add(new LogicalJoinNode("a" + (i - 1), "a" + i, "k", "id", Predicate.Op.EQUALS));
+        }
+        if (shape.equals("cycle"))
+            joins.add(new LogicalJoinNode("a" + (n - 1), "a0", "k", "id", Predicate.Op.EQUALS));
+        return joins;
+    }
+}
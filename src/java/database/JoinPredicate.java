@@ -12,6 +12,7 @@ public class JoinPredicate implements Serializable {
     
     int field1No, field2No;
     Predicate.Op op;
+    transient CompiledJoinPredicate compiled;
     
     /**
      * Constructor -- create a new predicate over two fields of two tuples.
@@ -34,13 +35,25 @@ public class JoinPredicate implements Serializable {
     }
 
     /**
-     * Apply the predicate to the two specified tuples. The comparison can be
-     * made through Field's compare method.
+     * Apply the predicate to the two specified tuples. The predicate is
+     * compiled for the type of the join fields on first use.
      * 
      * @return true if the tuples satisfy the predicate.
+     * @see CompiledJoinPredicate
      */
     public boolean filter(Tuple t1, Tuple t2) {
-        return t1.getField(field1No).compare(op, t2.getField(field2No));
+        if (compiled == null)
+            compiled = compile(t1.getField(field1No).getType());
+        return compiled.matches(t1, t2);
+    }
+
+    /**
+     * @param type
+     *            the type of the two join fields
+     * @return an evaluator for this predicate
+     */
+    public CompiledJoinPredicate compile(Type type) {
+        return CompiledJoinPredicate.compile(this, type);
     }
     
     public int getField1()
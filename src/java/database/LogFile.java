@@ -59,7 +59,9 @@ CHECKPOINT
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+methods.  See LogFile.print() for an example.  The bytes of a page are
+compressed with PageCodec unless that does not make them smaller (see
+{@link #setCompressImages}).
 
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
@@ -87,6 +89,11 @@ public class LogFile {
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
+    /** Length written in place of the length of the bytes of a compressed page */
+    static final int COMPRESSED_IMAGE = -1;
+
+    private static volatile boolean compressImages = true;
+
     long currentOffset = -1;//protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
@@ -120,6 +127,15 @@ public class LogFile {
         // may not match tableids in the current catalog.
     }
 
+    /**
+     * Set whether the before and after images of pages written to the log
+     * from now on are compressed; they are by default. Logs with and without
+     * compressed images are read alike.
+     */
+    public static void setCompressImages(boolean compress) {
+        compressImages = compress;
+    }
+
     // we're about to append a log record. if we weren't sure whether the
     // DB wants to do recovery, we're sure now -- it didn't. So truncate
     // the log.
@@ -242,11 +258,28 @@ public class LogFile {
             raf.writeInt(pageInfo[i]);
         }
         byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        byte[] compressed = compressImages ? PageCodec.compress(pageData) : null;
+        if (compressed != null && compressed.length < pageData.length) {
+            raf.writeInt(COMPRESSED_IMAGE);
+            raf.writeInt(pageData.length);
+            raf.writeInt(compressed.length);
+            raf.write(compressed);
+        } else {
+            raf.writeInt(pageData.length);
+            raf.write(pageData);
+        }
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
+    /** @return the constructor of c with the specified number of arguments */
+    private static Constructor<?> constructor(Class<?> c, int numArgs) throws IOException {
+        for (Constructor<?> cons : c.getDeclaredConstructors()) {
+            if (cons.getParameterTypes().length == numArgs)
+                return cons;
+        }
+        throw new IOException("no constructor of " + c.getName() + " with " + numArgs + " arguments");
+    }
+
     Page readPageData(RandomAccessFile raf) throws IOException {
         PageId pid;
         Page newPage = null;
@@ -258,25 +291,31 @@ public class LogFile {
             Class<?> idClass = Class.forName(idClassName);
             Class<?> pageClass = Class.forName(pageClassName);
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
             int numIdArgs = raf.readInt();
             Object idArgs[] = new Object[numIdArgs];
             for (int i = 0; i<numIdArgs;i++) {
                 idArgs[i] = new Integer(raf.readInt());
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+            pid = (PageId)constructor(idClass, numIdArgs).newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
             int pageSize = raf.readInt();
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            byte[] pageData;
+            if (pageSize == COMPRESSED_IMAGE) {
+                pageSize = raf.readInt();
+                byte[] compressed = new byte[raf.readInt()];
+                raf.readFully(compressed);
+                pageData = PageCodec.decompress(compressed, 0, compressed.length, pageSize);
+            } else {
+                pageData = new byte[pageSize];
+                raf.read(pageData); //read before image
+            }
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)constructor(pageClass, 2).newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -671,6 +710,11 @@ public class LogFile {
         			Page before = readPageData(raf);
         			Page after = readPageData(raf);
         			System.out.println("Update, transaction id = " + tid);
+        			if (!(before instanceof HeapPage)) {
+        				System.out.println("page " + before.getId() + " of type " + before.getClass().getName());
+        				raf.skipBytes(LONG_SIZE);
+        				break;
+        			}
         			HeapPage hpbefore = (HeapPage) before;
         			HeapPage hpafter = (HeapPage) after;
         			Iterator<Tuple> itrbefore = hpbefore.iterator();
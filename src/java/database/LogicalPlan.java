@@ -2,9 +2,11 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -35,7 +37,25 @@ public class LogicalPlan {
     private String aggField;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = NO_LIMIT;
+    private int parallelism = 1;
     private String query;
+    /**
+     * the filter answered by an index scan of each table, as chosen by the
+     * last call of physicalPlan and reused by {@link #replan}
+     */
+    private HashMap<String,LogicalFilterNode> indexFilters = new HashMap<String,LogicalFilterNode>();
+    /**
+     * the predicates, and the index scan if any, built for each filter by the
+     * last call of physicalPlan or replan: its own and those derived from it
+     * across equality joins; see {@link #bindFilter}
+     */
+    private HashMap<LogicalFilterNode,ArrayList<Predicate>> filterPredicates =
+        new HashMap<LogicalFilterNode,ArrayList<Predicate>>();
+    private HashMap<LogicalFilterNode,IndexScan> filterIndexScans = new HashMap<LogicalFilterNode,IndexScan>();
+
+    /** Value of the limit when the query has no LIMIT clause */
+    public static final int NO_LIMIT = -1;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -216,6 +236,91 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT clause: at most limit tuples are returned by the plan.  If the plan
+        also has an ORDER BY, the first limit tuples in that order are returned.
+        @param limit the maximum number of tuples to return, or {@link #NO_LIMIT}
+    */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /** @return the LIMIT of this plan, or {@link #NO_LIMIT} if it has none */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** Set the number of threads this plan may use.  With more than one thread, scans,
+        filters, joins and aggregates are split into pipelines that run in parallel;
+        see {@link ParallelPlanner}.
+        @param dop the degree of parallelism; 1 runs the whole plan on the calling thread
+    */
+    public void setParallelism(int dop) {
+        if (dop < 1)
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        this.parallelism = dop;
+    }
+
+    /** @return the number of threads this plan may use */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /** @return the constants of the filters of this plan, in the order the filters were added */
+    List<String> getFilterConstants() {
+        ArrayList<String> constants = new ArrayList<String>();
+        for (LogicalFilterNode lf : filters)
+            constants.add(lf.c);
+        return constants;
+    }
+
+    /** Replace the constants of the filters of this plan, given in the order the filters were added */
+    void setFilterConstants(List<String> constants) {
+        if (constants.size() != filters.size())
+            throw new IllegalArgumentException("expected " + filters.size() + " constants, got " + constants.size());
+        for (int i = 0; i < filters.size(); i++)
+            filters.get(i).c = constants.get(i);
+    }
+
+    /** @return the type of the field filter i of this plan compares to its constant */
+    Type getFilterType(int i) throws ParsingException {
+        LogicalFilterNode lf = filters.get(i);
+        TupleDesc td = Database.getCatalog().getTupleDesc(getTableId(lf.tableAlias));
+        try {
+            return td.getFieldType(td.fieldNameToIndex(lf.fieldPureName));
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+        }
+    }
+
+    /**
+     * Set the constant of filter i of this plan, and of the predicates and
+     * index scan built for the filter by the last call of physicalPlan or
+     * replan, which then evaluate the new constant once reopened.
+     *
+     * @param value the new constant, of the type of {@link #getFilterType}
+     */
+    void bindFilter(int i, Field value) {
+        LogicalFilterNode lf = filters.get(i);
+        lf.c = value.toString();
+        ArrayList<Predicate> predicates = filterPredicates.get(lf);
+        if (predicates != null) {
+            for (Predicate p : predicates)
+                p.setOperand(value);
+        }
+        IndexScan scan = filterIndexScans.get(lf);
+        if (scan != null)
+            scan.setOperand(value);
+    }
+
+    /** @return true if the plan joins with the result of a subquery */
+    boolean hasSubqueries() {
+        for (LogicalJoinNode lj : joins) {
+            if (lj instanceof LogicalSubplanJoinNode)
+                return true;
+        }
+        return false;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -279,33 +384,77 @@ public class LogicalPlan {
      *    have one entry for each table referenced by the plan, not one
      *    entry for each table alias (so a table t aliases as t1 and
      *    t2 would have just one entry with key 't' in this HashMap).
+     *    The statistics of a table missing from it are those of
+     *    {@link TableStats#getTableStats}, loaded on first use.
      *  @param explain flag indicating whether output visualizing the physical
      *    query plan should be given.
      *  @throws ParsingException if the logical plan is not valid
      *  @return A DbIterator representing this plan.
      */ 
     public DbIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain) throws ParsingException {
+        return buildPlan(t, baseTableStats, explain, false);
+    }
+
+    /**
+     * Build the operator tree of this plan again, as a part of transaction
+     * t, with the current constants of its filters but the join order and
+     * index scans chosen by the last call of {@link #physicalPlan}, without
+     * looking at statistics or ordering the joins again.
+     * @see QueryPlanCache
+     */
+    DbIterator replan(TransactionId t) throws ParsingException {
+        return buildPlan(t, null, false, true);
+    }
+
+    /**
+     * Build the operator tree of this plan, choosing the index scans and
+     * join order from baseTableStats, or reusing those chosen before if
+     * reuse is true.
+     */
+    private DbIterator buildPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain,
+                                 boolean reuse) throws ParsingException {
         Iterator<LogicalScanNode> tableIt = tables.iterator();
+        subplanMap.clear();
+        filterPredicates.clear();
+        filterIndexScans.clear();
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            DbIterator ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                 if (file instanceof ColumnFile)
+                     ss = new ColumnScan(t, file.getId(), table.alias,
+                             usedColumns(table.alias, file.getTupleDesc(), true), new Predicate[0]);
+                 else
+                     ss = new SeqScan(t, file.getId(), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
             subplanMap.put(table.alias,ss);
+            if (reuse)
+                continue;
             String baseTableName = Database.getCatalog().getTableName(table.t);
-            statsMap.put(baseTableName, baseTableStats.get(baseTableName));
+            TableStats stats = baseTableStats.get(baseTableName);
+            // statistics not in memory yet are loaded on first use
+            statsMap.put(baseTableName, stats != null ? stats : TableStats.getTableStats(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
         }
 
+        // the filters of a table are fused into one Filter over its scan
+        HashMap<String,ArrayList<Predicate>> tableFilters = new HashMap<String,ArrayList<Predicate>>();
+        HashMap<String,ArrayList<LogicalFilterNode>> tableFilterNodes = new HashMap<String,ArrayList<LogicalFilterNode>>();
+        // and with the predicates derived from the filters of other tables
+        HashMap<String,ArrayList<Predicate>> derivedFilters = new HashMap<String,ArrayList<Predicate>>();
+        HashMap<String,HashSet<String>> equalFields = equalFields();
+        HashSet<String> filtered = new HashSet<String>();
+        for (LogicalFilterNode lf : filters)
+            filtered.add(filterKey(lf.fieldQuantifiedName, lf));
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -334,19 +483,114 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
-
-            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
-            
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
+            ArrayList<Predicate> conjunction = tableFilters.get(lf.tableAlias);
+            if (conjunction == null) {
+                conjunction = new ArrayList<Predicate>();
+                tableFilters.put(lf.tableAlias, conjunction);
+                tableFilterNodes.put(lf.tableAlias, new ArrayList<LogicalFilterNode>());
+            }
+            conjunction.add(p);
+            tableFilterNodes.get(lf.tableAlias).add(lf);
+            ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+            predicates.add(p);
+            filterPredicates.put(lf, predicates);
+            if (!reuse)
+                estimateFilter(lf.tableAlias, p, statsMap, filterSelectivities);
+
+            // a.x = b.y and a.x op c imply b.y op c, which filters b before
+            // the join, and its pages by the zone map
+            HashSet<String> equal = equalFields.get(lf.fieldQuantifiedName);
+            if (equal == null || lf.p == Predicate.Op.LIKE)
+                continue;
+            for (String name : equal) {
+                String alias = name.substring(0, name.indexOf('.'));
+                DbIterator other = subplanMap.get(alias);
+                if (other == null || !filtered.add(filterKey(name, lf)))
+                    continue;
+                int field;
+                try {
+                    field = other.getTupleDesc().fieldNameToIndex(name);
+                } catch (NoSuchElementException e) {
+                    continue; // reported when the join is built
+                }
+                if (other.getTupleDesc().getFieldType(field) != ftyp)
+                    continue;
+                Predicate derived = new Predicate(field, lf.p, f);
+                if (!derivedFilters.containsKey(alias))
+                    derivedFilters.put(alias, new ArrayList<Predicate>());
+                derivedFilters.get(alias).add(derived);
+                predicates.add(derived);
+                if (!reuse)
+                    estimateFilter(alias, derived, statsMap, filterSelectivities);
+            }
+        }
+        if (!reuse)
+            indexFilters.clear();
+        HashSet<String> filteredTables = new HashSet<String>(tableFilters.keySet());
+        filteredTables.addAll(derivedFilters.keySet());
+        for (String alias : filteredTables) {
+            ArrayList<Predicate> conjunction = tableFilters.get(alias);
+            if (conjunction == null)
+                conjunction = new ArrayList<Predicate>();
+            ArrayList<LogicalFilterNode> nodes = tableFilterNodes.get(alias);
+            if (!reuse && !conjunction.isEmpty()) {
+                Predicate best = chooseIndexScan(alias, conjunction, statsMap);
+                if (best != null)
+                    indexFilters.put(alias, nodes.get(conjunction.indexOf(best)));
+            }
+            LogicalFilterNode indexed = indexFilters.get(alias);
+            if (indexed != null) {
+                // the index answers the predicate
+                Predicate p = conjunction.remove(nodes.indexOf(indexed));
+                IndexScan scan = new IndexScan(t, getTableId(alias), alias,
+                                               p.getField(), p.getOp(), p.getOperand());
+                subplanMap.put(alias, scan);
+                filterIndexScans.put(indexed, scan);
+            }
+            if (derivedFilters.containsKey(alias))
+                conjunction.addAll(derivedFilters.get(alias));
+            if (conjunction.isEmpty())
+                continue;
+            DbIterator scan = subplanMap.get(alias);
+            if (scan instanceof SeqScan) {
+                // let the scan skip the pages the zone map of the table rules out
+                ((SeqScan) scan).setZonePredicates(conjunction.toArray(new Predicate[conjunction.size()]));
+            } else if (scan instanceof ColumnScan) {
+                // let the scan skip the pages the zone maps rule out
+                ColumnScan cs = (ColumnScan) scan;
+                subplanMap.put(alias, new ColumnScan(t, cs.getTableId(), alias, cs.getColumns(),
+                                                     conjunction.toArray(new Predicate[conjunction.size()])));
+            }
+            subplanMap.put(alias, new Filter(conjunction.toArray(new Predicate[conjunction.size()]),
+                                             subplanMap.get(alias)));
+        }
 
-            //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
+        // the tuples of a table that are joined or sorted only carry the
+        // fields used above its filters; a single table is projected at the end
+        if (!joins.isEmpty() || hasOrderBy) {
+            for (LogicalScanNode table : tables) {
+                boolean[] used = usedColumns(table.alias, Database.getCatalog().getTupleDesc(table.t), false);
+                if (used == null)
+                    continue;
+                DbIterator subplan = subplanMap.get(table.alias);
+                ArrayList<Integer> fields = new ArrayList<Integer>();
+                ArrayList<Type> types = new ArrayList<Type>();
+                for (int i = 0; i < used.length; i++) {
+                    if (used[i]) {
+                        fields.add(i);
+                        types.add(subplan.getTupleDesc().getFieldType(i));
+                    }
+                }
+                if (!fields.isEmpty() && fields.size() < used.length)
+                    subplanMap.put(table.alias, new Project(fields, types, subplan));
+            }
         }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        // the joins are kept in the order chosen, which replan reuses
+        if (!reuse)
+            joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
@@ -372,6 +616,8 @@ public class LogicalPlan {
                 plan2 = ((LogicalSubplanJoinNode)lj).subPlan;
                 if (plan2 == null) 
                     throw new ParsingException("Invalid subquery.");
+                if (lj.p == Predicate.Op.EQUALS)
+                    plan2 = filterSubplan(lj, plan2, equalFields);
             } else { 
                 plan2 = subplanMap.get(t2name);
             }
@@ -474,11 +720,160 @@ public class LogicalPlan {
             node = aggNode;
         }
 
+        // the limit goes below the final projection, so that ORDER BY ... LIMIT
+        // only keeps the top tuples instead of sorting the whole input
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (limit != NO_LIMIT)
+                node = new TopN(oByIndex, oByAsc, limit, node);
+            else
+                node = new OrderBy(oByIndex, oByAsc, node);
+        } else if (limit != NO_LIMIT) {
+            node = new TopN(limit, node);
+        }
+
+        DbIterator plan = new Project(outFields, outTypes, node);
+        if (parallelism > 1) {
+            plan = new ParallelPlanner(parallelism).parallelize(plan);
+        }
+        return plan;
+    }
+
+    /**
+     * @return for each field of the table behind alias, whether the query
+     *         refers to it anywhere, or outside its filters if withFilters is
+     *         false, or null if it selects all of them
+     */
+    private boolean[] usedColumns(String alias, TupleDesc td, boolean withFilters) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*") || si.fname.equals(alias + ".*"))
+                return null;
+            names.add(si.fname);
+        }
+        names.add(groupByField);
+        names.add(aggField);
+        names.add(oByField);
+        if (withFilters) {
+            for (LogicalFilterNode lf : filters)
+                names.add(lf.fieldQuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        boolean[] used = new boolean[td.numFields()];
+        for (String name : names) {
+            if (name == null || !name.startsWith(alias + "."))
+                continue;
+            try {
+                used[td.fieldNameToIndex(name.substring(alias.length() + 1))] = true;
+            } catch (NoSuchElementException e) {
+                // unknown fields are reported when the plan is built
+            }
+        }
+        return used;
+    }
+
+    /**
+     * @return for each field of an equality join between tables, the other
+     *         fields it is equal to in the joined tuples, directly or through
+     *         other equality joins
+     */
+    private HashMap<String,HashSet<String>> equalFields() {
+        HashMap<String,HashSet<String>> equal = new HashMap<String,HashSet<String>>();
+        for (LogicalJoinNode lj : joins) {
+            if (lj instanceof LogicalSubplanJoinNode || lj.p != Predicate.Op.EQUALS)
+                continue;
+            HashSet<String> merged = new HashSet<String>();
+            for (String name : new String[] { lj.f1QuantifiedName, lj.f2QuantifiedName }) {
+                merged.add(name);
+                if (equal.containsKey(name))
+                    merged.addAll(equal.get(name));
+            }
+            for (String name : merged)
+                equal.put(name, merged);
+        }
+        HashMap<String,HashSet<String>> others = new HashMap<String,HashSet<String>>();
+        for (Map.Entry<String,HashSet<String>> e : equal.entrySet()) {
+            HashSet<String> names = new HashSet<String>(e.getValue());
+            names.remove(e.getKey());
+            others.put(e.getKey(), names);
+        }
+        return others;
+    }
+
+    /** @return a key equal for filters of the same field, operator and constant */
+    private static String filterKey(String field, LogicalFilterNode lf) {
+        return field + " " + lf.p + " " + lf.c;
+    }
+
+    /** Scale the selectivity of the filters of alias by that of p */
+    private void estimateFilter(String alias, Predicate p, Map<String,TableStats> statsMap,
+                                HashMap<String,Double> filterSelectivities) {
+        TableStats s = statsMap.get(Database.getCatalog().getTableName(getTableId(alias)));
+        double sel = s.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+        filterSelectivities.put(alias, filterSelectivities.get(alias) * sel);
+    }
+
+    /**
+     * Filter the result of the subquery of the equality join lj by the
+     * filters of the field it is joined to, and of the fields equal to that,
+     * which the joined tuples pass anyway.
+     */
+    private DbIterator filterSubplan(LogicalJoinNode lj, DbIterator subplan,
+                                     HashMap<String,HashSet<String>> equalFields) {
+        Type type = subplan.getTupleDesc().getFieldType(0);
+        ArrayList<Predicate> conjunction = new ArrayList<Predicate>();
+        for (LogicalFilterNode lf : filters) {
+            ArrayList<Predicate> predicates = filterPredicates.get(lf);
+            if (lf.p == Predicate.Op.LIKE || predicates == null)
+                continue;
+            if (!lf.fieldQuantifiedName.equals(lj.f1QuantifiedName)
+                    && (!equalFields.containsKey(lj.f1QuantifiedName)
+                        || !equalFields.get(lj.f1QuantifiedName).contains(lf.fieldQuantifiedName)))
+                continue;
+            Field operand = predicates.get(0).getOperand();
+            if (operand.getType() != type)
+                continue;
+            Predicate p = new Predicate(0, lf.p, operand);
+            conjunction.add(p);
+            predicates.add(p);
         }
+        if (conjunction.isEmpty())
+            return subplan;
+        return new Filter(conjunction.toArray(new Predicate[conjunction.size()]), subplan);
+    }
 
-        return new Project(outFields, outTypes, node);
+    /**
+     * If the table behind alias is stored in a BTreeFile or has secondary
+     * indexes, and one of the predicates of conjunction is on an indexed
+     * field, choose the predicate whose index scan the cost model says reads
+     * less than a sequential scan of the table, and less than the index
+     * scans of the others.
+     *
+     * @return the predicate for the index scan to answer, or null if the
+     *         table is better scanned sequentially
+     */
+    private Predicate chooseIndexScan(String alias, ArrayList<Predicate> conjunction,
+                                      Map<String,TableStats> statsMap) throws ParsingException {
+        int tableId = getTableId(alias);
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof BTreeFile)
+                && Database.getCatalog().getIndexes(tableId).isEmpty())
+            return null;
+        TableStats s = statsMap.get(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            return null;
+        double bestCost = s.estimateScanCost();
+        Predicate best = null;
+        for (Predicate p : conjunction) {
+            double cost = s.estimateIndexScanCost(p.getField(), p.getOp(), p.getOperand());
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = p;
+            }
+        }
+        return best;
     }
 
     public static void main(String argv[]) {
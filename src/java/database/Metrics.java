@@ -0,0 +1,87 @@
+package simpledb;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics keeps a set of named, process-wide counters that operators and
+ * storage code bump as they work (bytes spilled to disk, cache hits, ...).
+ * Counters are created on first use, so callers just name the counter they
+ * want to update.
+ *
+ * @Threadsafe
+ */
+public class Metrics {
+
+    /** Bytes of partial aggregates written to spill files by {@link Aggregate} */
+    public static final String AGGREGATE_SPILLED_BYTES = "aggregate.spilledBytes";
+
+    /** Bytes of sorted runs written to disk by {@link ExternalSorter} */
+    public static final String SORT_SPILLED_BYTES = "sort.spilledBytes";
+
+    private static final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    private static AtomicLong counter(String name) {
+        AtomicLong c = counters.get(name);
+        if (c == null) {
+            AtomicLong newCounter = new AtomicLong();
+            c = counters.putIfAbsent(name, newCounter);
+            if (c == null)
+                c = newCounter;
+        }
+        return c;
+    }
+
+    /**
+     * Add delta to the named counter.
+     *
+     * @param name
+     *            the counter to update
+     * @param delta
+     *            the amount to add (may be negative)
+     */
+    public static void add(String name, long delta) {
+        counter(name).addAndGet(delta);
+    }
+
+    /** Add one to the named counter. */
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    /**
+     * @return the current value of the named counter, or 0 if it has never
+     *         been updated
+     */
+    public static long get(String name) {
+        AtomicLong c = counters.get(name);
+        return c == null ? 0 : c.get();
+    }
+
+    /**
+     * @return a copy of all counters, sorted by name
+     */
+    public static Map<String, Long> snapshot() {
+        TreeMap<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> e : counters.entrySet()) {
+            result.put(e.getKey(), e.getValue().get());
+        }
+        return result;
+    }
+
+    /** Reset all counters to zero; used for testing. */
+    public static void reset() {
+        counters.clear();
+    }
+
+    /** Returns one "name = value" line per counter. */
+    public static String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : snapshot().entrySet()) {
+            sb.append(e.getKey()).append(" = ").append(e.getValue()).append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -32,6 +32,9 @@ public class OperatorCardinality {
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
+        } else if (o instanceof Exchange) {
+            return updateExchangeCardinality((Exchange) o, tableAliasToId,
+                    tableStats);
         } else {
             DbIterator[] children = o.getChildren();
             int childC = 1;
@@ -41,35 +44,63 @@ public class OperatorCardinality {
                     hasJoinPK = updateOperatorCardinality(
                             (Operator) children[0], tableAliasToId, tableStats);
                     childC = ((Operator) children[0]).getEstimatedCardinality();
-                } else if (children[0] instanceof SeqScan) {
-                    childC = tableStats.get(
-                            ((SeqScan) children[0]).getTableName())
-                            .estimateTableCardinality(1.0);
+                } else if (isScan(children[0])) {
+                    childC = scanCardinality(children[0], tableStats);
                 }
             }
+            if (o instanceof TopN)
+                childC = Math.min(childC, ((TopN) o).getLimit());
             o.setEstimatedCardinality(childC);
             return hasJoinPK;
         }
     }
 
+    /**
+     * An exchange returns all tuples of its inputs; a hash repartition spreads
+     * them over its outputs.
+     */
+    private static boolean updateExchangeCardinality(Exchange e,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        boolean hasJoinPK = false;
+        long card = 0;
+        for (DbIterator child : e.getChildren()) {
+            if (child instanceof Operator) {
+                hasJoinPK |= updateOperatorCardinality((Operator) child,
+                        tableAliasToId, tableStats);
+                card += ((Operator) child).getEstimatedCardinality();
+            } else if (child instanceof SeqScan) {
+                SeqScan s = (SeqScan) child;
+                card += tableStats.get(s.getTableName())
+                        .estimateTableCardinality(1.0) / s.getNumPartitions();
+            }
+        }
+        if (e instanceof HashRepartition)
+            card /= ((HashRepartition) e).getNumOutputs();
+        e.setEstimatedCardinality((int) Math.min(card, Integer.MAX_VALUE));
+        return hasJoinPK;
+    }
+
     private static boolean updateFilterCardinality(Filter f,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
         DbIterator child = f.getChildren()[0];
-        Predicate pred = f.getPredicate();
-        String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
-                .split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
+        String tableAlias = child.getTupleDesc()
+                .getFieldName(f.getPredicate().getField()).split("[.]")[0];
         Integer tableId = tableAliasToId.get(tableAlias);
         double selectivity = 1.0;
         if (tableId != null) {
-            selectivity = tableStats.get(
-                    Database.getCatalog().getTableName(tableId))
-                    .estimateSelectivity(
-                            Database.getCatalog().getTupleDesc(tableId)
-                                    .fieldNameToIndex(pureFieldName),
-                            pred.getOp(), pred.getOperand());
+            // the predicates of a fused filter are assumed to be independent
+            for (Predicate pred : f.getPredicates()) {
+                String pureFieldName = child.getTupleDesc()
+                        .getFieldName(pred.getField()).split("[.]")[1];
+                selectivity *= tableStats.get(
+                        Database.getCatalog().getTableName(tableId))
+                        .estimateSelectivity(
+                                Database.getCatalog().getTupleDesc(tableId)
+                                        .fieldNameToIndex(pureFieldName),
+                                pred.getOp(), pred.getOperand());
+            }
             if (child instanceof Operator) {
                 Operator oChild = (Operator) child;
                 boolean hasJoinPK = updateOperatorCardinality(oChild,
@@ -77,10 +108,9 @@ public class OperatorCardinality {
                 f.setEstimatedCardinality((int) (oChild
                         .getEstimatedCardinality() * selectivity) + 1);
                 return hasJoinPK;
-            } else if (child instanceof SeqScan) {
-                f.setEstimatedCardinality((int) (tableStats.get(
-                        ((SeqScan) child).getTableName())
-                        .estimateTableCardinality(1.0) * selectivity) + 1);
+            } else if (isScan(child)) {
+                f.setEstimatedCardinality((int) (scanCardinality(child,
+                        tableStats) * selectivity) + 1);
                 return false;
             }
         }
@@ -120,9 +150,8 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child1)) {
+            child1Card = scanCardinality(child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -132,9 +161,8 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child2)) {
+            child2Card = scanCardinality(child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -177,9 +205,8 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child1)) {
+            child1Card = scanCardinality(child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -189,9 +216,8 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child2)) {
+            child2Card = scanCardinality(child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -219,9 +245,8 @@ public class OperatorCardinality {
             return hasJoinPK;
         }
 
-        if (child instanceof SeqScan) {
-            childCard = (int) (tableStats.get(((SeqScan) child).getTableName())
-                    .estimateTableCardinality(1.0));
+        if (isScan(child)) {
+            childCard = scanCardinality(child, tableStats);
         }
 
         String[] tmp = a.groupFieldName().split("[.]");
@@ -244,4 +269,28 @@ public class OperatorCardinality {
         a.setEstimatedCardinality(childCard);
         return hasJoinPK;
     }
+
+    private static boolean isScan(DbIterator it) {
+        return it instanceof SeqScan || it instanceof IndexScan
+                || it instanceof ColumnScan;
+    }
+
+    /**
+     * @return the estimated number of tuples returned by a SeqScan, an
+     *         IndexScan or a ColumnScan
+     */
+    private static int scanCardinality(DbIterator scan,
+            Map<String, TableStats> tableStats) {
+        if (scan instanceof IndexScan) {
+            IndexScan s = (IndexScan) scan;
+            TableStats stats = tableStats.get(s.getTableName());
+            return stats.estimateTableCardinality(stats.estimateSelectivity(
+                    s.getKeyField(), s.getOp(), s.getOperand()));
+        }
+        if (scan instanceof ColumnScan)
+            return tableStats.get(((ColumnScan) scan).getTableName())
+                    .estimateTableCardinality(1.0);
+        return tableStats.get(((SeqScan) scan).getTableName())
+                .estimateTableCardinality(1.0);
+    }
 }
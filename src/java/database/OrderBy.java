@@ -3,18 +3,27 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY. Inputs larger
+ * than the memory budget are sorted externally (see {@link ExternalSorter}).
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of bytes of tuples an OrderBy may buffer before it writes
+     * a sorted run to disk.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 16L * 1024 * 1024;
+
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
     private int orderByField;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
     private boolean asc;
+    private long memoryBudget;
+    private transient ExternalSorter sorter;
+    private transient ExternalSorter.SortedIterator it;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,11 +36,24 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator.
+     * 
+     * @param memoryBudget
+     *            the number of bytes of tuples to sort in memory before
+     *            spilling sorted runs to disk
+     * @see #OrderBy(int, boolean, DbIterator)
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, long memoryBudget) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.memoryBudget = memoryBudget;
     }
     
     public boolean isASC()
@@ -55,22 +77,39 @@ public class OrderBy extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        releaseSorter();
+        sorter = new ExternalSorter(td, TupleComparator.create(
+                td.getFieldType(orderByField), orderByField, asc), memoryBudget);
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        try {
+            while (child.hasNext())
+                sorter.add(child.next());
+        } finally {
+            child.close();
+        }
+        it = sorter.iterator();
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        releaseSorter();
+    }
+
+    private void releaseSorter() {
+        if (it != null) {
+            it.close();
+            it = null;
+        }
+        if (sorter != null) {
+            sorter.close();
+            sorter = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        it.close();
+        it = sorter.iterator();
     }
 
     /**
@@ -99,25 +138,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
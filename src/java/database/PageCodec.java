@@ -0,0 +1,216 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * PageCodec is a fast byte-oriented compressor for page images, producing
+ * blocks in the LZ4 block format. Pages full of zeros, such as the padding
+ * of strings in fixed-length tuples and the free space of a page, shrink to
+ * a few bytes; compression and decompression cost a few microseconds per
+ * page.
+ * <p>
+ * A block is a sequence of sequences, each made of a token byte whose high
+ * four bits are the number of literal bytes and whose low four bits are the
+ * length of the match minus 4, followed by the extra bytes of the literal
+ * length if it is 15 or more (bytes of 255 and a last byte below 255 that
+ * are added to it), the literals, the offset of the match back from the
+ * current position in two bytes, little-endian, and the extra bytes of the
+ * match length. The last sequence only has literals, and holds at least the
+ * last five bytes.
+ * <p>
+ * Every call updates the {@link Metrics} counters {@link #PAGES},
+ * {@link #RAW_BYTES}, {@link #COMPRESSED_BYTES}, {@link #COMPRESS_NANOS},
+ * {@link #DECOMPRESSED_PAGES} and {@link #DECOMPRESS_NANOS}: the
+ * compression ratio is RAW_BYTES / COMPRESSED_BYTES and the CPU cost of a
+ * page COMPRESS_NANOS / PAGES.
+ */
+public class PageCodec {
+
+    /** Number of pages compressed */
+    public static final String PAGES = "compression.pages";
+    /** Bytes of the pages compressed */
+    public static final String RAW_BYTES = "compression.rawBytes";
+    /** Bytes of the pages compressed once compressed */
+    public static final String COMPRESSED_BYTES = "compression.compressedBytes";
+    /** Time spent compressing, in nanoseconds */
+    public static final String COMPRESS_NANOS = "compression.nanos";
+    /** Number of pages decompressed */
+    public static final String DECOMPRESSED_PAGES = "decompression.pages";
+    /** Time spent decompressing, in nanoseconds */
+    public static final String DECOMPRESS_NANOS = "decompression.nanos";
+
+    private static final int MIN_MATCH = 4;
+    /** The last match must start at least this many bytes before the end */
+    private static final int MF_LIMIT = 12;
+    /** The last bytes are always literals */
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 12;
+    /** After this many misses in a row, the search skips ahead faster */
+    private static final int SKIP_TRIGGER = 6;
+
+    /** @return the largest size of the compressed form of len bytes */
+    public static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    /** @return b compressed */
+    public static byte[] compress(byte[] b) {
+        byte[] dst = new byte[maxCompressedLength(b.length)];
+        int n = compress(b, 0, b.length, dst);
+        byte[] result = new byte[n];
+        System.arraycopy(dst, 0, result, 0, n);
+        return result;
+    }
+
+    /**
+     * Compress len bytes of src starting at off into dst, which must hold
+     * at least {@link #maxCompressedLength} bytes.
+     *
+     * @return the number of bytes written to dst
+     */
+    public static int compress(byte[] src, int off, int len, byte[] dst) {
+        long start = System.nanoTime();
+        int end = off + len;
+        int anchor = off;
+        int op = 0;
+        if (len >= MF_LIMIT + 1) {
+            // positions + 1 of the last 4-byte sequences seen, 0 for none
+            int[] table = new int[1 << HASH_LOG];
+            int limit = end - MF_LIMIT;
+            int matchLimit = end - LAST_LITERALS;
+            int ip = off;
+            int misses = 0;
+            while (ip < limit) {
+                int seq = readInt(src, ip);
+                int h = hash(seq);
+                int ref = table[h] - 1;
+                table[h] = ip + 1;
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                    ip += 1 + (misses++ >>> SKIP_TRIGGER);
+                    continue;
+                }
+                misses = 0;
+                int matchLen = MIN_MATCH;
+                while (ip + matchLen < matchLimit && src[ref + matchLen] == src[ip + matchLen])
+                    matchLen++;
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLen, dst, op);
+                ip += matchLen;
+                anchor = ip;
+                if (ip - 2 < limit)
+                    table[hash(readInt(src, ip - 2))] = ip - 2 + 1;
+            }
+        }
+        op = writeSequence(src, anchor, end - anchor, 0, 0, dst, op);
+        Metrics.increment(PAGES);
+        Metrics.add(RAW_BYTES, len);
+        Metrics.add(COMPRESSED_BYTES, op);
+        Metrics.add(COMPRESS_NANOS, System.nanoTime() - start);
+        return op;
+    }
+
+    /**
+     * Write a sequence of litLen literals starting at src[lit] followed by a
+     * match of matchLen bytes offset bytes back, or only the literals if
+     * matchLen is 0.
+     */
+    private static int writeSequence(byte[] src, int lit, int litLen, int offset,
+            int matchLen, byte[] dst, int op) {
+        int tokenPos = op++;
+        int token = Math.min(litLen, 15) << 4;
+        if (litLen >= 15)
+            op = writeLength(litLen - 15, dst, op);
+        System.arraycopy(src, lit, dst, op, litLen);
+        op += litLen;
+        if (matchLen > 0) {
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            int ml = matchLen - MIN_MATCH;
+            token |= Math.min(ml, 15);
+            if (ml >= 15)
+                op = writeLength(ml - 15, dst, op);
+        }
+        dst[tokenPos] = (byte) token;
+        return op;
+    }
+
+    private static int writeLength(int n, byte[] dst, int op) {
+        while (n >= 255) {
+            dst[op++] = (byte) 255;
+            n -= 255;
+        }
+        dst[op++] = (byte) n;
+        return op;
+    }
+
+    /**
+     * Decompress the len bytes of src starting at off, which must be the
+     * compressed form of rawLen bytes.
+     *
+     * @throws IOException
+     *             if the bytes are not a valid compressed block of rawLen
+     *             bytes
+     */
+    public static byte[] decompress(byte[] src, int off, int len, int rawLen) throws IOException {
+        long start = System.nanoTime();
+        byte[] dst = new byte[rawLen];
+        int ip = off;
+        int end = off + len;
+        int op = 0;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xff;
+                int litLen = token >>> 4;
+                if (litLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        litLen += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, dst, op, litLen);
+                ip += litLen;
+                op += litLen;
+                if (ip >= end)
+                    break;
+                int offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+                ip += 2;
+                int matchLen = token & 15;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                if (offset == 0 || offset > op || op + matchLen > rawLen)
+                    throw new IOException("invalid match in compressed block");
+                int ref = op - offset;
+                if (offset >= matchLen) {
+                    System.arraycopy(dst, ref, dst, op, matchLen);
+                    op += matchLen;
+                } else {
+                    // the match overlaps the bytes it produces
+                    for (int i = 0; i < matchLen; i++)
+                        dst[op++] = dst[ref++];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("truncated compressed block");
+        }
+        if (ip != end || op != rawLen)
+            throw new IOException("compressed block has " + op + " bytes instead of " + rawLen);
+        Metrics.increment(DECOMPRESSED_PAGES);
+        Metrics.add(DECOMPRESS_NANOS, System.nanoTime() - start);
+        return dst;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
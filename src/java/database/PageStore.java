@@ -0,0 +1,30 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * PageStore is where a HeapFile keeps the bytes of its pages: it maps the
+ * number of a page to the place where the page is stored on disk. Pages
+ * are always read and written whole and uncompressed, so the pages in the
+ * BufferPool do not depend on how their file is stored.
+ *
+ * @see RawPageStore
+ * @see CompressedPageStore
+ */
+public interface PageStore {
+
+    /**
+     * @return the bytes of page pgNo, or an all-zero page if the page has
+     *         never been written
+     */
+    public byte[] readPage(int pgNo) throws IOException;
+
+    /**
+     * Write the bytes of page pgNo, which may be the first page past the
+     * end of the store.
+     */
+    public void writePage(int pgNo, byte[] data) throws IOException;
+
+    /** @return the number of pages of the store */
+    public int numPages();
+}
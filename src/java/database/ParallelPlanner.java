@@ -0,0 +1,188 @@
+package simpledb;
+
+/**
+ * ParallelPlanner rewrites a serial physical plan so that it runs on several
+ * threads. The plan is split into independent pipelines wherever the
+ * operators allow it:
+ * <ul>
+ * <li>scans of heap files are split into page ranges,</li>
+ * <li>filters and projections run in the pipeline of their child,</li>
+ * <li>equality joins repartition both inputs by hashing the join fields;
+ * other joins broadcast their inner relation to every pipeline of the outer
+ * one,</li>
+ * <li>grouped aggregates repartition their input on the group-by field, and
+ * ungrouped MIN, MAX, SUM and COUNT are computed as partial aggregates per
+ * pipeline that are combined after a {@link Gather}.</li>
+ * </ul>
+ * Every other operator (ORDER BY, LIMIT, ...) runs on
+ * the calling thread on top of a Gather of its child's pipelines.
+ */
+public class ParallelPlanner {
+
+    private final int dop;
+
+    /**
+     * @param dop
+     *            the number of pipelines each parallel part of a plan is split
+     *            into
+     */
+    public ParallelPlanner(int dop) {
+        if (dop < 2)
+            throw new IllegalArgumentException("a parallel plan needs at least two threads");
+        this.dop = dop;
+    }
+
+    /**
+     * Returns the parallel version of plan. The operators of plan are reused
+     * and may have their children replaced.
+     */
+    public DbIterator parallelize(DbIterator plan) {
+        if (plan instanceof SeqScan) {
+            return isPartitionable((SeqScan) plan) ? new ParallelSeqScan((SeqScan) plan, dop) : plan;
+        }
+        DbIterator[] parts = partition(plan);
+        if (parts != null)
+            return gather(parts);
+        if (plan instanceof Aggregate) {
+            DbIterator partial = partialAggregate((Aggregate) plan);
+            if (partial != null)
+                return partial;
+        }
+        if (plan instanceof Operator) {
+            Operator o = (Operator) plan;
+            DbIterator[] children = o.getChildren();
+            DbIterator[] newChildren = new DbIterator[children.length];
+            for (int i = 0; i < children.length; i++) {
+                newChildren[i] = children[i] == null ? null : parallelize(children[i]);
+            }
+            o.setChildren(newChildren);
+        }
+        return plan;
+    }
+
+    private static DbIterator gather(DbIterator[] parts) {
+        return parts.length == 1 ? parts[0] : new Gather(parts);
+    }
+
+    private static boolean isPartitionable(SeqScan s) {
+        return s.getNumPartitions() == 1
+                && Database.getCatalog().getDatabaseFile(s.getTableId()) instanceof HeapFile;
+    }
+
+    /**
+     * Split plan into independent pipelines whose results together are the
+     * result of plan.
+     *
+     * @return the pipelines, or null if plan cannot be split
+     */
+    DbIterator[] partition(DbIterator plan) {
+        if (plan instanceof SeqScan) {
+            SeqScan s = (SeqScan) plan;
+            if (!isPartitionable(s))
+                return null;
+            DbIterator[] parts = new DbIterator[dop];
+            for (int i = 0; i < dop; i++) {
+                SeqScan part = new SeqScan(s.getTransactionId(), s.getTableId(), s.getAlias(), i, dop);
+                part.setZonePredicates(s.getZonePredicates());
+                parts[i] = part;
+            }
+            return parts;
+        }
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            DbIterator[] parts = partition(f.getChildren()[0]);
+            if (parts == null)
+                return null;
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = new Filter(f.getPredicates(), parts[i]);
+            }
+            return parts;
+        }
+        if (plan instanceof Project) {
+            Project pr = (Project) plan;
+            DbIterator[] parts = partition(pr.getChildren()[0]);
+            if (parts == null)
+                return null;
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = new Project(pr.getFieldList(), pr.getTupleDesc().getTypes(), parts[i]);
+            }
+            return parts;
+        }
+        if (plan instanceof Join) {
+            Join j = (Join) plan;
+            JoinPredicate p = j.getJoinPredicate();
+            DbIterator[] outer = inputs(j.getChildren()[0]);
+            DbIterator[] inner = inputs(j.getChildren()[1]);
+            DbIterator[] parts;
+            if (p.getOperator() == Predicate.Op.EQUALS) {
+                DbIterator[] outerParts = HashRepartition.create(outer, p.getField1(), dop);
+                DbIterator[] innerParts = HashRepartition.create(inner, p.getField2(), dop);
+                parts = new DbIterator[dop];
+                for (int i = 0; i < dop; i++) {
+                    parts[i] = new Join(p, outerParts[i], innerParts[i]);
+                }
+            } else {
+                DbIterator[] innerCopies = Broadcast.create(inner, outer.length);
+                parts = new DbIterator[outer.length];
+                for (int i = 0; i < outer.length; i++) {
+                    parts[i] = new Join(p, outer[i], innerCopies[i]);
+                }
+            }
+            return parts;
+        }
+        if (plan instanceof Aggregate) {
+            Aggregate a = (Aggregate) plan;
+            if (a.groupField() == Aggregator.NO_GROUPING)
+                return null;
+            DbIterator[] groups = HashRepartition.create(inputs(a.getChildren()[0]), a.groupField(), dop);
+            DbIterator[] parts = new DbIterator[dop];
+            for (int i = 0; i < dop; i++) {
+                parts[i] = new Aggregate(groups[i], a.aggregateField(), a.groupField(),
+                        a.aggregateOp(), a.getMemoryBudget() / dop);
+            }
+            return parts;
+        }
+        return null;
+    }
+
+    /**
+     * @return the pipelines of plan if it can be split, otherwise a single
+     *         stream with the (internally parallelized) plan
+     */
+    private DbIterator[] inputs(DbIterator plan) {
+        DbIterator[] parts = partition(plan);
+        return parts != null ? parts : new DbIterator[] { parallelize(plan) };
+    }
+
+    /**
+     * Compute an ungrouped aggregate as one partial aggregate per pipeline of
+     * its child, combined by a final aggregate over their gathered results.
+     *
+     * @return the combined aggregate, or null if a's operator cannot be split
+     *         (AVG) or its child cannot be partitioned
+     */
+    private DbIterator partialAggregate(Aggregate a) {
+        Aggregator.Op combine;
+        switch (a.aggregateOp()) {
+        case MIN:
+        case MAX:
+        case SUM:
+            combine = a.aggregateOp();
+            break;
+        case COUNT:
+            combine = Aggregator.Op.SUM;
+            break;
+        default:
+            return null;
+        }
+        DbIterator[] parts = partition(a.getChildren()[0]);
+        if (parts == null)
+            return null;
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = new Aggregate(parts[i], a.aggregateField(), Aggregator.NO_GROUPING,
+                    a.aggregateOp(), a.getMemoryBudget());
+        }
+        return new Aggregate(gather(parts), 0, Aggregator.NO_GROUPING, combine,
+                a.getMemoryBudget());
+    }
+}
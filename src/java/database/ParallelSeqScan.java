@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelSeqScan scans a HeapFile with several worker threads. The pages of
+ * the file are handed out to the workers in chunks of consecutive pages, so
+ * that workers which get ahead simply pick up more chunks; every page is read
+ * through the BufferPool as part of the scan's transaction. Tuples are
+ * returned in no particular order.
+ */
+public class ParallelSeqScan extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of consecutive pages a worker claims at a time */
+    public static final int DEFAULT_CHUNK_PAGES = 16;
+
+    private SeqScan scan;
+    private final int chunkPages;
+    private transient HeapFile file;
+    private transient TupleDesc td;
+    private transient AtomicInteger nextPage;
+    private int numPages;
+
+    /**
+     * Creates a parallel scan over the table of the specified scan.
+     *
+     * @param scan
+     *            the sequential scan to run in parallel; it is only used to
+     *            describe the table and is never opened itself
+     * @param dop
+     *            the number of worker threads
+     */
+    public ParallelSeqScan(SeqScan scan, int dop) {
+        this(scan, dop, DEFAULT_CHUNK_PAGES);
+    }
+
+    /**
+     * Creates a parallel scan over the table of the specified scan.
+     *
+     * @param chunkPages
+     *            the number of consecutive pages a worker claims at a time
+     * @see #ParallelSeqScan(SeqScan, int)
+     */
+    public ParallelSeqScan(SeqScan scan, int dop, int chunkPages) {
+        super("parallel scan(" + dop + ")", dop, DEFAULT_QUEUE_SIZE);
+        if (chunkPages < 1)
+            throw new IllegalArgumentException("chunkPages must be positive");
+        this.chunkPages = chunkPages;
+        setScan(scan);
+    }
+
+    /**
+     * Creates a parallel scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @see SeqScan#SeqScan(TransactionId, int, String)
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int dop) {
+        this(new SeqScan(tid, tableid, tableAlias), dop);
+    }
+
+    private void setScan(SeqScan scan) {
+        DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (!(f instanceof HeapFile))
+            throw new IllegalArgumentException("table " + scan.getTableName()
+                    + " is not a heap file");
+        this.scan = scan;
+        this.file = (HeapFile) f;
+        this.td = scan.getTupleDesc();
+    }
+
+    public String getTableName() {
+        return scan.getTableName();
+    }
+
+    public String getAlias() {
+        return scan.getAlias();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    protected void prepare() {
+        numPages = file.numPages();
+        nextPage = new AtomicInteger();
+    }
+
+    protected void runWorker(int worker) throws DbException,
+            TransactionAbortedException, InterruptedException {
+        int start;
+        while (!isCancelled()
+                && (start = nextPage.getAndAdd(chunkPages)) < numPages) {
+            DbFileIterator it = file.iterator(scan.getTransactionId(), start,
+                    Math.min(start + chunkPages, numPages), scan.getZonePredicates());
+            try {
+                it.open();
+                while (it.hasNext()) {
+                    emit(it.next());
+                }
+            } finally {
+                it.close();
+            }
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { scan };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        setScan((SeqScan) children[0]);
+    }
+}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -11,6 +13,7 @@ import jline.SimpleCompletor;
 
 public class Parser {
     static boolean explain = false;
+    static int parallelism = 1;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -273,12 +276,145 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    /**
+     * Zql does not know about LIMIT, so a trailing "LIMIT n" is stripped from
+     * the statement text before it is handed to the ZqlParser.
+     */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "(?is)^(.*?)\\s+LIMIT\\s+(\\d+)\\s*(;?)\\s*$");
+
+    /** "SET PARALLELISM n" changes the number of threads used by later queries */
+    private static final Pattern SET_PARALLELISM = Pattern.compile(
+            "(?is)^\\s*SET\\s+PARALLELISM\\s+(\\d+)\\s*;?\\s*$");
+
+    /** "CREATE INDEX name ON table (field)" adds a secondary index to a table */
+    private static final Pattern CREATE_INDEX = Pattern.compile(
+            "(?is)^\\s*CREATE\\s+INDEX\\s+(\\w+)\\s+ON\\s+(\\w+)\\s*\\(\\s*(\\w+)\\s*\\)\\s*;?\\s*$");
+
+    /** a string constant, skipped, or a parameter of a prepared statement */
+    private static final Pattern PARAMETER = Pattern.compile("'(?:[^']|'')*'|\\?");
+
+    /**
+     * "ANALYZE [table]" rebuilds the statistics of a table, or of every
+     * table, and stores them in the stats file
+     */
+    private static final Pattern ANALYZE = Pattern.compile(
+            "(?is)^\\s*ANALYZE(?:\\s+(\\w+))?\\s*;?\\s*$");
+
+    /**
+     * Set the number of threads the following queries may use.
+     */
+    public static void setParallelism(int dop) {
+        if (dop < 1)
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        parallelism = dop;
+        System.out.println("Degree of parallelism set to " + dop + ".");
+    }
+
+    /** The LIMIT of the statement being processed */
+    private int limit = LogicalPlan.NO_LIMIT;
+
+    /**
+     * Removes a trailing LIMIT clause from statement, remembering its value
+     * so that {@link #handleQueryStatement} can add it to the logical plan.
+     *
+     * @return the statement without its LIMIT clause
+     */
+    String stripLimit(String statement) throws simpledb.ParsingException {
+        limit = LogicalPlan.NO_LIMIT;
+        Matcher m = LIMIT_CLAUSE.matcher(statement);
+        if (!m.matches())
+            return statement;
+        try {
+            limit = Integer.parseInt(m.group(2));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("Invalid LIMIT " + m.group(2));
+        }
+        return m.group(1) + m.group(3);
+    }
+
+    /**
+     * Parse a SELECT statement whose constants may be parameters, written
+     * <tt>?</tt>, without running it; see {@link PreparedQuery}. The LIMIT
+     * clause of the statement, and the parallelism set when it is prepared,
+     * apply to all its executions.
+     *
+     * @param statement the text of the statement
+     * @param tId the transaction to run the query as a part of, until
+     *            {@link PreparedQuery#setTransactionId} is called
+     * @throws simpledb.ParsingException if the statement is not a SELECT, has
+     *             a subquery, or a parameter is not the constant of a filter
+     */
+    public PreparedQuery prepareStatement(String statement, TransactionId tId)
+            throws IOException, simpledb.ParsingException, Zql.ParseException {
+        // the parameters are parsed as the string constants '?1', '?2', ...
+        // which are then looked for among the filters of the plan
+        String text = stripLimit(statement);
+        StringBuffer sb = new StringBuffer();
+        Matcher m = PARAMETER.matcher(text);
+        int parameters = 0;
+        while (m.find()) {
+            if (m.group().equals("?"))
+                m.appendReplacement(sb, "'?" + (++parameters) + "'");
+        }
+        m.appendTail(sb);
+        ZqlParser p = new ZqlParser(new ByteArrayInputStream(sb.toString()
+                .getBytes("UTF-8")));
+        ZStatement s = p.readStatement();
+        if (!(s instanceof ZQuery))
+            throw new simpledb.ParsingException(
+                    "Only SELECT statements can be prepared");
+        LogicalPlan lp = parseQueryLogicalPlan(tId, (ZQuery) s);
+        lp.setLimit(limit);
+        lp.setParallelism(parallelism);
+        return prepare(lp, parameters, tId);
+    }
+
+    /**
+     * @return a PreparedQuery of lp, whose parameters are the filters with
+     *         the constants '?1' ... '?n', n being parameters
+     */
+    static PreparedQuery prepare(LogicalPlan lp, int parameters,
+            TransactionId tId) throws simpledb.ParsingException {
+        if (lp.hasSubqueries())
+            throw new simpledb.ParsingException(
+                    "Statements with subqueries cannot be prepared");
+        List<String> constants = lp.getFilterConstants();
+        int[] filters = new int[parameters];
+        for (int i = 0; i < parameters; i++) {
+            filters[i] = constants.indexOf("?" + (i + 1));
+            if (filters[i] < 0
+                    || constants.lastIndexOf("?" + (i + 1)) != filters[i])
+                throw new simpledb.ParsingException("Parameter " + (i + 1)
+                        + " is not the constant of a filter");
+        }
+        return new PreparedQuery(lp, filters, tId);
+    }
+
+    /**
+     * Build the Query of a statement whose plan is in the QueryPlanCache,
+     * binding the constants of the statement to the filters of the plan.
+     */
+    private Query handleCachedQuery(LogicalPlan lp, List<String> constants,
+            TransactionId tId) throws simpledb.ParsingException {
+        Query query = new Query(tId);
+        // the plan is shared by all the statements of its shape
+        synchronized (lp) {
+            lp.setFilterConstants(constants);
+            query.setPhysicalPlan(lp.replan(tId));
+        }
+        query.setLogicalPlan(lp);
+        return query;
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        lp.setLimit(limit);
+        lp.setParallelism(parallelism);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -465,12 +601,13 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                lp.setLimit(limit);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -492,6 +629,31 @@ public class Parser {
         return curtrans;
     }
 
+    /**
+     * Rebuild the statistics of a table, or of every table if tablename is
+     * null, and store them in the stats file of the catalog.
+     */
+    public void handleAnalyzeStatement(String tablename) throws simpledb.ParsingException {
+        Catalog catalog = Database.getCatalog();
+        ArrayList<String> names = new ArrayList<String>();
+        if (tablename != null) {
+            try {
+                names.add(catalog.getTableName(catalog.getTableId(tablename)));
+            } catch (NoSuchElementException e) {
+                throw new simpledb.ParsingException("Unknown table " + tablename);
+            }
+        } else {
+            Iterator<Integer> it = catalog.tableIdIterator();
+            while (it.hasNext())
+                names.add(catalog.getTableName(it.next()));
+        }
+        for (String name : names) {
+            TableStats s = TableStats.analyze(name);
+            System.out.println("Analyzed " + name + ": " + s.totalTuples() + " tuples in "
+                    + s.numPages() + " pages" + (s.isSampled() ? " (sampled)." : "."));
+        }
+    }
+
     public void processNextStatement(String s) {
         try {
             processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
@@ -501,10 +663,63 @@ public class Parser {
         }
     }
 
+    private static String readStatement(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) > 0) {
+            bos.write(buf, 0, n);
+        }
+        return bos.toString("UTF-8");
+    }
+
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            String statement = readStatement(is);
+            Matcher set = SET_PARALLELISM.matcher(statement);
+            if (set.matches()) {
+                setParallelism(Integer.parseInt(set.group(1)));
+                return;
+            }
+            Matcher index = CREATE_INDEX.matcher(statement);
+            if (index.matches()) {
+                try {
+                    Database.getCatalog().createIndex(index.group(1), index.group(2), index.group(3));
+                } catch (NoSuchElementException e) {
+                    throw new simpledb.ParsingException("Unknown table or field in " + statement.trim());
+                } catch (IllegalArgumentException e) {
+                    throw new simpledb.ParsingException(e.getMessage());
+                }
+                System.out.println("Created index " + index.group(1) + " on " + index.group(2)
+                        + "(" + index.group(3) + ").");
+                return;
+            }
+            Matcher analyze = ANALYZE.matcher(statement);
+            if (analyze.matches()) {
+                handleAnalyzeStatement(analyze.group(1));
+                return;
+            }
+            String text = stripLimit(statement);
+            // a SELECT of the same shape as one planned before is not
+            // parsed or optimized again
+            ArrayList<String> constants = new ArrayList<String>();
+            String key = null;
+            LogicalPlan cached = null;
+            long epoch = QueryPlanCache.epoch();
+            if (!explain && text.trim().regionMatches(true, 0, "SELECT", 0, 6)) {
+                key = QueryPlanCache.normalize(text, constants) + " LIMIT " + limit
+                        + " PARALLELISM " + parallelism;
+                cached = QueryPlanCache.get(key);
+            }
+            ZStatement s = null;
+            if (cached == null) {
+                ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                        text.getBytes("UTF-8")));
+                s = p.readStatement();
+                if (limit != LogicalPlan.NO_LIMIT && !(s instanceof ZQuery))
+                    throw new simpledb.ParsingException(
+                            "LIMIT is only supported on SELECT statements");
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -517,16 +732,22 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (cached != null)
+                        query = handleCachedQuery(cached, constants,
+                                curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
                         query = handleDeleteStatement((ZDelete) s,
                                 curtrans.getId());
-                    else if (s instanceof ZQuery)
+                    else if (s instanceof ZQuery) {
                         query = handleQueryStatement((ZQuery) s,
                                 curtrans.getId());
-                    else {
+                        if (key != null)
+                            QueryPlanCache.put(key, query.getLogicalPlan(),
+                                    constants, epoch);
+                    } else {
                         System.out
                                 .println("Can't parse "
                                         + s
@@ -581,7 +802,8 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "order by", "limit", "set parallelism",
+            "create index", "analyze" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -595,7 +817,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-parallel dop] [-f queryFile]";
 
     protected void shutdown() {
         System.out.println("Bye");
@@ -605,8 +827,8 @@ public class Parser {
 
     protected void start(String[] argv) throws IOException {
         // first add tables to database
+        // the statistics of a table are loaded or built when a query first uses it
         Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
 
         String queryFile = null;
 
@@ -615,6 +837,13 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-parallel")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected degree of parallelism after -parallel\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    setParallelism(Integer.parseInt(argv[i]));
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * PartialAggregate is the running state of a single group of an aggregate.
+ * It keeps enough to answer MIN, MAX, SUM, AVG and COUNT, and two partial
+ * states of the same group can be merged, so a group that was spilled to
+ * disk several times can be put back together.
+ */
+public class PartialAggregate {
+
+    /** Number of bytes written by {@link #serialize} */
+    static final int SERIALIZED_SIZE = 8 + 8 + 4 + 4;
+
+    long count;
+    long sum;
+    int min = Integer.MAX_VALUE;
+    int max = Integer.MIN_VALUE;
+
+    /** Add an integer value to this group */
+    public void add(int v) {
+        count++;
+        sum += v;
+        if (v < min)
+            min = v;
+        if (v > max)
+            max = v;
+    }
+
+    /** Count a value of this group without looking at it (used for strings) */
+    public void addCount() {
+        count++;
+    }
+
+    /** Fold the state of other, which belongs to the same group, into this one */
+    public void merge(PartialAggregate other) {
+        count += other.count;
+        sum += other.sum;
+        if (other.min < min)
+            min = other.min;
+        if (other.max > max)
+            max = other.max;
+    }
+
+    /**
+     * @return false if the aggregate what has no value over this group, that
+     *         is if it is not a COUNT and no value was added
+     */
+    public boolean hasResult(Aggregator.Op what) {
+        return what == Aggregator.Op.COUNT || count > 0;
+    }
+
+    /**
+     * @return the value of the aggregate what over this group, which must
+     *         have a result
+     * @throws IllegalArgumentException if what is not supported
+     * @throws DbException if the SUM or COUNT does not fit in an int
+     * @see #hasResult
+     */
+    public int result(Aggregator.Op what) throws DbException {
+        switch (what) {
+        case MIN:
+            return min;
+        case MAX:
+            return max;
+        case SUM:
+            return toInt(sum, what);
+        case AVG:
+            return (int) (sum / count);
+        case COUNT:
+            return toInt(count, what);
+        default:
+            throw new IllegalArgumentException("no such Op");
+        }
+    }
+
+    private static int toInt(long v, Aggregator.Op what) throws DbException {
+        if (v != (int) v)
+            throw new DbException(what + " of " + v + " overflows an int");
+        return (int) v;
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeLong(count);
+        dos.writeLong(sum);
+        dos.writeInt(min);
+        dos.writeInt(max);
+    }
+
+    public static PartialAggregate parse(DataInputStream dis) throws IOException {
+        PartialAggregate pa = new PartialAggregate();
+        pa.count = dis.readLong();
+        pa.sum = dis.readLong();
+        pa.min = dis.readInt();
+        pa.max = dis.readInt();
+        return pa;
+    }
+}
@@ -47,6 +47,7 @@ public class Predicate implements Serializable {
     int fieldNo;
     Op op;
     Field operand;
+    transient CompiledPredicate compiled;
     
     /**
      * Constructor.
@@ -99,8 +100,60 @@ public class Predicate implements Serializable {
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
-    	return t.getField(fieldNo).compare(op, operand);
-        
+        return compile().matches(t);
+    }
+
+    /**
+     * Replace the operand, e.g. to bind a parameter of a PreparedQuery.
+     * Filters evaluating this predicate see the new operand once reopened.
+     */
+    void setOperand(Field operand) {
+        this.operand = operand;
+        compiled = null;
+    }
+
+    /**
+     * @return the evaluator of this predicate
+     * @see CompiledPredicate#compile(Predicate)
+     */
+    public CompiledPredicate compile() {
+        if (compiled == null)
+            compiled = CompiledPredicate.compile(this);
+        return compiled;
+    }
+
+    /**
+     * Applies the predicate to every selected row of a batch, deselecting the
+     * rows for which it is false. Null values never pass. Strings are
+     * compared once per distinct value of the column.
+     * 
+     * @param b
+     *            the batch to filter
+     */
+    public void filter(TupleBatch b) {
+        compile().filter(b);
+    }
+
+    /**
+     * Compares two ints the way {@link IntField#compare} does.
+     */
+    static boolean compare(Op op, int a, int b) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return a == b;
+        case NOT_EQUALS:
+            return a != b;
+        case GREATER_THAN:
+            return a > b;
+        case GREATER_THAN_OR_EQ:
+            return a >= b;
+        case LESS_THAN:
+            return a < b;
+        case LESS_THAN_OR_EQ:
+            return a <= b;
+        }
+        return false;
     }
 
     /**
@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * PreparedQuery is a Query whose constants may be parameters, written
+ * <tt>?</tt> in its text, bound to values before each execution. It is
+ * made by {@link Parser#prepareStatement}, which parses the statement once;
+ * the plan is made on the first {@link #start}, from the values bound then,
+ * and its operator tree is kept for the later executions in the same
+ * transaction:
+ *
+ * <pre>
+ * PreparedQuery q = parser.prepareStatement("SELECT o.id FROM orders o WHERE o.customer = ?;", tid);
+ * for (int customer : customers) {
+ *     q.setInt(1, customer);
+ *     q.start();
+ *     while (q.hasNext())
+ *         process(q.next());
+ * }
+ * q.close();
+ * </pre>
+ *
+ * Starting the query again with the same values rewinds the operator tree.
+ * Binding other values updates the predicates and index scans of the tree
+ * in place, which is then reopened so that the operators that read their
+ * input on open, such as joins and aggregates, read it again. Moving to
+ * another transaction with {@link #setTransactionId} builds the operator
+ * tree again, keeping the join order and index scans of the plan (see
+ * {@link LogicalPlan#replan}).
+ * <p>
+ * Parameters are numbered from 1, in the order they appear in the
+ * statement, and may only stand for the constant of a filter of the form
+ * <tt>table.field op ?</tt>.
+ */
+public class PreparedQuery extends Query {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient LogicalPlan lp;
+    /** the filter of the plan each parameter is the constant of */
+    private final int[] filters;
+    private final Field[] values;
+    /** the transaction the operator tree was built for, null if it was not built yet */
+    private transient TransactionId planned;
+    private transient boolean open = false;
+    /** true if values were bound since the operator tree was last opened */
+    private transient boolean rebound = false;
+
+    /**
+     * @param lp the plan of the statement
+     * @param filters the filter of lp each parameter is the constant of
+     * @param tid the transaction to run the query as a part of
+     */
+    PreparedQuery(LogicalPlan lp, int[] filters, TransactionId tid) {
+        super(tid);
+        this.lp = lp;
+        this.filters = filters;
+        this.values = new Field[filters.length];
+        setLogicalPlan(lp);
+    }
+
+    /** @return the number of parameters of the statement */
+    public int getParameterCount() {
+        return filters.length;
+    }
+
+    /**
+     * Bind parameter i, counting from 1, to an int.
+     * @throws ParsingException if the parameter is compared to a field that is not an int
+     */
+    public void setInt(int i, int value) throws ParsingException {
+        bind(i, Type.INT_TYPE, new IntField(value));
+    }
+
+    /**
+     * Bind parameter i, counting from 1, to a string.
+     * @throws ParsingException if the parameter is compared to a field that is not a string
+     */
+    public void setString(int i, String value) throws ParsingException {
+        bind(i, Type.STRING_TYPE, new StringField(value, Type.STRING_LEN));
+    }
+
+    private void bind(int i, Type type, Field value) throws ParsingException {
+        if (i < 1 || i > filters.length)
+            throw new ParsingException("No parameter " + i + ", the statement has " + filters.length);
+        Type expected = lp.getFilterType(filters[i - 1]);
+        if (expected != type)
+            throw new ParsingException("Parameter " + i + " is compared to a field of type " + expected
+                    + ", not " + type);
+        if (values[i - 1] == null || !value.equals(values[i - 1])) {
+            values[i - 1] = value;
+            rebound = true;
+        }
+    }
+
+    /** Unbind all the parameters */
+    public void clearParameters() {
+        for (int i = 0; i < values.length; i++)
+            values[i] = null;
+    }
+
+    /**
+     * Run the query as a part of another transaction from now on. The
+     * operator tree is built again on the next start.
+     */
+    public void setTransactionId(TransactionId tid) throws IOException {
+        close();
+        this.tid = tid;
+    }
+
+    /**
+     * Execute the query with the values bound to its parameters, or from the
+     * start again if it was executed with the same values before.
+     *
+     * @throws DbException if a parameter is not bound
+     */
+    public void start() throws IOException, DbException, TransactionAbortedException {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null)
+                throw new DbException("parameter " + (i + 1) + " is not bound");
+        }
+        if (planned != tid) {
+            close();
+            for (int i = 0; i < values.length; i++)
+                lp.bindFilter(filters[i], values[i]);
+            try {
+                // the plan is made from the first values bound
+                setPhysicalPlan(planned == null ? lp.physicalPlan(tid, TableStats.getStatsMap(), false)
+                        : lp.replan(tid));
+            } catch (ParsingException e) {
+                throw new DbException(e.getMessage());
+            }
+            planned = tid;
+        } else if (open && !rebound) {
+            getPhysicalPlan().rewind();
+            return;
+        } else {
+            close();
+            for (int i = 0; i < values.length; i++)
+                lp.bindFilter(filters[i], values[i]);
+        }
+        super.start();
+        open = true;
+        rebound = false;
+    }
+
+    /** Close the operator tree; it is reopened by the next start */
+    public void close() throws IOException {
+        if (open) {
+            super.close();
+            open = false;
+        }
+    }
+}
@@ -5,12 +5,14 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    private int[] outFields;
+    private transient TupleBatch buffer;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -39,12 +41,21 @@ public class Project extends Operator {
             fieldAr[i] = childtd.getFieldName(fieldList.get(i));
         }
         td = new TupleDesc(types, fieldAr);
+        outFields = new int[fieldList.size()];
+        for (int i = 0; i < outFields.length; i++) {
+            outFields[i] = fieldList.get(i);
+        }
     }
 
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /** @return the ids of the fields of the child's tupleDesc projected out */
+    public ArrayList<Integer> getFieldList() {
+        return outFieldIds;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
@@ -68,18 +79,28 @@ public class Project extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        while (child.hasNext()) {
+        if (child.hasNext()) {
             Tuple t = child.next();
-            Tuple newTuple = new Tuple(td);
+            Tuple newTuple = t.project(td, outFields);
             newTuple.setRecordId(t.getRecordId());
-            for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
-            }
             return newTuple;
         }
         return null;
     }
 
+    /**
+     * Returns the next batch of the child with only the projected columns;
+     * the column vectors themselves are not copied.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (!isOpen())
+            throw new IllegalStateException("Operator not yet open");
+        if (buffer == null)
+            buffer = new TupleBatch(child.getTupleDesc());
+        TupleBatch b = TupleBatch.next(child, buffer);
+        return b == null ? null : b.project(outFields, td);
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -90,6 +111,7 @@ public class Project extends Operator {
 	if (this.child!=children[0])
 	{
 	    this.child = children[0];
+	    buffer = null;
 	}
     }
     
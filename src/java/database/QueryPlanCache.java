@@ -0,0 +1,176 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * QueryPlanCache keeps the plans of the SELECT statements run by the
+ * Parser, keyed by their normalized text: the text with every number
+ * replaced by <tt>?</tt>, every string constant by <tt>'?'</tt> and every
+ * run of white space by a single space (see {@link #normalize}). A
+ * statement of the same shape as one planned before, differing only in its
+ * constants, is neither parsed nor optimized again: its constants are bound
+ * to the filters of the cached LogicalPlan, which builds its operator tree
+ * again with the join order and index scans it chose the first time (see
+ * {@link LogicalPlan#replan}).
+ * <p>
+ * The cache holds at most {@link #setCapacity capacity} plans, dropping the
+ * least recently used. It is emptied whenever a table is added to or
+ * removed from the catalog, while the plans that scan a table are dropped
+ * when its statistics are replaced or an index is added to it, so that they
+ * are made again from them. Lookups are counted in the Metrics counters
+ * {@link #HITS} and {@link #MISSES}.
+ *
+ * @Threadsafe
+ */
+public class QueryPlanCache {
+
+    /** Statements whose plan was found in the cache */
+    public static final String HITS = "plancache.hits";
+
+    /** Statements whose plan was not in the cache */
+    public static final String MISSES = "plancache.misses";
+
+    /** Times plans were dropped because of a change to the catalog or the statistics */
+    public static final String INVALIDATIONS = "plancache.invalidations";
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /** a string constant, with '' for a quote, or a number that is not a part of a name */
+    private static final Pattern CONSTANT = Pattern.compile("'((?:[^']|'')*)'|(?<![\\w.])(-?\\d+(?:\\.\\d+)?)(?![\\w.])");
+
+    private static final Pattern SPACE = Pattern.compile("\\s+");
+
+    private static int capacity = DEFAULT_CAPACITY;
+
+    /** bumped by every invalidation, so that plans made before one are not cached after it */
+    private static long epoch = 0;
+
+    /** the epoch of the last invalidation of all plans */
+    private static long cleared = 0;
+
+    /** the epoch of the last invalidation of the plans scanning each table */
+    private static final HashMap<Integer, Long> tableEpochs = new HashMap<Integer, Long>();
+
+    private static final LinkedHashMap<String, LogicalPlan> plans = new LinkedHashMap<String, LogicalPlan>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<String, LogicalPlan> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    /**
+     * Normalize the text of a statement into its key in the cache.
+     *
+     * @param statement the text of the statement
+     * @param constants the list to add the constants of the statement to, in
+     *            the order they appear, string constants without their quotes
+     * @return the text of the statement with its constants replaced by
+     *         parameters and its white space collapsed
+     */
+    public static String normalize(String statement, List<String> constants) {
+        StringBuilder key = new StringBuilder();
+        Matcher m = CONSTANT.matcher(statement);
+        int last = 0;
+        while (m.find()) {
+            key.append(SPACE.matcher(statement.substring(last, m.start())).replaceAll(" "));
+            if (m.group(1) != null) {
+                key.append("'?'");
+                constants.add(m.group(1).replace("''", "'"));
+            } else {
+                key.append('?');
+                constants.add(m.group(2));
+            }
+            last = m.end();
+        }
+        key.append(SPACE.matcher(statement.substring(last)).replaceAll(" "));
+        String s = key.toString().trim();
+        return s.endsWith(";") ? s.substring(0, s.length() - 1).trim() : s;
+    }
+
+    /** @return the cached plan of the statement with the key, or null if it is not cached */
+    public static synchronized LogicalPlan get(String key) {
+        LogicalPlan lp = plans.get(key);
+        Metrics.increment(lp != null ? HITS : MISSES);
+        return lp;
+    }
+
+    /**
+     * @return the number of invalidations so far; pass it to
+     *         {@link #put} with the plan made after reading it
+     */
+    public static synchronized long epoch() {
+        return epoch;
+    }
+
+    /**
+     * Cache the plan of a statement, unless the cache or the plans of one of
+     * the tables it scans were invalidated since epoch was read, the plan
+     * joins with a subquery, or its filters do not
+     * hold exactly the constants of the statement, in order, so binding the
+     * constants of another statement of the same shape would not work.
+     *
+     * @param key the normalized text of the statement
+     * @param lp the plan of the statement, on which physicalPlan was called
+     * @param constants the constants found by {@link #normalize}
+     * @param epoch the value of {@link #epoch()} before the statement was planned
+     * @return true if the plan was cached
+     */
+    public static synchronized boolean put(String key, LogicalPlan lp, List<String> constants, long epoch) {
+        if (epoch < cleared || lp == null || lp.hasSubqueries()
+                || !lp.getFilterConstants().equals(constants))
+            return false;
+        for (int tableid : lp.getTableAliasToIdMapping().values()) {
+            Long invalidated = tableEpochs.get(tableid);
+            if (invalidated != null && epoch < invalidated)
+                return false;
+        }
+        plans.put(key, lp);
+        return true;
+    }
+
+    /** Drop all the cached plans, e.g. because the catalog changed */
+    public static synchronized void invalidate() {
+        cleared = ++epoch;
+        tableEpochs.clear();
+        if (!plans.isEmpty()) {
+            plans.clear();
+            Metrics.increment(INVALIDATIONS);
+        }
+    }
+
+    /**
+     * Drop the cached plans that scan table tableid, e.g. because its
+     * statistics changed, keeping those of the other tables
+     */
+    public static synchronized void invalidate(int tableid) {
+        tableEpochs.put(tableid, ++epoch);
+        boolean dropped = false;
+        for (Iterator<LogicalPlan> it = plans.values().iterator(); it.hasNext();) {
+            if (it.next().getTableAliasToIdMapping().containsValue(tableid)) {
+                it.remove();
+                dropped = true;
+            }
+        }
+        if (dropped)
+            Metrics.increment(INVALIDATIONS);
+    }
+
+    /** Set the number of plans to keep; 0 disables the cache */
+    public static synchronized void setCapacity(int capacity) {
+        QueryPlanCache.capacity = Math.max(0, capacity);
+        while (plans.size() > QueryPlanCache.capacity)
+            plans.remove(plans.keySet().iterator().next());
+    }
+
+    /** @return the number of cached plans */
+    public static synchronized int size() {
+        return plans.size();
+    }
+}
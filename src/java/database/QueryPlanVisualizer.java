@@ -9,11 +9,15 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String INDEX_JOIN = "⨝(index)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "index scan";
+    static final String COLUMN_SCAN = "column scan";
     static final String ORDERBY = "o";
+    static final String TOPN = "top";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
 
@@ -65,17 +69,43 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof IndexScan
+                || queryPlan instanceof ColumnScan) {
+            String tableName, alias, condition = "";
+            String scan = SCAN;
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            } else if (queryPlan instanceof ColumnScan) {
+                ColumnScan s = (ColumnScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                scan = COLUMN_SCAN;
+                if (s.getColumns() != null) {
+                    TupleDesc td = Database.getCatalog().getTupleDesc(s.getTableId());
+                    for (int i = 0; i < td.numFields(); i++) {
+                        if (s.getColumns()[i])
+                            condition += ", " + td.getFieldName(i);
+                    }
+                }
+            } else {
+                IndexScan s = (IndexScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                condition = String.format(", %1$s %2$s %3$s",
+                        s.getTupleDesc().getFieldName(s.getKeyField()),
+                        s.getOp(), s.getOperand());
+                scan = INDEX_SCAN;
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
+                    .format("%1$s(%2$s)", scan,
+                            tableName + alias + condition);
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -196,13 +226,42 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof IndexJoin) {
+                IndexJoin j = (IndexJoin) plan;
+                String condition = j.getJoinField1Name() + j.getJoinPredicate().getOperator()
+                        + j.getJoinField2Name();
+                for (Predicate p : j.getInnerPredicates()) {
+                    condition += " and " + j.getTupleDesc().getFieldName(
+                            p.getField() + children[0].getTupleDesc().numFields())
+                            + p.getOp() + p.getOperand();
+                }
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", INDEX_JOIN,
+                        condition, j.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (INDEX_JOIN.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = INDEX_JOIN.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - INDEX_JOIN.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Filter) {
                 Filter f = (Filter) plan;
-                Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+                String condition = "";
+                for (Predicate p : f.getPredicates()) {
+                    if (condition.length() > 0)
+                        condition += " and ";
+                    condition += children[0].getTupleDesc().getFieldName(p.getField())
+                            + p.getOp() + p.getOperand();
+                }
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT,
+                        condition, f.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -238,6 +297,31 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN) {
+                TopN t = (TopN) plan;
+                if (t.getOrderByField() == TopN.NO_ORDER)
+                    thisNode.text = String.format("%1$s(%2$d),card:%3$d",
+                            TOPN, t.getLimit(), t.getEstimatedCardinality());
+                else
+                    thisNode.text = String.format(
+                            "%1$s(%2$d,%3$s),card:%4$d",
+                            TOPN, t.getLimit(),
+                            children[0].getTupleDesc().getFieldName(
+                                    t.getOrderByField()), t.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (TOPN.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = TOPN.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - TOPN.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 String fields = "";
@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * RawPageStore keeps page i of a HeapFile at offset i * page size of its
+ * file, as written by HeapFileEncoder.
+ */
+public class RawPageStore implements PageStore {
+
+    private final File f;
+
+    public RawPageStore(File f) {
+        this.f = f;
+    }
+
+    public byte[] readPage(int pgNo) throws IOException {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        // pages past the end of the file read as empty pages
+        if (pgNo < numPages()) {
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            try {
+                raf.seek((long) pgNo * BufferPool.getPageSize());
+                raf.readFully(data);
+            } finally {
+                raf.close();
+            }
+        }
+        return data;
+    }
+
+    public void writePage(int pgNo, byte[] data) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.seek((long) pgNo * BufferPool.getPageSize());
+            raf.write(data);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+}
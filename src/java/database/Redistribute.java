@@ -0,0 +1,262 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redistribute is the base class of the exchanges that read a set of input
+ * streams and redistribute their tuples over a set of output streams, e.g. by
+ * hashing a field. Each output is an operator of its own, so that it can be
+ * the child of a different pipeline; the outputs of one exchange share a
+ * {@link Group} which runs one producer thread per input and keeps a bounded
+ * queue per output.
+ * <p>
+ * The producers start when the first output is opened and run until every
+ * output has been closed, or until the consumer of the outputs resets the
+ * group (see {@link #resetAll}) before reading them again. All outputs of a group must be read concurrently
+ * (they normally sit below the same {@link Gather}), since a producer blocks
+ * as soon as the queue of any output it routes to is full. Closing an output
+ * before it has been read to the end stops the producers; the other outputs
+ * then fail.
+ */
+public abstract class Redistribute extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /** How often a blocked producer checks whether the group was stopped */
+    private static final long POLL_MILLIS = 10;
+
+    private final Group group;
+    private final int output;
+    private int inputsFinished;
+    private boolean opened;
+    private boolean finished;
+
+    protected Redistribute(String kind, Group group, int output) {
+        super(kind);
+        this.group = group;
+        this.output = output;
+    }
+
+    /** @return the number of this output within its exchange */
+    public int getOutput() {
+        return output;
+    }
+
+    public int getDegreeOfParallelism() {
+        return group.inputs.length;
+    }
+
+    /** @return the number of outputs of this exchange */
+    public int getNumOutputs() {
+        return group.queues.size();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return group.inputs[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (opened)
+            throw new IllegalStateException(getName() + " is already open");
+        inputsFinished = 0;
+        finished = false;
+        group.outputOpened(output);
+        opened = true;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (opened) {
+            opened = false;
+            group.outputClosed(output, finished);
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        throw new DbException("the output of " + getName() + " cannot be rewound");
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        ArrayBlockingQueue<Tuple> queue = group.queues.get(output);
+        while (!finished) {
+            Tuple t;
+            try {
+                t = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                throw new DbException(getName() + " interrupted");
+            }
+            if (t == null) {
+                if (group.isStopped())
+                    throw new DbException(getName() + " was stopped");
+                continue;
+            }
+            if (t == group.endOfStream) {
+                if (++inputsFinished == group.inputs.length) {
+                    finished = true;
+                    Throwable e = group.getFailure();
+                    if (e != null)
+                        rethrow(e);
+                }
+                continue;
+            }
+            return t;
+        }
+        return null;
+    }
+
+    /**
+     * Reset the groups of all redistributing exchanges in the specified plans,
+     * down to (but not below) the next {@link Consumer}, which owns the
+     * exchanges underneath it.
+     *
+     * @see Group#reset()
+     */
+    static void resetAll(DbIterator[] plans) {
+        for (DbIterator plan : plans) {
+            if (plan instanceof Redistribute) {
+                ((Redistribute) plan).group.reset();
+            } else if (plan instanceof Operator && !(plan instanceof Consumer)) {
+                resetAll(((Operator) plan).getChildren());
+            }
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return group.inputs;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        throw new UnsupportedOperationException("the inputs of " + getName() + " cannot be replaced");
+    }
+
+    /**
+     * The state shared by all outputs of one redistributing exchange: its
+     * inputs, one queue per output and the producer threads.
+     */
+    static abstract class Group {
+        final DbIterator[] inputs;
+        final List<ArrayBlockingQueue<Tuple>> queues;
+        final Tuple endOfStream;
+        private Workers producers;
+        private int opened, closed;
+        private volatile boolean stopped;
+
+        Group(DbIterator[] inputs, int numOutputs, int queueSize) {
+            if (inputs.length == 0 || numOutputs < 1)
+                throw new IllegalArgumentException("an exchange needs inputs and outputs");
+            this.inputs = inputs;
+            this.queues = new ArrayList<ArrayBlockingQueue<Tuple>>(numOutputs);
+            for (int i = 0; i < numOutputs; i++) {
+                queues.add(new ArrayBlockingQueue<Tuple>(queueSize));
+            }
+            this.endOfStream = new Tuple(inputs[0].getTupleDesc());
+        }
+
+        /**
+         * Route a tuple of an input to the outputs it belongs to, using
+         * {@link #put}.
+         */
+        abstract void route(Tuple t) throws InterruptedException;
+
+        /** Append t to the queue of the specified output, waiting while it is full */
+        void put(int output, Tuple t) throws InterruptedException {
+            while (!queues.get(output).offer(t, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (stopped)
+                    throw new InterruptedException("exchange stopped");
+            }
+        }
+
+        boolean isStopped() {
+            return stopped;
+        }
+
+        Throwable getFailure() {
+            Workers w = producers;
+            return w == null ? null : w.getFailure();
+        }
+
+        synchronized void outputOpened(int output) {
+            if (opened == 0) {
+                for (ArrayBlockingQueue<Tuple> q : queues) {
+                    q.clear();
+                }
+                stopped = false;
+                producers = new Workers(inputs.length, new Task() {
+                    public void run(int input) throws Exception {
+                        produce(input);
+                    }
+                });
+                producers.start();
+            }
+            opened++;
+        }
+
+        synchronized void outputClosed(int output, boolean finished) {
+            if (producers == null)
+                return;
+            closed++;
+            if (!finished || closed == queues.size()) {
+                stopped = true;
+                producers.cancel();
+            }
+            if (closed == queues.size()) {
+                // all outputs are done with this round; the next open starts over
+                producers = null;
+                opened = closed = 0;
+            }
+        }
+
+        /**
+         * Stop the producers and forget the current round, even if some of the
+         * outputs were never opened or closed, along with the groups feeding
+         * the inputs. Called by the consumer of the outputs before it starts
+         * reading them again.
+         */
+        void reset() {
+            synchronized (this) {
+                if (producers != null) {
+                    stopped = true;
+                    producers.cancel();
+                    producers = null;
+                }
+                for (ArrayBlockingQueue<Tuple> q : queues) {
+                    q.clear();
+                }
+                opened = closed = 0;
+                stopped = false;
+            }
+            resetAll(inputs);
+        }
+
+        private void produce(int input) throws Exception {
+            DbIterator it = inputs[input];
+            try {
+                try {
+                    it.open();
+                    while (it.hasNext()) {
+                        route(it.next());
+                    }
+                } catch (NoSuchElementException e) {
+                    throw new DbException("input " + input + " ended unexpectedly");
+                } finally {
+                    it.close();
+                }
+            } catch (Throwable e) {
+                producers.fail(e);
+            } finally {
+                if (!stopped) {
+                    for (int i = 0; i < queues.size(); i++) {
+                        put(i, endOfStream);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A secondary index on one field of a table stored in a HeapFile. The index
+ * is a BTreeFile of entries <tt>(key, page, slot)</tt> ordered on the key,
+ * each naming the heap page and slot of a tuple of the table, so that a
+ * lookup on the field reads the pages of the matching tuples instead of the
+ * whole table.
+ * <p>
+ * Indexes are registered in the Catalog, and BufferPool.insertTuple and
+ * deleteTuple keep them in sync with the table as part of the same
+ * transaction: the index pages are locked, dirtied and logged like the heap
+ * pages, so an abort rolls back both. Only heap tables can have secondary
+ * indexes, because the tuples of a BTreeFile move when its pages split.
+ * <p>
+ * The file of an index is stored next to its table (see {@link #fileFor})
+ * and stamped with the table file it matches (see {@link IndexStamp}); the
+ * Catalog builds the index again when the stamp no longer matches.
+ *
+ * @see Catalog#createIndex
+ */
+public class SecondaryIndex {
+
+    /** Number of entries inserted per transaction while building an index */
+    private static final int BUILD_BATCH = 1000;
+
+    private final String name;
+    private final int tableid;
+    private final int field;
+    private final BTreeFile file;
+
+    /**
+     * Creates a secondary index backed by the specified file, which may be
+     * empty. The index has to be registered with Catalog.addIndex and, if
+     * the file is new, filled with {@link #build}.
+     *
+     * @param name the name of the index
+     * @param tableid the id of the indexed table, which must be a HeapFile
+     * @param field the index of the indexed field in the tuples of the table
+     * @param f the file storing the entries of the index
+     */
+    public SecondaryIndex(String name, int tableid, int field, File f) {
+        DbFile table = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(table instanceof HeapFile))
+            throw new IllegalArgumentException("secondary indexes need a table stored in a heap file");
+        this.name = name;
+        this.tableid = tableid;
+        this.field = field;
+        Type keyType = table.getTupleDesc().getFieldType(field);
+        this.file = new BTreeFile(f, 0, new TupleDesc(
+                new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "page", "slot" }));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** @return the id of the indexed table */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the index of the indexed field in the tuples of the table */
+    public int getField() {
+        return field;
+    }
+
+    /** @return the BTreeFile storing the entries of the index */
+    public BTreeFile getFile() {
+        return file;
+    }
+
+    /**
+     * @return the file storing the index called name of the table stored in
+     *         heapFile: the name of the table file without its extension,
+     *         followed by <tt>.name.idx</tt>
+     */
+    public static File fileFor(File heapFile, String name) {
+        return new File(heapFile.getAbsoluteFile().getParentFile(), baseName(heapFile) + "." + name + ".idx");
+    }
+
+    /** @return the files of the indexes of the table stored in heapFile */
+    public static File[] filesFor(File heapFile) {
+        final String prefix = baseName(heapFile) + ".";
+        File[] files = heapFile.getAbsoluteFile().getParentFile().listFiles(new FileFilter() {
+            public boolean accept(File f) {
+                String name = f.getName();
+                return name.startsWith(prefix) && name.endsWith(".idx")
+                        && name.indexOf('.', prefix.length()) == name.length() - ".idx".length();
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+
+    private static String baseName(File heapFile) {
+        String name = heapFile.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /** @return the entry of the index pointing to tuple t at rid */
+    private Tuple entry(Tuple t, RecordId rid) {
+        Tuple e = new Tuple(file.getTupleDesc());
+        e.setField(0, t.getField(field));
+        e.setInt(1, rid.getPageId().pageNumber());
+        e.setInt(2, rid.tupleno());
+        return e;
+    }
+
+    /**
+     * Add the entry of a tuple that was just inserted into the table.
+     *
+     * @param tid the transaction inserting the tuple
+     * @param t the tuple, whose RecordId names its place in the table
+     */
+    public void insertEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Database.getBufferPool().insertTuple(tid, file.getId(), entry(t, t.getRecordId()));
+    }
+
+    /**
+     * Remove the entry of a tuple that was just deleted from the table.
+     *
+     * @param tid the transaction deleting the tuple
+     * @param t the deleted tuple
+     * @param rid the place the tuple was deleted from
+     */
+    public void deleteEntry(TransactionId tid, Tuple t, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        Tuple e = entry(t, rid);
+        DbFileIterator it = file.indexIterator(tid, Predicate.Op.EQUALS, e.getField(0));
+        it.open();
+        try {
+            while (it.hasNext()) {
+                Tuple found = it.next();
+                if (found.getInt(1) == e.getInt(1) && found.getInt(2) == e.getInt(2)) {
+                    Database.getBufferPool().deleteTuple(tid, found);
+                    return;
+                }
+            }
+        } finally {
+            it.close();
+        }
+        throw new DbException("index " + name + " has no entry for " + t);
+    }
+
+    /**
+     * Fill an empty index with the entries of the tuples of the table. The
+     * entries are inserted in key order, a batch per transaction, so that
+     * the dirty pages of a batch always fit in the buffer pool.
+     */
+    public void build() throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            entries.add(entry(t, t.getRecordId()));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Collections.sort(entries, new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                Field ka = a.getField(0), kb = b.getField(0);
+                if (ka.compare(Predicate.Op.LESS_THAN, kb))
+                    return -1;
+                if (ka.compare(Predicate.Op.GREATER_THAN, kb))
+                    return 1;
+                if (a.getInt(1) != b.getInt(1))
+                    return a.getInt(1) < b.getInt(1) ? -1 : 1;
+                return a.getInt(2) < b.getInt(2) ? -1 : a.getInt(2) > b.getInt(2) ? 1 : 0;
+            }
+        });
+        for (int i = 0; i < entries.size(); i += BUILD_BATCH) {
+            tid = new TransactionId();
+            for (Tuple e : entries.subList(i, Math.min(entries.size(), i + BUILD_BATCH)))
+                Database.getBufferPool().insertTuple(tid, file.getId(), e);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * @return an iterator over the tuples of the table whose indexed field
+     *         satisfies <tt>field op operand</tt>, in the order of the field
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate.Op op, Field operand) {
+        return new LookupIterator(tid, op, operand, file.indexIterator(tid, op, operand));
+    }
+
+    /**
+     * The cost of reading the tuples that satisfy a predicate of the given
+     * selectivity through this index: the index pages, plus one random read
+     * per matching tuple, but no more than the pages of the table.
+     *
+     * @param selectivity the fraction of the tuples of the table that match
+     * @param numTuples the number of tuples of the table
+     * @param numPages the number of pages of the table
+     * @param ioCostPerPage the cost of reading a page
+     */
+    public double estimateIndexScanCost(double selectivity, int numTuples, int numPages,
+            double ioCostPerPage) {
+        double heapPages = Math.min(Math.ceil(selectivity * numTuples), numPages);
+        return file.estimateIndexScanCost(selectivity, ioCostPerPage) + heapPages * ioCostPerPage;
+    }
+
+    /**
+     * Fetches the tuples of the table named by the entries of an index scan.
+     * The predicate is checked again on each tuple, so that an entry the
+     * table does not agree with never returns a tuple that does not match.
+     */
+    private class LookupIterator implements DbFileIterator {
+
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field operand;
+        private final DbFileIterator entries;
+        private Tuple next;
+
+        LookupIterator(TransactionId tid, Predicate.Op op, Field operand, DbFileIterator entries) {
+            this.tid = tid;
+            this.op = op;
+            this.operand = operand;
+            this.entries = entries;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            entries.open();
+            next = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (next == null && entries.hasNext()) {
+                Tuple e = entries.next();
+                HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(tableid, e.getInt(1)), Permissions.READ_ONLY);
+                Tuple t = p.getTuple(e.getInt(2));
+                if (t != null && t.getField(field).compare(op, operand))
+                    next = t;
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException("no more elements");
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            entries.rewind();
+            next = null;
+        }
+
+        public void close() {
+            entries.close();
+            next = null;
+        }
+    }
+}
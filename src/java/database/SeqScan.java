@@ -9,14 +9,18 @@ import simpledb.TupleDesc.TDItem;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     String tableAlias;
     int tableid;
     TransactionId tid;
     DbFileIterator dbfi;
+    transient TupleBatch batch;
     TupleDesc tupleDesc;
+    int partition = 0;
+    int numPartitions = 1;
+    Predicate[] zonePredicates = new Predicate[0];
     
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -56,7 +60,9 @@ public class SeqScan implements DbIterator {
          }
          DbFile tableContent = catalog.tableContents.get(tableIndex);
          this.tupleDesc = tableContent.getTupleDesc();
-         dbfi = tableContent.iterator(tid);
+         // the file iterator is created on open(), so that building a plan
+         // does not already read the table
+         dbfi = null;
     }
 
     /**
@@ -96,7 +102,73 @@ public class SeqScan implements DbIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Creates a scan over one of numPartitions equal page ranges of the
+     * specified table, which must be stored in a HeapFile. Scanning all
+     * partitions returns every tuple of the table exactly once; used to run
+     * a scan on several threads.
+     *
+     * @param partition
+     *            the page range to scan, between 0 and numPartitions - 1
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias,
+            int partition, int numPartitions) {
+        this(tid, tableid, tableAlias);
+        if (partition < 0 || partition >= numPartitions) {
+            throw new IllegalArgumentException("invalid partition " + partition
+                    + " of " + numPartitions);
+        }
+        this.partition = partition;
+        this.numPartitions = numPartitions;
+    }
+
+    /**
+     * @return the page range of the table this scan reads, or 0 if it scans
+     *         the whole table
+     */
+    public int getPartition() {
+        return partition;
+    }
+
+    /** @return the number of page ranges the table is split into */
+    public int getNumPartitions() {
+        return numPartitions;
+    }
+
+    /**
+     * Give this scan the predicates of a Filter over it. If the table is
+     * stored in a HeapFile, the scan skips the pages whose zone map shows
+     * that none of their tuples satisfies all of them (see {@link ZoneMap});
+     * the predicates must still be applied to the tuples returned.
+     *
+     * @param predicates
+     *            predicates on the fields of the table
+     */
+    public void setZonePredicates(Predicate[] predicates) {
+        this.zonePredicates = predicates;
+    }
+
+    /** @return the predicates used to skip pages */
+    public Predicate[] getZonePredicates() {
+        return zonePredicates;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
+        if (dbfi == null) {
+            DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+            if (!(f instanceof HeapFile) && numPartitions == 1) {
+                dbfi = f.iterator(tid);
+            } else if (f instanceof HeapFile) {
+                int numPages = ((HeapFile) f).numPages();
+                dbfi = ((HeapFile) f).iterator(tid,
+                        (int) ((long) numPages * partition / numPartitions),
+                        (int) ((long) numPages * (partition + 1) / numPartitions),
+                        zonePredicates);
+            } else {
+                throw new DbException("only heap files can be scanned in partitions");
+            }
+        }
         dbfi.open();
     }
 
@@ -129,20 +201,60 @@ public class SeqScan implements DbIterator {
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
-        return dbfi.hasNext();
+        return dbfi != null && dbfi.hasNext();
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (dbfi == null) {
+            throw new NoSuchElementException("scan is not open yet");
+        }
         return dbfi.next();
     }
 
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (dbfi == null) {
+            throw new IllegalStateException("scan is not open yet");
+        }
+        if (batch == null) {
+            batch = new TupleBatch(getTupleDesc());
+        }
+        batch.clear();
+        if (dbfi instanceof HeapFileRangeIterator) {
+            // pages are read a page at a time into the column vectors
+            ((HeapFileRangeIterator) dbfi).fillBatch(batch);
+        } else {
+            while (!batch.isFull() && dbfi.hasNext()) {
+                batch.addTuple(dbfi.next());
+            }
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
     public void close() {
-        dbfi.close();
+        if (dbfi != null) {
+            dbfi.close();
+            // reopened, the scan starts over and sees the current pages
+            dbfi = null;
+        }
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        if (dbfi == null) {
+            throw new IllegalStateException("scan is not open yet");
+        }
         dbfi.rewind();
     }
+
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
 }
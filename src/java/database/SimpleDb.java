@@ -7,7 +7,7 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
-            if (args.length<3 || args.length>5){
+            if (args.length<3 || args.length>6){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
@@ -16,6 +16,7 @@ public class SimpleDb {
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
             char fieldSeparator=',';
+            int format=HeapFile.FORMAT_FIXED;
 
             if (args.length == 3) 
                 for (int i=0;i<numOfAttributes;i++)
@@ -39,12 +40,24 @@ public class SimpleDb {
                                 return;
                             }
                 }
-                if (args.length==5)
+                if (args.length>=5)
                     fieldSeparator=args[4].charAt(0);
+                if (args.length==6)
+                    format=Integer.parseInt(args[5]);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+            if (format==HeapFile.FORMAT_SLOTTED)
+                HeapFileEncoder.convertSlotted(sourceTxtFile,targetDatFile,ts,fieldSeparator);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
                         BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            // the indexes and the zone map of the old file are rebuilt, and
+            // the new file is compressed again if its table is compressed
+            HashIndexFile.indexFileFor(targetDatFile).delete();
+            for (File indexFile : SecondaryIndex.filesFor(targetDatFile))
+                indexFile.delete();
+            ZoneMap.fileFor(targetDatFile).delete();
+            CompressedPageStore.tableFileFor(targetDatFile).delete();
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -67,6 +80,40 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("columnar")) {
+            // build a column file from a heap file
+            if (args.length<3 || args.length>5){
+                System.err.println("Unexpected number of arguments to columnar ");
+                return;
+            }
+            File tableFile = new File(args[1]);
+            String colFileName = args[1].endsWith(".dat")
+                    ? args[1].substring(0, args[1].length() - ".dat".length()) : args[1];
+            File targetColFile = new File(colFileName + ".col");
+            int numOfAttributes = Integer.parseInt(args[2]);
+            Type[] ts = new Type[numOfAttributes];
+            for (int i=0;i<numOfAttributes;i++)
+                ts[i]=Type.INT_TYPE;
+            if (args.length >= 4) {
+                String[] typeStringAr = args[3].split(",");
+                if (typeStringAr.length!=numOfAttributes) {
+                    System.err.println("The number of types does not agree with the number of columns");
+                    return;
+                }
+                for (int i=0;i<numOfAttributes;i++) {
+                    if (typeStringAr[i].toLowerCase().equals("string"))
+                        ts[i]=Type.STRING_TYPE;
+                    else if (!typeStringAr[i].toLowerCase().equals("int")) {
+                        System.err.println("Unknown type " + typeStringAr[i]);
+                        return;
+                    }
+                }
+            }
+            int format = args.length == 5 ? Integer.parseInt(args[4]) : HeapFile.FORMAT_FIXED;
+            HeapFile table = new HeapFile(tableFile, new TupleDesc(ts), format);
+            Database.getCatalog().addTable(table, "t");
+            ColumnFileEncoder.convert(table, targetColFile);
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
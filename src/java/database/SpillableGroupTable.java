@@ -0,0 +1,275 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SpillableGroupTable maps group-by values to their {@link PartialAggregate}
+ * while staying within a memory budget. When adding a new group would go over
+ * the budget, every group held in memory is hash-partitioned into temporary
+ * spill files and the in-memory table starts over empty. Partial states of
+ * the same group always land in the same partition, so they are merged back
+ * together when the partitions are read one at a time at the end. A partition
+ * that is itself too large is re-partitioned on the next hash bits.
+ */
+public class SpillableGroupTable {
+
+    /** Number of spill partitions; must be a power of two */
+    static final int NUM_PARTITIONS = 16;
+    private static final int PARTITION_BITS = 4;
+    /** Deepest re-partitioning level before we give up and stay in memory */
+    private static final int MAX_LEVEL = 32 / PARTITION_BITS - 1;
+
+    /** Rough heap cost of a group entry, not counting the group value itself */
+    static final int ENTRY_OVERHEAD = 96;
+
+    final Type gbfieldtype;
+    final long memoryBudget;
+    final int level;
+    final int bytesPerGroup;
+
+    HashMap<Field, PartialAggregate> groups;
+    File[] partitionFiles;
+    DataOutputStream[] partitionOuts;
+    int[] partitionCounts;
+    boolean finished;
+    long spilledBytes;
+
+    /**
+     * Constructor.
+     *
+     * @param gbfieldtype
+     *            the type of the group-by values, or null if there is no
+     *            grouping (a single group never spills)
+     * @param memoryBudget
+     *            the number of bytes the in-memory groups may take
+     */
+    public SpillableGroupTable(Type gbfieldtype, long memoryBudget) {
+        this(gbfieldtype, memoryBudget, 0);
+    }
+
+    private SpillableGroupTable(Type gbfieldtype, long memoryBudget, int level) {
+        this.gbfieldtype = gbfieldtype;
+        this.memoryBudget = memoryBudget;
+        this.level = level;
+        this.bytesPerGroup = (gbfieldtype == null ? 0 : gbfieldtype.getLen()) + ENTRY_OVERHEAD;
+        groups = new HashMap<Field, PartialAggregate>();
+        // without grouping the single group exists from the start, so that
+        // an empty input still has a result (COUNT and SUM of 0)
+        if (gbfieldtype == null)
+            groups.put(null, new PartialAggregate());
+    }
+
+    /**
+     * Returns the partial aggregate of the specified group, creating it (and
+     * spilling the table first if it is full) when the group is new.
+     *
+     * @param group
+     *            the group-by value, or null if there is no grouping
+     */
+    public PartialAggregate get(Field group) throws DbException {
+        PartialAggregate pa = groups.get(group);
+        if (pa == null) {
+            if (finished) {
+                throw new IllegalStateException("group table has already been read");
+            }
+            if ((groups.size() + 1L) * bytesPerGroup > memoryBudget && canSpill()) {
+                spill();
+            }
+            pa = new PartialAggregate();
+            groups.put(group, pa);
+        }
+        return pa;
+    }
+
+    /** @return true if some groups have been written to spill files */
+    public boolean hasSpilled() {
+        return partitionFiles != null;
+    }
+
+    /** @return the number of bytes this table has written to its spill files */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    private boolean canSpill() {
+        return gbfieldtype != null && level <= MAX_LEVEL && !groups.isEmpty();
+    }
+
+    private int partitionOf(Field group) {
+        // spread the hash code so that low-entropy hashes (e.g. IntField)
+        // still use all partitions at every level
+        int h = group.hashCode() * 0x9E3779B9;
+        h ^= h >>> 16;
+        return (h >>> (level * PARTITION_BITS)) & (NUM_PARTITIONS - 1);
+    }
+
+    /**
+     * Write every in-memory group to its partition file and empty the table.
+     */
+    private void spill() throws DbException {
+        try {
+            if (partitionFiles == null) {
+                partitionFiles = new File[NUM_PARTITIONS];
+                partitionOuts = new DataOutputStream[NUM_PARTITIONS];
+                partitionCounts = new int[NUM_PARTITIONS];
+                for (int i = 0; i < NUM_PARTITIONS; i++) {
+                    partitionFiles[i] = File.createTempFile("simpledb-agg", ".spill");
+                    partitionFiles[i].deleteOnExit();
+                    partitionOuts[i] = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(partitionFiles[i])));
+                }
+            }
+            long bytes = 0;
+            for (Map.Entry<Field, PartialAggregate> e : groups.entrySet()) {
+                int p = partitionOf(e.getKey());
+                e.getKey().serialize(partitionOuts[p]);
+                e.getValue().serialize(partitionOuts[p]);
+                partitionCounts[p]++;
+                bytes += gbfieldtype.getLen() + PartialAggregate.SERIALIZED_SIZE;
+            }
+            spilledBytes += bytes;
+            Metrics.add(Metrics.AGGREGATE_SPILLED_BYTES, bytes);
+            Debug.log(1, "SpillableGroupTable: spilled %d groups (%d bytes) at level %d",
+                    groups.size(), bytes, level);
+            groups = new HashMap<Field, PartialAggregate>();
+        } catch (IOException e) {
+            close();
+            throw new DbException("failed to spill aggregate groups: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stop accepting new groups. If the table has spilled, the groups still in
+     * memory are spilled too so that every group can be read back from exactly
+     * one partition.
+     */
+    private void finish() throws DbException {
+        if (finished)
+            return;
+        finished = true;
+        if (!hasSpilled())
+            return;
+        spill();
+        try {
+            for (DataOutputStream dos : partitionOuts) {
+                dos.close();
+            }
+        } catch (IOException e) {
+            close();
+            throw new DbException("failed to close aggregate spill file: " + e.getMessage());
+        }
+        partitionOuts = null;
+    }
+
+    /**
+     * Reads partition p back into a new table one level deeper, merging the
+     * partial states of groups that were spilled more than once.
+     */
+    private SpillableGroupTable readPartition(int p) throws DbException {
+        SpillableGroupTable table = new SpillableGroupTable(gbfieldtype, memoryBudget, level + 1);
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(partitionFiles[p])));
+            for (int i = 0; i < partitionCounts[p]; i++) {
+                Field group = gbfieldtype.parse(dis);
+                table.get(group).merge(PartialAggregate.parse(dis));
+            }
+        } catch (IOException e) {
+            table.close();
+            throw new DbException("failed to read aggregate spill file: " + e.getMessage());
+        } catch (java.text.ParseException e) {
+            table.close();
+            throw new DbException("corrupt aggregate spill file: " + e.getMessage());
+        } finally {
+            if (dis != null) {
+                try {
+                    dis.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Returns an iterator over all groups. After this call no new groups may be
+     * added; the table can be iterated any number of times until it is closed.
+     */
+    public GroupIterator iterator() throws DbException {
+        finish();
+        return new GroupIterator();
+    }
+
+    /** Delete the spill files and drop all groups. */
+    public void close() {
+        if (partitionOuts != null) {
+            for (DataOutputStream dos : partitionOuts) {
+                try {
+                    dos.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            partitionOuts = null;
+        }
+        if (partitionFiles != null) {
+            for (File f : partitionFiles) {
+                if (f != null)
+                    f.delete();
+            }
+            partitionFiles = null;
+        }
+        groups.clear();
+    }
+
+    /**
+     * Iterates over the groups of a SpillableGroupTable. If the table never
+     * spilled this walks the in-memory map; otherwise the partitions are read
+     * and merged one at a time, so only one partition is in memory at once.
+     */
+    public class GroupIterator {
+        private final Iterator<Map.Entry<Field, PartialAggregate>> inMemory;
+        private SpillableGroupTable partitionTable;
+        private GroupIterator partitionItr;
+        private int nextPartition = 0;
+
+        GroupIterator() {
+            inMemory = hasSpilled() ? null : groups.entrySet().iterator();
+        }
+
+        public boolean hasNext() throws DbException {
+            if (inMemory != null)
+                return inMemory.hasNext();
+            while (partitionItr == null || !partitionItr.hasNext()) {
+                if (partitionTable != null) {
+                    partitionTable.close();
+                    partitionTable = null;
+                    partitionItr = null;
+                }
+                if (nextPartition >= NUM_PARTITIONS)
+                    return false;
+                partitionTable = readPartition(nextPartition++);
+                partitionItr = partitionTable.iterator();
+            }
+            return true;
+        }
+
+        public Map.Entry<Field, PartialAggregate> next() throws DbException {
+            if (!hasNext())
+                throw new NoSuchElementException("no more groups");
+            return inMemory != null ? inMemory.next() : partitionItr.next();
+        }
+
+        /** Release the partition currently being read, if any. */
+        public void close() {
+            if (partitionTable != null) {
+                partitionTable.close();
+                partitionTable = null;
+                partitionItr = null;
+            }
+            nextPartition = NUM_PARTITIONS;
+        }
+    }
+}
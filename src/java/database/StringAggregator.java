@@ -1,7 +1,5 @@
 package simpledb;
 
-import java.util.ArrayList;
-
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
@@ -14,9 +12,9 @@ public class StringAggregator implements Aggregator {
     int afield;
     Type gbfieldtype;
     Op what;
-    ArrayList<GbfieldAndAfield> groupMap;
-    
-    
+    SpillableGroupTable groupMap;
+
+
     /**
      * Aggregate constructor
      * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
@@ -27,7 +25,16 @@ public class StringAggregator implements Aggregator {
      */
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-    	
+    	this(gbfield, gbfieldtype, afield, what, Aggregate.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Aggregate constructor
+     * @param memoryBudget the number of bytes the groups may take in memory before they are spilled to disk
+     * @see #StringAggregator(int, Type, int, Op)
+     */
+    public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what, long memoryBudget) {
+
         if (!what.equals(Op.COUNT)) {
         	throw new IllegalArgumentException("unsupported op");
         }
@@ -35,35 +42,25 @@ public class StringAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        groupMap = new ArrayList<GbfieldAndAfield>();
+        groupMap = new SpillableGroupTable(gbfieldtype, memoryBudget);
     }
 
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the constructor
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
-    public void mergeTupleIntoGroup(Tuple tup) {
-    	 if (gbfield == Aggregator.NO_GROUPING) {
-    		//if there is no grouping, add the aggregateValue in to the groupMap directly
-    		ArrayList<Field> afieldlist = new ArrayList<Field>();
-    		afieldlist.add(tup.getField(afield));
-    		groupMap.add(new GbfieldAndAfield(null, afieldlist));
-    	 } else {
-    		// if there does exist grouping
-	        Field comparedField = tup.getField(gbfield);
-	        for (int i = 0; i < groupMap.size(); i++) {
-	        	GbfieldAndAfield gbfa = groupMap.get(i);
-	        	if (gbfa.getGbField().equals(comparedField)) {
-	        		gbfa.getAggregateList().add(tup.getField(afield));
-	        		return;
-	        	}
-	        }
-	        
-	        //if the group map do not contains the comparedField
-	        ArrayList<Field> afieldlist = new ArrayList<Field>();
-	        afieldlist.add(tup.getField(afield));
-	        groupMap.add(new GbfieldAndAfield(comparedField, afieldlist));
-    	 }
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException {
+    	Field group = (gbfield == Aggregator.NO_GROUPING) ? null : tup.getField(gbfield);
+    	groupMap.get(group).addCount();
+    }
+
+    public void mergeBatchIntoGroup(TupleBatch batch) throws DbException {
+    	ColumnVector a = batch.getColumn(afield);
+    	ColumnVector g = (gbfield == Aggregator.NO_GROUPING) ? null : batch.getColumn(gbfield);
+    	for (int row = batch.nextSelected(0); row >= 0; row = batch.nextSelected(row + 1)) {
+    		if (!a.isNull(row))
+    			groupMap.get(g == null ? null : g.getField(row)).addCount();
+    	}
     }
 
     /**
@@ -78,4 +75,8 @@ public class StringAggregator implements Aggregator {
     	return new StringAggregatorIterator(what, groupMap, gbfieldtype);
     }
 
+    public void close() {
+    	groupMap.close();
+    }
+
 }
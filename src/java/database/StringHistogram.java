@@ -1,10 +1,15 @@
 package simpledb;
 
+import java.io.Serializable;
+
 /**
  * A class to represent a fixed-width histogram over a single String-based
  * field.
  */
-public class StringHistogram {
+public class StringHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
     final IntHistogram hist;
 
     /**
@@ -65,6 +70,24 @@ public class StringHistogram {
         hist.addValue(val);
     }
 
+    /** Remove a value added to the histogram */
+    public void removeValue(String s) {
+        hist.removeValue(stringToInt(s));
+    }
+
+    /** Add the values of another StringHistogram with as many buckets */
+    public void merge(StringHistogram other) {
+        hist.merge(other.hist);
+    }
+
+    /**
+     * Scale a histogram built from a sample of a column to the whole column,
+     * which has factor values per value of the sample
+     */
+    public void scale(double factor) {
+        hist.scale(factor, 1.0);
+    }
+
     /**
      * Estimate the selectivity (as a double between 0 and 1) of the specified
      * predicate over the specified string
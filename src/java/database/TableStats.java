@@ -1,63 +1,208 @@
 package simpledb;
 
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
  * query. 
- * 
- * This class is not needed in implementing lab1 and lab2.
+ * <p>
+ * The statistics of a table are built in a single pass over it, or over a
+ * sample of its pages if it is large, when the TableStats is created, and
+ * are then kept in memory: the tuple count and
+ * histograms are updated as the BufferPool inserts and deletes tuples, and
+ * the statistics are rebuilt in the background once the table has seen
+ * enough modifications. {@link #computeStatistics} and {@link #analyze}
+ * persist them in the stats file of the catalog, and {@link #getTableStats}
+ * loads the statistics of a table from it when they are first used, as long
+ * as the table did not change since they were stored.
+ * <p>
+ * Statistics are stale once the table has seen more insertions and
+ * deletions, counted as the BufferPool makes them, than
+ * {@link #REFRESH_MODIFICATIONS} or {@link #REFRESH_FRACTION} of its tuples;
+ * the count is stored with them, so it survives restarts.
  */
 public class TableStats {
 
     private static final ConcurrentHashMap<String, TableStats> statsMap = new ConcurrentHashMap<String, TableStats>();
 
-    static final int IOCOSTPERPAGE = 1000;
+    static final int IOCOSTPERPAGE = (int) Math.round(CostModel.IO_PAGE);
 
+    /**
+     * @return the statistics of table tablename; if they are not in memory
+     *         yet they are read from the stats file, or built and added to
+     *         it if it does not hold current statistics of the table. Null
+     *         if there is no such table.
+     */
     public static TableStats getTableStats(String tablename) {
-        return statsMap.get(tablename);
+        TableStats s = statsMap.get(tablename);
+        if (s != null && s.isOf(tablename))
+            return s;
+        return loadTableStats(tablename);
+    }
+
+    /**
+     * @return true if these are the statistics of the table of the catalog
+     *         named tablename, rather than of a table of that name in a
+     *         schema loaded before
+     */
+    private boolean isOf(String tablename) {
+        try {
+            return Database.getCatalog().getTableId(tablename) == tableid;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /** the statistics read from the stats file of the catalog, by table name */
+    private static Map<String, TableStats> persisted = new HashMap<String, TableStats>();
+    private static File persistedFrom;
+
+    /** @return the statistics stored in statsFile, read once per stats file */
+    private static synchronized Map<String, TableStats> persisted(File statsFile) {
+        if (statsFile == null ? persistedFrom != null : !statsFile.equals(persistedFrom)) {
+            persisted = load(statsFile);
+            persistedFrom = statsFile;
+        }
+        return persisted;
+    }
+
+    private static synchronized TableStats loadTableStats(String tablename) {
+        Catalog catalog = Database.getCatalog();
+        int tableid;
+        try {
+            tableid = catalog.getTableId(tablename);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        TableStats s = statsMap.get(tablename);
+        if (s != null && s.tableid == tableid)
+            return s;
+        File statsFile = catalog.getStatsFile();
+        s = persisted(statsFile).get(tablename);
+        if (s != null && s.describes(catalog.getDatabaseFile(tableid))) {
+            s.bind(tableid);
+            setTableStats(tablename, s);
+            s.refreshIfStale();
+        } else {
+            s = new TableStats(tableid, IOCOSTPERPAGE);
+            setTableStats(tablename, s);
+            save(statsFile);
+        }
+        return s;
+    }
+
+    /**
+     * Rebuild the statistics of table tablename, replacing those in memory
+     * and in the stats file.
+     *
+     * @return the new statistics
+     * @throws NoSuchElementException if there is no such table
+     */
+    public static TableStats analyze(String tablename) {
+        int tableid = Database.getCatalog().getTableId(tablename);
+        TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
+        setTableStats(tablename, s);
+        save(Database.getCatalog().getStatsFile());
+        return s;
     }
 
     public static void setTableStats(String tablename, TableStats stats) {
-        statsMap.put(tablename, stats);
+        // plans made from the statistics replaced may no longer be the best
+        if (statsMap.put(tablename, stats) != null)
+            QueryPlanCache.invalidate(stats.tableid);
     }
     
+    /** Replace the statistics of all tables with those of s */
     public static void setStatsMap(HashMap<String,TableStats> s)
     {
-        try {
-            java.lang.reflect.Field statsMapF = TableStats.class.getDeclaredField("statsMap");
-            statsMapF.setAccessible(true);
-            statsMapF.set(null, s);
-        } catch (NoSuchFieldException e) {
-            e.printStackTrace();
-        } catch (SecurityException e) {
-            e.printStackTrace();
-        } catch (IllegalArgumentException e) {
-            e.printStackTrace();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-        }
-
+        // the map is shared with the threads refreshing statistics, so it is
+        // refilled rather than replaced
+        statsMap.clear();
+        statsMap.putAll(s);
+        QueryPlanCache.invalidate();
     }
 
     public static Map<String, TableStats> getStatsMap() {
         return statsMap;
     }
 
+    /**
+     * Compute the statistics of every table in the catalog. Tables are
+     * processed in parallel, and the pages of each HeapFile are scanned in
+     * parallel ranges. The statistics of a table whose file has the same
+     * length, modification time and schema as when they were built are
+     * read back from the stats file of the catalog (see
+     * {@link Catalog#getStatsFile}) instead, and the stats file is then
+     * rewritten with the statistics of all tables.
+     */
     public static void computeStatistics() {
-        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
-
+        long start = System.currentTimeMillis();
         System.out.println("Computing table stats.");
+        Catalog catalog = Database.getCatalog();
+        File statsFile = catalog.getStatsFile();
+        Map<String, TableStats> persisted = persisted(statsFile);
+        final ArrayList<Integer> tableids = new ArrayList<Integer>();
+        int loaded = 0;
+        Iterator<Integer> tableIt = catalog.tableIdIterator();
         while (tableIt.hasNext()) {
             int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+            String name = catalog.getTableName(tableid);
+            TableStats s = persisted.get(name);
+            if (s != null && s.describes(catalog.getDatabaseFile(tableid))) {
+                s.bind(tableid);
+                setTableStats(name, s);
+                s.refreshIfStale();
+                loaded++;
+            } else {
+                tableids.add(tableid);
+            }
+        }
+
+        ArrayList<Callable<TableStats>> tasks = new ArrayList<Callable<TableStats>>();
+        for (final int tableid : tableids) {
+            tasks.add(new Callable<TableStats>() {
+                public TableStats call() {
+                    return new TableStats(tableid, IOCOSTPERPAGE);
+                }
+            });
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(STATS_THREADS, daemonThreads("simpledb-stats-table-"));
+        try {
+            List<Future<TableStats>> results = pool.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++) {
+                String name = catalog.getTableName(tableids.get(i));
+                try {
+                    setTableStats(name, results.get(i).get());
+                } catch (ExecutionException e) {
+                    System.out.println("Failed to compute the stats of table " + name + ": " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
         }
-        System.out.println("Done.");
+        save(statsFile);
+        System.out.println("Done: " + loaded + " loaded, " + tableids.size() + " computed in "
+                + (System.currentTimeMillis() - start) + " ms.");
     }
 
     /**
@@ -66,15 +211,110 @@ public class TableStats {
      * histograms.
      */
     static final int NUM_HIST_BINS = 100;
-    
+
+    /**
+     * Statistics are rebuilt once the table has seen this many insertions
+     * and deletions since they were built, or REFRESH_FRACTION of its tuples
+     * if that is more
+     */
+    static final int REFRESH_MODIFICATIONS = 1000;
+    static final double REFRESH_FRACTION = 0.2;
+
+    /**
+     * The default number of tuples read to build the statistics of a large
+     * table, and the number of tuples kept to build the histograms of its
+     * int fields
+     */
+    static final int DEFAULT_SAMPLE_SIZE = 200000;
+    static final int RESERVOIR_SIZE = 20000;
+
+    /**
+     * The number of threads building statistics, and the smallest number of
+     * pages of a table scanned by one of them
+     */
+    static final int STATS_THREADS = Runtime.getRuntime().availableProcessors();
+    static final int MIN_PAGES_PER_SCAN = 64;
+
+    private static final int MAGIC = 0x53544132;
+
+    private static volatile int sampleSize = DEFAULT_SAMPLE_SIZE;
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /** the threads rebuilding the statistics of tables that changed */
+    private static final ExecutorService refresher = Executors
+            .newSingleThreadExecutor(daemonThreads("simpledb-stats-refresh-"));
+
+    /** the threads scanning ranges of pages of a table */
+    private static final ExecutorService scanners = Executors
+            .newFixedThreadPool(STATS_THREADS, daemonThreads("simpledb-stats-scan-"));
+
     int ioCostPerPage;
     int tableid;
-    HeapFile hf;
-    HeapFileIterator hfi;
-    
+    DbFile hf;
+
+    /** the statistics of each field, built in a single pass over the table */
+    private int numTuples;
+    private IntHistogram[] intHistograms;
+    private StringHistogram[] stringHistograms;
+    private int[] distinct;
+    private int[] nulls;
+    /** the smallest and largest value of each field, null if it has none */
+    private Field[] mins;
+    private Field[] maxs;
+    /** the pages read to build them, out of all the pages of the table */
+    private int pagesRead;
+    private int pagesTotal;
+    /** the length and modification time of the file of the table then */
+    private long fileLength;
+    private long fileModified;
+    /** the types of the fields, kept to check stored statistics */
+    private int[] types;
+    /** insertions and deletions since the statistics were built */
+    private int modifications = 0;
+    private boolean refreshing = false;
+
+    /** Statistics read from the stats file, for a table not known yet */
+    private TableStats() {
+    }
+
+    /** Use statistics read from the stats file for table tableid */
+    private void bind(int tableid) {
+        this.tableid = tableid;
+        this.hf = Database.getCatalog().getDatabaseFile(tableid);
+        this.ioCostPerPage = IOCOSTPERPAGE;
+    }
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
+     * <p>
+     * A HeapFile with more tuples than the sample size (see
+     * {@link #setSampleSize}) is not read in full: a random sample of its
+     * pages is read, in file order, and the statistics are scaled to the
+     * number of pages of the table. The histograms of int fields are cut
+     * from a reservoir sample of at most {@link #RESERVOIR_SIZE} tuples of
+     * those read, and the distinct values of each field are counted with a
+     * HyperLogLog sketch. When the table is sampled, the number of distinct
+     * values of the whole table is extrapolated from how many values the
+     * reservoir holds only once, with the larger of the Duj1 estimator of
+     * Haas and Stokes, which is accurate on unique and uniform columns, and
+     * the GEE estimator of Charikar et al., which underestimates less on
+     * skewed ones; it is at least the count of the sketch. Pages are sampled
+     * as a whole, so a column whose values are clustered by page gets less
+     * accurate distinct counts. The null counts are scaled like the tuple
+     * count, while the smallest and largest values are those of the pages
+     * read.
      * 
      * @param tableid
      *            The table over which to compute statistics
@@ -83,24 +323,636 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
-    	this.ioCostPerPage = ioCostPerPage;
-    	hf = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
-    	TransactionId tid = new TransactionId();
-    	hfi = (HeapFileIterator) hf.iterator(tid);
+        this.ioCostPerPage = ioCostPerPage;
+        this.tableid = tableid;
+        hf = Database.getCatalog().getDatabaseFile(tableid);
+        File file = fileOf(hf);
+        fileLength = file == null ? -1 : file.length();
+        fileModified = file == null ? -1 : file.lastModified();
+        TupleDesc td = hf.getTupleDesc();
+        int n = td.numFields();
+        intHistograms = new IntHistogram[n];
+        stringHistograms = new StringHistogram[n];
+        distinct = new int[n];
+        nulls = new int[n];
+
+        Collector c = scan(new Random(tableid));
+        long seen = c.seen;
+        numTuples = (int) Math.round(seen * (double) pagesTotal / Math.max(1, pagesRead));
+        mins = c.mins;
+        maxs = c.maxs;
+        int kept = c.kept();
+        for (int i = 0; i < n; i++) {
+            int[] values = c.reservoir[i];
+            Arrays.sort(values, 0, kept);
+            int sampleDistinct = 0;
+            int singletons = 0;
+            for (int j = 0; j < kept; j++) {
+                if (j == 0 || values[j] != values[j - 1]) {
+                    sampleDistinct++;
+                    if (j + 1 == kept || values[j + 1] != values[j])
+                        singletons++;
+                }
+            }
+            double d = c.sketches[i].estimate();
+            if (isSampled() && kept > 0) {
+                double r = kept;
+                double duj1 = r * sampleDistinct / (r - singletons + singletons * r / numTuples);
+                double gee = Math.sqrt(numTuples / r) * singletons + sampleDistinct - singletons;
+                d = Math.max(d, Math.max(duj1, gee));
+            }
+            distinct[i] = (int) Math.max(Math.min(Math.round(d), numTuples), seen > 0 ? 1 : 0);
+            if (seen > 0)
+                nulls[i] = (int) Math.round(c.nulls[i] * (double) numTuples / seen);
+            if (c.strings[i] != null) {
+                stringHistograms[i] = c.strings[i];
+                if (seen > 0)
+                    stringHistograms[i].scale((double) numTuples / seen);
+                continue;
+            }
+            intHistograms[i] = IntHistogram.fromSorted(NUM_HIST_BINS, values, kept, false);
+            if (intHistograms[i].isSkewed())
+                intHistograms[i] = IntHistogram.fromSorted(NUM_HIST_BINS, values, kept, true);
+            if (kept > 0)
+                intHistograms[i].scale((double) numTuples / kept, (double) distinct[i] / sampleDistinct);
+        }
+    }
+
+    /**
+     * Set the number of tuples read to build the statistics of a large
+     * table; HeapFiles that hold more are sampled. Use Integer.MAX_VALUE to
+     * read every table in full.
+     */
+    public static void setSampleSize(int tuples) {
+        sampleSize = tuples;
+    }
+
+    /** @return the file a table is stored in, or null if not known */
+    private static File fileOf(DbFile f) {
+        if (f instanceof HeapFile)
+            return ((HeapFile) f).getFile();
+        if (f instanceof BTreeFile)
+            return ((BTreeFile) f).getFile();
+        if (f instanceof ColumnFile)
+            return ((ColumnFile) f).getFile();
+        return null;
+    }
+
+    /**
+     * @return the types of the fields of td, which must be those of the
+     *         table for stored statistics to be used
+     */
+    private static int[] typesOf(TupleDesc td) {
+        int[] types = new int[td.numFields()];
+        for (int i = 0; i < types.length; i++)
+            types[i] = td.getFieldType(i).ordinal();
+        return types;
+    }
+
+    /**
+     * @return true if these statistics were built from table f as it is
+     *         now: its file has the same length and modification time
+     */
+    private boolean describes(DbFile f) {
+        File file = fileOf(f);
+        return file != null && file.length() == fileLength && file.lastModified() == fileModified
+                && intHistograms.length == f.getTupleDesc().numFields()
+                && Arrays.equals(typesOf(f.getTupleDesc()), types);
+    }
+
+    /**
+     * Gather the tuples of the table, or of a sample of its pages if it is
+     * a HeapFile with more than sampleSize tuples, setting pagesRead and
+     * pagesTotal. The pages of a HeapFile are split into ranges scanned in
+     * parallel, and read from disk without locks, and so without going
+     * through the BufferPool: the BufferPool does not write pages of running
+     * transactions to disk, so they hold the committed tuples, and a scan
+     * started in the background must not wait for or abort the transactions
+     * updating the table.
+     */
+    private Collector scan(Random random) {
+        final TupleDesc td = hf.getTupleDesc();
+        types = typesOf(td);
+        if (!(hf instanceof HeapFile)) {
+            pagesTotal = pagesRead = 1;
+            Collector c = new Collector(td, random);
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = hf.iterator(tid);
+            try {
+                it.open();
+                while (it.hasNext())
+                    c.add(it.next());
+                it.close();
+                Database.getBufferPool().transactionComplete(tid);
+            } catch (DbException e) {
+                throw new RuntimeException("failed to scan table " + tableid, e);
+            } catch (TransactionAbortedException e) {
+                throw new RuntimeException("failed to scan table " + tableid, e);
+            } catch (IOException e) {
+                throw new RuntimeException("failed to scan table " + tableid, e);
+            }
+            return c;
+        }
+
+        final HeapFile f = (HeapFile) hf;
+        int pages = f.numPages();
+        int tuplesPerPage = Math.max(1, (int) Math.floor(BufferPool.getPageSize() * 8.0
+                / (td.getFixedSize() * 8 + 1)));
+        long wanted = ((long) sampleSize + tuplesPerPage - 1) / tuplesPerPage;
+        pagesTotal = pages;
+        pagesRead = (int) Math.min(pages, wanted);
+        // selection sampling: page p is picked with probability
+        // (pages still to pick) / (pages left), giving pagesRead pages in
+        // file order
+        final int[] pgNos = new int[pagesRead];
+        for (int p = 0, picked = 0; picked < pagesRead; p++) {
+            if (pagesRead == pages || random.nextInt(pages - p) < pagesRead - picked)
+                pgNos[picked++] = p;
+        }
+
+        int parts = Math.max(1, Math.min(STATS_THREADS, pgNos.length / MIN_PAGES_PER_SCAN));
+        ArrayList<Future<Collector>> ranges = new ArrayList<Future<Collector>>();
+        for (int part = 0; part < parts; part++) {
+            final int from = (int) ((long) pgNos.length * part / parts);
+            final int to = (int) ((long) pgNos.length * (part + 1) / parts);
+            final Random r = new Random(random.nextLong());
+            Callable<Collector> range = new Callable<Collector>() {
+                public Collector call() {
+                    Collector c = new Collector(td, r);
+                    for (int i = from; i < to; i++) {
+                        HeapPage page = (HeapPage) f.readPage(new HeapPageId(tableid, pgNos[i]));
+                        Iterator<Tuple> it = page.iterator();
+                        while (it.hasNext())
+                            c.add(it.next());
+                    }
+                    return c;
+                }
+            };
+            if (parts == 1) {
+                FutureTask<Collector> task = new FutureTask<Collector>(range);
+                task.run();
+                ranges.add(task);
+            } else {
+                ranges.add(scanners.submit(range));
+            }
+        }
+        try {
+            Collector c = ranges.get(0).get();
+            for (int part = 1; part < parts; part++)
+                c.merge(ranges.get(part).get());
+            return c;
+        } catch (InterruptedException e) {
+            throw new RuntimeException("interrupted while scanning table " + tableid, e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("failed to scan table " + tableid, e.getCause());
+        }
+    }
+
+    /**
+     * The statistics gathered from some of the tuples of a table: their
+     * number, a reservoir sample of at most RESERVOIR_SIZE of them, keeping
+     * the values of int fields and the hash codes of strings, a HyperLogLog
+     * sketch of each field, the histograms of string fields and the null
+     * count and smallest and largest value of each field.
+     */
+    private static class Collector {
+        int[][] reservoir;
+        final HyperLogLog[] sketches;
+        final StringHistogram[] strings;
+        final int[] nulls;
+        final Field[] mins;
+        final Field[] maxs;
+        final Random random;
+        long seen = 0;
+
+        Collector(TupleDesc td, Random random) {
+            int n = td.numFields();
+            this.random = random;
+            reservoir = new int[n][RESERVOIR_SIZE];
+            sketches = new HyperLogLog[n];
+            strings = new StringHistogram[n];
+            nulls = new int[n];
+            mins = new Field[n];
+            maxs = new Field[n];
+            for (int i = 0; i < n; i++) {
+                sketches[i] = new HyperLogLog();
+                if (td.getFieldType(i) == Type.STRING_TYPE)
+                    strings[i] = new StringHistogram(NUM_HIST_BINS);
+            }
+        }
+
+        /** @return the number of tuples in the reservoir */
+        int kept() {
+            return (int) Math.min(seen, RESERVOIR_SIZE);
+        }
+
+        void add(Tuple t) {
+            int slot = -1;
+            if (seen < RESERVOIR_SIZE) {
+                slot = (int) seen;
+            } else {
+                long j = (long) (random.nextDouble() * (seen + 1));
+                if (j < RESERVOIR_SIZE)
+                    slot = (int) j;
+            }
+            for (int i = 0; i < reservoir.length; i++) {
+                Field f = t.getField(i);
+                if (f == null) {
+                    nulls[i]++;
+                    continue;
+                }
+                mins[i] = smaller(mins[i], f);
+                maxs[i] = larger(maxs[i], f);
+                int v;
+                if (strings[i] == null) {
+                    v = ((IntField) f).getValue();
+                    sketches[i].addInt(v);
+                } else {
+                    String s = ((StringField) f).getValue();
+                    sketches[i].addString(s);
+                    strings[i].addValue(s);
+                    v = s.hashCode();
+                }
+                if (slot >= 0)
+                    reservoir[i][slot] = v;
+            }
+            seen++;
+        }
+
+        /**
+         * Add the tuples gathered by other. Each tuple of the merged
+         * reservoir is taken from either reservoir with a probability
+         * proportional to the number of tuples not taken yet that it
+         * stands for, so that it is a sample of the tuples of both.
+         */
+        void merge(Collector other) {
+            int n = reservoir.length;
+            int k = (int) Math.min(seen + other.seen, RESERVOIR_SIZE);
+            int[][] merged = new int[n][RESERVOIR_SIZE];
+            long leftA = seen, leftB = other.seen;
+            int sizeA = kept(), sizeB = other.kept();
+            for (int slot = 0; slot < k; slot++) {
+                boolean fromA = random.nextDouble() * (leftA + leftB) < leftA;
+                int[][] source = fromA ? reservoir : other.reservoir;
+                int size = fromA ? sizeA-- : sizeB--;
+                int j = random.nextInt(size);
+                for (int i = 0; i < n; i++) {
+                    merged[i][slot] = source[i][j];
+                    // the last tuple not taken yet takes the place of j
+                    source[i][j] = source[i][size - 1];
+                }
+                if (fromA)
+                    leftA--;
+                else
+                    leftB--;
+            }
+            reservoir = merged;
+            seen += other.seen;
+            for (int i = 0; i < n; i++) {
+                sketches[i].merge(other.sketches[i]);
+                if (strings[i] != null)
+                    strings[i].merge(other.strings[i]);
+                nulls[i] += other.nulls[i];
+                mins[i] = smaller(mins[i], other.mins[i]);
+                maxs[i] = larger(maxs[i], other.maxs[i]);
+            }
+        }
+    }
+
+    /** @return the smaller of a and b, ignoring nulls */
+    private static Field smaller(Field a, Field b) {
+        return a == null || b != null && b.compare(Predicate.Op.LESS_THAN, a) ? b : a;
+    }
+
+    /** @return the larger of a and b, ignoring nulls */
+    private static Field larger(Field a, Field b) {
+        return a == null || b != null && b.compare(Predicate.Op.GREATER_THAN, a) ? b : a;
+    }
+
+    /**
+     * Write the statistics of the tables to the stats file: a magic number
+     * and the number of tables, followed for each table by its name, the
+     * length and modification time of its file, the types of its fields,
+     * its tuple count, the pages read out of its pages, the insertions and
+     * deletions since they were built, its distinct counts, null counts,
+     * smallest and largest values and its histograms, all written with an
+     * ObjectOutputStream. Statistics of tables of the catalog that were
+     * stored before and not loaded since are kept. The statistics of a
+     * modified table are stored with the length and modification time of
+     * its file as of the last page the BufferPool wrote to it (see
+     * {@link #tableWritten}), so they are used after a restart and their
+     * modifications counted towards a refresh.
+     */
+    static synchronized void save(File statsFile) {
+        if (statsFile == null)
+            return;
+        Catalog catalog = Database.getCatalog();
+        HashMap<String, TableStats> all = new HashMap<String, TableStats>();
+        for (Map.Entry<String, TableStats> e : persisted(statsFile).entrySet()) {
+            try {
+                catalog.getTableId(e.getKey());
+                all.put(e.getKey(), e.getValue());
+            } catch (NoSuchElementException ex) {
+                // the table was dropped
+            }
+        }
+        for (Map.Entry<String, TableStats> e : getStatsMap().entrySet()) {
+            TableStats s = e.getValue();
+            if (s.fileLength >= 0 && s.isOf(e.getKey()))
+                all.put(e.getKey(), s);
+        }
+        persisted.putAll(all);
+        ArrayList<String> names = new ArrayList<String>(all.keySet());
+        ArrayList<TableStats> stats = new ArrayList<TableStats>();
+        for (String name : names)
+            stats.add(all.get(name));
+        File tmp = new File(statsFile.getPath() + ".tmp");
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(stats.size());
+                for (int i = 0; i < stats.size(); i++) {
+                    TableStats s = stats.get(i);
+                    synchronized (s) {
+                        out.writeUTF(names.get(i));
+                        out.writeLong(s.fileLength);
+                        out.writeLong(s.fileModified);
+                        out.writeObject(s.types);
+                        out.writeInt(s.numTuples);
+                        out.writeInt(s.pagesRead);
+                        out.writeInt(s.pagesTotal);
+                        out.writeInt(s.modifications);
+                        out.writeObject(s.distinct);
+                        out.writeObject(s.nulls);
+                        out.writeObject(s.mins);
+                        out.writeObject(s.maxs);
+                        out.writeObject(s.intHistograms);
+                        out.writeObject(s.stringHistograms);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (!statsFile.delete() && statsFile.exists() || !tmp.renameTo(statsFile))
+                throw new IOException("cannot replace " + statsFile);
+        } catch (IOException e) {
+            System.out.println("Failed to write table stats to " + statsFile + ": " + e.getMessage());
+            tmp.delete();
+        }
+    }
+
+    /**
+     * @return the statistics stored in the stats file by table name, not
+     *         bound to their table yet; none if the file is missing or
+     *         cannot be read
+     */
+    private static Map<String, TableStats> load(File statsFile) {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        if (statsFile == null || !statsFile.exists())
+            return stats;
+        try {
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(statsFile)));
+            try {
+                if (in.readInt() != MAGIC)
+                    throw new IOException("not a stats file");
+                int n = in.readInt();
+                for (int i = 0; i < n; i++) {
+                    TableStats s = new TableStats();
+                    String name = in.readUTF();
+                    s.fileLength = in.readLong();
+                    s.fileModified = in.readLong();
+                    s.types = (int[]) in.readObject();
+                    s.numTuples = in.readInt();
+                    s.pagesRead = in.readInt();
+                    s.pagesTotal = in.readInt();
+                    s.modifications = in.readInt();
+                    s.distinct = (int[]) in.readObject();
+                    s.nulls = (int[]) in.readObject();
+                    s.mins = (Field[]) in.readObject();
+                    s.maxs = (Field[]) in.readObject();
+                    s.intHistograms = (IntHistogram[]) in.readObject();
+                    s.stringHistograms = (StringHistogram[]) in.readObject();
+                    stats.put(name, s);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            // the statistics are computed again
+            System.out.println("Ignoring table stats in " + statsFile + ": " + e);
+            stats.clear();
+        }
+        return stats;
+    }
+
+    /**
+     * Update the statistics of a table after tuple t was inserted into it;
+     * called by the BufferPool.
+     */
+    static void tupleInserted(int tableid, Tuple t) {
+        TableStats s = statsOf(tableid);
+        if (s != null)
+            s.update(t, true);
+    }
+
+    /**
+     * Update the statistics of a table after tuple t was deleted from it;
+     * called by the BufferPool.
+     */
+    static void tupleDeleted(int tableid, Tuple t) {
+        TableStats s = statsOf(tableid);
+        if (s != null)
+            s.update(t, false);
+    }
+
+    /**
+     * Take the length and modification time of the file of a table as
+     * those the statistics describe, after the BufferPool wrote one of its
+     * pages: the insertions and deletions that changed the file were
+     * counted. The stats file is then rewritten in the background, so that
+     * the statistics are used after a restart.
+     */
+    static void tableWritten(int tableid) {
+        TableStats s = statsOf(tableid);
+        if (s == null)
+            return;
+        File file = fileOf(s.hf);
+        if (file == null)
+            return;
+        synchronized (s) {
+            if (file.length() == s.fileLength && file.lastModified() == s.fileModified)
+                return;
+            s.fileLength = file.length();
+            s.fileModified = file.lastModified();
+        }
+        // the BufferPool is locked here, so the file is written by another thread
+        if (savePending.compareAndSet(false, true)) {
+            refresher.execute(new Runnable() {
+                public void run() {
+                    savePending.set(false);
+                    save(Database.getCatalog().getStatsFile());
+                }
+            });
+        }
+    }
+
+    /** true while a save of the stats file scheduled by tableWritten has not started */
+    private static final AtomicBoolean savePending = new AtomicBoolean();
+
+    /**
+     * Wait until the statistics being rebuilt or saved in the background
+     * are done; used by tests.
+     */
+    static void awaitBackgroundWork() throws InterruptedException, ExecutionException {
+        refresher.submit(new Runnable() {
+            public void run() {
+            }
+        }).get();
+    }
+
+    private static TableStats statsOf(int tableid) {
+        String name;
+        try {
+            name = Database.getCatalog().getTableName(tableid);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        // statistics not in memory are left alone: building them here would
+        // scan the table as another transaction, which waits for the locks
+        // of the one modifying it. The optimizer loads them when it needs
+        // them, and the stats file is checked against the table then.
+        TableStats s = name == null ? null : statsMap.get(name);
+        return s != null && s.tableid == tableid ? s : null;
+    }
+
+    /**
+     * Add t to the tuple count and histograms, or remove it from them.
+     * Distinct counts are not maintained this way; they are corrected
+     * when the statistics are rebuilt, which is scheduled once the table
+     * has seen enough modifications. The updates of transactions that
+     * abort are not undone, which the rebuild corrects as well.
+     */
+    private synchronized void update(Tuple t, boolean insert) {
+        numTuples += insert ? 1 : -1;
+        if (numTuples < 0)
+            numTuples = 0;
+        for (int i = 0; i < intHistograms.length; i++) {
+            Field f = t.getField(i);
+            if (f == null) {
+                nulls[i] = Math.max(0, nulls[i] + (insert ? 1 : -1));
+                continue;
+            }
+            if (insert) {
+                mins[i] = smaller(mins[i], f);
+                maxs[i] = larger(maxs[i], f);
+            }
+            if (intHistograms[i] != null) {
+                int v = ((IntField) f).getValue();
+                if (insert)
+                    intHistograms[i].addValue(v);
+                else
+                    intHistograms[i].removeValue(v);
+            } else if (insert) {
+                stringHistograms[i].addValue(((StringField) f).getValue());
+            } else {
+                stringHistograms[i].removeValue(((StringField) f).getValue());
+            }
+        }
+        modifications++;
+        refreshIfStale();
+    }
+
+    /** @return true if the table has seen enough modifications for these statistics to be rebuilt */
+    public synchronized boolean isStale() {
+        return modifications >= Math.max(REFRESH_MODIFICATIONS, REFRESH_FRACTION * numTuples);
+    }
+
+    /** Rebuild the statistics in the background if they are stale */
+    private synchronized void refreshIfStale() {
+        if (!refreshing && isStale()) {
+            refreshing = true;
+            refresher.execute(new Runnable() {
+                public void run() {
+                    refresh();
+                }
+            });
+        }
+    }
+
+    /**
+     * Rebuild the statistics of the table, replace these with them and
+     * store them in the stats file
+     */
+    private void refresh() {
+        try {
+            TableStats fresh = new TableStats(tableid, ioCostPerPage);
+            String name = Database.getCatalog().getTableName(tableid);
+            if (getTableStats(name) == this) {
+                setTableStats(name, fresh);
+                save(Database.getCatalog().getStatsFile());
+            }
+        } catch (RuntimeException e) {
+            // the table was dropped or could not be read; try again later
+            synchronized (this) {
+                modifications = 0;
+                refreshing = false;
+            }
+        }
+    }
+
+    /** @return the number of insertions and deletions since these were built */
+    public synchronized int modifications() {
+        return modifications;
+    }
+
+    /**
+     * @return true if the statistics were built from a sample of the pages
+     *         of the table
+     */
+    public boolean isSampled() {
+        return pagesRead < pagesTotal;
+    }
+
+    /**
+     * @return the estimated number of distinct values of field when the
+     *         statistics were built
+     */
+    public synchronized int numDistinct(int field) {
+        return distinct[field];
+    }
+
+    /** @return the estimated number of tuples whose field is null */
+    public synchronized int numNulls(int field) {
+        return nulls[field];
+    }
+
+    /**
+     * @return the smallest value of field, or null if it has none; values
+     *         deleted since the statistics were built are not taken out
+     */
+    public synchronized Field min(int field) {
+        return mins[field];
+    }
+
+    /**
+     * @return the largest value of field, or null if it has none; values
+     *         deleted since the statistics were built are not taken out
+     */
+    public synchronized Field max(int field) {
+        return maxs[field];
+    }
+
+    /** @return the number of pages of the table when the statistics were built */
+    public int numPages() {
+        return pagesTotal;
     }
 
     /**
      * Estimates the cost of sequentially scanning the file, given that the cost
-     * to read a page is costPerPageIO. You can assume that there are no seeks
-     * and that no pages are in the buffer pool.
+     * to read a page is costPerPageIO, or {@link CostModel#CACHED_PAGE} for
+     * the pages of the table in the buffer pool. You can assume that there
+     * are no seeks.
      * 
      * Also, assume that your hard drive can only read entire pages at once, so
      * if the last page of the table only has one tuple on it, it's just as
@@ -110,7 +962,47 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        return hf.numPages() * ioCostPerPage;
+        int pages = numPages(hf);
+        int cached = Math.min(pages, Database.getBufferPool().numCachedPages(hf.getId()));
+        return (pages - cached) * ioCostPerPage + cached * CostModel.CACHED_PAGE;
+    }
+
+    /**
+     * @return the number of pages of a table stored in a HeapFile, a
+     *         BTreeFile or a ColumnFile
+     */
+    static int numPages(DbFile f) {
+        if (f instanceof BTreeFile)
+            return ((BTreeFile) f).numPages();
+        if (f instanceof ColumnFile)
+            return ((ColumnFile) f).numPages();
+        return ((HeapFile) f).numPages();
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy
+     * <tt>field op constant</tt> through an index scan, using either the
+     * BTreeFile the table is stored in or a secondary index on field. Pages
+     * cost as much as they do in a sequential scan: as many of those read
+     * are assumed to be in the buffer pool as of the whole table.
+     *
+     * @return the estimated cost, or Double.POSITIVE_INFINITY if there is no
+     *         index on field or op cannot use it
+     * @see IndexScan
+     */
+    public double estimateIndexScanCost(int field, Predicate.Op op, Field constant) {
+        if (!BTreeFile.isIndexable(op))
+            return Double.POSITIVE_INFINITY;
+        int pages = numPages(hf);
+        double pageCost = pages == 0 ? ioCostPerPage : estimateScanCost() / pages;
+        if (hf instanceof BTreeFile && ((BTreeFile) hf).keyField() == field)
+            return ((BTreeFile) hf).estimateIndexScanCost(
+                    estimateSelectivity(field, op, constant), pageCost);
+        SecondaryIndex index = Database.getCatalog().getIndex(hf.getId(), field);
+        if (index == null)
+            return Double.POSITIVE_INFINITY;
+        return index.estimateIndexScanCost(estimateSelectivity(field, op, constant),
+                totalTuples(), pages, pageCost);
     }
 
     /**
@@ -155,119 +1047,19 @@ public class TableStats {
      * @return The estimated selectivity (fraction of tuples that satisfy) the
      *         predicate
      */
-    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-        Type type = hf.tupleDesc.getFieldType(field);
-    	if (type.equals(Type.INT_TYPE)) {
-    		IntHistogram intHistogram = initializeIntHistogram(field);
-    		return intHistogram.estimateSelectivity(op, ((IntField)constant).getValue());
-    	} else if (type.equals(Type.STRING_TYPE)) {
-    		StringHistogram strHistogram = initializeStringHistogram(field);
-    		return strHistogram.estimateSelectivity(op, ((StringField)constant).getValue());
-    	}
-    	
-    	throw new IllegalArgumentException("Unsupported field type");
+    public synchronized double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+        if (intHistograms[field] != null)
+            return intHistograms[field].estimateSelectivity(op, ((IntField) constant).getValue());
+        if (stringHistograms[field] != null)
+            return stringHistograms[field].estimateSelectivity(op, ((StringField) constant).getValue());
+        throw new IllegalArgumentException("Unsupported field type");
     }
-    
-    
-    /**
-     * initialize the histogram
-     * @param field the index of the field that we want to put in the histogram
-     * @return the String histogram
-     */
-    private StringHistogram initializeStringHistogram(int field) {
-    	try {
-    		StringHistogram strHist = new StringHistogram(NUM_HIST_BINS);
-			hfi.open();
-			while(hfi.hasNext()) {
-	    		Tuple t = hfi.next();
-	    		StringField sf = (StringField) t.getField(field);
-	    		strHist.addValue(sf.getValue());
-	    	}
-			hfi.rewind();
-			hfi.close();
-			
-			return strHist;
-		} catch (DbException e) {
-			e.printStackTrace();
-		} catch (TransactionAbortedException e) {
-			e.printStackTrace();
-		}
-    	
-    	return null;
-    }
-    
-    
-    /**
-     * initialize the histogram
-     * @param field the index of the field that we want to put in the histogram
-     * @return the int histogram
-     */
-    private IntHistogram initializeIntHistogram(int field) {
-    	try {
-			hfi.open();
-			int max = Integer.MIN_VALUE;
-			int min = Integer.MAX_VALUE;
-			
-			while (hfi.hasNext()) {
-				Tuple t = hfi.next();
-				int v = ((IntField) (t.getField(field))).getValue();
-				if (v > max) {
-					max = v;
-				}
-				if (v < min) {
-					min = v;
-				}
-			}
-			
-			IntHistogram intHist = new IntHistogram(NUM_HIST_BINS, min, max);
-			
-			hfi.rewind();
-			//add all values in to the int histogram
-			while (hfi.hasNext()) {
-				intHist.addValue(((IntField) (hfi.next().getField(field))).getValue());
-			}
-			
-			hfi.rewind();// in case that hfi will be used in the future
-			hfi.close();
-			
-			return intHist;
-			
-			
-		} catch (DbException e) {
-			e.printStackTrace();
-		} catch (TransactionAbortedException e) {
-			e.printStackTrace();
-		}
-    	
-    	return null;
-    }
-    
+
     /**
      * return the total number of tuples in this table
      * */
-    public int totalTuples() {
-    	try {
-			hfi.open();
-		} catch (DbException e1) {
-			e1.printStackTrace();
-		} catch (TransactionAbortedException e1) {
-			e1.printStackTrace();
-		}
-    	int total = 0;
-    	try {
-			while (hfi.hasNext()) {
-				hfi.next();
-				total++;
-			}
-			hfi.rewind();
-		} catch (NoSuchElementException | DbException
-				| TransactionAbortedException e) {
-			e.printStackTrace();
-		}
-    	
-    	hfi.close();
-    	
-        return total;
+    public synchronized int totalTuples() {
+        return numTuples;
     }
 
 }
@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN implements ORDER BY ... LIMIT k. Instead of sorting its whole input it
+ * keeps a bounded heap of the best k tuples seen so far, so it needs memory
+ * for only k tuples. If the child already produces tuples in the requested
+ * order (or no order is requested at all, i.e. a plain LIMIT), TopN simply
+ * returns the first k tuples and stops pulling from the child. Scans of a
+ * BTreeFile and index scans return their tuples in ascending key order, so
+ * ORDER BY key ASC LIMIT k over a single such table reads only k tuples.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Value of the order by field when only a LIMIT is applied */
+    public static final int NO_ORDER = -1;
+
+    private DbIterator child;
+    private final int orderByField;
+    private final boolean asc;
+    private final int limit;
+    private transient ArrayList<Tuple> topTuples;
+    private transient Iterator<Tuple> it;
+    private int returned;
+
+    /**
+     * Creates a new TopN node that returns the first limit tuples of child in
+     * the specified order.
+     *
+     * @param orderbyField
+     *            the field to order by, or {@link #NO_ORDER}
+     * @param asc
+     *            true if the order is ascending
+     * @param limit
+     *            the maximum number of tuples to return
+     * @param child
+     *            the tuples to pick from
+     */
+    public TopN(int orderbyField, boolean asc, int limit, DbIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.child = child;
+        this.orderByField = orderbyField;
+        this.asc = asc;
+        this.limit = limit;
+    }
+
+    /**
+     * Creates a new TopN node that returns at most limit tuples of child in the
+     * order child produces them.
+     */
+    public TopN(int limit, DbIterator child) {
+        this(NO_ORDER, true, limit, child);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOrderByField() {
+        return orderByField;
+    }
+
+    public boolean isASC() {
+        return asc;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    /**
+     * @return true if iter is known to produce its tuples ordered on field in
+     *         the specified direction
+     */
+    static boolean isOrderedBy(DbIterator iter, int field, boolean asc) {
+        if (field == NO_ORDER)
+            return true;
+        if (iter instanceof OrderBy) {
+            OrderBy o = (OrderBy) iter;
+            return o.getOrderByField() == field && o.isASC() == asc;
+        }
+        if (iter instanceof TopN) {
+            TopN t = (TopN) iter;
+            return t.getOrderByField() != NO_ORDER && t.getOrderByField() == field && t.isASC() == asc;
+        }
+        // filters and projections keep the order of their child
+        if (iter instanceof Filter)
+            return isOrderedBy(((Filter) iter).getChildren()[0], field, asc);
+        if (iter instanceof Project) {
+            Project p = (Project) iter;
+            return isOrderedBy(p.getChildren()[0], p.getFieldList().get(field), asc);
+        }
+        if (iter instanceof IndexScan)
+            return asc && ((IndexScan) iter).getKeyField() == field;
+        if (iter instanceof SeqScan) {
+            DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) iter).getTableId());
+            return asc && f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+        }
+        return false;
+    }
+
+    /** @return true if this node can stream the first tuples of its child */
+    public boolean isStreaming() {
+        return isOrderedBy(child, orderByField, asc);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        returned = 0;
+        if (!isStreaming()) {
+            collectTopTuples();
+            it = topTuples.iterator();
+        }
+        super.open();
+    }
+
+    /**
+     * Read the whole child, keeping the best limit tuples in a heap whose root
+     * is the worst tuple kept so far.
+     */
+    private void collectTopTuples() throws DbException, TransactionAbortedException {
+        topTuples = new ArrayList<Tuple>();
+        if (limit == 0)
+            return;
+        TupleComparator cmp = TupleComparator.create(
+                child.getTupleDesc().getFieldType(orderByField), orderByField, asc);
+        PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(limit, Collections.reverseOrder(cmp));
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < limit) {
+                heap.add(t);
+            } else if (cmp.compare(t, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(t);
+            }
+        }
+        topTuples.addAll(heap);
+        Collections.sort(topTuples, cmp);
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        topTuples = null;
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        returned = 0;
+        if (topTuples != null) {
+            it = topTuples.iterator();
+        } else {
+            child.rewind();
+        }
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the next of the top tuples, or
+     * null once limit tuples have been returned.
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (returned >= limit)
+            return null;
+        Tuple next = null;
+        if (it != null) {
+            if (it.hasNext())
+                next = it.next();
+        } else if (child.hasNext()) {
+            next = child.next();
+        }
+        if (next != null)
+            returned++;
+        return next;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -1,8 +1,12 @@
 package simpledb;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-
+import java.util.Arrays;
 import java.util.Iterator;
 
 
@@ -10,24 +14,51 @@ import java.util.Iterator;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The values are stored in a flat int array laid out from the TupleDesc: the
+ * value of each int field, or the offset of each string field into a byte
+ * area, followed by one bit per field that is set. Strings are stored in the
+ * byte area as a length followed by their UTF-8 bytes; tuples derived from
+ * another one (see {@link #project} and {@link #merge}) share its byte area
+ * and copy it only when they are modified. Use the typed accessors
+ * {@link #getInt} and {@link #getString} to read values without creating
+ * Field objects; {@link #getField} remains available and creates the Field
+ * the first time it is asked for.
+ * <p>
+ * Operators may keep a single Tuple and refill it for every row with
+ * {@link #clear} and the setters, as long as the row does not leave the
+ * operator.
  */
 public class Tuple implements Serializable {
 	TupleDesc tupleDesc;
 	RecordId recordId;
-	
-	ArrayList<Field> fieldsList = new ArrayList<Field>();
-	
+
+	private int numFields;
+	/** values of int fields and offsets of string fields, then the set bits */
+	private int[] data;
+	/** the strings of this tuple; see bytesShared */
+	private byte[] bytes;
+	private int bytesEnd;
+	/** true if bytes may be referenced by another tuple and must be copied before writing */
+	private boolean bytesShared;
+	/** the Field objects handed out by getField, created on demand */
+	private transient Field[] view;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
     private static final long serialVersionUID = 1L;
 
     /**
      * Create a new tuple with the specified schema (type).
-     * 
+     *
      * @param td
      *            the schema of this tuple. It must be a valid TupleDesc
      *            instance with at least one field.
      */
     public Tuple(TupleDesc td) {
        tupleDesc = td;
+       numFields = td.numFields();
+       data = new int[numFields + ((numFields + 31) >>> 5)];
     }
 
     /**
@@ -47,7 +78,7 @@ public class Tuple implements Serializable {
 
     /**
      * Set the RecordId information for this tuple.
-     * 
+     *
      * @param rid
      *            the new RecordId for this tuple.
      */
@@ -55,83 +86,512 @@ public class Tuple implements Serializable {
     	recordId = rid;
     }
 
+    private Type type(int i) {
+    	if (i < 0 || i >= numFields)
+    		throw new IndexOutOfBoundsException("no field " + i);
+    	return tupleDesc.getTypes()[i];
+    }
+
+    private void checkType(int i, Type t) {
+    	if (type(i) != t)
+    		throw new IllegalArgumentException("Incorrect type");
+    }
+
+    private void markSet(int i) {
+    	data[numFields + (i >>> 5)] |= 1 << i;
+    }
+
+    private void markNull(int i) {
+    	data[numFields + (i >>> 5)] &= ~(1 << i);
+    	if (view != null)
+    		view[i] = null;
+    }
+
+    /**
+     * @return true if the ith field has not been set
+     */
+    public boolean isNull(int i) {
+    	return (data[numFields + (i >>> 5)] & (1 << i)) == 0;
+    }
+
+    /**
+     * @return the value of the ith field, which must be an int field; 0 if
+     *         it has not been set
+     */
+    public int getInt(int i) {
+    	checkType(i, Type.INT_TYPE);
+    	return data[i];
+    }
+
+    /**
+     * Change the value of the ith field, which must be an int field.
+     */
+    public void setInt(int i, int v) {
+    	checkType(i, Type.INT_TYPE);
+    	data[i] = v;
+    	markSet(i);
+    	if (view != null)
+    		view[i] = null;
+    }
+
+    /**
+     * @return the value of the ith field, which must be a string field, or
+     *         null if it has not been set
+     */
+    public String getString(int i) {
+    	checkType(i, Type.STRING_TYPE);
+    	if (isNull(i))
+    		return null;
+    	int off = data[i];
+    	return new String(bytes, off + 4, stringLength(off), UTF8);
+    }
+
+    /**
+     * Change the value of the ith field, which must be a string field.
+     * Like StringField, longer strings are cut to Type.STRING_LEN characters.
+     *
+     * @param s
+     *            the new value, or null
+     */
+    public void setString(int i, String s) {
+    	checkType(i, Type.STRING_TYPE);
+    	if (s == null) {
+    		markNull(i);
+    		return;
+    	}
+    	if (s.length() > Type.STRING_LEN)
+    		s = s.substring(0, Type.STRING_LEN);
+    	byte[] b = s.getBytes(UTF8);
+    	appendString(i, b, 0, b.length);
+    	if (view != null)
+    		view[i] = null;
+    }
+
+    private int stringLength(int off) {
+    	return ((bytes[off] & 0xff) << 24) | ((bytes[off + 1] & 0xff) << 16)
+    			| ((bytes[off + 2] & 0xff) << 8) | (bytes[off + 3] & 0xff);
+    }
+
+    /** Make room for len more bytes at the end of a private byte area. */
+    private void reserve(int len) {
+    	if (bytes == null) {
+    		bytes = new byte[Math.max(len, 64)];
+    	} else if (bytesShared || bytesEnd + len > bytes.length) {
+    		bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, bytesEnd + len));
+    		bytesShared = false;
+    	}
+    }
+
+    /** Store a string given as UTF-8 bytes as the value of the ith field. */
+    private void appendString(int i, byte[] src, int off, int len) {
+    	reserve(len + 4);
+    	int p = bytesEnd;
+    	bytes[p] = (byte) (len >>> 24);
+    	bytes[p + 1] = (byte) (len >>> 16);
+    	bytes[p + 2] = (byte) (len >>> 8);
+    	bytes[p + 3] = (byte) len;
+    	System.arraycopy(src, off, bytes, p + 4, len);
+    	bytesEnd = p + 4 + len;
+    	data[i] = p;
+    	markSet(i);
+    }
+
+    /**
+     * @return the length in bytes of the UTF-8 encoding of the ith field,
+     *         which must be a string field that is set
+     */
+    int utf8Length(int i) {
+    	checkType(i, Type.STRING_TYPE);
+    	return stringLength(data[i]);
+    }
+
+    /**
+     * Copy the UTF-8 encoding of the ith field, which must be a string field
+     * that is set, into b at offset off.
+     */
+    void getUtf8(int i, byte[] b, int off) {
+    	int p = data[i];
+    	System.arraycopy(bytes, p + 4, b, off, stringLength(p));
+    }
+
+    /**
+     * Change the value of the ith field, which must be a string field, to
+     * the string encoded in UTF-8 in len bytes of b at offset off.
+     */
+    void setUtf8(int i, byte[] b, int off, int len) {
+    	checkType(i, Type.STRING_TYPE);
+    	appendString(i, b, off, len);
+    	if (view != null)
+    		view[i] = null;
+    }
+
     /**
      * Change the value of the ith field of this tuple.
-     * 
+     *
      * @param i
      *            index of the field to change. It must be a valid index.
      * @param f
-     *            new value for the field.
+     *            new value for the field, or null to unset it.
      */
     public void setField(int i, Field f) {
+    	if (f == null) {
+    		type(i);
+    		markNull(i);
+    		return;
+    	}
     	//check whether the passed in field could be insert in to index i
     	//throw IllegalArgumentException if not
-    	if (!tupleDesc.descArray.get(i).fieldType.equals(f.getType())) {
+    	if (type(i) != f.getType()) {
     		throw new IllegalArgumentException("Incorrect type");
     	}
-    	fieldsList.add(i, f);
+    	if (f instanceof IntField) {
+    		setInt(i, ((IntField) f).getValue());
+    	} else {
+    		setString(i, ((StringField) f).getValue());
+    	}
+    	// hand out the same object again
+    	if (view == null)
+    		view = new Field[numFields];
+    	view[i] = f;
     }
-    
-    
+
+
     /**
      * @return the value of the ith field, or null if it has not been set.
-     * 
+     *
      * @param i
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
-        return fieldsList.get(i);
+    	Type t = type(i);
+    	if (isNull(i))
+    		return null;
+    	if (view == null)
+    		view = new Field[numFields];
+    	Field f = view[i];
+    	if (f == null) {
+    		if (t == Type.INT_TYPE)
+    			f = new IntField(data[i]);
+    		else
+    			f = new StringField(getString(i), Type.STRING_LEN);
+    		view[i] = f;
+    	}
+    	return f;
+    }
+
+    /**
+     * Set the ith field of this tuple to the value of field j of src, without
+     * creating a Field object. Both fields must have the same type.
+     */
+    public void copyField(int i, Tuple src, int j) {
+    	Type t = type(i);
+    	if (src.type(j) != t)
+    		throw new IllegalArgumentException("Incorrect type");
+    	if (src.isNull(j)) {
+    		markNull(i);
+    		return;
+    	}
+    	if (t == Type.INT_TYPE) {
+    		data[i] = src.data[j];
+    		markSet(i);
+    	} else {
+    		int off = src.data[j];
+    		appendString(i, src.bytes, off + 4, src.stringLength(off));
+    	}
+    	if (view != null)
+    		view[i] = src.view == null ? null : src.view[j];
+    }
+
+    /**
+     * Unset all fields and the RecordId, so that the tuple can be filled
+     * again with the same schema.
+     */
+    public void clear() {
+    	Arrays.fill(data, numFields, data.length, 0);
+    	if (bytesShared) {
+    		bytes = null;
+    		bytesShared = false;
+    	}
+    	bytesEnd = 0;
+    	if (view != null)
+    		Arrays.fill(view, null);
+    	recordId = null;
+    }
+
+    /**
+     * Returns a new tuple with some of the fields of this one. The new tuple
+     * shares the strings of this one.
+     *
+     * @param td
+     *            the schema of the new tuple
+     * @param fields
+     *            for each field of td, the field of this tuple it comes from
+     */
+    public Tuple project(TupleDesc td, int[] fields) {
+    	Tuple t = new Tuple(td);
+    	Type[] types = td.getTypes();
+    	for (int i = 0; i < fields.length; i++) {
+    		int j = fields[i];
+    		if (type(j) != types[i])
+    			throw new IllegalArgumentException("Incorrect type");
+    		if (!isNull(j)) {
+    			t.data[i] = data[j];
+    			t.markSet(i);
+    		}
+    	}
+    	t.shareBytes(this, 0, bytesEnd);
+    	if (view != null) {
+    		t.view = new Field[t.numFields];
+    		for (int i = 0; i < fields.length; i++) {
+    			t.view[i] = view[fields[i]];
+    		}
+    	}
+    	return t;
+    }
+
+    private void shareBytes(Tuple src, int off, int end) {
+    	if (src.bytes == null)
+    		return;
+    	bytes = src.bytes;
+    	bytesEnd = end;
+    	bytesShared = src.bytesShared = true;
+    }
+
+    /**
+     * Returns the concatenation of two tuples, e.g. the result of a join.
+     *
+     * @param td
+     *            the schema of the new tuple: the fields of t1 followed by
+     *            those of t2
+     */
+    public static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+    	Tuple t = new Tuple(td);
+    	int n1 = t1.numFields;
+    	int shift = 0;
+    	if (t1.bytes == null) {
+    		t.shareBytes(t2, 0, t2.bytesEnd);
+    	} else if (t2.bytes == null) {
+    		t.shareBytes(t1, 0, t1.bytesEnd);
+    	} else {
+    		t.bytes = new byte[t1.bytesEnd + t2.bytesEnd];
+    		System.arraycopy(t1.bytes, 0, t.bytes, 0, t1.bytesEnd);
+    		System.arraycopy(t2.bytes, 0, t.bytes, t1.bytesEnd, t2.bytesEnd);
+    		t.bytesEnd = t1.bytesEnd + t2.bytesEnd;
+    		shift = t1.bytesEnd;
+    	}
+    	Type[] types2 = t2.tupleDesc.getTypes();
+    	for (int i = 0; i < n1; i++) {
+    		if (!t1.isNull(i)) {
+    			t.data[i] = t1.data[i];
+    			t.markSet(i);
+    		}
+    	}
+    	for (int i = 0; i < t2.numFields; i++) {
+    		if (!t2.isNull(i)) {
+    			t.data[n1 + i] = types2[i] == Type.STRING_TYPE ? t2.data[i] + shift : t2.data[i];
+    			t.markSet(n1 + i);
+    		}
+    	}
+    	return t;
+    }
+
+    /**
+     * Read the values of all fields in the format written by
+     * {@link Field#serialize}, without creating Field objects.
+     */
+    public void readFields(DataInputStream dis) throws IOException {
+    	for (int i = 0; i < numFields; i++)
+    		readField(dis, i);
+    	if (view != null)
+    		Arrays.fill(view, null);
+    }
+
+    /**
+     * Read the fields written by {@link #writeSetFields}; the fields that
+     * were not set then are not set.
+     */
+    public void readSetFields(DataInputStream dis) throws IOException {
+    	for (int w = numFields; w < data.length; w++)
+    		data[w] = dis.readInt();
+    	for (int i = 0; i < numFields; i++) {
+    		if (!isNull(i))
+    			readField(dis, i);
+    	}
+    	if (view != null)
+    		Arrays.fill(view, null);
+    }
+
+    private void readField(DataInputStream dis, int i) throws IOException {
+    	if (tupleDesc.getTypes()[i] == Type.INT_TYPE) {
+    		data[i] = dis.readInt();
+    		markSet(i);
+    		return;
+    	}
+    	int len = dis.readInt();
+    	if (len < 0 || len > Type.STRING_LEN)
+    		throw new IOException("invalid string length " + len);
+    	reserve(len + 4);
+    	int p = bytesEnd;
+    	dis.readFully(bytes, p + 4, len);
+    	dis.skipBytes(Type.STRING_LEN - len);
+    	if (isAscii(bytes, p + 4, len)) {
+    		appendString(i, bytes, p + 4, len);
+    	} else {
+    		// decode like Type.parse does
+    		setString(i, new String(bytes, p + 4, len));
+    	}
+    }
+
+    /**
+     * Write the values of all fields in the format of
+     * {@link Field#serialize}. Every field must be set.
+     */
+    public void writeFields(DataOutputStream dos) throws IOException {
+    	for (int i = 0; i < numFields; i++) {
+    		if (isNull(i))
+    			throw new IllegalStateException("field " + i + " is not set");
+    		writeField(dos, i);
+    	}
+    }
+
+    /**
+     * Write which fields are set, then the values of those fields in the
+     * format of {@link Field#serialize}. Unlike {@link #writeFields} this
+     * accepts the tuples of a ColumnScan, which leaves the fields it does not
+     * read unset, so operators that spill tuples to disk use it.
+     *
+     * @return the number of bytes written
+     */
+    public int writeSetFields(DataOutputStream dos) throws IOException {
+    	int size = 0;
+    	for (int w = numFields; w < data.length; w++) {
+    		dos.writeInt(data[w]);
+    		size += 4;
+    	}
+    	for (int i = 0; i < numFields; i++) {
+    		if (!isNull(i)) {
+    			writeField(dos, i);
+    			size += tupleDesc.getTypes()[i].getLen();
+    		}
+    	}
+    	return size;
+    }
+
+    private void writeField(DataOutputStream dos, int i) throws IOException {
+    	if (tupleDesc.getTypes()[i] == Type.INT_TYPE) {
+    		dos.writeInt(data[i]);
+    		return;
+    	}
+    	int off = data[i];
+    	int len = stringLength(off);
+    	if (isAscii(bytes, off + 4, len)) {
+    		dos.writeInt(len);
+    		dos.write(bytes, off + 4, len);
+    		for (int k = len; k < Type.STRING_LEN; k++)
+    			dos.write(0);
+    	} else {
+    		getField(i).serialize(dos);
+    	}
+    }
+
+    private static boolean isAscii(byte[] b, int off, int len) {
+    	for (int k = off; k < off + len; k++) {
+    		if (b[k] < 0)
+    			return false;
+    	}
+    	return true;
     }
 
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
-     * 
+     *
      * column1\tcolumn2\tcolumn3\t...\tcolumnN\n
-     * 
+     *
      * where \t is any whitespace, except newline, and \n is a newline
      */
     public String toString() {
-    	String result = "";
-    	result += fieldsList.get(0).toString();
-    	
-    	for (int i = 1; i < fieldsList.size(); i++) {
-    		result += "\t" + fieldsList.get(i).toString();
+    	StringBuilder result = new StringBuilder();
+    	for (int i = 0; i < numFields; i++) {
+    		if (i > 0)
+    			result.append('\t');
+    		if (isNull(i))
+    			result.append("null");
+    		else if (tupleDesc.getTypes()[i] == Type.INT_TYPE)
+    			result.append(data[i]);
+    		else
+    			result.append(getString(i));
     	}
-    	
-    	result += "\n";
-        return result;
+    	result.append('\n');
+        return result.toString();
     }
-    
+
     /**
      * @return
      *        An iterator which iterates over all the fields of this tuple
      * */
     public Iterator<Field> fields() {
-        return fieldsList.iterator();
+    	ArrayList<Field> list = new ArrayList<Field>(numFields);
+    	for (int i = 0; i < numFields; i++) {
+    		list.add(getField(i));
+    	}
+        return list.iterator();
     }
-    
+
     /**
      * reset the TupleDesc of thi tuple
      * */
     public void resetTupleDesc(TupleDesc td) {
+    	if (td.numFields() != numFields)
+    		throw new IllegalArgumentException("the TupleDesc must have " + numFields + " fields");
     	tupleDesc = td;
     }
-    
+
     public boolean equals(Object other) {
-    	if (other instanceof Tuple) {
-    		Tuple otherTuple = (Tuple) other;
-    		ArrayList<Field> otherList = otherTuple.fieldsList;
-    		if (fieldsList.size() != otherList.size()) {
+    	if (!(other instanceof Tuple)) {
+    		return false;
+    	}
+    	Tuple o = (Tuple) other;
+    	if (numFields != o.numFields) {
+    		return false;
+    	}
+    	Type[] types = tupleDesc.getTypes(), otherTypes = o.tupleDesc.getTypes();
+    	for (int i = 0; i < numFields; i++) {
+    		if (isNull(i) != o.isNull(i) || types[i] != otherTypes[i])
     			return false;
-    		}
-    		for (int i = 0; i < fieldsList.size(); i++) {
-    			if (!fieldsList.get(i).equals(otherList.get(i))) {
+    		if (isNull(i))
+    			continue;
+    		if (types[i] == Type.INT_TYPE) {
+    			if (data[i] != o.data[i])
+    				return false;
+    		} else {
+    			int off = data[i], otherOff = o.data[i];
+    			int len = stringLength(off);
+    			if (len != o.stringLength(otherOff))
     				return false;
+    			for (int k = 4; k < len + 4; k++) {
+    				if (bytes[off + k] != o.bytes[otherOff + k])
+    					return false;
     			}
     		}
-    		return true;
     	}
-    	return false;
+    	return true;
+    }
+
+    public int hashCode() {
+    	int h = 1;
+    	Type[] types = tupleDesc.getTypes();
+    	for (int i = 0; i < numFields; i++) {
+    		if (isNull(i)) {
+    			h = 31 * h;
+    		} else if (types[i] == Type.INT_TYPE) {
+    			h = 31 * h + data[i];
+    		} else {
+    			int off = data[i];
+    			for (int k = off + 4; k < off + 4 + stringLength(off); k++)
+    				h = 31 * h + bytes[k];
+    		}
+    	}
+    	return h;
     }
 }
@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * TupleBatch holds up to a fixed number of rows in columnar form: one
+ * {@link ColumnVector} per field, plus a selection bitmap that marks the rows
+ * which are still part of the result. Operators working on batches (see
+ * {@link BatchIterator}) filter rows by clearing their selection bit instead
+ * of copying the surviving rows.
+ * <p>
+ * Batches do not keep the RecordIds of the tuples they were built from.
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of rows in a batch */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final ColumnVector[] columns;
+    private final long[] selection;
+    private final int capacity;
+    private int size;
+    private int numSelected;
+
+    /**
+     * Creates an empty batch of {@link #DEFAULT_CAPACITY} rows.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td
+     *            the schema of the rows of this batch
+     * @param capacity
+     *            the maximum number of rows of this batch
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this(td, new ColumnVector[td.numFields()], capacity);
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new ColumnVector(td.getFieldType(i), capacity);
+        }
+    }
+
+    private TupleBatch(TupleDesc td, ColumnVector[] columns, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        this.td = td;
+        this.columns = columns;
+        this.capacity = capacity;
+        this.selection = new long[(capacity + 63) >>> 6];
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the maximum number of rows of this batch */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows in this batch, selected or not */
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** @return the number of rows that are selected */
+    public int numSelected() {
+        return numSelected;
+    }
+
+    /** @return the vector of the ith field */
+    public ColumnVector getColumn(int i) {
+        return columns[i];
+    }
+
+    public boolean isSelected(int row) {
+        return (selection[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /** Remove a row from the result. */
+    public void deselect(int row) {
+        long bit = 1L << row;
+        if ((selection[row >>> 6] & bit) != 0) {
+            selection[row >>> 6] &= ~bit;
+            numSelected--;
+        }
+    }
+
+    /**
+     * @return the first selected row at or after the specified one, or -1 if
+     *         there is none
+     */
+    public int nextSelected(int row) {
+        if (row >= size)
+            return -1;
+        int word = row >>> 6;
+        long bits = selection[word] & (-1L << row);
+        while (true) {
+            if (bits != 0) {
+                int next = (word << 6) + Long.numberOfTrailingZeros(bits);
+                return next < size ? next : -1;
+            }
+            if (++word == selection.length)
+                return -1;
+            bits = selection[word];
+        }
+    }
+
+    /** Remove all rows, so that the batch can be filled again. */
+    public void clear() {
+        for (int w = 0; w < selection.length; w++) {
+            selection[w] = 0;
+        }
+        for (ColumnVector c : columns) {
+            c.clear();
+        }
+        size = numSelected = 0;
+    }
+
+    /**
+     * Append a selected row whose values are then set through the column
+     * vectors.
+     *
+     * @return the number of the new row
+     */
+    public int addRow() {
+        if (size == capacity)
+            throw new IllegalStateException("batch is full");
+        int row = size++;
+        selection[row >>> 6] |= 1L << row;
+        numSelected++;
+        return row;
+    }
+
+    /** Append the values of a tuple with the schema of this batch. */
+    public void addTuple(Tuple t) {
+        int row = addRow();
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].set(row, t, i);
+        }
+    }
+
+    /** @return the specified row as a new Tuple */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < columns.length; i++) {
+            ColumnVector c = columns[i];
+            if (c.isNull(row))
+                continue;
+            if (c.getType() == Type.INT_TYPE)
+                t.setInt(i, c.getInt(row));
+            else
+                t.setField(i, c.getField(row));
+        }
+        return t;
+    }
+
+    /**
+     * Returns a batch with the same rows and selection, made of some of the
+     * columns of this batch. The columns are shared, not copied.
+     *
+     * @param fields
+     *            the fields of this batch that make up the new one
+     * @param td
+     *            the schema of the new batch
+     */
+    public TupleBatch project(int[] fields, TupleDesc td) {
+        ColumnVector[] cols = new ColumnVector[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            cols[i] = columns[fields[i]];
+        }
+        TupleBatch b = new TupleBatch(td, cols, capacity);
+        System.arraycopy(selection, 0, b.selection, 0, selection.length);
+        b.size = size;
+        b.numSelected = numSelected;
+        return b;
+    }
+
+    /**
+     * Read the next batch of an iterator. Iterators without a batch version
+     * are read row by row into the specified buffer.
+     *
+     * @param it
+     *            an open iterator, which must be read in batches only
+     * @param buffer
+     *            a batch with the schema of it, used if it is not a
+     *            BatchIterator
+     * @return a batch with at least one selected row, or null if it has no
+     *         more tuples
+     */
+    public static TupleBatch next(DbIterator it, TupleBatch buffer)
+            throws DbException, TransactionAbortedException {
+        if (it instanceof BatchIterator)
+            return ((BatchIterator) it).nextBatch();
+        buffer.clear();
+        while (!buffer.isFull() && it.hasNext()) {
+            buffer.addTuple(it.next());
+        }
+        return buffer.size() == 0 ? null : buffer;
+    }
+}
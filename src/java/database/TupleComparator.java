@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.util.Comparator;
+
+/**
+ * Compares tuples on a single field. Use {@link #create} to get a comparator
+ * specialized for the type of the field and the sort direction, so that
+ * sorting compares the raw values directly instead of going through
+ * {@link Field#compare} and a {@link Predicate.Op} for every pair of tuples.
+ */
+public abstract class TupleComparator implements Comparator<Tuple> {
+    final int field;
+
+    TupleComparator(int field) {
+        this.field = field;
+    }
+
+    /**
+     * @param type
+     *            the type of the field to compare on
+     * @param field
+     *            the index of the field to compare on
+     * @param asc
+     *            true if smaller values should come first
+     * @return a comparator over tuples ordered by the specified field
+     */
+    public static TupleComparator create(Type type, int field, boolean asc) {
+        switch (type) {
+        case INT_TYPE:
+            return asc ? new IntAsc(field) : new IntDesc(field);
+        case STRING_TYPE:
+            return asc ? new StringAsc(field) : new StringDesc(field);
+        default:
+            throw new IllegalArgumentException("unsupported type " + type);
+        }
+    }
+
+    /** @return the field this comparator orders by */
+    public int getField() {
+        return field;
+    }
+
+    static final class IntAsc extends TupleComparator {
+        IntAsc(int field) {
+            super(field);
+        }
+
+        public int compare(Tuple o1, Tuple o2) {
+            return Integer.compare(o1.getInt(field), o2.getInt(field));
+        }
+    }
+
+    static final class IntDesc extends TupleComparator {
+        IntDesc(int field) {
+            super(field);
+        }
+
+        public int compare(Tuple o1, Tuple o2) {
+            return Integer.compare(o2.getInt(field), o1.getInt(field));
+        }
+    }
+
+    static final class StringAsc extends TupleComparator {
+        StringAsc(int field) {
+            super(field);
+        }
+
+        public int compare(Tuple o1, Tuple o2) {
+            return ((StringField) o1.getField(field)).getValue().compareTo(
+                    ((StringField) o2.getField(field)).getValue());
+        }
+    }
+
+    static final class StringDesc extends TupleComparator {
+        StringDesc(int field) {
+            super(field);
+        }
+
+        public int compare(Tuple o1, Tuple o2) {
+            return ((StringField) o2.getField(field)).getValue().compareTo(
+                    ((StringField) o1.getField(field)).getValue());
+        }
+    }
+}
@@ -9,6 +9,7 @@ import java.util.*;
 public class TupleDesc implements Serializable {
 	
 	ArrayList<TDItem> descArray = new ArrayList<TDItem>();
+	private transient Type[] types;
 	
     /**
      * A help class to facilitate organizing the information of each field
@@ -48,6 +49,9 @@ public class TupleDesc implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /** Average length in bytes assumed for strings by {@link #getSize} */
+    public static final int AVG_STRING_LEN = Type.STRING_LEN / 4;
+
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
      * specified types, with associated named fields.
@@ -84,6 +88,22 @@ public class TupleDesc implements Serializable {
         return descArray.size();
     }
 
+    /**
+     * @return the types of the fields, in order; the array is shared and must
+     *         not be modified
+     */
+    Type[] getTypes() {
+        Type[] t = types;
+        if (t == null) {
+            t = new Type[descArray.size()];
+            for (int i = 0; i < t.length; i++) {
+                t[i] = descArray.get(i).fieldType;
+            }
+            types = t;
+        }
+        return t;
+    }
+
     /**
      * Gets the (possibly null) field name of the ith field of this TupleDesc.
      * 
@@ -146,10 +166,32 @@ public class TupleDesc implements Serializable {
     }
 
     /**
-     * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     * @return an estimate of the average size (in bytes) of tuples
+     *         corresponding to this TupleDesc. Strings are stored with their
+     *         actual length in the slotted page format (see
+     *         {@link HeapFile#FORMAT_SLOTTED}); they are assumed to be
+     *         {@link #AVG_STRING_LEN} bytes long.
      */
     public int getSize() {
+    	int totalSize = 0;
+    	for (TDItem t: descArray) {
+    		switch(t.fieldType) {
+    			case INT_TYPE: totalSize += Type.INT_TYPE.getLen();
+    				break;
+    			case STRING_TYPE: totalSize += 2 + AVG_STRING_LEN;
+    				break;
+    		}
+    	}
+    	
+        return totalSize;
+    }
+
+    /**
+     * @return The size (in bytes) of tuples corresponding to this TupleDesc
+     *         in the fixed-length format, where every string takes
+     *         Type.STRING_TYPE.getLen() bytes.
+     */
+    public int getFixedSize() {
     	int totalSize = 0;
     	for (TDItem t: descArray) {
     		switch(t.fieldType) {
@@ -0,0 +1,329 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ZoneMap keeps, for every page of a HeapFile, the smallest and largest
+ * value of each int field of the tuples on the page, so that a scan with
+ * predicates on int fields can skip the pages none of whose tuples can
+ * satisfy them without reading them. On a table whose rows arrive in time
+ * order, a scan with a range predicate on the time reads only the pages of
+ * that range.
+ * <p>
+ * The summaries are stored in a sidecar file next to the heap file (see
+ * {@link #fileFor}) and kept in memory once read. HeapFile updates the
+ * summary of a page every time the page is written: it is marked unknown
+ * before the page is written and recomputed from the page afterwards, so a
+ * crash in between leaves it unknown rather than wrong. Pages with an
+ * unknown summary are never skipped; their summary is filled in when a scan
+ * reads them unmodified. The sidecar records the length and modification
+ * time of the heap file it describes and is ignored if the heap file was
+ * changed behind its back, e.g. rewritten by HeapFileEncoder. The
+ * sidecar is kept open once written, and each call writes it once: marking
+ * a page unknown writes its state byte, storing a summary writes the entry
+ * and then the header.
+ * <p>
+ * Each entry of the sidecar is a state byte, {@link #UNKNOWN},
+ * {@link #EMPTY} or {@link #KNOWN}, followed by the smallest and largest
+ * value of every int field, in field order.
+ */
+public class ZoneMap {
+
+    /** State of a page whose summary is not known */
+    static final byte UNKNOWN = 0;
+    /** State of a page without tuples */
+    static final byte EMPTY = 1;
+    /** State of a page whose summary is stored */
+    static final byte KNOWN = 2;
+
+    private static final int MAGIC = 0x5a4d4150;
+    private static final int HEADER_SIZE = 24;
+
+    private final File f;
+    private final File heapFile;
+    /** the indexes of the int fields of the table */
+    private final int[] intFields;
+    private final int entrySize;
+
+    /** the summaries, loaded on first use */
+    private boolean loaded = false;
+    private byte[] states = new byte[0];
+    private int[] mins = new int[0];
+    private int[] maxs = new int[0];
+    /** the sidecar, opened on first write */
+    private RandomAccessFile raf;
+
+    /**
+     * Creates the zone map of the table stored in heapFile.
+     *
+     * @param td
+     *            the schema of the table
+     */
+    public ZoneMap(File heapFile, TupleDesc td) {
+        this.heapFile = heapFile;
+        this.f = fileFor(heapFile);
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                n++;
+        }
+        intFields = new int[n];
+        n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                intFields[n++] = i;
+        }
+        entrySize = 1 + 8 * intFields.length;
+    }
+
+    /**
+     * @return the file storing the zone map of the table stored in
+     *         heapFile: the same name with the extension <tt>.zmap</tt>
+     */
+    public static File fileFor(File heapFile) {
+        String name = heapFile.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0)
+            name = name.substring(0, dot);
+        return new File(heapFile.getAbsoluteFile().getParentFile(), name + ".zmap");
+    }
+
+    /** @return false if the table has no int field to summarize */
+    private boolean enabled() {
+        return intFields.length > 0;
+    }
+
+    /** Read the sidecar if not done yet, unless it is missing or stale */
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        if (!f.exists())
+            return;
+        boolean valid = false;
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            try {
+                if (dis.readInt() != MAGIC || dis.readLong() != heapFile.length()
+                        || dis.readLong() != heapFile.lastModified() || dis.readInt() != intFields.length)
+                    return;
+                int n = (int) ((f.length() - HEADER_SIZE) / entrySize);
+                ensureCapacity(n);
+                for (int p = 0; p < n; p++) {
+                    states[p] = dis.readByte();
+                    for (int i = 0; i < intFields.length; i++) {
+                        mins[p * intFields.length + i] = dis.readInt();
+                        maxs[p * intFields.length + i] = dis.readInt();
+                    }
+                }
+                valid = true;
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            // an unreadable zone map is rebuilt as pages are written and read
+        } finally {
+            if (!valid) {
+                Arrays.fill(states, UNKNOWN);
+                f.delete();
+            }
+        }
+    }
+
+    private void ensureCapacity(int pages) {
+        if (pages <= states.length)
+            return;
+        int n = Math.max(pages, states.length * 2);
+        states = Arrays.copyOf(states, n);
+        mins = Arrays.copyOf(mins, n * intFields.length);
+        maxs = Arrays.copyOf(maxs, n * intFields.length);
+    }
+
+    /** @return the sidecar, open for writing */
+    private RandomAccessFile file() throws IOException {
+        if (raf == null)
+            raf = new RandomAccessFile(f, "rw");
+        return raf;
+    }
+
+    /**
+     * Make the sidecar cover page p: pages it does not cover yet are
+     * unknown, and so are the entries written as zeros here
+     */
+    private void extendTo(int p) throws IOException {
+        long end = HEADER_SIZE + (long) (p + 1) * entrySize;
+        RandomAccessFile raf = file();
+        long length = Math.max(raf.length(), HEADER_SIZE);
+        if (length < end) {
+            raf.seek(length);
+            raf.write(new byte[(int) (end - length)]);
+        }
+    }
+
+    /**
+     * Write the entry of page p, then the header with the current length
+     * and modification time of the heap file
+     */
+    private void writeEntry(int p) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(entrySize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeByte(states[p]);
+        for (int i = 0; i < intFields.length; i++) {
+            dos.writeInt(mins[p * intFields.length + i]);
+            dos.writeInt(maxs[p * intFields.length + i]);
+        }
+        extendTo(p);
+        raf.seek(HEADER_SIZE + (long) p * entrySize);
+        raf.write(baos.toByteArray());
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(HEADER_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(MAGIC);
+        dos.writeLong(heapFile.length());
+        dos.writeLong(heapFile.lastModified());
+        dos.writeInt(intFields.length);
+        RandomAccessFile raf = file();
+        raf.seek(0);
+        raf.write(baos.toByteArray());
+    }
+
+    /**
+     * Close the sidecar and delete it, e.g. because the table is deleted.
+     */
+    public synchronized void delete() {
+        close();
+        f.delete();
+        loaded = false;
+        states = new byte[0];
+        mins = new int[0];
+        maxs = new int[0];
+    }
+
+    /** Close the sidecar; it is opened again by the next write. */
+    public synchronized void close() {
+        if (raf == null)
+            return;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            // nothing was buffered: every write went to the file already
+        }
+        raf = null;
+    }
+
+    /**
+     * Mark the summary of a page unknown; called before the page is
+     * written.
+     */
+    public synchronized void invalidate(int pgNo) throws IOException {
+        if (!enabled())
+            return;
+        load();
+        if (pgNo >= states.length || states[pgNo] == UNKNOWN)
+            return;
+        states[pgNo] = UNKNOWN;
+        // only the state byte: the header is written with the new summary
+        extendTo(pgNo);
+        raf.seek(HEADER_SIZE + (long) pgNo * entrySize);
+        raf.writeByte(UNKNOWN);
+    }
+
+    /**
+     * Store the summary of a page just written to the heap file.
+     */
+    public synchronized void update(HeapPage page) throws IOException {
+        if (!enabled())
+            return;
+        load();
+        summarize(page);
+        writeEntry(page.getId().pageNumber());
+    }
+
+    /**
+     * Store the summary of a page read by a scan if it is not known yet;
+     * page must not have been modified since it was read from disk.
+     */
+    public synchronized void record(HeapPage page) throws IOException {
+        if (!enabled())
+            return;
+        load();
+        int p = page.getId().pageNumber();
+        if (p < states.length && states[p] != UNKNOWN)
+            return;
+        summarize(page);
+        writeEntry(p);
+    }
+
+    private void summarize(HeapPage page) {
+        int p = page.getId().pageNumber();
+        ensureCapacity(p + 1);
+        int base = p * intFields.length;
+        Arrays.fill(mins, base, base + intFields.length, Integer.MAX_VALUE);
+        Arrays.fill(maxs, base, base + intFields.length, Integer.MIN_VALUE);
+        byte state = EMPTY;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            state = KNOWN;
+            for (int i = 0; i < intFields.length; i++) {
+                int v = t.getInt(intFields[i]);
+                if (v < mins[base + i])
+                    mins[base + i] = v;
+                if (v > maxs[base + i])
+                    maxs[base + i] = v;
+            }
+        }
+        states[p] = state;
+    }
+
+    /**
+     * @return false if the summary of page pgNo shows that none of its
+     *         tuples satisfies all predicates; predicates on fields that are
+     *         not ints are ignored
+     */
+    public synchronized boolean mayMatch(int pgNo, Predicate[] predicates) {
+        if (!enabled())
+            return true;
+        load();
+        if (pgNo >= states.length || states[pgNo] == UNKNOWN)
+            return true;
+        if (states[pgNo] == EMPTY)
+            return false;
+        for (Predicate pred : predicates) {
+            int i = Arrays.binarySearch(intFields, pred.getField());
+            if (i < 0 || !(pred.getOperand() instanceof IntField))
+                continue;
+            int base = pgNo * intFields.length;
+            if (!mayMatch(new IntField(mins[base + i]), new IntField(maxs[base + i]),
+                    pred.getOp(), pred.getOperand()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the values between min and max show that no value
+     *         can satisfy <tt>value op operand</tt>
+     */
+    static boolean mayMatch(Field min, Field max, Predicate.Op op, Field operand) {
+        switch (op) {
+        case EQUALS:
+            return min.compare(Predicate.Op.LESS_THAN_OR_EQ, operand)
+                    && max.compare(Predicate.Op.GREATER_THAN_OR_EQ, operand);
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return max.compare(op, operand);
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return min.compare(op, operand);
+        case NOT_EQUALS:
+            return !(min.equals(operand) && max.equals(operand));
+        default:
+            return true;
+        }
+    }
+}
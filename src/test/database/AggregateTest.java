@@ -0,0 +1,145 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AggregateTest extends SimpleDbTestBase {
+
+    private static final Aggregator.Op[] OPS = { Aggregator.Op.MIN, Aggregator.Op.MAX,
+            Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT };
+
+    private static List<List<Integer>> aggregate(DbIterator child, int gfield, Aggregator.Op op,
+            long memoryBudget) throws Exception {
+        return TestUtil.readInts(new Aggregate(child, 1, gfield, op, memoryBudget));
+    }
+
+    private static List<List<Integer>> sorted(List<List<Integer>> rows) {
+        List<List<Integer>> copy = new ArrayList<List<Integer>>(rows);
+        Collections.sort(copy, new Comparator<List<Integer>>() {
+            public int compare(List<Integer> a, List<Integer> b) {
+                return a.get(0).compareTo(b.get(0));
+            }
+        });
+        return copy;
+    }
+
+    @Test public void emptyInputWithoutGroupingHasOneRow() throws Exception {
+        for (Aggregator.Op op : OPS) {
+            List<List<Integer>> rows = aggregate(TestUtil.intIterator(2), Aggregator.NO_GROUPING, op,
+                    Aggregate.DEFAULT_MEMORY_BUDGET);
+            assertEquals(op.toString(), 1, rows.size());
+        }
+        assertEquals(Arrays.asList(0), aggregate(TestUtil.intIterator(2), Aggregator.NO_GROUPING,
+                Aggregator.Op.COUNT, Aggregate.DEFAULT_MEMORY_BUDGET).get(0));
+        // there is no MIN, MAX, SUM or AVG of no values: the field is left unset
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG }) {
+            assertEquals(op.toString(), Arrays.asList((Integer) null), aggregate(TestUtil.intIterator(2),
+                    Aggregator.NO_GROUPING, op, Aggregate.DEFAULT_MEMORY_BUDGET).get(0));
+        }
+    }
+
+    @Test public void unsetValuesAreNotAggregated() throws Exception {
+        TupleDesc td = TestUtil.intTupleDesc(2);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        tuples.add(TestUtil.intTuple(td, 0, 5));
+        Tuple unset = new Tuple(td);
+        unset.setInt(0, 0);
+        tuples.add(unset);
+        int[] expected = { 5, 5, 5, 5, 1 };
+        for (int i = 0; i < OPS.length; i++) {
+            assertEquals(OPS[i].toString(), Arrays.asList(Arrays.asList(0, expected[i])),
+                    aggregate(new TupleIterator(td, tuples), 0, OPS[i], Aggregate.DEFAULT_MEMORY_BUDGET));
+        }
+    }
+
+    @Test(expected = DbException.class)
+    public void sumOverflowIsAnError() throws Exception {
+        int[][] rows = { { 0, Integer.MAX_VALUE }, { 1, 1 } };
+        aggregate(TestUtil.intIterator(2, rows), Aggregator.NO_GROUPING, Aggregator.Op.SUM,
+                Aggregate.DEFAULT_MEMORY_BUDGET);
+    }
+
+    @Test public void emptyStringCountWithoutGroupingIsZero() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        DbIterator child = new TupleIterator(td, new ArrayList<Tuple>());
+        assertEquals(Arrays.asList(Arrays.asList(0)), aggregate(child, Aggregator.NO_GROUPING,
+                Aggregator.Op.COUNT, Aggregate.DEFAULT_MEMORY_BUDGET));
+    }
+
+    @Test public void emptyInputWithGroupingHasNoRows() throws Exception {
+        for (Aggregator.Op op : OPS)
+            assertEquals(0, aggregate(TestUtil.intIterator(2), 0, op, Aggregate.DEFAULT_MEMORY_BUDGET).size());
+    }
+
+    @Test public void aggregatesWithoutGrouping() throws Exception {
+        int[][] rows = { { 0, 4 }, { 1, -2 }, { 2, 7 } };
+        int[] expected = { -2, 7, 9, 3, 3 };
+        for (int i = 0; i < OPS.length; i++) {
+            assertEquals(OPS[i].toString(), Arrays.asList(Arrays.asList(expected[i])),
+                    aggregate(TestUtil.intIterator(2, rows), Aggregator.NO_GROUPING, OPS[i],
+                            Aggregate.DEFAULT_MEMORY_BUDGET));
+        }
+    }
+
+    @Test public void spilledGroupsMatchInMemoryGroups() throws Exception {
+        int[][] rows = new int[20000][];
+        for (int r = 0; r < rows.length; r++)
+            rows[r] = new int[] { r % 3000, r };
+        long budget = 50 * (Type.INT_TYPE.getLen() + SpillableGroupTable.ENTRY_OVERHEAD);
+        for (Aggregator.Op op : OPS) {
+            long spilled = Metrics.get(Metrics.AGGREGATE_SPILLED_BYTES);
+            List<List<Integer>> small = aggregate(TestUtil.intIterator(2, rows), 0, op, budget);
+            assertTrue(Metrics.get(Metrics.AGGREGATE_SPILLED_BYTES) > spilled);
+            List<List<Integer>> large = aggregate(TestUtil.intIterator(2, rows), 0, op,
+                    Aggregate.DEFAULT_MEMORY_BUDGET);
+            assertEquals(3000, large.size());
+            assertEquals(op.toString(), sorted(large), sorted(small));
+        }
+    }
+
+    @Test public void spillTableMergesRepeatedGroups() throws Exception {
+        SpillableGroupTable table = new SpillableGroupTable(Type.INT_TYPE,
+                4 * (Type.INT_TYPE.getLen() + SpillableGroupTable.ENTRY_OVERHEAD));
+        for (int round = 0; round < 3; round++) {
+            for (int g = 0; g < 100; g++)
+                table.get(new IntField(g)).add(round);
+        }
+        assertTrue(table.hasSpilled());
+        int groups = 0;
+        for (SpillableGroupTable.GroupIterator it = table.iterator(); it.hasNext();) {
+            PartialAggregate pa = it.next().getValue();
+            assertEquals(3, pa.result(Aggregator.Op.COUNT));
+            assertEquals(3, pa.result(Aggregator.Op.SUM));
+            groups++;
+        }
+        assertEquals(100, groups);
+        table.close();
+    }
+
+    @Test public void parallelAggregateWithoutGroupingMatchesSerial() throws Exception {
+        HeapFile empty = TestUtil.createHeapFile("empty", 2, new int[0][]);
+        HeapFile full = TestUtil.createHeapFile("full", 2, TestUtil.rows(3000, 2));
+        TransactionId tid = new TransactionId();
+        for (HeapFile hf : new HeapFile[] { empty, full }) {
+            for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+                    Aggregator.Op.SUM, Aggregator.Op.COUNT }) {
+                List<List<Integer>> serial = TestUtil.readInts(
+                        new Aggregate(new SeqScan(tid, hf.getId(), "t"), 0, Aggregator.NO_GROUPING, op));
+                DbIterator parallel = new ParallelPlanner(4).parallelize(
+                        new Aggregate(new SeqScan(tid, hf.getId(), "t"), 0, Aggregator.NO_GROUPING, op));
+                assertEquals(1, serial.size());
+                assertEquals(op.toString(), serial, TestUtil.readInts(parallel));
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
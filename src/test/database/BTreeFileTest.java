@@ -0,0 +1,91 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+    /** 6000 rows (r % 10, r), so that every key spans several leaves */
+    private static BTreeFile duplicates() throws Exception {
+        int[][] rows = new int[6000][];
+        for (int r = 0; r < rows.length; r++)
+            rows[r] = new int[] { (r * 7) % 10, r };
+        return TestUtil.createBTreeFile("dups", 2, 0, rows);
+    }
+
+    /** @return the second fields of the rows, sorted */
+    private static List<Integer> values(List<List<Integer>> rows) {
+        List<Integer> values = new ArrayList<Integer>();
+        for (List<Integer> row : rows)
+            values.add(row.get(1));
+        Collections.sort(values);
+        return values;
+    }
+
+    @Test public void scanIsInKeyOrder() throws Exception {
+        BTreeFile bf = duplicates();
+        assertTrue(bf.numPages() > 10);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> rows = TestUtil.readInts(new SeqScan(tid, bf.getId(), "b"));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(6000, rows.size());
+        for (int i = 1; i < rows.size(); i++)
+            assertTrue(rows.get(i - 1).get(0) <= rows.get(i).get(0));
+    }
+
+    @Test public void indexScansFindEveryDuplicate() throws Exception {
+        BTreeFile bf = duplicates();
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : OPS) {
+            for (int key = -1; key <= 10; key++) {
+                IntField operand = new IntField(key);
+                List<List<Integer>> indexed = TestUtil.readInts(new IndexScan(tid, bf.getId(), "b", op, operand));
+                List<List<Integer>> filtered = TestUtil.readInts(new Filter(
+                        new Predicate(0, op, operand), new SeqScan(tid, bf.getId(), "b")));
+                assertEquals(op + " " + key, values(filtered), values(indexed));
+                for (List<Integer> row : indexed)
+                    assertTrue(new IntField(row.get(0)).compare(op, operand));
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void deletesAmongDuplicates() throws Exception {
+        BTreeFile bf = duplicates();
+        TransactionId tid = new TransactionId();
+        // delete half of the rows of key 3, spread over several leaves
+        DbIterator scan = new IndexScan(tid, bf.getId(), "b", Predicate.Op.EQUALS, new IntField(3));
+        List<Tuple> doomed = new ArrayList<Tuple>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (t.getInt(1) % 20 == 9)
+                doomed.add(t);
+        }
+        scan.close();
+        assertEquals(300, doomed.size());
+        for (Tuple t : doomed)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        List<List<Integer>> left = TestUtil.readInts(
+                new IndexScan(tid, bf.getId(), "b", Predicate.Op.EQUALS, new IntField(3)));
+        assertEquals(300, left.size());
+        for (List<Integer> row : left)
+            assertEquals(19, row.get(1) % 20);
+        assertEquals(5700, TestUtil.count(new SeqScan(tid, bf.getId(), "b")));
+        assertEquals(600, TestUtil.count(
+                new IndexScan(tid, bf.getId(), "b", Predicate.Op.EQUALS, new IntField(4))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
@@ -0,0 +1,147 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+
+    private static final Type[] TYPES = { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE,
+            Type.STRING_TYPE, Type.STRING_TYPE, Type.STRING_TYPE };
+
+    /** the encoding each column is expected to get */
+    private static final int[] ENCODINGS = { ColumnPage.PLAIN, ColumnPage.RLE, ColumnPage.DICTIONARY,
+            ColumnPage.PLAIN, ColumnPage.RLE, ColumnPage.DICTIONARY };
+
+    /**
+     * Distinct values, long runs of equal values, and few distinct values
+     * that do not repeat in runs, as ints and as strings; all of them grow
+     * with the row, so that a range of values is a range of rows.
+     */
+    private static Object value(int column, int row) {
+        switch (column) {
+        case 0: return row;
+        case 1: return row / 1000;
+        case 2: return (row / 4000) * 10 + row % 10;
+        case 3: return String.format("%05d", row);
+        case 4: return String.valueOf((char) ('a' + row / 1000));
+        default: return (char) ('a' + row / 4000) + String.valueOf(row % 10);
+        }
+    }
+
+    /** a predicate on each column that only the rows near the end satisfy */
+    private static final Predicate[] PREDICATES = {
+            new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - 10)),
+            new Predicate(1, Predicate.Op.EQUALS, new IntField(19)),
+            new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(40)),
+            new Predicate(3, Predicate.Op.GREATER_THAN_OR_EQ, new StringField("19990", Type.STRING_LEN)),
+            new Predicate(4, Predicate.Op.EQUALS, new StringField("t", Type.STRING_LEN)),
+            new Predicate(5, Predicate.Op.GREATER_THAN_OR_EQ, new StringField("e0", Type.STRING_LEN)) };
+
+    private ColumnFile cf;
+
+    @Before public void createColumnFile() throws Exception {
+        File text = File.createTempFile("columns", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int r = 0; r < ROWS; r++) {
+            for (int c = 0; c < TYPES.length; c++)
+                w.write((c > 0 ? "," : "") + value(c, r));
+            w.write("\n");
+        }
+        w.close();
+        File source = TestUtil.createTableFile("columnsource");
+        HeapFileEncoder.convertSlotted(text, source, TYPES, ',');
+        HeapFile hf = new HeapFile(source, new TupleDesc(TYPES), HeapFile.FORMAT_SLOTTED);
+        Database.getCatalog().addTable(hf, "columnsource");
+
+        File f = File.createTempFile("columns", ".col");
+        f.deleteOnExit();
+        ColumnFileEncoder.convert(hf, f);
+        cf = new ColumnFile(f, hf.getTupleDesc());
+        Database.getCatalog().addTable(cf, "columns");
+    }
+
+    /** @return the number of the first page of column c */
+    private int firstPage(int c) throws DbException {
+        boolean[] before = new boolean[TYPES.length];
+        for (int i = 0; i < c; i++)
+            before[i] = true;
+        return 1 + cf.numPages(before);
+    }
+
+    private int numPages(int c) throws DbException {
+        boolean[] columns = new boolean[TYPES.length];
+        columns[c] = true;
+        return cf.numPages(columns);
+    }
+
+    @Test public void columnsAreReadBackInEveryEncoding() throws Exception {
+        for (int c = 0; c < TYPES.length; c++) {
+            for (int p = 0; p < numPages(c); p++) {
+                ColumnPage page = (ColumnPage) cf.readPage(new HeapPageId(cf.getId(), firstPage(c) + p));
+                assertEquals("column " + c + " page " + p, ENCODINGS[c], page.getEncoding());
+                assertTrue(page.getNumRows() <= ColumnPage.MAX_ROWS);
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        int r = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            for (int c = 0; c < TYPES.length; c++)
+                assertEquals(value(c, r), TYPES[c] == Type.INT_TYPE ? (Object) t.getInt(c) : t.getString(c));
+            r++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS, r);
+    }
+
+    @Test public void pagesOutsideThePredicatesAreSkipped() throws Exception {
+        for (int c = 0; c < TYPES.length; c++) {
+            boolean[] columns = new boolean[TYPES.length];
+            columns[c] = true;
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = cf.iterator(tid, columns, new Predicate[] { PREDICATES[c] });
+            it.open();
+            int matched = 0;
+            while (it.hasNext()) {
+                if (PREDICATES[c].filter(it.next()))
+                    matched++;
+            }
+            it.close();
+
+            int expected = 0;
+            for (int r = 0; r < ROWS; r++) {
+                Tuple t = new Tuple(cf.getTupleDesc());
+                if (TYPES[c] == Type.INT_TYPE)
+                    t.setInt(c, (Integer) value(c, r));
+                else
+                    t.setString(c, (String) value(c, r));
+                if (PREDICATES[c].filter(t))
+                    expected++;
+            }
+            assertEquals("column " + c, expected, matched);
+
+            // only the last pages of the column were read
+            int read = 0;
+            for (int p = 0; p < numPages(c); p++) {
+                if (Database.getBufferPool().holdsLock(tid, new HeapPageId(cf.getId(), firstPage(c) + p)))
+                    read++;
+            }
+            Database.getBufferPool().transactionComplete(tid);
+            assertTrue("column " + c + " read " + read + " of " + numPages(c) + " pages",
+                    read > 0 && read <= numPages(c) / 2);
+        }
+    }
+}
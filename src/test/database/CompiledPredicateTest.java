@@ -0,0 +1,112 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CompiledPredicateTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE,
+            Type.STRING_TYPE });
+
+    private static final int[] INTS = { Integer.MIN_VALUE, -5, -1, 0, 1, 2, 3, 5, 7, Integer.MAX_VALUE };
+
+    private static final String[] STRINGS = { "", "a", "ab", "abc", "b", "ba", "zz" };
+
+    /** a tuple for every pair of ints and every string */
+    private static List<Tuple> tuples() {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int a : INTS) {
+            for (int b = -3; b <= 3; b++) {
+                Tuple t = new Tuple(TD);
+                t.setInt(0, a);
+                t.setInt(1, b);
+                t.setString(2, STRINGS[tuples.size() % STRINGS.length]);
+                tuples.add(t);
+            }
+        }
+        return tuples;
+    }
+
+    /** @return true if t satisfies every predicate, compared field by field */
+    private static boolean interpreted(Tuple t, Predicate... conjunction) {
+        for (Predicate p : conjunction) {
+            if (!t.getField(p.getField()).compare(p.getOp(), p.getOperand()))
+                return false;
+        }
+        return true;
+    }
+
+    /** check the compiled conjunction against the interpreted one, a tuple and a batch at a time */
+    private static void check(Predicate... conjunction) {
+        CompiledPredicate compiled = CompiledPredicate.compile(conjunction);
+        List<Tuple> tuples = tuples();
+        TupleBatch b = new TupleBatch(TD, tuples.size());
+        for (Tuple t : tuples) {
+            assertEquals(t + " " + Arrays.toString(conjunction), interpreted(t, conjunction),
+                    compiled.matches(t));
+            b.addTuple(t);
+        }
+        compiled.filter(b);
+        for (int row = 0; row < tuples.size(); row++)
+            assertEquals(interpreted(tuples.get(row), conjunction), b.isSelected(row));
+    }
+
+    @Test public void singleIntPredicates() {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int v : INTS)
+                check(new Predicate(0, op, new IntField(v)));
+        }
+    }
+
+    @Test public void singleStringPredicates() {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (String s : STRINGS)
+                check(new Predicate(2, op, new StringField(s, Type.STRING_LEN)));
+        }
+    }
+
+    @Test public void mergedRanges() {
+        Predicate.Op[] ops = Predicate.Op.values();
+        for (Predicate.Op op1 : ops) {
+            for (Predicate.Op op2 : ops) {
+                for (int v1 : new int[] { -1, 1, 5 }) {
+                    for (int v2 : new int[] { Integer.MIN_VALUE, 0, 1, 5, Integer.MAX_VALUE })
+                        check(new Predicate(0, op1, new IntField(v1)), new Predicate(0, op2, new IntField(v2)));
+                }
+            }
+        }
+    }
+
+    @Test public void mixedConjunctions() {
+        check(new Predicate(2, Predicate.Op.LIKE, new StringField("b", Type.STRING_LEN)),
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(-5)),
+                new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(0)),
+                new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(7)));
+        // an empty range matches nothing
+        check(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(2)),
+                new Predicate(1, Predicate.Op.LESS_THAN, new IntField(3)));
+    }
+
+    @Test public void joinPredicates() {
+        List<Tuple> tuples = tuples();
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int[] fields : new int[][] { { 0, 1 }, { 1, 0 }, { 2, 2 } }) {
+                JoinPredicate p = new JoinPredicate(fields[0], op, fields[1]);
+                CompiledJoinPredicate compiled = p.compile(TD.getFieldType(fields[0]));
+                for (Tuple t1 : tuples) {
+                    for (int i = 0; i < tuples.size(); i += 5) {
+                        Tuple t2 = tuples.get(i);
+                        boolean expected = t1.getField(fields[0]).compare(op, t2.getField(fields[1]));
+                        assertEquals(expected, compiled.matches(t1, t2));
+                        assertEquals(expected, p.filter(t1, t2));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CostModelTest extends SimpleDbTestBase {
+
+    @Test public void probesReadEachPageAtMostOnceWhenItFits() {
+        assertEquals(0.0, CostModel.probeCost(0, 100, 0, 1000), 0.0);
+        assertEquals(CostModel.IO_PAGE, CostModel.probeCost(1, 100, 0, 1000), 1e-6);
+        double last = 0;
+        for (int probes = 1; probes <= 10000; probes *= 10) {
+            double cost = CostModel.probeCost(probes, 100, 0, 1000);
+            assertTrue(cost > last);
+            // a page is read from disk once, then found in the buffer pool
+            assertTrue(cost <= 100 * CostModel.IO_PAGE + probes * CostModel.CACHED_PAGE);
+            last = cost;
+        }
+        // cached pages are not read from disk
+        assertEquals(1000 * CostModel.CACHED_PAGE, CostModel.probeCost(1000, 100, 100, 1000), 1e-6);
+        assertTrue(CostModel.probeCost(1000, 100, 50, 1000) < CostModel.probeCost(1000, 100, 0, 1000));
+        // past the buffer pool pages are read again
+        assertTrue(CostModel.probeCost(10000, 1000, 0, 100) > 1000 * CostModel.IO_PAGE + 9000 * CostModel.CACHED_PAGE);
+    }
+
+    @Test public void joinCostsFollowTheirInputs() {
+        double small = CostModel.hashJoinCost(100, 100, 0, 0, 1);
+        double large = CostModel.hashJoinCost(100000, 100000, 0, 0, 1);
+        assertTrue(large > 100 * small);
+        assertTrue(large < CostModel.nestedLoopsJoinCost(100000, 100000, 0, 0, 1));
+        // the inputs cost as much whatever the join
+        assertEquals(small + 5000, CostModel.hashJoinCost(100, 100, 2000, 3000, 1), 1e-6);
+        assertEquals(CostModel.nestedLoopsJoinCost(10, 10, 0, 0, 1) + 5000,
+                CostModel.nestedLoopsJoinCost(10, 10, 2000, 3000, 1), 1e-6);
+
+        // parallel pipelines pay for exchanging tuples, which only large joins make up for
+        assertTrue(CostModel.nestedLoopsJoinCost(100000, 100000, 0, 0, 4)
+                < CostModel.nestedLoopsJoinCost(100000, 100000, 0, 0, 1));
+        assertTrue(CostModel.nestedLoopsJoinCost(10, 10, 0, 0, 4)
+                > CostModel.nestedLoopsJoinCost(10, 10, 0, 0, 1));
+        assertTrue(CostModel.hashJoinCost(10, 10, 0, 0, 4) > CostModel.hashJoinCost(10, 10, 0, 0, 1));
+    }
+
+    @Test public void indexJoinsCostLessWithFewOuterTuples() {
+        double scan = 1000 * CostModel.IO_PAGE;
+        double index = CostModel.indexJoinCost(10, 0, 1000, 0, 200, 0, 500);
+        assertTrue(index < CostModel.hashJoinCost(10, 100000, 0, scan, 1));
+        index = CostModel.indexJoinCost(1000000, 0, 1000, 0, 200, 0, 500);
+        assertTrue(index > CostModel.hashJoinCost(1000000, 100000, 0, scan, 1));
+    }
+
+    @Test public void scansOfCachedTablesCostLess() throws Exception {
+        HeapFile hf = TestUtil.createHeapFile("warmed", 2, TestUtil.rows(5000, 2));
+        TableStats stats = TableStats.getTableStats("warmed");
+        int pages = hf.numPages();
+        assertTrue(pages > 1);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        double cold = stats.estimateScanCost();
+        assertEquals(0, Database.getBufferPool().numCachedPages(hf.getId()));
+
+        TransactionId tid = new TransactionId();
+        assertEquals(5000, TestUtil.count(new SeqScan(tid, hf.getId(), "c")));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pages, Database.getBufferPool().numCachedPages(hf.getId()));
+        double warm = stats.estimateScanCost();
+        assertTrue(warm < cold);
+        assertEquals(pages * CostModel.CACHED_PAGE, warm, 1e-6);
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ExternalSorterTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = TestUtil.intTupleDesc(2);
+
+    /** a sorter on field 0 keeping runs of tuplesPerRun tuples */
+    private static ExternalSorter sorter(int tuplesPerRun) {
+        return new ExternalSorter(TD, TupleComparator.create(Type.INT_TYPE, 0, true),
+                tuplesPerRun * ExternalSorter.estimateTupleSize(TD));
+    }
+
+    /** add n tuples (r % keys, r) and check the result is sorted and stable */
+    private static void sortAndCheck(ExternalSorter sorter, int n, int keys) throws DbException {
+        for (int r = 0; r < n; r++)
+            sorter.add(TestUtil.intTuple(TD, r % keys, r));
+        ExternalSorter.SortedIterator it = sorter.iterator();
+        int count = 0, lastKey = Integer.MIN_VALUE, lastRow = -1;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int key = t.getInt(0), row = t.getInt(1);
+            assertTrue(key >= lastKey);
+            if (key == lastKey)
+                assertTrue("equal keys keep the input order", row > lastRow);
+            lastKey = key;
+            lastRow = row;
+            count++;
+        }
+        it.close();
+        assertEquals(n, count);
+    }
+
+    @Test public void sortsInMemory() throws Exception {
+        ExternalSorter sorter = sorter(1000);
+        sortAndCheck(sorter, 500, 13);
+        assertFalse(sorter.hasSpilled());
+        sorter.close();
+    }
+
+    @Test public void sortsFewRunsInOneMerge() throws Exception {
+        ExternalSorter sorter = sorter(100);
+        sortAndCheck(sorter, 3000, 13);
+        assertTrue(sorter.hasSpilled());
+        // every tuple written once, to its run, after the bitmap of its fields set
+        assertEquals(3000L * (TD.getFixedSize() + 4), sorter.getSpilledBytes());
+        sorter.close();
+    }
+
+    @Test public void mergesManyRunsInPasses() throws Exception {
+        int n = 6000;
+        ExternalSorter sorter = sorter(10);
+        sortAndCheck(sorter, n, 7);
+        // 600 runs are more than MAX_FAN_IN: one pass merges most of them,
+        // and no tuple is written more than twice
+        assertTrue(sorter.getSpilledBytes() > (long) n * (TD.getFixedSize() + 4));
+        assertTrue(sorter.getSpilledBytes() <= 2L * n * (TD.getFixedSize() + 4));
+        sorter.close();
+    }
+
+    @Test public void spillingOrderByMatchesInMemory() throws Exception {
+        int[][] rows = new int[5000][];
+        for (int r = 0; r < rows.length; r++)
+            rows[r] = new int[] { (r * 7919) % 1000, r };
+        for (boolean asc : new boolean[] { true, false }) {
+            long budget = 50 * ExternalSorter.estimateTupleSize(TD);
+            List<List<Integer>> spilled = TestUtil.readInts(
+                    new OrderBy(0, asc, TestUtil.intIterator(2, rows), budget));
+            List<List<Integer>> inMemory = TestUtil.readInts(new OrderBy(0, asc, TestUtil.intIterator(2, rows)));
+            assertEquals(rows.length, spilled.size());
+            assertEquals(inMemory, spilled);
+        }
+    }
+
+    @Test public void spillingOrderByOverColumnScan() throws Exception {
+        int[][] rows = new int[3000][];
+        for (int r = 0; r < rows.length; r++)
+            rows[r] = new int[] { r, (r * 7919) % 1000, r % 5 };
+        HeapFile hf = TestUtil.createHeapFile("rows", 3, rows);
+        File f = File.createTempFile("rows", ".col");
+        f.deleteOnExit();
+        ColumnFileEncoder.convert(hf, f);
+        ColumnFile cf = new ColumnFile(f, hf.getTupleDesc());
+        Database.getCatalog().addTable(cf, "cols");
+
+        // the scan leaves field 2 unset in the tuples the sort spills
+        TransactionId tid = new TransactionId();
+        ColumnScan scan = new ColumnScan(tid, cf.getId(), "c", new boolean[] { true, true, false },
+                new Predicate[0]);
+        OrderBy sort = new OrderBy(1, true, scan, 50 * ExternalSorter.estimateTupleSize(hf.getTupleDesc()));
+        sort.open();
+        int count = 0, lastKey = Integer.MIN_VALUE;
+        while (sort.hasNext()) {
+            Tuple t = sort.next();
+            assertTrue(t.isNull(2));
+            assertTrue(t.getInt(1) >= lastKey);
+            assertEquals((t.getInt(0) * 7919) % 1000, t.getInt(1));
+            lastKey = t.getInt(1);
+            count++;
+        }
+        sort.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(rows.length, count);
+        assertTrue(Metrics.get(Metrics.SORT_SPILLED_BYTES) > 0);
+    }
+}
@@ -0,0 +1,38 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HyperLogLogTest extends SimpleDbTestBase {
+
+    @Test public void estimatesDistinctInts() {
+        for (int n : new int[] { 1, 10, 1000, 50000, 1000000 }) {
+            HyperLogLog h = new HyperLogLog();
+            // every value three times
+            for (int k = 0; k < 3; k++) {
+                for (int v = 0; v < n; v++)
+                    h.addInt(v * 13 - 7);
+            }
+            assertEquals("n = " + n, n, h.estimate(), Math.max(1, n * 0.05));
+        }
+        assertEquals(0.0, new HyperLogLog().estimate(), 0.0);
+    }
+
+    @Test public void estimatesDistinctStrings() {
+        HyperLogLog h = new HyperLogLog();
+        for (int v = 0; v < 20000; v++)
+            h.addString("value " + (v % 5000));
+        assertEquals(5000, h.estimate(), 250);
+    }
+
+    @Test public void mergeCountsTheUnion() {
+        HyperLogLog a = new HyperLogLog(), b = new HyperLogLog();
+        for (int v = 0; v < 30000; v++)
+            a.addInt(v);
+        for (int v = 20000; v < 60000; v++)
+            b.addInt(v);
+        a.merge(b);
+        assertEquals(60000, a.estimate(), 3000);
+    }
+}
@@ -0,0 +1,120 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntHistogramTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS,
+            Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+            Predicate.Op.GREATER_THAN_OR_EQ };
+
+    /** @return the fraction of the values satisfying op v */
+    private static double exact(int[] values, Predicate.Op op, int v) {
+        int n = 0;
+        for (int x : values) {
+            if (new IntField(x).compare(op, new IntField(v)))
+                n++;
+        }
+        return (double) n / values.length;
+    }
+
+    /** @return the largest error of the estimates of the histogram over probes */
+    private static double maxError(IntHistogram h, int[] values, int[] probes) {
+        double error = 0;
+        for (Predicate.Op op : OPS) {
+            for (int v : probes) {
+                double s = h.estimateSelectivity(op, v);
+                assertTrue(s >= 0 && s <= 1);
+                error = Math.max(error, Math.abs(s - exact(values, op, v)));
+            }
+        }
+        return error;
+    }
+
+    /** 20000 values, half of them 0, the rest spread over 1..100000 */
+    private static int[] skewed() {
+        Random r = new Random(3);
+        int[] values = new int[20000];
+        for (int i = 0; i < values.length; i++)
+            values[i] = i % 2 == 0 ? 0 : 1 + r.nextInt(100000);
+        Arrays.sort(values);
+        return values;
+    }
+
+    @Test public void uniformValues() {
+        IntHistogram h = new IntHistogram(100, 0, 9999);
+        int[] values = new int[50000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (i * 7919) % 10000;
+            h.addValue(values[i]);
+        }
+        assertFalse(h.isSkewed());
+        assertTrue(maxError(h, values, new int[] { -5, 0, 1, 17, 2500, 5000, 9998, 9999, 12000 }) < 0.01);
+        assertEquals(1.0 / 10000, h.avgSelectivity(), 1e-5);
+    }
+
+    @Test public void equiDepthBucketsFollowSkew() {
+        int[] values = skewed();
+        IntHistogram width = IntHistogram.fromSorted(50, values, values.length, false);
+        IntHistogram depth = IntHistogram.fromSorted(50, values, values.length, true);
+        assertTrue(width.isSkewed());
+        assertEquals(0.5, depth.estimateSelectivity(Predicate.Op.EQUALS, 0), 0.001);
+        assertTrue(width.estimateSelectivity(Predicate.Op.EQUALS, 0) < 0.1);
+
+        int[] probes = { 0, 1, 50, 500, 1000, 1500, 30000, 50000, 99999 };
+        double depthError = maxError(depth, values, probes);
+        assertTrue(depthError < 0.02);
+        assertTrue(depthError < maxError(width, values, probes));
+        // the histogram holds at most one line per bucket, whatever the number of values
+        assertTrue(depth.toString().split("\n").length <= 50);
+    }
+
+    @Test public void removedValuesAreNotCounted() {
+        IntHistogram h = new IntHistogram(10, 0, 99);
+        for (int v = 0; v < 100; v++)
+            h.addValue(v);
+        for (int v = 0; v < 50; v++)
+            h.removeValue(v);
+        assertEquals(0.0, h.estimateSelectivity(Predicate.Op.LESS_THAN, 50), 1e-9);
+        assertEquals(1.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, 50), 1e-9);
+        // values outside the range widen the first and last bucket
+        h.addValue(-100);
+        h.addValue(1000);
+        assertTrue(h.estimateSelectivity(Predicate.Op.LESS_THAN, -50) > 0);
+        assertTrue(h.estimateSelectivity(Predicate.Op.GREATER_THAN, 500) > 0);
+        assertEquals(0.0, h.estimateSelectivity(Predicate.Op.LESS_THAN, -100), 1e-9);
+        assertEquals(0.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 1000), 1e-9);
+    }
+
+    @Test public void mergedAndScaledHistograms() {
+        int[] values = skewed();
+        int half = values.length / 2;
+        int[] odd = new int[half], even = new int[half];
+        for (int i = 0; i < values.length; i++)
+            (i % 2 == 0 ? even : odd)[i / 2] = values[i];
+        IntHistogram h = new IntHistogram(40, 0, 100000);
+        IntHistogram other = new IntHistogram(40, 0, 100000);
+        for (int v : even)
+            h.addValue(v);
+        for (int v : odd)
+            other.addValue(v);
+        h.merge(other);
+        IntHistogram all = new IntHistogram(40, 0, 100000);
+        for (int v : values)
+            all.addValue(v);
+        for (Predicate.Op op : OPS)
+            assertEquals(all.estimateSelectivity(op, 777), h.estimateSelectivity(op, 777), 1e-9);
+
+        // a histogram of every other value, scaled, estimates the same fractions
+        IntHistogram sample = IntHistogram.fromSorted(40, even, even.length, true);
+        sample.scale(2, 2);
+        assertTrue(maxError(sample, values, new int[] { 0, 1, 5000, 50000 }) < 0.02);
+    }
+}
@@ -0,0 +1,126 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Vector;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class JoinOrderTest extends SimpleDbTestBase {
+
+    private static final int[] SIZES = { 50, 4000, 300, 2500, 800, 1200 };
+    /** a chain over the first five tables, with the last one joined to the second */
+    private static final int[][] JOINS = { { 0, 1 }, { 1, 2 }, { 2, 3 }, { 3, 4 }, { 1, 5 } };
+
+    @After public void restoreDefaults() {
+        JoinOptimizer.setDpJoinLimit(JoinOptimizer.DEFAULT_DP_JOIN_LIMIT);
+        JoinOptimizer.setUseEfficientEnumerate(true);
+    }
+
+    /** tables tab0..tab5 of (r, r % 2), scanned as t0..t5 */
+    private static LogicalPlan plan() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        for (int i = 0; i < SIZES.length; i++) {
+            TestUtil.createHeapFile("tab" + i, 2, TestUtil.rows(SIZES[i], 2));
+            lp.addScan(Database.getCatalog().getTableId("tab" + i), "t" + i);
+        }
+        for (int[] j : JOINS)
+            lp.addJoin("t" + j[0] + ".f0", "t" + j[1] + ".f0", Predicate.Op.EQUALS);
+        lp.addProjectField("t0.f1", null);
+        return lp;
+    }
+
+    private static Vector<LogicalJoinNode> joins() {
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        for (int[] j : JOINS)
+            joins.add(new LogicalJoinNode("t" + j[0], "t" + j[1], "f0", "f0", Predicate.Op.EQUALS));
+        return joins;
+    }
+
+    private static HashMap<String, TableStats> stats() {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        for (int i = 0; i < SIZES.length; i++)
+            stats.put("tab" + i, TableStats.getTableStats("tab" + i));
+        return stats;
+    }
+
+    private static HashMap<String, Double> selectivities() {
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        for (int i = 0; i < SIZES.length; i++)
+            selectivities.put("t" + i, 1.0);
+        return selectivities;
+    }
+
+    /**
+     * Check that order holds every join once, and that each join after the
+     * first joins a table already joined, as a left-deep plan must.
+     */
+    private static void assertLeftDeep(Vector<LogicalJoinNode> order) {
+        assertEquals(JOINS.length, order.size());
+        Set<Set<String>> pairs = new HashSet<Set<String>>();
+        Set<String> joined = new HashSet<String>();
+        for (LogicalJoinNode j : order) {
+            Set<String> pair = new HashSet<String>();
+            pair.add(j.t1Alias);
+            pair.add(j.t2Alias);
+            assertTrue(pair + " twice", pairs.add(pair));
+            assertTrue(pair + " is not connected", joined.isEmpty() || joined.contains(j.t1Alias)
+                    || joined.contains(j.t2Alias));
+            joined.addAll(pair);
+        }
+        assertEquals(SIZES.length, joined.size());
+    }
+
+    private static double orderedCost(LogicalPlan lp, int dpJoinLimit) throws Exception {
+        JoinOptimizer.setDpJoinLimit(dpJoinLimit);
+        JoinOptimizer jo = new JoinOptimizer(lp, joins());
+        assertLeftDeep(jo.orderJoins(stats(), selectivities(), false));
+        return jo.getPlanCost();
+    }
+
+    @Test public void subsetsMatchTheNaiveEnumeration() {
+        Vector<Integer> v = new Vector<Integer>();
+        for (int i = 0; i < 7; i++)
+            v.add(i);
+        JoinOptimizer jo = new JoinOptimizer(new LogicalPlan(), new Vector<LogicalJoinNode>());
+        for (int size = 0; size <= v.size() + 1; size++) {
+            Set<Set<Integer>> efficient = jo.enumerateSubsets(v, size);
+            JoinOptimizer.setUseEfficientEnumerate(false);
+            Set<Set<Integer>> naive = jo.enumerateSubsets(v, size);
+            JoinOptimizer.setUseEfficientEnumerate(true);
+            assertEquals("size " + size, naive, efficient);
+        }
+    }
+
+    @Test public void dynamicProgrammingIsNoWorseThanGreedy() throws Exception {
+        LogicalPlan lp = plan();
+        double dp = orderedCost(lp, JoinOptimizer.DEFAULT_DP_JOIN_LIMIT);
+        double greedy = orderedCost(lp, 0);
+        assertTrue(dp + " > " + greedy, dp <= greedy);
+        // past the limit, the joins are ordered greedily
+        assertEquals(greedy, orderedCost(lp, JOINS.length - 1), 0.0);
+        assertEquals(dp, orderedCost(lp, JOINS.length), 0.0);
+
+        JoinOptimizer.setDpJoinLimit(1000);
+        assertEquals(JoinOptimizer.MAX_DP_JOINS, JoinOptimizer.dpJoinLimit);
+        JoinOptimizer.setDpJoinLimit(-1);
+        assertEquals(0, JoinOptimizer.dpJoinLimit);
+    }
+
+    @Test public void bothOrdersComputeTheSameRows() throws Exception {
+        LogicalPlan lp = plan();
+        TransactionId tid = new TransactionId();
+        for (int limit : new int[] { JoinOptimizer.DEFAULT_DP_JOIN_LIMIT, 0 }) {
+            JoinOptimizer.setDpJoinLimit(limit);
+            DbIterator it = lp.physicalPlan(tid, stats(), false);
+            // every table holds 0..n - 1 in f0, so the smallest one survives the joins
+            assertEquals("dp join limit " + limit, SIZES[0], TestUtil.count(it));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
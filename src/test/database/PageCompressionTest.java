@@ -0,0 +1,146 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PageCompressionTest extends SimpleDbTestBase {
+
+    private static void roundTrip(byte[] b) throws IOException {
+        byte[] c = PageCodec.compress(b);
+        assertTrue(c.length <= PageCodec.maxCompressedLength(b.length));
+        assertArrayEquals(b, PageCodec.decompress(c, 0, c.length, b.length));
+    }
+
+    /** a page of len bytes, random but for runs of repeated bytes and repeated blocks */
+    private static byte[] page(Random r, int len) {
+        byte[] b = new byte[len];
+        int i = 0;
+        while (i < len) {
+            int n = Math.min(len - i, 1 + r.nextInt(300));
+            switch (r.nextInt(3)) {
+            case 0:
+                for (int k = 0; k < n; k++)
+                    b[i + k] = (byte) r.nextInt();
+                break;
+            case 1:
+                Arrays.fill(b, i, i + n, (byte) r.nextInt(3));
+                break;
+            default:
+                int from = r.nextInt(i + 1);
+                for (int k = 0; k < n; k++)
+                    b[i + k] = b[from + k];
+            }
+            i += n;
+        }
+        return b;
+    }
+
+    @Test public void codecRoundTrips() throws Exception {
+        Random r = new Random(42);
+        for (int len = 0; len < 40; len++)
+            roundTrip(page(r, len));
+        for (int i = 0; i < 200; i++)
+            roundTrip(page(r, BufferPool.getPageSize()));
+        byte[] random = new byte[BufferPool.getPageSize()];
+        r.nextBytes(random);
+        roundTrip(random);
+
+        byte[] zeros = new byte[BufferPool.getPageSize()];
+        byte[] c = PageCodec.compress(zeros);
+        assertTrue(c.length < 100);
+        roundTrip(zeros);
+    }
+
+    @Test public void corruptBlocksAreRejected() throws Exception {
+        byte[] b = page(new Random(7), BufferPool.getPageSize());
+        byte[] c = PageCodec.compress(b);
+        try {
+            PageCodec.decompress(c, 0, c.length / 2, b.length);
+            fail("a truncated block");
+        } catch (IOException e) {
+        }
+        try {
+            PageCodec.decompress(c, 0, c.length, b.length - 1);
+            fail("a block of more bytes than expected");
+        } catch (IOException e) {
+        }
+    }
+
+    @Test public void rawFilesAreCompressedOnFirstUse() throws Exception {
+        File f = TestUtil.createTableFile("raw");
+        Random r = new Random(1);
+        RawPageStore raw = new RawPageStore(f);
+        List<byte[]> pages = new ArrayList<byte[]>();
+        for (int i = 0; i < 8; i++) {
+            pages.add(i % 3 == 0 ? new byte[BufferPool.getPageSize()] : page(r, BufferPool.getPageSize()));
+            raw.writePage(i, pages.get(i));
+        }
+        long rawLength = f.length();
+
+        CompressedPageStore store = new CompressedPageStore(f);
+        assertEquals(8, store.numPages());
+        assertTrue(CompressedPageStore.tableFileFor(f).exists());
+        assertTrue(f.length() < rawLength);
+        for (int i = 0; i < 8; i++)
+            assertArrayEquals(pages.get(i), store.readPage(i));
+
+        // a page that no longer fits its extent moves to a new one
+        long abandoned = Metrics.get(CompressedPageStore.ABANDONED_BYTES);
+        byte[] random = new byte[BufferPool.getPageSize()];
+        r.nextBytes(random);
+        pages.set(0, random);
+        store.writePage(0, random);
+        assertTrue(Metrics.get(CompressedPageStore.ABANDONED_BYTES) > abandoned);
+        store.writePage(10, pages.get(1));
+
+        CompressedPageStore reopened = new CompressedPageStore(f);
+        assertEquals(11, reopened.numPages());
+        for (int i = 0; i < 8; i++)
+            assertArrayEquals(pages.get(i), reopened.readPage(i));
+        assertArrayEquals(new byte[BufferPool.getPageSize()], reopened.readPage(9));
+        assertArrayEquals(pages.get(1), reopened.readPage(10));
+    }
+
+    @Test public void compressedHeapFileKeepsItsTuples() throws Exception {
+        File f = TestUtil.createTableFile("compressed");
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        HeapFile hf = new HeapFile(f, td, HeapFile.FORMAT_FIXED, true);
+        Database.getCatalog().addTable(hf, "compressed");
+        assertTrue(hf.isCompressed());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = new Tuple(td);
+            t.setInt(0, i);
+            t.setString(1, "row " + (i % 10));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(hf.numPages() > 1);
+        assertTrue(f.length() < (long) hf.numPages() * BufferPool.getPageSize() / 2);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbIterator scan = new SeqScan(tid, hf.getId(), "c");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals("row " + (t.getInt(0) % 10), t.getString(1));
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1000, n);
+    }
+}
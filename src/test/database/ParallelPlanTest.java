@@ -0,0 +1,126 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ParallelPlanTest extends SimpleDbTestBase {
+
+    private static List<List<Integer>> sorted(List<List<Integer>> rows) {
+        List<List<Integer>> copy = new ArrayList<List<Integer>>(rows);
+        Collections.sort(copy, new Comparator<List<Integer>>() {
+            public int compare(List<Integer> a, List<Integer> b) {
+                for (int i = 0; i < a.size(); i++) {
+                    int c = a.get(i).compareTo(b.get(i));
+                    if (c != 0)
+                        return c;
+                }
+                return 0;
+            }
+        });
+        return copy;
+    }
+
+    @Test public void parallelScanReadsEveryTupleOnce() throws Exception {
+        HeapFile hf = TestUtil.createHeapFile("pscan", 2, TestUtil.rows(20000, 2));
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> rows = TestUtil.readInts(new ParallelSeqScan(tid, hf.getId(), "t", 4));
+        assertEquals(20000, rows.size());
+        HashSet<Integer> ids = new HashSet<Integer>();
+        for (List<Integer> row : rows)
+            ids.add(row.get(0));
+        assertEquals(20000, ids.size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void repartitionSendsEqualKeysToOneOutput() throws Exception {
+        int[][] rows = TestUtil.rows(6000, 3);
+        DbIterator[] inputs = { TestUtil.intIterator(3, java.util.Arrays.copyOfRange(rows, 0, 2500)),
+                TestUtil.intIterator(3, java.util.Arrays.copyOfRange(rows, 2500, 6000)) };
+        HashRepartition[] outputs = HashRepartition.create(inputs, 2, 3);
+        assertEquals(3, outputs.length);
+        DbIterator[] counts = new DbIterator[outputs.length];
+        for (int i = 0; i < outputs.length; i++)
+            counts[i] = new Aggregate(outputs[i], 0, 2, Aggregator.Op.COUNT);
+        List<List<Integer>> groups = TestUtil.readInts(new Gather(counts));
+        // each key of field 2 is counted by a single output
+        assertEquals(3, groups.size());
+        int total = 0;
+        for (List<Integer> g : groups)
+            total += g.get(1);
+        assertEquals(6000, total);
+    }
+
+    @Test public void gatherCanBeReopened() throws Exception {
+        HeapFile hf = TestUtil.createHeapFile("gather", 2, TestUtil.rows(5000, 2));
+        TransactionId tid = new TransactionId();
+        DbIterator plan = new ParallelPlanner(3).parallelize(new Filter(
+                new Predicate(1, Predicate.Op.EQUALS, new IntField(0)), new SeqScan(tid, hf.getId(), "t")));
+        assertNotNull(TestUtil.find(plan, Gather.class));
+        assertEquals(2500, TestUtil.count(plan));
+        assertEquals(2500, TestUtil.count(plan));
+        plan.open();
+        for (int i = 0; i < 10; i++)
+            plan.next();
+        plan.rewind();
+        int n = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        assertEquals(2500, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static LogicalPlan joinPlan(int dop) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(Database.getCatalog().getTableId("orders"), "o");
+        lp.addScan(Database.getCatalog().getTableId("customers"), "c");
+        lp.addFilter("o.f2", Predicate.Op.NOT_EQUALS, "1");
+        lp.addJoin("o.f1", "c.f0", Predicate.Op.EQUALS);
+        lp.setParallelism(dop);
+        return lp;
+    }
+
+    @Test public void parallelPlansMatchSerialPlans() throws Exception {
+        TestUtil.createHeapFile("orders", 3, TestUtil.rows(30000, 3));
+        TestUtil.createHeapFile("customers", 2, TestUtil.rows(2, 2));
+        for (int query = 0; query < 3; query++) {
+            List<List<Integer>> serial = null;
+            for (int dop : new int[] { 1, 4 }) {
+                LogicalPlan lp = joinPlan(dop);
+                if (query == 0) {
+                    lp.addProjectField("o.f0", null);
+                    lp.addProjectField("c.f1", null);
+                } else if (query == 1) {
+                    lp.addProjectField("c.f1", null);
+                    lp.addProjectField("o.f0", "COUNT");
+                    lp.addAggregate("COUNT", "o.f0", "c.f1");
+                } else {
+                    lp.addProjectField("o.f0", "SUM");
+                    lp.addAggregate("SUM", "o.f0", null);
+                }
+                TransactionId tid = new TransactionId();
+                DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+                if (dop > 1)
+                    assertTrue(TestUtil.find(plan, Exchange.class) != null);
+                List<List<Integer>> rows = sorted(TestUtil.readInts(plan));
+                Database.getBufferPool().transactionComplete(tid);
+                if (serial == null)
+                    serial = rows;
+                else
+                    assertEquals("query " + query, serial, rows);
+            }
+            assertTrue(serial.size() > 0);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PlanPushdownTest extends SimpleDbTestBase {
+
+    /** facts a (r, r % 2, r % 3) joined on f0 with dims b (r, r % 2), filtered on a.f0 and a.f1 */
+    private static LogicalPlan plan(String below) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(Database.getCatalog().getTableId("facts"), "a");
+        lp.addScan(Database.getCatalog().getTableId("dims"), "b");
+        lp.addFilter("a.f0", Predicate.Op.LESS_THAN, below);
+        lp.addFilter("a.f1", Predicate.Op.EQUALS, "0");
+        lp.addJoin("a.f0", "b.f0", Predicate.Op.EQUALS);
+        lp.addProjectField("a.f2", null);
+        lp.addProjectField("b.f1", null);
+        return lp;
+    }
+
+    private static void tables() throws Exception {
+        TestUtil.createHeapFile("facts", 3, TestUtil.rows(3000, 3));
+        TestUtil.createHeapFile("dims", 2, TestUtil.rows(2000, 2));
+    }
+
+    /** @return the operators from the root of plan down to the scan of alias, or null */
+    private static List<DbIterator> pathTo(DbIterator plan, String alias) {
+        if (plan instanceof SeqScan && ((SeqScan) plan).getAlias().equals(alias)) {
+            List<DbIterator> path = new ArrayList<DbIterator>();
+            path.add(plan);
+            return path;
+        }
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                List<DbIterator> path = pathTo(child, alias);
+                if (path != null) {
+                    path.add(0, plan);
+                    return path;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** @return the Filter right above the scan of alias, or null */
+    private static Filter filterOf(DbIterator plan, String alias) {
+        List<DbIterator> path = pathTo(plan, alias);
+        assertNotNull(alias, path);
+        DbIterator parent = path.size() > 1 ? path.get(path.size() - 2) : null;
+        return parent instanceof Filter ? (Filter) parent : null;
+    }
+
+    private static Predicate predicateOn(Filter f, int field) {
+        for (Predicate p : f.getPredicates()) {
+            if (p.getField() == field)
+                return p;
+        }
+        return null;
+    }
+
+    @Test public void filtersAreDerivedAcrossEqualityJoins() throws Exception {
+        tables();
+        TransactionId tid = new TransactionId();
+        DbIterator plan = plan("100").physicalPlan(tid, TableStats.getStatsMap(), false);
+        Filter b = filterOf(plan, "b");
+        assertNotNull("b is filtered before the join", b);
+        Predicate derived = predicateOn(b, 0);
+        assertEquals(Predicate.Op.LESS_THAN, derived.getOp());
+        assertEquals(new IntField(100), derived.getOperand());
+        // a.f1 is not joined, so nothing is derived from its filter
+        assertNull(predicateOn(b, 1));
+        SeqScan scan = (SeqScan) pathTo(plan, "b").get(pathTo(plan, "b").size() - 1);
+        assertEquals(1, scan.getZonePredicates().length);
+
+        List<List<Integer>> rows = TestUtil.readInts(plan);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(50, rows.size());
+        for (List<Integer> row : rows)
+            assertEquals(0, (int) row.get(1));
+    }
+
+    @Test public void preparedQueriesRebindDerivedFilters() throws Exception {
+        tables();
+        TransactionId tid = new TransactionId();
+        PreparedQuery q = Parser.prepare(plan("?1"), 1, tid);
+        for (int below : new int[] { 100, 10, 2500, 0, 100 }) {
+            q.setInt(1, below);
+            q.start();
+            int n = 0;
+            while (q.hasNext()) {
+                q.next();
+                n++;
+            }
+            assertEquals("a.f0 < " + below, Math.min(below, 2000) / 2, n);
+            assertEquals(new IntField(below), predicateOn(filterOf(q.getPhysicalPlan(), "b"), 0).getOperand());
+        }
+        q.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void joinedTablesCarryOnlyTheFieldsUsedAbove() throws Exception {
+        tables();
+        TransactionId tid = new TransactionId();
+        DbIterator plan = plan("100").physicalPlan(tid, TableStats.getStatsMap(), false);
+        // a.f1 is only filtered on: a keeps f0 for the join and f2 for the select list
+        List<DbIterator> a = pathTo(plan, "a");
+        DbIterator aboveFilter = a.get(a.size() - 3);
+        assertTrue(aboveFilter instanceof Project);
+        assertEquals(2, aboveFilter.getTupleDesc().numFields());
+        // b uses both of its fields
+        List<DbIterator> b = pathTo(plan, "b");
+        assertTrue(!(b.get(b.size() - 3) instanceof Project));
+        assertEquals(2, plan.getTupleDesc().numFields());
+        assertEquals(50, TestUtil.count(plan));
+
+        // SELECT * keeps every field
+        LogicalPlan all = new LogicalPlan();
+        all.addScan(Database.getCatalog().getTableId("facts"), "a");
+        all.addScan(Database.getCatalog().getTableId("dims"), "b");
+        all.addJoin("a.f0", "b.f0", Predicate.Op.EQUALS);
+        all.addProjectField("*", null);
+        plan = all.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertEquals(5, plan.getTupleDesc().numFields());
+        for (DbIterator op : pathTo(plan, "a"))
+            assertTrue(!(op instanceof Project) || op == plan);
+        assertEquals(2000, TestUtil.count(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
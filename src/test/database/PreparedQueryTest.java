@@ -0,0 +1,134 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class PreparedQueryTest extends SimpleDbTestBase {
+
+    private static final int[][] BINDINGS = { { 0, 1 }, { 2, 2 }, { 2, 2 }, { 1, 0 }, { 2, 1 }, { 0, 200 } };
+
+    /** orders (r, r % 2, r % 3) joined with customers (r, r % 2) */
+    private static void tables() throws Exception {
+        TestUtil.createHeapFile("orders", 3, TestUtil.rows(3000, 3));
+        TestUtil.createHeapFile("customers", 2, TestUtil.rows(200, 2));
+    }
+
+    private static LogicalPlan plan(String f2, String below) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(Database.getCatalog().getTableId("orders"), "o");
+        lp.addScan(Database.getCatalog().getTableId("customers"), "c");
+        lp.addFilter("o.f2", Predicate.Op.EQUALS, f2);
+        lp.addFilter("c.f0", Predicate.Op.LESS_THAN, below);
+        lp.addJoin("o.f1", "c.f0", Predicate.Op.EQUALS);
+        lp.addProjectField("o.f0", null);
+        return lp;
+    }
+
+    /** @return the number of rows of a plan made for the constants */
+    private static int planned(int f2, int below) throws Exception {
+        TransactionId tid = new TransactionId();
+        int n = TestUtil.count(plan("" + f2, "" + below).physicalPlan(tid, TableStats.getStatsMap(), false));
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    private static int drain(Query q) throws Exception {
+        int n = 0;
+        while (q.hasNext()) {
+            q.next();
+            n++;
+        }
+        return n;
+    }
+
+    private static void checkBindings(PreparedQuery q) throws Exception {
+        for (int[] b : BINDINGS) {
+            q.setInt(1, b[0]);
+            q.setInt(2, b[1]);
+            q.start();
+            assertEquals(b[0] + ", " + b[1], planned(b[0], b[1]), drain(q));
+        }
+    }
+
+    @Test public void reboundParametersMatchFreshPlans() throws Exception {
+        tables();
+        TransactionId tid = new TransactionId();
+        PreparedQuery q = Parser.prepare(plan("?1", "?2"), 2, tid);
+        assertEquals(2, q.getParameterCount());
+        checkBindings(q);
+        // starting again with the same values reads the rows again
+        q.start();
+        assertEquals(planned(0, 200), drain(q));
+        q.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void reboundIndexScansMatchFreshPlans() throws Exception {
+        tables();
+        Database.getCatalog().createIndex("f2", "orders", "f2").getFile().getFile().deleteOnExit();
+        TransactionId tid = new TransactionId();
+        PreparedQuery q = Parser.prepare(plan("?1", "?2"), 2, tid);
+        checkBindings(q);
+        q.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void anotherTransactionBuildsTheTreeAgain() throws Exception {
+        tables();
+        TransactionId tid = new TransactionId();
+        PreparedQuery q = Parser.prepare(plan("?1", "?2"), 2, tid);
+        q.setInt(1, 1);
+        q.setInt(2, 100);
+        q.start();
+        assertEquals(planned(1, 100), drain(q));
+        DbIterator first = q.getPhysicalPlan();
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        q.setTransactionId(tid);
+        q.setInt(1, 2);
+        q.start();
+        assertTrue(first != q.getPhysicalPlan());
+        assertEquals(planned(2, 100), drain(q));
+        q.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void badParametersAreRejected() throws Exception {
+        tables();
+        TransactionId tid = new TransactionId();
+        PreparedQuery q = Parser.prepare(plan("?1", "?2"), 2, tid);
+        q.setInt(1, 0);
+        try {
+            q.start();
+            fail("parameter 2 is not bound");
+        } catch (DbException e) {
+        }
+        try {
+            q.setString(2, "x");
+            fail("parameter 2 is an int");
+        } catch (ParsingException e) {
+        }
+        try {
+            q.setInt(3, 0);
+            fail("there is no parameter 3");
+        } catch (ParsingException e) {
+        }
+        q.setInt(2, 5);
+        q.clearParameters();
+        try {
+            q.start();
+            fail("the parameters were cleared");
+        } catch (DbException e) {
+        }
+        try {
+            Parser.prepare(plan("?1", "5"), 2, tid);
+            fail("parameter 2 is not the constant of a filter");
+        } catch (ParsingException e) {
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
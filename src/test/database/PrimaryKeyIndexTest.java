@@ -0,0 +1,150 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class PrimaryKeyIndexTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = TestUtil.intTupleDesc(2);
+
+    private final ArrayList<File> dirs = new ArrayList<File>();
+
+    /** write rows (first + r, r) to f, r < n */
+    private static void write(File f, int first, int n) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int r = 0; r < n; r++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(first + r);
+            tuple.add(r);
+            tuples.add(tuple);
+        }
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+    }
+
+    /** write rows (first + r, r) to f, r < n, and add it as table "t" keyed on f0 */
+    private static HeapFile writeTable(File f, int first, int n) throws Exception {
+        write(f, first, n);
+        return openTable(f);
+    }
+
+    /** add the table stored in f as table "t" keyed on f0 */
+    private static HeapFile openTable(File f) {
+        HeapFile hf = new HeapFile(f, TD);
+        Database.getCatalog().addTable(hf, "t", "f0");
+        return hf;
+    }
+
+    private static RecordId lookup(HeapFile hf, int key) throws Exception {
+        TransactionId tid = new TransactionId();
+        try {
+            return Database.getCatalog().getPrimaryKeyIndex(hf.getId()).lookup(tid, new IntField(key));
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    private static boolean insert(HeapFile hf, int key) throws Exception {
+        TransactionId tid = new TransactionId();
+        try {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), TestUtil.intTuple(TD, key, -1));
+            return true;
+        } catch (DbException e) {
+            return false;
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** check that the index of hf holds exactly the keys first .. first + n - 1 */
+    private static void checkKeys(HeapFile hf, int first, int n) throws Exception {
+        for (int key = first; key < first + n; key++)
+            assertNotNull("key " + key, lookup(hf, key));
+        assertNull(lookup(hf, first - 1));
+        assertNull(lookup(hf, first + n));
+        assertFalse("existing key", insert(hf, first));
+        assertTrue("new key", insert(hf, first + n));
+    }
+
+    /** a new table file in a directory of its own, deleted with its sidecars after the test */
+    private File tableFile() throws Exception {
+        File dir = File.createTempFile("pkeydir", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        dirs.add(dir);
+        return new File(dir, "t.dat");
+    }
+
+    @After public void deleteDirectories() {
+        for (File dir : dirs) {
+            for (File f : dir.listFiles())
+                f.delete();
+            dir.delete();
+        }
+    }
+
+    @Test public void stampedIndexIsReused() throws Exception {
+        File f = tableFile();
+        File sidecar = HashIndexFile.indexFileFor(f);
+        HeapFile hf = writeTable(f, 0, 500);
+        assertTrue(sidecar.exists());
+        assertTrue(IndexStamp.matches(sidecar, f));
+        checkKeys(hf, 0, 500);
+        // the insertion written by checkKeys stamped the index again
+        assertTrue(IndexStamp.matches(sidecar, f));
+
+        long built = sidecar.lastModified();
+        Database.reset();
+        hf = openTable(f);
+        assertEquals(built, sidecar.lastModified());
+        checkKeys(hf, 0, 501);
+    }
+
+    @Test public void changedTableIsIndexedAgain() throws Exception {
+        File f = tableFile();
+        File sidecar = HashIndexFile.indexFileFor(f);
+        HeapFile hf = writeTable(f, 0, 500);
+        checkKeys(hf, 0, 500);
+
+        // the table regenerated with as many rows no longer matches its
+        // index, even though the index was written last
+        Database.reset();
+        write(f, 1000, 500);
+        assertTrue(f.setLastModified(sidecar.lastModified() - 10000));
+        assertFalse(IndexStamp.matches(sidecar, f));
+        hf = openTable(f);
+        assertTrue(IndexStamp.matches(sidecar, f));
+        checkKeys(hf, 1000, 500);
+
+        // so does a table updated behind the back of the buffer pool
+        Database.reset();
+        FileOutputStream out = new FileOutputStream(f, true);
+        out.write(new byte[BufferPool.getPageSize()]);
+        out.close();
+        assertFalse(IndexStamp.matches(sidecar, f));
+        checkKeys(openTable(f), 1000, 501);
+    }
+
+    @Test public void duplicateKeysAreNotIndexed() throws Exception {
+        File f = tableFile();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int r = 0; r < 3000; r++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(r == 2500 ? 7 : r);
+            tuple.add(r);
+            tuples.add(tuple);
+        }
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = openTable(f);
+        assertNull(Database.getCatalog().getPrimaryKeyIndex(hf.getId()));
+        assertFalse(HashIndexFile.indexFileFor(f).exists());
+    }
+}
@@ -0,0 +1,150 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class QueryPlanCacheTest extends SimpleDbTestBase {
+
+    @After public void restoreCapacity() {
+        QueryPlanCache.setCapacity(QueryPlanCache.DEFAULT_CAPACITY);
+        QueryPlanCache.invalidate();
+    }
+
+    /** a plan of table with a filter on f0 and one on f2 */
+    private static LogicalPlan plan(String table, String below, String equal) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(Database.getCatalog().getTableId(table), "c");
+        lp.addFilter("c.f0", Predicate.Op.LESS_THAN, below);
+        lp.addFilter("c.f2", Predicate.Op.EQUALS, equal);
+        lp.addProjectField("c.f0", null);
+        return lp;
+    }
+
+    private static int run(LogicalPlan lp) throws Exception {
+        TransactionId tid = new TransactionId();
+        int n = TestUtil.count(lp.physicalPlan(tid, TableStats.getStatsMap(), false));
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    @Test public void normalizeReplacesConstants() {
+        List<String> constants = new ArrayList<String>();
+        String key = QueryPlanCache.normalize(
+                "SELECT t.f0 FROM t1 t\n WHERE t.f1 = 42 AND  t.f2 > -3.5 AND t.s = 'it''s' ;", constants);
+        assertEquals("SELECT t.f0 FROM t1 t WHERE t.f1 = ? AND t.f2 > ? AND t.s = '?'", key);
+        assertEquals(Arrays.asList("42", "-3.5", "it's"), constants);
+
+        List<String> others = new ArrayList<String>();
+        assertEquals(key, QueryPlanCache.normalize(
+                "SELECT t.f0 FROM t1 t WHERE t.f1 = 7 AND t.f2 > 0 AND t.s = 'x'", others));
+        assertEquals(Arrays.asList("7", "0", "x"), others);
+    }
+
+    @Test public void cachedPlanIsReplannedWithNewConstants() throws Exception {
+        TestUtil.createHeapFile("cached", 3, TestUtil.rows(3000, 3));
+        long epoch = QueryPlanCache.epoch();
+        LogicalPlan lp = plan("cached", "300", "0");
+        assertEquals(100, run(lp));
+        assertTrue(QueryPlanCache.put("key", lp, Arrays.asList("300", "0"), epoch));
+
+        long hits = Metrics.get(QueryPlanCache.HITS);
+        LogicalPlan cached = QueryPlanCache.get("key");
+        assertSame(lp, cached);
+        assertEquals(hits + 1, Metrics.get(QueryPlanCache.HITS));
+        cached.setFilterConstants(Arrays.asList("1200", "2"));
+        TransactionId tid = new TransactionId();
+        assertEquals(400, TestUtil.count(cached.replan(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(400, run(plan("cached", "1200", "2")));
+    }
+
+    @Test public void putRejectsPlansThatCannotBeRebound() throws Exception {
+        TestUtil.createHeapFile("cached", 3, TestUtil.rows(10, 3));
+        LogicalPlan lp = plan("cached", "5", "1");
+        // the constants of the statement are not those of the filters
+        assertFalse(QueryPlanCache.put("key", lp, Arrays.asList("1", "5"), QueryPlanCache.epoch()));
+        assertFalse(QueryPlanCache.put("key", lp, Collections.singletonList("5"), QueryPlanCache.epoch()));
+        // planned before an invalidation
+        long epoch = QueryPlanCache.epoch();
+        QueryPlanCache.invalidate();
+        assertFalse(QueryPlanCache.put("key", lp, Arrays.asList("5", "1"), epoch));
+        assertNull(QueryPlanCache.get("key"));
+        assertTrue(QueryPlanCache.put("key", lp, Arrays.asList("5", "1"), QueryPlanCache.epoch()));
+    }
+
+    @Test public void catalogAndStatisticsChangesInvalidate() throws Exception {
+        HeapFile hf = TestUtil.createHeapFile("cached", 3, TestUtil.rows(10, 3));
+        LogicalPlan lp = plan("cached", "5", "1");
+        List<String> constants = Arrays.asList("5", "1");
+        assertTrue(QueryPlanCache.put("key", lp, constants, QueryPlanCache.epoch()));
+
+        long invalidations = Metrics.get(QueryPlanCache.INVALIDATIONS);
+        long epoch = QueryPlanCache.epoch();
+        TestUtil.createHeapFile("other", 2, TestUtil.rows(10, 2));
+        assertEquals(0, QueryPlanCache.size());
+        assertTrue(QueryPlanCache.epoch() > epoch);
+        assertEquals(invalidations + 1, Metrics.get(QueryPlanCache.INVALIDATIONS));
+
+        // the first statistics of a table do not change any plan made before
+        TableStats.setTableStats("cached", new TableStats(hf.getId(), 1000));
+        assertTrue(QueryPlanCache.put("key", lp, constants, QueryPlanCache.epoch()));
+        TableStats.setTableStats("cached", new TableStats(hf.getId(), 1000));
+        assertEquals(0, QueryPlanCache.size());
+    }
+
+    @Test public void statisticsChangesOnlyDropThePlansOfTheirTable() throws Exception {
+        HeapFile hf = TestUtil.createHeapFile("cached", 3, TestUtil.rows(10, 3));
+        HeapFile other = TestUtil.createHeapFile("other", 3, TestUtil.rows(10, 3));
+        TableStats.setTableStats("cached", new TableStats(hf.getId(), 1000));
+        TableStats.setTableStats("other", new TableStats(other.getId(), 1000));
+        List<String> constants = Arrays.asList("5", "1");
+        long epoch = QueryPlanCache.epoch();
+        LogicalPlan lp = plan("cached", "5", "1");
+        assertTrue(QueryPlanCache.put("cached", lp, constants, epoch));
+        assertTrue(QueryPlanCache.put("other", plan("other", "5", "1"), constants, epoch));
+
+        TableStats.setTableStats("other", new TableStats(other.getId(), 1000));
+        assertTrue(QueryPlanCache.get("cached") != null);
+        assertNull(QueryPlanCache.get("other"));
+        // a plan of the table made before its statistics changed is not cached
+        assertFalse(QueryPlanCache.put("other", plan("other", "5", "1"), constants, epoch));
+        assertTrue(QueryPlanCache.put("cached2", lp, constants, epoch));
+
+        // nor is one made before the whole cache was emptied
+        QueryPlanCache.invalidate();
+        assertEquals(0, QueryPlanCache.size());
+        assertFalse(QueryPlanCache.put("cached", lp, constants, epoch));
+    }
+
+    @Test public void capacityDropsLeastRecentlyUsed() throws Exception {
+        TestUtil.createHeapFile("cached", 3, TestUtil.rows(10, 3));
+        List<String> constants = Arrays.asList("5", "1");
+        QueryPlanCache.setCapacity(2);
+        for (String key : new String[] { "a", "b" })
+            assertTrue(QueryPlanCache.put(key, plan("cached", "5", "1"), constants, QueryPlanCache.epoch()));
+        QueryPlanCache.get("a");
+        QueryPlanCache.put("c", plan("cached", "5", "1"), constants, QueryPlanCache.epoch());
+        assertEquals(2, QueryPlanCache.size());
+        assertNull(QueryPlanCache.get("b"));
+        assertTrue(QueryPlanCache.get("a") != null);
+        assertTrue(QueryPlanCache.get("c") != null);
+
+        QueryPlanCache.setCapacity(1);
+        assertNull(QueryPlanCache.get("a"));
+        QueryPlanCache.setCapacity(0);
+        assertEquals(0, QueryPlanCache.size());
+        QueryPlanCache.put("a", plan("cached", "5", "1"), constants, QueryPlanCache.epoch());
+        assertEquals(0, QueryPlanCache.size());
+    }
+}
@@ -0,0 +1,178 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+
+    private final ArrayList<File> dirs = new ArrayList<File>();
+
+    @After public void deleteDirectories() {
+        for (File dir : dirs) {
+            for (File f : dir.listFiles())
+                f.delete();
+            dir.delete();
+        }
+    }
+
+    /** 3000 rows (r, r % 2, r % 3) with an index on f2 */
+    private static SecondaryIndex indexedTable() throws Exception {
+        TestUtil.createHeapFile("indexed", 3, TestUtil.rows(3000, 3));
+        SecondaryIndex index = Database.getCatalog().createIndex("f2", "indexed", "f2");
+        index.getFile().getFile().deleteOnExit();
+        return index;
+    }
+
+    /** check the index entries of key against the tuples of the table */
+    private static int check(SecondaryIndex index, int key) throws Exception {
+        TransactionId tid = new TransactionId();
+        IntField operand = new IntField(key);
+        List<List<Integer>> indexed = TestUtil.readInts(
+                new IndexScan(tid, index.getTableId(), "i", index.getField(), Predicate.Op.EQUALS, operand));
+        List<List<Integer>> filtered = TestUtil.readInts(new Filter(
+                new Predicate(index.getField(), Predicate.Op.EQUALS, operand),
+                new SeqScan(tid, index.getTableId(), "i")));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(filtered.size(), indexed.size());
+        assertEquals(new HashSet<List<Integer>>(filtered), new HashSet<List<Integer>>(indexed));
+        return indexed.size();
+    }
+
+    private static Tuple row(int... values) {
+        return TestUtil.intTuple(TestUtil.intTupleDesc(3), values);
+    }
+
+    @Test public void buildIndexesExistingRows() throws Exception {
+        SecondaryIndex index = indexedTable();
+        for (int key = 0; key < 3; key++)
+            assertEquals(1000, check(index, key));
+        assertEquals(0, check(index, 3));
+    }
+
+    @Test public void insertsAndDeletesKeepTheIndex() throws Exception {
+        SecondaryIndex index = indexedTable();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 50; i++)
+            Database.getBufferPool().insertTuple(tid, index.getTableId(), row(5000 + i, 0, 7));
+        // delete the rows of key 1 with an even first field
+        DbIterator scan = new IndexScan(tid, index.getTableId(), "i", index.getField(),
+                Predicate.Op.EQUALS, new IntField(1));
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (t.getInt(0) % 2 == 0)
+                doomed.add(t);
+        }
+        scan.close();
+        for (Tuple t : doomed)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(50, check(index, 7));
+        assertEquals(1000 - doomed.size(), check(index, 1));
+        assertEquals(1000, check(index, 2));
+    }
+
+    @Test public void abortRollsBackTheIndex() throws Exception {
+        SecondaryIndex index = indexedTable();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 50; i++)
+            Database.getBufferPool().insertTuple(tid, index.getTableId(), row(5000 + i, 0, 7));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(0, check(index, 7));
+        assertEquals(1000, check(index, 0));
+    }
+
+    @Test public void entriesTheTableDisagreesWithAreSkipped() throws Exception {
+        SecondaryIndex index = indexedTable();
+        // an entry of key 7 naming the first tuple, whose key is 0
+        Tuple e = new Tuple(index.getFile().getTupleDesc());
+        e.setField(0, new IntField(7));
+        e.setInt(1, 0);
+        e.setInt(2, 0);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, index.getFile().getId(), e);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(0, check(index, 7));
+        assertEquals(1000, check(index, 0));
+    }
+
+    /** Write n rows (r, r % 2, r % 3) to the heap file of table name in dir */
+    private static void writeTable(File dir, String name, int n) throws IOException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int[] row : TestUtil.rows(n, 3)) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            for (int v : row)
+                tuple.add(v);
+            tuples.add(tuple);
+        }
+        HeapFileEncoder.convert(tuples, new File(dir, name + ".dat"), BufferPool.getPageSize(), 3);
+    }
+
+    private static String readLine(File f) throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(f));
+        try {
+            return br.readLine();
+        } finally {
+            br.close();
+        }
+    }
+
+    @Test public void createdIndexesAreOpenedWithTheSchema() throws Exception {
+        File dir = File.createTempFile("indexes", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        dirs.add(dir);
+        writeTable(dir, "keyed", 3000);
+        File schema = new File(dir, "schema.txt");
+        FileWriter w = new FileWriter(schema);
+        w.write("keyed (f0 int, f1 int, f2 int) index f1\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        Database.getCatalog().createIndex("by_f2", "keyed", "f2");
+        assertEquals("keyed (f0 int, f1 int, f2 int) index f1 index by_f2:f2", readLine(schema));
+        File table = new File(dir, "keyed.dat");
+        File f = SecondaryIndex.fileFor(table, "by_f2");
+        assertEquals(2, SecondaryIndex.filesFor(table).length);
+        assertTrue(IndexStamp.matches(f, table));
+
+        // an index whose table was only written by the buffer pool is reused
+        int tableid = Database.getCatalog().getTableId("keyed");
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 50; i++)
+            Database.getBufferPool().insertTuple(tid, tableid, row(5000 + i, 0, 7));
+        Database.getBufferPool().transactionComplete(tid);
+        long built = f.lastModified();
+        Database.reset();
+        Database.getCatalog().loadSchema(schema.getPath());
+        SecondaryIndex index = Database.getCatalog().getIndex(tableid, 2);
+        assertEquals("by_f2", index.getName());
+        assertEquals(built, f.lastModified());
+        assertEquals(50, check(index, 7));
+        assertEquals(1000, check(index, 0));
+
+        // one whose table was regenerated is built again
+        Database.reset();
+        writeTable(dir, "keyed", 600);
+        assertTrue(table.setLastModified(built - 10000));
+        assertFalse(IndexStamp.matches(f, table));
+        Database.getCatalog().loadSchema(schema.getPath());
+        index = Database.getCatalog().getIndex(tableid, 2);
+        assertEquals(0, check(index, 7));
+        assertEquals(200, check(index, 0));
+        assertEquals(300, check(Database.getCatalog().getIndex(tableid, 1), 1));
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SeqScanBatchTest extends SimpleDbTestBase {
+
+    /** @return the rows of the scan read a tuple at a time, as strings */
+    private static List<String> rows(SeqScan scan) throws Exception {
+        List<String> rows = new ArrayList<String>();
+        scan.open();
+        while (scan.hasNext())
+            rows.add(scan.next().toString());
+        scan.close();
+        return rows;
+    }
+
+    /** @return the rows of the scan read in batches, as strings */
+    private static List<String> batches(SeqScan scan) throws Exception {
+        List<String> rows = new ArrayList<String>();
+        scan.open();
+        TupleBatch b;
+        while ((b = scan.nextBatch()) != null) {
+            assertTrue(b.size() <= b.capacity());
+            for (int r = b.nextSelected(0); r >= 0; r = b.nextSelected(r + 1))
+                rows.add(b.getTuple(r).toString());
+        }
+        scan.close();
+        return rows;
+    }
+
+    @Test public void batchesSkipDeletedSlots() throws Exception {
+        HeapFile hf = TestUtil.createHeapFile("batch", 3, TestUtil.rows(3000, 3));
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "b");
+        scan.open();
+        int r = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (r++ % 7 == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        scan.close();
+
+        List<String> expected = rows(new SeqScan(tid, hf.getId(), "b"));
+        assertEquals(3000 - 3000 / 7 - 1, expected.size());
+        assertEquals(expected, batches(new SeqScan(tid, hf.getId(), "b")));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void batchesOfSlottedPages() throws Exception {
+        File f = TestUtil.createTableFile("slotted");
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "s" });
+        HeapFile hf = new HeapFile(f, td, HeapFile.FORMAT_SLOTTED);
+        Database.getCatalog().addTable(hf, "slotted");
+        TransactionId tid = new TransactionId();
+        StringBuilder s = new StringBuilder();
+        for (int r = 0; r < 2000; r++) {
+            Tuple t = new Tuple(td);
+            t.setInt(0, r);
+            t.setString(1, s.toString());
+            s.append((char) ('a' + r % 26));
+            if (s.length() > 40)
+                s.setLength(0);
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        List<String> expected = rows(new SeqScan(tid, hf.getId(), "s"));
+        assertEquals(2000, expected.size());
+        assertEquals(expected, batches(new SeqScan(tid, hf.getId(), "s")));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void partitionedBatchesCoverTheTable() throws Exception {
+        HeapFile hf = TestUtil.createHeapFile("parts", 2, TestUtil.rows(5000, 2));
+        TransactionId tid = new TransactionId();
+        List<String> all = new ArrayList<String>();
+        for (int p = 0; p < 3; p++)
+            all.addAll(batches(new SeqScan(tid, hf.getId(), "p", p, 3)));
+        assertEquals(rows(new SeqScan(tid, hf.getId(), "p")), all);
+
+        // a rewound scan starts its batches over
+        SeqScan scan = new SeqScan(tid, hf.getId(), "p");
+        scan.open();
+        int first = scan.nextBatch().size();
+        scan.rewind();
+        int n = 0;
+        TupleBatch b;
+        while ((b = scan.nextBatch()) != null)
+            n += b.numSelected();
+        scan.close();
+        assertEquals(TupleBatch.DEFAULT_CAPACITY, first);
+        assertEquals(5000, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
@@ -0,0 +1,15 @@
+package simpledb;
+
+import org.junit.Before;
+
+/**
+ * Base class for the unit tests: every test starts with a fresh Database,
+ * so that tables and the buffer pool of one test do not leak into another.
+ */
+public abstract class SimpleDbTestBase {
+
+    @Before
+    public void resetDatabase() {
+        Database.reset();
+    }
+}
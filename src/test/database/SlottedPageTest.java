@@ -0,0 +1,180 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE,
+            Type.STRING_TYPE, Type.STRING_TYPE, Type.STRING_TYPE });
+
+    /** 128 two-byte characters: four of them do not fit in one record */
+    private static final String LONG;
+    static {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN; i++)
+            sb.append('é');
+        LONG = sb.toString();
+    }
+
+    private static HeapFile emptyTable() throws Exception {
+        File f = TestUtil.createTableFile("slotted");
+        HeapFile hf = new HeapFile(f, TD, HeapFile.FORMAT_SLOTTED);
+        Database.getCatalog().addTable(hf, "slotted");
+        return hf;
+    }
+
+    private static Tuple tuple(int id, String s) {
+        Tuple t = new Tuple(TD);
+        t.setInt(0, id);
+        for (int i = 1; i < 5; i++)
+            t.setString(i, s);
+        return t;
+    }
+
+    private static List<Tuple> scan(HeapFile hf) throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+
+    @Test public void committedOverflowStringsAreReadBack() throws Exception {
+        HeapFile hf = emptyTable();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 20; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, i % 4 == 0 ? LONG : "s" + i));
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        List<Tuple> tuples = scan(hf);
+        assertEquals(20, tuples.size());
+        for (Tuple t : tuples) {
+            int i = t.getInt(0);
+            assertEquals(i % 4 == 0 ? LONG : "s" + i, t.getString(1));
+            assertEquals(i % 4 == 0 ? LONG : "s" + i, t.getString(4));
+        }
+    }
+
+    private static int unsetFields(Tuple t) {
+        int n = 0;
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+            if (t.isNull(i))
+                n++;
+        return n;
+    }
+
+    @Test public void overflowStringsAreReadThroughTheBufferPool() throws Exception {
+        HeapFile hf = emptyTable();
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(0, LONG));
+        Database.getBufferPool().transactionComplete(tid);
+        HeapPageId first = new HeapPageId(hf.getId(), 0);
+
+        // decoding the page does not read its overflow pages
+        HeapPage page = (HeapPage) hf.readPage(first);
+        assertEquals(1, unsetFields(page.iterator().next()));
+        assertEquals(1, unsetFields(page.getBeforeImage().iterator().next()));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        page = (HeapPage) Database.getBufferPool().getPage(tid, first, Permissions.READ_ONLY);
+        Tuple t = page.iterator().next();
+        assertEquals(0, unsetFields(t));
+        for (int i = 1; i < 5; i++)
+            assertEquals(LONG, t.getString(i));
+        // the overflow page was read and locked on behalf of tid
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), 1)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void abortedOverflowPagesAreReused() throws Exception {
+        HeapFile hf = emptyTable();
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(0, LONG));
+        int pages = hf.numPages();
+        assertTrue("a data page and overflow pages", pages >= 2);
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(0, scan(hf).size());
+
+        // the pages allocated by the aborted insert are empty pages, which
+        // the next inserts fill
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        int n = 0;
+        while (hf.numPages() == pages)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(++n, "s"));
+        for (int p = 1; p < pages; p++) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+            assertTrue("page " + p + " holds tuples", page.iterator().hasNext());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(n, scan(hf).size());
+    }
+
+    @Test public void longStringsShareOverflowPages() throws Exception {
+        HeapFile hf = emptyTable();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 15; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, LONG));
+        Database.getBufferPool().transactionComplete(tid);
+        // 60 strings of 256 bytes: a data page and a few overflow pages
+        assertTrue(hf.numPages() + " pages", hf.numPages() <= 6);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        List<Tuple> tuples = scan(hf);
+        assertEquals(15, tuples.size());
+        for (Tuple t : tuples) {
+            for (int i = 1; i < 5; i++)
+                assertEquals(LONG, t.getString(i));
+        }
+    }
+
+    @Test public void encodedLongStringsShareOverflowPages() throws Exception {
+        // records of nine strings of 128 bytes move two of them to overflow pages
+        Type[] types = new Type[10];
+        Arrays.fill(types, Type.STRING_TYPE);
+        types[0] = Type.INT_TYPE;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN; i++)
+            sb.append((char) ('a' + i % 26));
+        String s = sb.toString();
+        File text = File.createTempFile("encoded", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < 16; i++) {
+            w.write(String.valueOf(i));
+            for (int j = 1; j < types.length; j++)
+                w.write("," + s);
+            w.write("\n");
+        }
+        w.close();
+        File f = TestUtil.createTableFile("encoded");
+        HeapFileEncoder.convertSlotted(text, f, types, ',');
+        HeapFile hf = new HeapFile(f, new TupleDesc(types), HeapFile.FORMAT_SLOTTED);
+        Database.getCatalog().addTable(hf, "encoded");
+        // four data pages, each followed by one overflow page
+        assertEquals(8, hf.numPages());
+
+        List<Tuple> tuples = scan(hf);
+        assertEquals(16, tuples.size());
+        for (Tuple t : tuples) {
+            for (int j = 1; j < types.length; j++)
+                assertEquals(s, t.getString(j));
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TableStatsTest extends SimpleDbTestBase {
+
+    private final ArrayList<File> dirs = new ArrayList<File>();
+
+    @After public void restoreSampleSize() {
+        TableStats.setSampleSize(TableStats.DEFAULT_SAMPLE_SIZE);
+    }
+
+    @After public void deleteDirectories() {
+        for (File dir : dirs) {
+            for (File f : dir.listFiles())
+                f.delete();
+            dir.delete();
+        }
+    }
+
+    private File newDirectory() throws IOException {
+        File dir = File.createTempFile("stats", "");
+        dir.delete();
+        dir.mkdir();
+        dirs.add(dir);
+        return dir;
+    }
+
+    /** Write n rows (r, r % 2) to the heap file of table name in dir */
+    private static void writeTable(File dir, String name, int n) throws IOException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int[] row : TestUtil.rows(n, 2)) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(row[0]);
+            tuple.add(row[1]);
+            tuples.add(tuple);
+        }
+        HeapFileEncoder.convert(tuples, new File(dir, name + ".dat"), BufferPool.getPageSize(), 2);
+    }
+
+    /** Copy the files of from to to, keeping their modification times */
+    private static void copy(File from, File to) throws IOException {
+        byte[] buf = new byte[8192];
+        for (File f : from.listFiles()) {
+            File copy = new File(to, f.getName());
+            InputStream in = new FileInputStream(f);
+            OutputStream out = new FileOutputStream(copy);
+            try {
+                int n;
+                while ((n = in.read(buf)) > 0)
+                    out.write(buf, 0, n);
+            } finally {
+                in.close();
+                out.close();
+            }
+            copy.setLastModified(f.lastModified());
+        }
+    }
+
+    private static void insert(HeapFile hf, int n) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < n; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), TestUtil.intTuple(hf.getTupleDesc(), 5000 + i, 0));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void modifyingATableDoesNotBuildItsStats() throws Exception {
+        // the inserting transaction holds the pages a scan of the tree would wait for
+        BTreeFile bf = TestUtil.createBTreeFile("stats_btree", 2, 0, TestUtil.rows(2000, 2));
+        assertNull(TableStats.getStatsMap().get("stats_btree"));
+        assertEquals(2000, TableStats.getTableStats("stats_btree").totalTuples());
+        assertEquals(bf.getId(), TableStats.getTableStats("stats_btree").tableid);
+    }
+
+    @Test public void loadedStatsCountModifications() throws Exception {
+        HeapFile hf = TestUtil.createHeapFile("stats_heap", 2, TestUtil.rows(1000, 2));
+        insert(hf, 10);
+        assertNull(TableStats.getStatsMap().get("stats_heap"));
+        TableStats s = TableStats.getTableStats("stats_heap");
+        assertEquals(1010, s.totalTuples());
+        assertEquals(0, s.modifications());
+
+        insert(hf, 20);
+        assertEquals(1030, s.totalTuples());
+        assertEquals(20, s.modifications());
+        assertEquals(5019, ((IntField) s.max(0)).getValue());
+
+        TableStats analyzed = TableStats.analyze("stats_heap");
+        assertNotSame(s, analyzed);
+        assertEquals(1030, analyzed.totalTuples());
+        assertEquals(0, analyzed.modifications());
+    }
+
+    /**
+     * 60000 rows whose f0 is a permutation of 0..59999, so that every page
+     * holds values from the whole range, and whose f1 is 0 on even rows and
+     * f0 on odd ones
+     */
+    private static HeapFile spreadTable(String name) throws Exception {
+        int[][] rows = new int[60000][];
+        for (int r = 0; r < rows.length; r++) {
+            int v = (int) ((r * 7919L) % rows.length);
+            rows[r] = new int[] { v, r % 2 == 0 ? 0 : v, r % 3 };
+        }
+        return TestUtil.createHeapFile(name, 3, rows);
+    }
+
+    @Test public void largeTablesAreSampled() throws Exception {
+        HeapFile hf = spreadTable("sampled");
+        TableStats.setSampleSize(6000);
+        TableStats s = new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+        assertTrue(s.isSampled());
+        assertEquals(60000, s.totalTuples(), 3000);
+        assertEquals(60000, s.numDistinct(0), 6000);
+        assertEquals(3, s.numDistinct(2));
+        assertEquals(0.25, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(15000)), 0.03);
+        assertEquals(1.0 / 3, s.estimateSelectivity(2, Predicate.Op.EQUALS, new IntField(1)), 0.03);
+
+        TableStats.setSampleSize(Integer.MAX_VALUE);
+        TableStats full = new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+        assertFalse(full.isSampled());
+        assertEquals(60000, full.totalTuples());
+        assertEquals(60000, full.numDistinct(0), 3000);
+        assertEquals(hf.numPages(), full.numPages());
+    }
+
+    @Test public void sampledSkewedColumns() throws Exception {
+        HeapFile hf = spreadTable("skewed");
+        TableStats.setSampleSize(6000);
+        TableStats s = new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+        assertTrue(s.isSampled());
+        assertEquals(0.5, s.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(0)), 0.03);
+        assertEquals(0.25, s.estimateSelectivity(1, Predicate.Op.GREATER_THAN, new IntField(30000)), 0.03);
+        // the values seen once in the sample are extrapolated: GEE may
+        // underestimate them by up to the square root of the sampling rate
+        int distinct = s.numDistinct(1);
+        assertTrue(distinct + " distinct", distinct > 30001 / 4 && distinct < 30001 * 3 / 2);
+    }
+
+    @Test public void statsArePersistedAcrossRestarts() throws Exception {
+        File dir = newDirectory();
+        writeTable(dir, "a", 3000);
+        writeTable(dir, "b", 5000);
+        File schema = new File(dir, "schema.txt");
+        FileWriter w = new FileWriter(schema);
+        w.write("a (f0 int, f1 int)\nb (f0 int, f1 int)\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        TableStats.computeStatistics();
+        assertEquals(new File(dir, "schema.stats"), Database.getCatalog().getStatsFile());
+        assertTrue(Database.getCatalog().getStatsFile().exists());
+        HeapFile b = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("b"));
+        // the stats file is written while the insertions into b are not on disk yet
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++)
+            Database.getBufferPool().insertTuple(tid, b.getId(), TestUtil.intTuple(b.getTupleDesc(), 5000 + i, 0));
+        TableStats.analyze("a");
+        Database.getBufferPool().transactionComplete(tid);
+        TableStats.awaitBackgroundWork();
+
+        // restart on a copy of the database, whose table a was rewritten
+        File copy = newDirectory();
+        copy(dir, copy);
+        writeTable(copy, "a", 4000);
+        Database.reset();
+        TableStats.setStatsMap(new HashMap<String, TableStats>());
+        Database.getCatalog().loadSchema(new File(copy, "schema.txt").getPath());
+        TableStats.computeStatistics();
+
+        // the stats of b are read back, with the insertions counted since they were built
+        TableStats sb = TableStats.getStatsMap().get("b");
+        assertEquals(5010, sb.totalTuples());
+        assertEquals(10, sb.modifications());
+        assertEquals(5009, ((IntField) sb.max(0)).getValue());
+        assertEquals(0.5, sb.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(1)), 0.01);
+        // those of a no longer describe its file
+        TableStats sa = TableStats.getStatsMap().get("a");
+        assertEquals(4000, sa.totalTuples());
+        assertEquals(0, sa.modifications());
+    }
+}
@@ -0,0 +1,145 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Helpers to build tables and read query results in the unit tests. */
+public class TestUtil {
+
+    /** @return a TupleDesc of columns int fields named f0, f1, ... */
+    public static TupleDesc intTupleDesc(int columns) {
+        Type[] types = new Type[columns];
+        String[] names = new String[columns];
+        for (int i = 0; i < columns; i++) {
+            types[i] = Type.INT_TYPE;
+            names[i] = "f" + i;
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /** @return a tuple of td holding the ints values */
+    public static Tuple intTuple(TupleDesc td, int... values) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < values.length; i++)
+            t.setField(i, new IntField(values[i]));
+        return t;
+    }
+
+    /** @return an iterator over rows of ints, each row a tuple */
+    public static TupleIterator intIterator(int columns, int[]... rows) {
+        TupleDesc td = intTupleDesc(columns);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int[] row : rows)
+            tuples.add(intTuple(td, row));
+        return new TupleIterator(td, tuples);
+    }
+
+    /**
+     * @return a new temporary file to store a table in, deleted on exit
+     *         together with the sidecars the table may get next to it
+     */
+    public static File createTableFile(String name) throws IOException {
+        File f = File.createTempFile(name, ".dat");
+        f.deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        HashIndexFile.indexFileFor(f).deleteOnExit();
+        CompressedPageStore.tableFileFor(f).deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Write rows of ints to a temporary heap file and add it to the catalog
+     * as name, without a primary key.
+     */
+    public static HeapFile createHeapFile(String name, int columns, int[][] rows) throws IOException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int[] row : rows) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            for (int v : row)
+                tuple.add(v);
+            tuples.add(tuple);
+        }
+        File f = createTableFile(name);
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), columns);
+        HeapFile hf = new HeapFile(f, intTupleDesc(columns));
+        Database.getCatalog().addTable(hf, name, "");
+        return hf;
+    }
+
+    /**
+     * Insert rows of ints into a new BTreeFile ordered on keyField and add it
+     * to the catalog as name.
+     */
+    public static BTreeFile createBTreeFile(String name, int columns, int keyField, int[][] rows)
+            throws IOException, DbException, TransactionAbortedException {
+        File f = createTableFile(name);
+        TupleDesc td = intTupleDesc(columns);
+        BTreeFile bf = new BTreeFile(f, keyField, td);
+        Database.getCatalog().addTable(bf, name, "");
+        TransactionId tid = new TransactionId();
+        for (int[] row : rows)
+            Database.getBufferPool().insertTuple(tid, bf.getId(), intTuple(td, row));
+        Database.getBufferPool().transactionComplete(tid);
+        return bf;
+    }
+
+    /** @return the first operator of class c in plan, or null */
+    public static <T> T find(DbIterator plan, Class<T> c) {
+        if (c.isInstance(plan))
+            return c.cast(plan);
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                T found = child == null ? null : find(child, c);
+                if (found != null)
+                    return found;
+            }
+        }
+        return null;
+    }
+
+    /** @return rows rows of columns ints, row r holding r, r % 2, r % 3, ... */
+    public static int[][] rows(int rows, int columns) {
+        int[][] result = new int[rows][columns];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++)
+                result[r][c] = c == 0 ? r : r % (c + 1);
+        }
+        return result;
+    }
+
+    /** Open it, read all of its tuples as rows of ints, null for unset fields, and close it */
+    public static List<List<Integer>> readInts(DbIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> rows = new ArrayList<List<Integer>>();
+        it.open();
+        try {
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                Integer[] row = new Integer[t.getTupleDesc().numFields()];
+                for (int i = 0; i < row.length; i++)
+                    row[i] = t.isNull(i) ? null : t.getInt(i);
+                rows.add(Arrays.asList(row));
+            }
+        } finally {
+            it.close();
+        }
+        return rows;
+    }
+
+    /** Open it, count its tuples and close it */
+    public static int count(DbIterator it) throws DbException, TransactionAbortedException {
+        int n = 0;
+        it.open();
+        try {
+            while (it.hasNext()) {
+                it.next();
+                n++;
+            }
+        } finally {
+            it.close();
+        }
+        return n;
+    }
+}
@@ -0,0 +1,95 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TopNTest extends SimpleDbTestBase {
+
+    /** counts the tuples read from it */
+    private static class CountingIterator extends TupleIterator {
+        private static final long serialVersionUID = 1L;
+        int read = 0;
+
+        CountingIterator(int columns, int[]... rows) {
+            super(TestUtil.intTupleDesc(columns), TestUtil.intIterator(columns, rows).tuples);
+        }
+
+        @Override public Tuple next() {
+            read++;
+            return super.next();
+        }
+    }
+
+    private static int[][] shuffled(int n) {
+        int[][] rows = TestUtil.rows(n, 2);
+        Random r = new Random(7);
+        for (int i = n - 1; i > 0; i--) {
+            int j = r.nextInt(i + 1);
+            int[] t = rows[i];
+            rows[i] = rows[j];
+            rows[j] = t;
+        }
+        return rows;
+    }
+
+    private static List<Integer> column(List<List<Integer>> rows, int field) {
+        List<Integer> values = new ArrayList<Integer>();
+        for (List<Integer> row : rows)
+            values.add(row.get(field));
+        return values;
+    }
+
+    @Test public void keepsTheTopTuplesOfUnorderedInput() throws Exception {
+        int[][] rows = shuffled(1000);
+        TopN asc = new TopN(0, true, 4, TestUtil.intIterator(2, rows));
+        assertFalse(asc.isStreaming());
+        assertEquals(Arrays.asList(0, 1, 2, 3), column(TestUtil.readInts(asc), 0));
+        TopN desc = new TopN(0, false, 3, TestUtil.intIterator(2, rows));
+        assertEquals(Arrays.asList(999, 998, 997), column(TestUtil.readInts(desc), 0));
+        assertEquals(0, TestUtil.count(new TopN(0, true, 0, TestUtil.intIterator(2, rows))));
+        assertEquals(1000, TestUtil.count(new TopN(0, true, 5000, TestUtil.intIterator(2, rows))));
+    }
+
+    @Test public void plainLimitStopsReadingItsChild() throws Exception {
+        CountingIterator child = new CountingIterator(2, shuffled(1000));
+        TopN limit = new TopN(3, child);
+        assertTrue(limit.isStreaming());
+        assertEquals(3, TestUtil.count(limit));
+        assertEquals(3, child.read);
+    }
+
+    @Test public void orderedChildIsStreamed() throws Exception {
+        TopN t = new TopN(0, true, 5, new OrderBy(0, true, TestUtil.intIterator(2, shuffled(100))));
+        assertTrue(t.isStreaming());
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), column(TestUtil.readInts(t), 0));
+        assertFalse(new TopN(0, false, 5, new OrderBy(0, true, TestUtil.intIterator(2))).isStreaming());
+        assertFalse(new TopN(1, true, 5, new OrderBy(0, true, TestUtil.intIterator(2))).isStreaming());
+    }
+
+    @Test public void orderByKeyOfBTreeStreamsItsScan() throws Exception {
+        int[][] rows = shuffled(3000);
+        BTreeFile bf = TestUtil.createBTreeFile("ordered", 2, 0, rows);
+        for (boolean asc : new boolean[] { true, false }) {
+            LogicalPlan lp = new LogicalPlan();
+            lp.addScan(bf.getId(), "t");
+            lp.addFilter("t.f1", Predicate.Op.EQUALS, "0");
+            lp.addProjectField("t.f0", null);
+            lp.addOrderBy("t.f0", asc);
+            lp.setLimit(3);
+            TransactionId tid = new TransactionId();
+            DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+            assertEquals(asc, TestUtil.find(plan, TopN.class).isStreaming());
+            List<Integer> expected = asc ? Arrays.asList(0, 2, 4) : Arrays.asList(2998, 2996, 2994);
+            assertEquals(expected, column(TestUtil.readInts(plan), 0));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+}
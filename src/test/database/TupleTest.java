@@ -0,0 +1,136 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TupleTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE,
+            Type.INT_TYPE, Type.STRING_TYPE });
+
+    private static Tuple tuple(int a, String b, int c, String d) {
+        Tuple t = new Tuple(TD);
+        t.setInt(0, a);
+        t.setString(1, b);
+        t.setInt(2, c);
+        t.setString(3, d);
+        return t;
+    }
+
+    @Test public void typedAccessorsMatchFields() {
+        Tuple t = tuple(-4, "héllo", 9, "");
+        assertEquals(new IntField(-4), t.getField(0));
+        assertEquals("héllo", ((StringField) t.getField(1)).getValue());
+        assertEquals("héllo", t.getString(1));
+        assertEquals("", t.getString(3));
+        // setting a value replaces the Field handed out before
+        t.setString(1, "x");
+        assertEquals("x", ((StringField) t.getField(1)).getValue());
+        t.setField(2, new IntField(11));
+        assertEquals(11, t.getInt(2));
+
+        t.setField(1, null);
+        assertTrue(t.isNull(1));
+        assertNull(t.getField(1));
+        assertNull(t.getString(1));
+        t.clear();
+        for (int i = 0; i < TD.numFields(); i++)
+            assertTrue(t.isNull(i));
+        t.setString(3, "again");
+        assertEquals("again", t.getString(3));
+    }
+
+    @Test public void manyFieldsHaveTheirOwnSetBits() {
+        Type[] types = new Type[70];
+        Arrays.fill(types, Type.INT_TYPE);
+        Tuple t = new Tuple(new TupleDesc(types));
+        for (int i = 0; i < types.length; i += 3)
+            t.setInt(i, i);
+        for (int i = 0; i < types.length; i++) {
+            assertEquals("field " + i, i % 3 != 0, t.isNull(i));
+            if (i % 3 == 0)
+                assertEquals(i, t.getInt(i));
+        }
+    }
+
+    @Test public void derivedTuplesDoNotShareChanges() {
+        Tuple t = tuple(1, "one", 2, "two");
+        TupleDesc pd = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        Tuple p = t.project(pd, new int[] { 3, 0 });
+        assertEquals("two", p.getString(0));
+        assertEquals(1, p.getInt(1));
+
+        Tuple other = tuple(3, "three", 4, "four");
+        Tuple m = Tuple.merge(TupleDesc.merge(pd, TD), p, other);
+        assertEquals("two", m.getString(0));
+        assertEquals("three", m.getString(3));
+        assertEquals("four", m.getString(5));
+
+        // writing to any of them leaves the others as they were
+        p.setString(0, "changed");
+        t.setString(1, "ONE");
+        m.setString(3, "THREE");
+        assertEquals(tuple(1, "ONE", 2, "two"), t);
+        assertEquals("changed", p.getString(0));
+        assertEquals("two", m.getString(0));
+        assertEquals(tuple(3, "three", 4, "four"), other);
+        assertEquals("THREE", m.getString(3));
+    }
+
+    @Test public void equalTuplesHashAlike() {
+        Tuple t = tuple(1, "a", 2, "b");
+        Tuple u = tuple(1, "zzz", 2, "b");
+        u.setString(1, "a");
+        assertEquals(t, u);
+        assertEquals(t.hashCode(), u.hashCode());
+        u.setField(3, null);
+        assertFalse(t.equals(u));
+    }
+
+    @Test public void writtenFieldsMatchFieldSerialization() throws Exception {
+        Tuple t = tuple(Integer.MIN_VALUE, "plain", 7, "ünïcode");
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(expected);
+        for (int i = 0; i < TD.numFields(); i++)
+            t.getField(i).serialize(dos);
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        t.writeFields(new DataOutputStream(written));
+        assertArrayEquals(expected.toByteArray(), written.toByteArray());
+        assertEquals(TD.getFixedSize(), written.size());
+
+        // non-ASCII strings are read back the way Type.parse reads them
+        Tuple read = new Tuple(TD);
+        read.readFields(new DataInputStream(new ByteArrayInputStream(written.toByteArray())));
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(written.toByteArray()));
+        for (int i = 0; i < TD.numFields(); i++)
+            assertEquals(TD.getFieldType(i).parse(dis), read.getField(i));
+    }
+
+    @Test public void setFieldsRoundTrip() throws Exception {
+        Tuple t = new Tuple(TD);
+        t.setInt(2, 5);
+        t.setString(3, "only");
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        int size = t.writeSetFields(new DataOutputStream(written));
+        assertEquals(written.size(), size);
+        assertEquals(4 + Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen(), size);
+
+        Tuple read = tuple(1, "stale", 1, "stale");
+        read.clear();
+        read.readSetFields(new DataInputStream(new ByteArrayInputStream(written.toByteArray())));
+        assertTrue(read.isNull(0));
+        assertTrue(read.isNull(1));
+        assertEquals(t, read);
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static Predicate[] equals(int field, int value) {
+        return new Predicate[] { new Predicate(field, Predicate.Op.EQUALS, new IntField(value)) };
+    }
+
+    /** a table of 2000 rows over 4 pages, its zone map filled by a scan */
+    private static HeapFile scannedTable() throws Exception {
+        HeapFile hf = TestUtil.createHeapFile("zones", 2, TestUtil.rows(2000, 2));
+        assertEquals(4, hf.numPages());
+        // scans with predicates fill in the zone map of the pages they read
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "z");
+        scan.setZonePredicates(equals(1, 0));
+        assertEquals(2000, TestUtil.count(scan));
+        Database.getBufferPool().transactionComplete(tid);
+        return hf;
+    }
+
+    @Test public void scannedPagesAreSkipped() throws Exception {
+        HeapFile hf = scannedTable();
+        ZoneMap zm = hf.getZoneMap();
+        assertTrue(zm.mayMatch(0, equals(0, 5)));
+        assertFalse(zm.mayMatch(3, equals(0, 5)));
+        assertTrue(zm.mayMatch(3, equals(0, 1999)));
+        assertFalse(zm.mayMatch(0, equals(0, 1999)));
+        // f1 holds 0 and 1 on every page
+        assertFalse(zm.mayMatch(2, equals(1, 2)));
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "z");
+        scan.setZonePredicates(equals(0, 1999));
+        assertEquals(TestUtil.readInts(new Filter(equals(0, 1999), new SeqScan(tid, hf.getId(), "z"))),
+                TestUtil.readInts(new Filter(equals(0, 1999), scan)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void summariesSurviveReopening() throws Exception {
+        HeapFile hf = scannedTable();
+        hf.getZoneMap().close();
+        ZoneMap reopened = new ZoneMap(hf.getFile(), hf.getTupleDesc());
+        assertFalse(reopened.mayMatch(3, equals(0, 5)));
+        assertTrue(reopened.mayMatch(0, equals(0, 5)));
+
+        // a page marked unknown is unknown to the next reader too
+        hf.getZoneMap().invalidate(3);
+        hf.getZoneMap().close();
+        reopened = new ZoneMap(hf.getFile(), hf.getTupleDesc());
+        assertTrue(reopened.mayMatch(3, equals(0, 5)));
+        assertFalse(reopened.mayMatch(2, equals(0, 5)));
+    }
+
+    @Test public void insertedTuplesUpdateTheSummary() throws Exception {
+        HeapFile hf = scannedTable();
+        assertFalse(hf.getZoneMap().mayMatch(1, equals(0, -7)));
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), TestUtil.intTuple(hf.getTupleDesc(), -7, 0));
+        Database.getBufferPool().transactionComplete(tid);
+        int matching = 0;
+        for (int p = 0; p < hf.numPages(); p++) {
+            if (hf.getZoneMap().mayMatch(p, equals(0, -7)))
+                matching++;
+        }
+        assertEquals(1, matching);
+    }
+
+    @Test public void deleteRemovesTheSidecar() throws Exception {
+        HeapFile hf = scannedTable();
+        assertTrue(ZoneMap.fileFor(hf.getFile()).exists());
+        hf.getZoneMap().delete();
+        assertFalse(ZoneMap.fileFor(hf.getFile()).exists());
+        assertTrue(hf.getZoneMap().mayMatch(3, equals(0, 5)));
+    }
+}